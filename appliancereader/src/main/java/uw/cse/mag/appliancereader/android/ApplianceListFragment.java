@@ -13,7 +13,8 @@ import android.widget.ImageButton;
 import android.widget.ListView;
 import android.widget.TextView;
 
-//import org.uw.cse.mag.ar.data.Appliance;
+import org.uw.cse.mag.ar.data.Appliance;
+import org.uw.cse.mag.ar.data.DefaultApplianceDataSource;
 
 import java.util.List;
 
@@ -33,7 +34,7 @@ public class ApplianceListFragment extends ListFragment {
      *
      * TODO: Make this more generic when we are able to hook into Database
      */
-//	private DefaultApplianceDataSource dataSource;
+	private DefaultApplianceDataSource dataSource;
 
     @Override
     public void onAttach(Activity activity) {
@@ -48,9 +49,9 @@ public class ApplianceListFragment extends ListFragment {
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-//        dataSource = mListener.getDataSource();
-//        ArrayAdapter<Appliance> adapter = new ApplianceListAdapter(getActivity(), dataSource.getAllAppliances());
-//        setListAdapter(adapter);
+        dataSource = mListener.getDataSource();
+        ArrayAdapter<Appliance> adapter = new ApplianceListAdapter(getActivity(), dataSource.getAllAppliances());
+        setListAdapter(adapter);
     }
 
     @Override
@@ -75,7 +76,7 @@ public class ApplianceListFragment extends ListFragment {
          *
          * @return The DataSource for obtaining appliances
          */
-//        public DefaultApplianceDataSource getDataSource();
+        public DefaultApplianceDataSource getDataSource();
 
         /**
          * Notifies that Activity that an appliance was selected.
@@ -23,7 +23,14 @@
 
 package org.uw.cse.mag.ar;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -34,10 +41,25 @@ import android.os.Looper;
 import android.os.Message;
 import android.view.SurfaceView;
 
+import org.uw.cse.mag.ar.barcode.BarcodeScanner;
+import org.uw.cse.mag.ar.data.Appliance;
+import org.uw.cse.mag.ar.data.ApplianceFeature;
+import org.uw.cse.mag.ar.data.DisplayFeature;
+import org.uw.cse.mag.ar.display.DisplayRegion;
+import org.uw.cse.mag.ar.recognition.RecognitionIndex;
+import org.uw.cse.mag.ar.recognition.VocabularyIndex;
+import org.uw.cse.mag.ar.scan.FrameRecorder;
+import org.uw.cse.mag.ar.scan.FrameScanner;
+import org.uw.cse.mag.ar.scan.ResultFusion;
+import org.uw.cse.mag.ar.scan.ScanScheduler;
+import org.uw.cse.mag.ar.scan.ScanEngine;
+import org.uw.cse.mag.ar.scan.ScanStats;
 import org.uw.cse.mag.ar.util.ApplianceReaderError;
 import org.uw.cse.mag.ar.util.CameraManager;
+import org.uw.cse.mag.ar.util.FrameMailbox;
 import org.uw.cse.mag.ar.util.OrientationListener;
 import org.uw.cse.mag.ar.util.Result;
+import org.uw.cse.mag.ar.vision.FeatureExtractor;
 
 /**
  * High-level helper class in charge of:
@@ -57,21 +79,31 @@ public class ScannerSession implements CameraManager.Listener {
     private Activity parent;
     private WeakReference<Listener> listener;
     private WorkerThread worker;
+    private final int scanWorkers;
+    // Guarded by this: created by the worker once a vocabulary is installed.
+    private ScanEngine engine;
+    private boolean closed = false;
     private SessionHandler handler;
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private final ScanStats stats = new ScanStats();
+    private final ScanScheduler scheduler = new ScanScheduler();
+    private volatile long postedAt;
+    private FrameRecorder recorder;
 
     private boolean front_facing = false;
     private int frame_width;
     private int frame_height;
+    private int sensor_orientation = 90;
     private boolean running = false;
     private boolean snap = false;
 
     /**
-     * If true, the camera frames are re-oriented according to the current device orientation, e.g if the
-     * device is in landscape mode, the frame is rotated by 90 degrees to make sure the scanner input
-     * image reflects what the user sees on screen.
+     * If true, the geometry of the results is expressed according to the current device orientation, e.g if
+     * the device is in landscape mode, the result corners are turned by 90 degrees to match what the user
+     * sees on screen. The frame pixels themselves are never rotated: only coordinates are remapped.
      * <p>
-     * If false (default), the device orientation is ignored, and thus the frame is *always* handled with
-     * portrait orientation.
+     * If false (default), the device orientation is ignored, and thus the results are *always* expressed
+     * in portrait orientation.
      */
     public boolean useDeviceOrientation = false;
 
@@ -98,12 +130,117 @@ public class ScannerSession implements CameraManager.Listener {
      */
     public boolean smallTargetSupport = false;
 
+    /**
+     * The number of consecutive frames a locked result can be lost by the tracker
+     * before the scanner falls back to a full search.
+     *
+     * By default, this value is set to 2.
+     */
+    public int maxLostFrames = 2;
+
+    /**
+     * The maximum number of levels of the per-frame image pyramid shared by the
+     * recognition stages, including the full resolution frame.
+     * Changes take effect the next time the preview size changes.
+     *
+     * By default, this value is set to 4.
+     */
+    public int pyramidLevels = 4;
+
+    /**
+     * The scale factor between two levels of the per-frame image pyramid.
+     * A factor of 2 is the fastest to build.
+     *
+     * By default, this value is set to 2.
+     */
+    public float pyramidScale = 2f;
+
+    /**
+     * The margin, in frame pixels, added around the projected features of interest
+     * when scanning is restricted to them (see {@link #setFeaturesOfInterest(java.util.List)}).
+     *
+     * By default, this value is set to 16.
+     */
+    public int roiMargin = 16;
+
+    /**
+     * The {@link Result.Type} flags of the barcodes to decode, among
+     * {@link BarcodeScanner#SUPPORTED_TYPES}.
+     *
+     * A barcode whose text is the model number of an appliance given to
+     * {@link #setApplianceModels(java.util.List)} is returned with that appliance ID, and
+     * image search is skipped for that frame.
+     *
+     * By default, this value is set to 0.
+     */
+    public int barcodeTypes = 0;
+
+    /**
+     * The number of recent frames voting on the result notified to the listener.
+     *
+     * The listener is only notified when a result, a display reading, or the absence of
+     * result is confirmed by {@link #fusionVotes} of these frames and differs from the
+     * last notified one; barcodes are confirmed on their first frame.
+     *
+     * By default, this value is set to 5.
+     */
+    public int fusionWindow = 5;
+
+    /**
+     * The number of frames among the {@link #fusionWindow} last ones that must agree on
+     * a result before the listener is notified. 1 notifies every change.
+     *
+     * By default, this value is set to 3.
+     */
+    public int fusionVotes = 3;
+
+    /**
+     * The minimum number of scanned frames between two notifications of the new location
+     * of a confirmed result, while it is tracked. 0 only notifies its location when it is
+     * confirmed.
+     *
+     * By default, this value is set to 5.
+     */
+    public int poseUpdateFrames = 5;
+
+    /**
+     * The scan rate, in frames per second, while nothing is in view. Frames received in
+     * between are given back to the camera unscanned. 0 scans every frame.
+     *
+     * By default, this value is set to 4.
+     */
+    public float idleScanRate = 4f;
+
+    /**
+     * The scan rate, in frames per second, from the first frame with a result until the
+     * result is confirmed (see {@link #fusionVotes}), or for a second after it is lost.
+     * 0 scans every frame.
+     *
+     * By default, this value is set to 0.
+     */
+    public float candidateScanRate = 0f;
+
+    /**
+     * The scan rate, in frames per second, once a result is confirmed and tracked.
+     * 0 scans every frame.
+     *
+     * By default, this value is set to 10.
+     */
+    public float lockedScanRate = 10f;
+
+    private volatile float[][] roiPolygons;
+    private volatile DisplayRegion[] displays;
+    private volatile ImageSearch imageSearch;
+    private volatile Map<String, Long> applianceModels;
+
     /**
      * Interface that must be implemented to receive callbacks from the ScannerSession.
      */
     public static interface Listener  {
         /**
-         * Notifies the listener that a scan has ended.
+         * Notifies the listener that the scan outcome changed: a result was confirmed over
+         * several frames, one of its display readings changed, it moved (at most every
+         * {@link #poseUpdateFrames} frames), or it was lost.
          * @param result the {@link Result} if any, null otherwise.
          */
         public void onScanComplete(Result result);
@@ -122,8 +259,25 @@ public class ScannerSession implements CameraManager.Listener {
      * @throws org.uw.cse.mag.ar.util.ApplianceReaderError if any error occurred.
      */
     public ScannerSession(Activity parent, Listener listener, SurfaceView preview) throws ApplianceReaderError {
+        this(parent, listener, preview, ScanEngine.defaultWorkerCount());
+    }
+
+    /**
+     * Constructor.
+     * @param parent the caller {@link android.app.Activity}
+     * @param listener the {@link org.uw.cse.mag.ar.ScannerSession.Listener} to notify
+     * @param preview the {@link android.view.SurfaceView} on which to display the camera preview.
+     * @param scanWorkers the number of threads sharing the recognition work of each frame.
+     *                    The helper threads are only started once a recognition index with a
+     *                    vocabulary is set, as only the shortlist matching is shared.
+     * @throws org.uw.cse.mag.ar.util.ApplianceReaderError if any error occurred.
+     */
+    public ScannerSession(Activity parent, Listener listener, SurfaceView preview, int scanWorkers) throws ApplianceReaderError {
         this.listener = new WeakReference<Listener>(listener);
         this.parent = parent;
+        if (scanWorkers < 1)
+            throw new IllegalArgumentException("ScannerSession(), Illegal worker count: " + scanWorkers);
+        this.scanWorkers = scanWorkers;
         this.worker = new WorkerThread();
         this.handler = new SessionHandler(this);
         OrientationListener.init(parent);
@@ -139,6 +293,7 @@ public class ScannerSession implements CameraManager.Listener {
     public boolean resume() {
         if (!running) {
             worker.reset();
+            scheduler.reset();
             running = true;
             CameraManager.get().requestNewFrame();
             return true;
@@ -153,6 +308,7 @@ public class ScannerSession implements CameraManager.Listener {
     public boolean pause() {
         if (running) {
             running = false;
+            CameraManager.get().releaseFrame(mailbox.take());
             return true;
         }
         return false;
@@ -166,9 +322,22 @@ public class ScannerSession implements CameraManager.Listener {
     public void close() {
         pause();
         cancel();
+        try {
+            stopRecording();
+        } catch (IOException e) {
+            // The recording is lost, nothing else to do.
+        }
         OrientationListener.get().disable();
         CameraManager.get().stop();
         finishWorker(500L);
+        // The worker may still be scanning a frame: the closed engine completes it on the
+        // worker thread.
+        synchronized (this) {
+            closed = true;
+            if (engine != null)
+                engine.close();
+            engine = null;
+        }
     }
 
     /**
@@ -201,6 +370,161 @@ public class ScannerSession implements CameraManager.Listener {
         return false;
     }
 
+    /**
+     * Restricts the per-frame processing to some features of the appliance.
+     * <p>
+     * Once the pose of the appliance in the frame is known, only the bounding boxes of these
+     * features, projected into the frame and grown by {@link #roiMargin}, are processed.
+     * The {@link DisplayFeature}s among them are read in every such frame, and their text
+     * is reported by {@link Result#getDisplayReadings()}, in the order of the list.
+     * @param features the features of interest, in reference image coordinates,
+     *                 or null to always process the whole frame.
+     */
+    public void setFeaturesOfInterest(List<ApplianceFeature> features) {
+        if (features == null) {
+            roiPolygons = null;
+            displays = null;
+            return;
+        }
+        float[][] polygons = new float[features.size()][];
+        List<DisplayRegion> regions = new ArrayList<DisplayRegion>();
+        for (int i = 0; i < polygons.length; ++i) {
+            ApplianceFeature feature = features.get(i);
+            polygons[i] = feature.toPolygon();
+            if (feature instanceof DisplayFeature)
+                regions.add(((DisplayFeature) feature).toDisplayRegion());
+        }
+        roiPolygons = polygons;
+        displays = regions.isEmpty() ? null : regions.toArray(new DisplayRegion[regions.size()]);
+    }
+
+    /**
+     * Sets the appliances that can be identified by a barcode encoding their model number.
+     * @param appliances the appliances, with their database IDs, or null.
+     */
+    public void setApplianceModels(List<Appliance> appliances) {
+        if (appliances == null) {
+            applianceModels = null;
+            return;
+        }
+        Map<String, Long> models = new HashMap<String, Long>();
+        for (Appliance a : appliances) {
+            if (a.getID() >= 0)
+                models.put(FrameScanner.modelKey(a.getModel()), a.getID());
+        }
+        applianceModels = Collections.unmodifiableMap(models);
+    }
+
+    /**
+     * Sets the reference images searched in the camera frames.
+     * <p>
+     * The index can be built on any thread; it is handed to the worker thread at the next frame.
+     * @param index     the built index of the reference images, or null to disable image search.
+     * @param extractor the extractor the reference keypoints were computed with.
+     */
+    public void setRecognitionIndex(RecognitionIndex index, FeatureExtractor extractor) {
+        setRecognitionIndex(index, extractor, null);
+    }
+
+    /**
+     * Sets the reference images searched in the camera frames, for large catalogs: each
+     * frame is only matched against the references its visual words rank best.
+     * @param index      the built index of the reference images, or null to disable image search.
+     * @param extractor  the extractor the reference keypoints were computed with.
+     * @param vocabulary the built vocabulary index of the same references, in the same order.
+     */
+    public void setRecognitionIndex(RecognitionIndex index, FeatureExtractor extractor, VocabularyIndex vocabulary) {
+        if (index != null && extractor == null)
+            throw new IllegalArgumentException("ScannerSession.setRecognitionIndex(), extractor cannot be null");
+        if (index != null && extractor.getDescriptorBits() != index.getDescriptorBits())
+            throw new IllegalArgumentException("ScannerSession.setRecognitionIndex(), descriptor length mismatch");
+        if (index != null && vocabulary != null && !vocabulary.isAlignedWith(index))
+            throw new IllegalArgumentException("ScannerSession.setRecognitionIndex(), references do not match the index");
+        imageSearch = index == null ? null : new ImageSearch(index, extractor, vocabulary);
+    }
+
+    /**
+     * Gets the latency and frame accounting of this session.
+     * <p>
+     * Instrumentation is disabled by default, enable it with {@link ScanStats#setEnabled(boolean)}
+     * and poll the figures with {@link ScanStats#snapshot()}.
+     * @return the {@link org.uw.cse.mag.ar.scan.ScanStats} of this session.
+     */
+    public ScanStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Gets the current scan rate, as set by {@link #idleScanRate}, {@link #candidateScanRate}
+     * and {@link #lockedScanRate} depending on what is in view.
+     * @return the scan rate in frames per second, 0 or less if every frame is scanned.
+     */
+    public float getScanRate() {
+        return scheduler.getRate();
+    }
+
+    /**
+     * Gets the number of camera frames that were never scanned because a newer
+     * frame arrived while the worker was busy.
+     * @return the number of skipped frames since the session was created.
+     */
+    public long getSkippedFrameCount() {
+        return mailbox.getSkippedCount();
+    }
+
+    /**
+     * Starts recording the camera frames to a file, for offline replay with
+     * {@link org.uw.cse.mag.ar.scan.FrameReplay}.
+     * <p>
+     * Frames are copied on the camera thread and written by a background thread. Frames
+     * arriving while the writer is behind are not recorded, so recording never slows down
+     * the scanner. Must be called once the preview size is known.
+     * @param file     the file to write, truncated if it exists.
+     * @param lumaOnly true to record only the luma plane, i.e. 2/3 of the frame size.
+     * @throws IOException if the file could not be created.
+     */
+    public void startRecording(File file, boolean lumaOnly) throws IOException {
+        if (frame_width == 0 || frame_height == 0)
+            throw new IllegalStateException("ScannerSession.startRecording(), the preview size is not known yet");
+        stopRecording();
+        recorder = new FrameRecorder(file, frame_width, frame_height, lumaOnly);
+    }
+
+    /**
+     * Stops recording the camera frames, if recording.
+     * @throws IOException if some frames could not be written.
+     */
+    public void stopRecording() throws IOException {
+        FrameRecorder r = recorder;
+        recorder = null;
+        if (r != null)
+            r.close();
+    }
+
+    /**
+     * @return the orientation of the current frames among the
+     *         {@link org.uw.cse.mag.ar.util.OrientationListener.Orientation} values.
+     */
+    private int frameOrientation() {
+        int ori = OrientationListener.Orientation.UP;
+        if (useDeviceOrientation)
+            ori = OrientationListener.get().getOrientation();
+        if (front_facing)
+            ori = (6-ori)%4;
+        return ori;
+    }
+
+    /**
+     * Gets the engine sharing the shortlist matching, starting its helper threads on
+     * first use.
+     * @return the engine, or null if the session uses a single thread or is closed.
+     */
+    private synchronized ScanEngine getEngine() {
+        if (engine == null && !closed && scanWorkers > 1)
+            engine = new ScanEngine(scanWorkers);
+        return engine;
+    }
+
     /**
      * Closes the worker thread.
      * @param t the time in milliseconds allowed for the thread to end.
@@ -222,6 +546,7 @@ public class ScannerSession implements CameraManager.Listener {
         this.frame_width = w;
         this.frame_height = h;
         this.front_facing = front_facing;
+        this.sensor_orientation = CameraManager.getSensorOrientation();
     }
 
     /**
@@ -255,20 +580,78 @@ public class ScannerSession implements CameraManager.Listener {
      */
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
+        CameraManager cm = CameraManager.get();
+        stats.frameCaptured();
+        if (recorder != null)
+            recorder.offer(data, System.nanoTime(), frameOrientation());
         if (running) {
             if (snap) {
-                if (CameraManager.get().isFocussed()) {
+                if (cm.isFocussed()) {
+                    // Snapshots are not scanned, see WorkerHandler.
+                    stats.frameDropped();
                     worker.getHandler().obtainMessage(MsgCode.SNAP, data).sendToTarget();
                 }
                 else {
-                    CameraManager.get().requestFocus();
-                    CameraManager.get().requestNewFrame();
+                    stats.frameDropped();
+                    cm.releaseFrame(data);
+                    cm.requestFocus();
+                    cm.requestNewFrame();
                 }
             }
+            else if (!scheduler.isDue()) {
+                // Throttled: the camera gets its buffers back when the next frame is due.
+                stats.frameThrottled();
+                cm.releaseFrame(data);
+            }
             else {
-                worker.getHandler().obtainMessage(MsgCode.SCAN, data).sendToTarget();
+                scheduler.frameAccepted();
+                // Latest frame wins: a frame the worker did not get to yet
+                // goes straight back to the camera. A SCAN message is only
+                // needed when the mailbox was empty, otherwise one is pending.
+                if (stats.isEnabled())
+                    postedAt = System.nanoTime();
+                byte[] skipped = mailbox.post(data);
+                if (skipped != null) {
+                    stats.frameDropped();
+                    cm.releaseFrame(skipped);
+                    cm.requestNewFrame();
+                }
+                else {
+                    worker.getHandler().sendEmptyMessage(MsgCode.SCAN);
+                }
             }
         }
+        else {
+            stats.frameDropped();
+            cm.releaseFrame(data);
+        }
+    }
+
+    /**
+     * Hands the buffers back to the camera now, or when the next frame is due.
+     */
+    private void requestFrame() {
+        long delay = scheduler.nextDelayMillis();
+        handler.removeMessages(MsgCode.NEXT_FRAME);
+        if (delay == 0)
+            CameraManager.get().requestNewFrame();
+        else
+            handler.sendEmptyMessageDelayed(MsgCode.NEXT_FRAME, delay);
+    }
+
+    /**
+     * <i>Recognition index and extractor, published together to the worker thread.</i>
+     */
+    private static final class ImageSearch {
+        private final RecognitionIndex index;
+        private final FeatureExtractor extractor;
+        private final VocabularyIndex vocabulary;
+
+        private ImageSearch(RecognitionIndex index, FeatureExtractor extractor, VocabularyIndex vocabulary) {
+            this.index = index;
+            this.extractor = extractor;
+            this.vocabulary = vocabulary;
+        }
     }
 
     /**
@@ -287,6 +670,15 @@ public class ScannerSession implements CameraManager.Listener {
                 Listener l = session.listener.get();
                 boolean newFrame = true;
 
+                // arg1 is 0 if the frame was scanned while instrumentation was disabled.
+                if (session.stats.isEnabled() && msg.arg1 != 0
+                        && (msg.what == MsgCode.SUCCESS || msg.what == MsgCode.FAILED
+                        || msg.what == MsgCode.UNCHANGED)) {
+                    int now = (int) System.nanoTime();
+                    session.stats.record(ScanStats.Stage.DELIVERY, now - msg.arg1);
+                    session.stats.record(ScanStats.Stage.TOTAL, now - msg.arg2);
+                }
+
                 switch(msg.what) {
 
                     case MsgCode.SUCCESS:
@@ -305,7 +697,7 @@ public class ScannerSession implements CameraManager.Listener {
                 }
 
                 if (newFrame && session.running)
-                    CameraManager.get().requestNewFrame();
+                    session.requestFrame();
             }
         }
     }
@@ -316,9 +708,10 @@ public class ScannerSession implements CameraManager.Listener {
     private class WorkerThread extends Thread {
 
         private Handler w_handler;
-        // locking values:
-        private Result _result = null;
-        private int _losts = 0;
+        private final FrameScanner scanner = new FrameScanner();
+        private final ResultFusion fusion = new ResultFusion();
+        // Set by the UI thread, applied by the worker before its next scan.
+        private volatile boolean resetPending = false;
 
         @Override
         public void run() {
@@ -331,30 +724,74 @@ public class ScannerSession implements CameraManager.Listener {
             return w_handler;
         }
 
+        /**
+         * Asks the worker to forget its locked result and votes before the next frame. The
+         * scanner and the fusion are only touched by the worker thread, which may be inside
+         * a scan right now.
+         */
         private void reset() {
-            _result = null;
-            _losts = 0;
+            resetPending = true;
         }
 
         private void quit() {
             Looper.myLooper().quit();
         }
 
-        private void scan(byte[] data) {
+        /**
+         * Scans the latest frame posted to the mailbox, if any.
+         */
+        private void scanNext() {
+            byte[] data = mailbox.take();
+            // Read right after take(): only off if a newer frame was posted in between.
+            long captured = postedAt;
+            if (data != null)
+                scan(data, captured);
+        }
+
+        /**
+         * Scans a frame and posts the outcome to the session handler.
+         * <p>
+         * The low 32 bits of the scan end and capture times are passed as the
+         * message arguments, so the handler can time the delivery without allocating.
+         */
+        private void scan(byte[] data, long captured) {
             Result result = null;
             ApplianceReaderError error = null;
-            int ori = OrientationListener.Orientation.UP;
-//            try {
-                if (useDeviceOrientation)
-                    ori = OrientationListener.get().getOrientation();
-                if (front_facing)
-                    ori = (6-ori)%4;
-//                result = scan(new Image(data, frame_width, frame_height, frame_width, ori));
-//            } catch (ApplianceReaderError e) {
-//                error = e;
-//            }
+            boolean timed = stats.isEnabled();
+            if (timed)
+                stats.record(ScanStats.Stage.QUEUE, System.nanoTime() - captured);
+            if (resetPending) {
+                resetPending = false;
+                scanner.reset();
+                fusion.reset();
+            }
+            scanner.maxLostFrames = maxLostFrames;
+            scanner.pyramidLevels = pyramidLevels;
+            scanner.pyramidScale = pyramidScale;
+            scanner.roiMargin = roiMargin;
+            scanner.barcodeTypes = barcodeTypes;
+            scanner.setApplianceModels(applianceModels);
+            scanner.setFeaturesOfInterest(roiPolygons);
+            scanner.setDisplays(displays);
+            ImageSearch search = imageSearch;
+            if (search == null)
+                scanner.setRecognitionIndex(null, null);
+            else
+                scanner.setRecognitionIndex(search.index, search.extractor, search.vocabulary);
+            scanner.setEngine(search != null && search.vocabulary != null ? getEngine() : null);
+            scanner.setStats(stats);
+            scanner.sensorOrientation = sensor_orientation;
+            try {
+                result = scanner.scan(data, frame_width, frame_height, frameOrientation());
+            } catch (ApplianceReaderError e) {
+                error = e;
+            }
+            int end = timed ? (int) System.nanoTime() : 0;
+            // The frame must be back in the pool before the session handler
+            // requests new frames from the camera.
             if (error != null) {
-                handler.obtainMessage(MsgCode.FAILED, error).sendToTarget();
+                CameraManager.get().releaseFrame(data);
+                handler.obtainMessage(MsgCode.FAILED, end, (int) captured, error).sendToTarget();
             }
             else {
 
@@ -363,110 +800,25 @@ public class ScannerSession implements CameraManager.Listener {
 //                    Bitmap bmp = Image.bufferToBitmap(data, frame_width, frame_height, frame_width);
 //                    result.setImage(bmp, ori);
 //                }
-//                handler.obtainMessage(MsgCode.SUCCESS, result).sendToTarget();
+                CameraManager.get().releaseFrame(data);
+                fusion.window = fusionWindow;
+                fusion.minVotes = fusionVotes;
+                fusion.poseFrames = poseUpdateFrames;
+                boolean changed = fusion.offer(result);
+                scheduler.setRates(idleScanRate, candidateScanRate, lockedScanRate);
+                scheduler.frameScanned(result != null, fusion.isConfirmed());
+                if (changed) {
+                    // Outcomes are copies, posted once: map them for the UI in place.
+                    Result stable = fusion.getStable();
+                    if (stable != null)
+                        scanner.toUpright(stable);
+                    handler.obtainMessage(MsgCode.SUCCESS, end, (int) captured, stable).sendToTarget();
+                }
+                else
+                    handler.obtainMessage(MsgCode.UNCHANGED, end, (int) captured, null).sendToTarget();
             }
         }
 
-        /* Performs a search in the local cache, as well as
-         * barcode decoding, according to the options previously set.
-         */
-//        private Result scan(BufferedImage qry) throws ApplianceReaderError {
-//
-//            Result result = null;
-//            //----------
-//            // LOCKING
-//            //----------
-//            try {
-//                Result rlock = null;
-//                boolean lock = false;
-//                if (_result != null && _losts < 2) {
-//                    int found = 0;
-//                    switch (_result.getType()) {
-//                        case Result.Type.IMAGE:
-//                            if (flags != Scanner.Flags.DEFAULT)
-//                                rlock = scanner.match2(qry, _result, extras, flags);
-//                            else
-//                                rlock = scanner.match(qry, _result, extras);
-//                            found = 1;
-//                            break;
-//                        case Result.Type.QRCODE:
-//                            rlock = scanner.decode(qry, Result.Type.QRCODE, extras);
-//                            found = 1;
-//                            break;
-//                        case Result.Type.DATAMATRIX:
-//                            rlock = scanner.decode(qry, Result.Type.DATAMATRIX, extras);
-//                            found = 1;
-//                            break;
-//                        default:
-//                            break;
-//                    }
-//
-//                    if (found == 1) {
-//                        if (rlock != null) {
-//                            found = rlock.getValue().equals(_result.getValue()) ? 1 : -1;
-//                        }
-//                        else {
-//                            found = -1;
-//                        }
-//                    }
-//
-//
-//                    if (found == 1) {
-//                        lock = true;
-//                        _losts = 0;
-//                    }
-//                    else if (found == -1) {
-//                        _losts++;
-//                        lock = (_losts >= 2) ? false : true;
-//                    }
-//                }
-//                if (lock) {
-//                    result = rlock;
-//                }
-//            } catch (ApplianceReaderError e) {
-//                e.log();
-//            }
-//
-//            //---------------
-//            // IMAGE SEARCH
-//            //---------------
-//            try {
-//                if (result == null && ((options & Result.Type.IMAGE) != 0)) {
-//                    if (flags != Scanner.Flags.DEFAULT)
-//                        result = scanner.search2(qry, extras, flags);
-//                    else
-//                        result = scanner.search(qry, extras);
-//                    if (result != null) {
-//                        _losts = 0;
-//                    }
-//                }
-//            } catch (MoodstocksError e) {
-//                if (e.getErrorCode() != MoodstocksError.Code.EMPTY)
-//                    throw e;
-//            }
-//
-//
-//            //-------------------
-//            // BARCODE DECODING
-//            //-------------------
-//            if (result == null &&
-//                    ( (options & (Result.Type.QRCODE|Result.Type.EAN13|
-//                            Result.Type.EAN8|Result.Type.DATAMATRIX) ) != 0)) {
-//                result = scanner.decode(qry, options, extras);
-//                if (result != null) {
-//                    _losts = 0;
-//                }
-//            }
-//
-//            //----------------
-//            // Locking update
-//            //---------------
-//            _result = result;
-//
-//            qry.release();
-//            return result;
-//        }
-
     }
 
     /**
@@ -491,7 +843,13 @@ public class ScannerSession implements CameraManager.Listener {
 
                     case MsgCode.SCAN:
 
-                        w.scan((byte[])msg.obj);
+                        w.scanNext();
+                        break;
+
+                    case MsgCode.SNAP:
+
+                        // API search is not supported: give the frame back.
+                        CameraManager.get().releaseFrame((byte[])msg.obj);
                         break;
 
                     case MsgCode.QUIT:
@@ -518,6 +876,8 @@ public class ScannerSession implements CameraManager.Listener {
         public static final int API_SUCCESS = 5;
         public static final int API_FAILED = 6;
         public static final int API_START = 7;
+        public static final int UNCHANGED = 8;
+        public static final int NEXT_FRAME = 9;
     }
 
 }
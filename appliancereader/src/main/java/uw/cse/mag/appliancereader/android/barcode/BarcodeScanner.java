@@ -0,0 +1,90 @@
+package org.uw.cse.mag.ar.barcode;
+
+import org.uw.cse.mag.ar.util.Result;
+import org.uw.cse.mag.ar.vision.GrayImage;
+
+/**
+ * Built-in barcode decoder of the scanner: QR codes (versions 1 to 10), EAN-13 and EAN-8,
+ * read from the luma plane of a frame.
+ * <p>
+ * A scan-line prefilter first looks for barcode-like structure along a few rows and
+ * columns; most frames of an appliance without a sticker in view stop there. Otherwise
+ * the frame is binarized with a locally adaptive threshold and the candidate symbologies
+ * are decoded.
+ * <p>
+ * All buffers are reused from frame to frame; a scanner is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class BarcodeScanner {
+
+    /** The {@link Result.Type} flags of the supported symbologies. */
+    public static final int SUPPORTED_TYPES = Result.Type.QRCODE | Result.Type.EAN13 | Result.Type.EAN8;
+
+    /**
+     * The distance, in pixels, between the rows and columns tested by the prefilter.
+     *
+     * By default, this value is set to 16.
+     */
+    public int prefilterSpacing = 16;
+
+    /**
+     * The distance, in pixels, between the rows and columns read by the decoders.
+     *
+     * By default, this value is set to 2.
+     */
+    public int lineStep = 2;
+
+    /**
+     * The number of scan lines that must read the same 1D barcode.
+     *
+     * By default, this value is set to 2.
+     */
+    public int minLineAgreement = 2;
+
+    private final ScanLinePrefilter mPrefilter = new ScanLinePrefilter();
+    private final Binarizer mBinarizer = new Binarizer();
+    private final QrReader mQr = new QrReader();
+    private final EanReader mEan = new EanReader();
+    private int mCandidates;
+
+    /**
+     * Decodes the first barcode found in an image, QR codes first.
+     * @param img   The luma image.
+     * @param types The {@link Result.Type} flags of the barcodes to decode.
+     * @return the result, with the barcode text as value and its corners, or null.
+     */
+    public Result decode(GrayImage img, int types) {
+        types &= SUPPORTED_TYPES;
+        mCandidates = 0;
+        if (types == 0 || img.width < 16 || img.height < 16)
+            return null;
+        mPrefilter.lineSpacing = prefilterSpacing;
+        mCandidates = mPrefilter.candidates(img, types);
+        if (mCandidates == 0)
+            return null;
+        mBinarizer.binarize(img);
+        int step = Math.max(1, lineStep);
+        if ((mCandidates & Result.Type.QRCODE) != 0 && mQr.read(mBinarizer, step))
+            return result(Result.Type.QRCODE, mQr.getText(), mQr.getCorners());
+        mEan.minAgreement = Math.max(1, minLineAgreement);
+        int oneD = mCandidates & (Result.Type.EAN13 | Result.Type.EAN8);
+        if (oneD != 0 && mEan.read(mBinarizer, oneD, step))
+            return result(mEan.getType(), mEan.getText(), mEan.getCorners());
+        return null;
+    }
+
+    /**
+     * @return the {@link Result.Type} flags the prefilter let through on the last frame,
+     *         0 if the frame was rejected before decoding.
+     */
+    public int getCandidates() {
+        return mCandidates;
+    }
+
+    private static Result result(int type, String text, float[] corners) {
+        Result r = new Result(type, text);
+        r.setCorners(corners.clone());
+        return r;
+    }
+}
@@ -0,0 +1,126 @@
+package org.uw.cse.mag.ar.barcode;
+
+import org.uw.cse.mag.ar.vision.GrayImage;
+
+/**
+ * Locally adaptive thresholding of a luma image into dark and light pixels.
+ * <p>
+ * The image is cut into 8x8 blocks. The threshold of a block is the mean of the average
+ * luma of the 5x5 blocks around it, so that uneven lighting over a sticker does not
+ * matter. Flat blocks take the level of their neighbours, or count as light.
+ * <p>
+ * Buffers grow with the largest image seen; a binarizer is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+final class Binarizer {
+
+    private static final int BLOCK_SHIFT = 3;
+    private static final int BLOCK = 1 << BLOCK_SHIFT;
+    private static final int MIN_DYNAMIC_RANGE = 24;
+
+    private byte[] mBits = new byte[0];
+    private int[] mAverages = new int[0];
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Binarizes an image.
+     * @param img the image, at least 8x8.
+     */
+    void binarize(GrayImage img) {
+        int w = img.width, h = img.height;
+        mWidth = w;
+        mHeight = h;
+        if (mBits.length < w * h)
+            mBits = new byte[w * h];
+        int bw = (w + BLOCK - 1) >> BLOCK_SHIFT;
+        int bh = (h + BLOCK - 1) >> BLOCK_SHIFT;
+        if (mAverages.length < bw * bh)
+            mAverages = new int[bw * bh];
+        byte[] d = img.data;
+
+        // 1. Average of each block, the last ones overlapping the image edges.
+        for (int by = 0; by < bh; ++by) {
+            int y0 = Math.min(by << BLOCK_SHIFT, h - BLOCK);
+            for (int bx = 0; bx < bw; ++bx) {
+                int x0 = Math.min(bx << BLOCK_SHIFT, w - BLOCK);
+                int sum = 0, min = 255, max = 0;
+                for (int y = y0; y < y0 + BLOCK; ++y) {
+                    int row = img.offset + y * img.stride + x0;
+                    for (int x = 0; x < BLOCK; ++x) {
+                        int v = d[row + x] & 0xFF;
+                        sum += v;
+                        if (v < min)
+                            min = v;
+                        if (v > max)
+                            max = v;
+                    }
+                }
+                int average = sum >> (2 * BLOCK_SHIFT);
+                if (max - min <= MIN_DYNAMIC_RANGE) {
+                    // Flat block: light, unless darker than the neighbours' level.
+                    average = min / 2;
+                    if (by > 0 && bx > 0) {
+                        int neighbours = (mAverages[(by - 1) * bw + bx] + 2 * mAverages[by * bw + bx - 1]
+                                + mAverages[(by - 1) * bw + bx - 1]) / 4;
+                        if (min < neighbours)
+                            average = neighbours;
+                    }
+                }
+                mAverages[by * bw + bx] = average;
+            }
+        }
+
+        // 2. Threshold each block with the mean of the 5x5 blocks around it.
+        for (int by = 0; by < bh; ++by) {
+            int y0 = Math.min(by << BLOCK_SHIFT, h - BLOCK);
+            int cy = Math.max(2, Math.min(bh - 3, by));
+            for (int bx = 0; bx < bw; ++bx) {
+                int x0 = Math.min(bx << BLOCK_SHIFT, w - BLOCK);
+                int cx = Math.max(2, Math.min(bw - 3, bx));
+                int sum = 0, n = 0;
+                for (int ny = cy - 2; ny <= cy + 2; ++ny) {
+                    if (ny < 0 || ny >= bh)
+                        continue;
+                    for (int nx = cx - 2; nx <= cx + 2; ++nx) {
+                        if (nx < 0 || nx >= bw)
+                            continue;
+                        sum += mAverages[ny * bw + nx];
+                        n++;
+                    }
+                }
+                int threshold = sum / n;
+                for (int y = y0; y < y0 + BLOCK; ++y) {
+                    int src = img.offset + y * img.stride + x0;
+                    int dst = y * w + x0;
+                    for (int x = 0; x < BLOCK; ++x) {
+                        mBits[dst + x] = (byte) ((d[src + x] & 0xFF) <= threshold ? 1 : 0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the binarized pixels, 1 for dark, row by row with a stride of {@link #getWidth()}.
+     */
+    byte[] getBits() {
+        return mBits;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return true if the pixel is inside the image and dark.
+     */
+    boolean isDark(int x, int y) {
+        return x >= 0 && y >= 0 && x < mWidth && y < mHeight && mBits[y * mWidth + x] != 0;
+    }
+}
@@ -0,0 +1,331 @@
+package org.uw.cse.mag.ar.barcode;
+
+import org.uw.cse.mag.ar.util.Result;
+
+/**
+ * Reads EAN-13 and EAN-8 barcodes along the rows, then the columns, of a binarized image.
+ * <p>
+ * Each scan line is turned into run lengths, where start guards (3 runs of one module after
+ * a quiet zone) are looked for. Digits are the patterns of 4 runs closest to the expected
+ * module widths, and a read is kept if its guards and check digit are right, in either
+ * direction. A barcode is reported once {@link #minAgreement} lines read the same digits.
+ * <p>
+ * Buffers grow with the largest image seen; a reader is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+final class EanReader {
+
+    // Widths of the 4 runs (light, dark, light, dark) of the L-code of each digit.
+    // R-codes have the same widths starting with dark, G-codes are reversed.
+    private static final int[][] PATTERNS = {
+        {3, 2, 1, 1}, {2, 2, 2, 1}, {2, 1, 2, 2}, {1, 4, 1, 1}, {1, 1, 3, 2},
+        {1, 2, 3, 1}, {1, 1, 1, 4}, {1, 3, 1, 2}, {1, 2, 1, 3}, {3, 1, 1, 2},
+    };
+    // L/G parities of the left digits of EAN-13 encoding the first digit, G being a set bit.
+    private static final int[] FIRST_DIGIT = {0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A};
+
+    private static final int EAN13_RUNS = 3 + 24 + 5 + 24 + 3;
+    private static final int EAN8_RUNS = 3 + 16 + 5 + 16 + 3;
+    private static final float MAX_DIGIT_ERROR = 1.6f;
+    private static final int MAX_CANDIDATES = 4;
+
+    /**
+     * Number of scan lines that must read the same barcode.
+     */
+    int minAgreement = 2;
+
+    private int[] mLine = new int[0];
+    private int[] mRuns = new int[0];
+    private int[] mStarts = new int[0];
+    private int[] mReversed = new int[0];
+    private int[] mReversedStarts = new int[0];
+    private final int[] mDigits = new int[13];
+
+    // Reads being confirmed: digits, type, hits and extent.
+    private final long[] mValue = new long[MAX_CANDIDATES];
+    private final int[] mType = new int[MAX_CANDIDATES];
+    private final int[] mHits = new int[MAX_CANDIDATES];
+    private final float[] mFirst = new float[3 * MAX_CANDIDATES];
+    private final float[] mLast = new float[3 * MAX_CANDIDATES];
+    private int mCandidates;
+
+    // Last decoded line: type, value and extent along the line.
+    private int mReadType;
+    private long mReadValue;
+    private int mReadStart;
+    private int mReadEnd;
+
+    private String mText;
+    private int mResultType;
+    private final float[] mCorners = new float[8];
+
+    /**
+     * Reads a barcode.
+     * @param bits     The binarized image.
+     * @param types    The {@link Result.Type} flags to read, among EAN13 and EAN8.
+     * @param lineStep Distance between scan lines, in pixels.
+     * @return true if a barcode was read, see {@link #getText()}, {@link #getType()} and {@link #getCorners()}.
+     */
+    boolean read(Binarizer bits, int types, int lineStep) {
+        int w = bits.getWidth(), h = bits.getHeight();
+        int n = Math.max(w, h);
+        if (mLine.length < n) {
+            mLine = new int[n];
+            mRuns = new int[n + 1];
+            mStarts = new int[n + 1];
+            mReversed = new int[n + 2];
+            mReversedStarts = new int[n + 2];
+        }
+        mText = null;
+        for (int pass = 0; pass < 2; ++pass) {
+            boolean vertical = pass == 1;
+            mCandidates = 0;
+            int lines = vertical ? w : h;
+            int length = vertical ? h : w;
+            byte[] b = bits.getBits();
+            for (int l = lineStep / 2; l < lines; l += lineStep) {
+                for (int i = 0; i < length; ++i) {
+                    mLine[i] = vertical ? b[i * w + l] : b[l * w + i];
+                }
+                if (readLine(length, types))
+                    vote(l);
+            }
+            int best = -1;
+            for (int c = 0; c < mCandidates; ++c) {
+                if (mHits[c] >= minAgreement && (best < 0 || mHits[c] > mHits[best]))
+                    best = c;
+            }
+            if (best >= 0) {
+                finish(best, vertical);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the digits of the last barcode read.
+     */
+    String getText() {
+        return mText;
+    }
+
+    /**
+     * @return the {@link Result.Type} of the last barcode read.
+     */
+    int getType() {
+        return mResultType;
+    }
+
+    /**
+     * @return the 4 corners of the last barcode read, in image pixels.
+     */
+    float[] getCorners() {
+        return mCorners;
+    }
+
+    /**
+     * Decodes a scan line in both directions.
+     * @return true if a barcode was read, see mReadType, mReadValue, mReadStart and mReadEnd.
+     */
+    private boolean readLine(int length, int types) {
+        // Run lengths, the first one light (possibly empty).
+        int count = 0;
+        int color = 0;
+        int run = 0;
+        for (int i = 0; i < length; ++i) {
+            if (mLine[i] == color) {
+                run++;
+                continue;
+            }
+            mStarts[count] = i - run;
+            mRuns[count++] = run;
+            color = mLine[i];
+            run = 1;
+        }
+        mStarts[count] = length - run;
+        mRuns[count++] = run;
+        if (count < EAN8_RUNS + 2)
+            return false;
+        if (readRuns(mRuns, mStarts, count, types, false))
+            return true;
+        // Upside down: reverse the runs, keeping them light first.
+        int r = 0;
+        if (color == 1)
+            mReversed[r++] = 0;
+        for (int i = count - 1; i >= 0; --i) {
+            mReversedStarts[r] = mStarts[i] + mRuns[i];
+            mReversed[r++] = mRuns[i];
+        }
+        return readRuns(mReversed, mReversedStarts, r, types, true);
+    }
+
+    /**
+     * Looks for a barcode in runs alternating light, dark, light...
+     */
+    private boolean readRuns(int[] runs, int[] starts, int count, int types, boolean reversed) {
+        for (int s = 1; s + EAN8_RUNS < count; s += 2) {
+            float m = (runs[s] + runs[s + 1] + runs[s + 2]) / 3f;
+            if (!guard(runs, s, 3, m) || runs[s - 1] < 3 * m)
+                continue;
+            int end = -1;
+            if ((types & Result.Type.EAN13) != 0 && s + EAN13_RUNS < count && decode(runs, count, s, m, 6)) {
+                end = s + EAN13_RUNS - 1;
+                mReadType = Result.Type.EAN13;
+            }
+            else if ((types & Result.Type.EAN8) != 0 && decode(runs, count, s, m, 4)) {
+                end = s + EAN8_RUNS - 1;
+                mReadType = Result.Type.EAN8;
+            }
+            if (end < 0)
+                continue;
+            mReadValue = 0;
+            for (int i = 0; i < (mReadType == Result.Type.EAN13 ? 13 : 8); ++i) {
+                mReadValue = mReadValue * 10 + mDigits[i];
+            }
+            // Reversed runs start where the original runs end.
+            int a = starts[s], e = reversed ? starts[end] - runs[end] : starts[end] + runs[end];
+            mReadStart = Math.min(a, e);
+            mReadEnd = Math.max(a, e);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the digits after a start guard.
+     * @param half 6 for EAN-13, 4 for EAN-8.
+     */
+    private boolean decode(int[] runs, int count, int s, float m, int half) {
+        int p = s + 3;
+        int parity = 0;
+        int first = half == 6 ? 1 : 0;
+        for (int i = 0; i < half; ++i, p += 4) {
+            int d = digit(runs, p, m, half == 6);
+            if (d < 0)
+                return false;
+            parity = (parity << 1) | (d >= 10 ? 1 : 0);
+            mDigits[first + i] = d % 10;
+        }
+        if (!guard(runs, p, 5, m))
+            return false;
+        p += 5;
+        for (int i = 0; i < half; ++i, p += 4) {
+            int d = digit(runs, p, m, false);
+            if (d < 0)
+                return false;
+            mDigits[first + half + i] = d;
+        }
+        // End guard, then a quiet zone unless the line ends.
+        if (!guard(runs, p, 3, m) || (runs[p + 3] < 3 * m && p + 3 < count - 1))
+            return false;
+        if (half == 6) {
+            int firstDigit = -1;
+            for (int d = 0; d < 10; ++d) {
+                if (FIRST_DIGIT[d] == parity)
+                    firstDigit = d;
+            }
+            if (firstDigit < 0)
+                return false;
+            mDigits[0] = firstDigit;
+        }
+        else if (parity != 0) {
+            return false;
+        }
+        return checksum(2 * half + first);
+    }
+
+    /**
+     * Matches 4 runs against the digit patterns.
+     * @return the digit, plus 10 if it is a G-code, or -1.
+     */
+    private static int digit(int[] runs, int p, float m, boolean allowG) {
+        int total = runs[p] + runs[p + 1] + runs[p + 2] + runs[p + 3];
+        if (total < 0.6f * 7 * m || total > 1.4f * 7 * m)
+            return -1;
+        float scale = 7f / total;
+        int best = -1;
+        float bestError = MAX_DIGIT_ERROR;
+        for (int d = 0; d < 10; ++d) {
+            int[] pat = PATTERNS[d];
+            float l = 0, g = 0;
+            for (int k = 0; k < 4; ++k) {
+                float v = runs[p + k] * scale;
+                l += Math.abs(v - pat[k]);
+                g += Math.abs(v - pat[3 - k]);
+            }
+            if (l < bestError) {
+                bestError = l;
+                best = d;
+            }
+            if (allowG && g < bestError) {
+                bestError = g;
+                best = d + 10;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return true if the runs from p are all about one module wide.
+     */
+    private static boolean guard(int[] runs, int p, int count, float m) {
+        for (int k = p; k < p + count; ++k) {
+            if (runs[k] < 0.5f * m || runs[k] > 1.5f * m + 1)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean checksum(int digits) {
+        int sum = 0;
+        for (int i = digits - 2, weight = 3; i >= 0; --i, weight = 4 - weight) {
+            sum += weight * mDigits[i];
+        }
+        return (10 - sum % 10) % 10 == mDigits[digits - 1];
+    }
+
+    /**
+     * Counts a read of the current scan line.
+     */
+    private void vote(int line) {
+        int c = 0;
+        while (c < mCandidates && (mValue[c] != mReadValue || mType[c] != mReadType))
+            c++;
+        if (c == mCandidates) {
+            if (mCandidates == MAX_CANDIDATES)
+                return;
+            mCandidates++;
+            mValue[c] = mReadValue;
+            mType[c] = mReadType;
+            mHits[c] = 0;
+            mFirst[3 * c] = line;
+            mFirst[3 * c + 1] = mReadStart;
+            mFirst[3 * c + 2] = mReadEnd;
+        }
+        mHits[c]++;
+        mLast[3 * c] = line;
+        mLast[3 * c + 1] = mReadStart;
+        mLast[3 * c + 2] = mReadEnd;
+    }
+
+    private void finish(int c, boolean vertical) {
+        int digits = mType[c] == Result.Type.EAN13 ? 13 : 8;
+        char[] text = new char[digits];
+        long v = mValue[c];
+        for (int i = digits - 1; i >= 0; --i) {
+            text[i] = (char) ('0' + (int) (v % 10));
+            v /= 10;
+        }
+        mText = new String(text);
+        mResultType = mType[c];
+        // First line start and end, then last line end and start.
+        float[] f = mFirst, l = mLast;
+        float[] pts = {f[3 * c + 1], f[3 * c], f[3 * c + 2], f[3 * c], l[3 * c + 2], l[3 * c], l[3 * c + 1], l[3 * c]};
+        for (int i = 0; i < 4; ++i) {
+            mCorners[2 * i] = vertical ? pts[2 * i + 1] : pts[2 * i];
+            mCorners[2 * i + 1] = vertical ? pts[2 * i] : pts[2 * i + 1];
+        }
+    }
+}
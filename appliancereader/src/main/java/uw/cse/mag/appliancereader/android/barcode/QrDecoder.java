@@ -0,0 +1,394 @@
+package org.uw.cse.mag.ar.barcode;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Decodes the text of a sampled QR code, versions 1 to {@link #MAX_VERSION}.
+ * <p>
+ * Reads the format information, unmasks the symbol, reads the codewords in zigzag order,
+ * corrects each block with Reed-Solomon and parses the numeric, alphanumeric and byte
+ * segments. Model numbers fit in small versions, larger symbols are not supported.
+ * <p>
+ * A decoder is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+final class QrDecoder {
+
+    /** Largest supported version, i.e. 57x57 modules. */
+    static final int MAX_VERSION = 10;
+
+    private static final int MAX_DIMENSION = 17 + 4 * MAX_VERSION;
+    private static final int MAX_CODEWORDS = 346;
+    private static final int MAX_EC_PER_BLOCK = 30;
+
+    // For each version, and each level L, M, Q, H: EC codewords per block, then the count and
+    // data codewords of the blocks of each group.
+    private static final int[][][] BLOCKS = {
+        {{7, 1, 19, 0, 0}, {10, 1, 16, 0, 0}, {13, 1, 13, 0, 0}, {17, 1, 9, 0, 0}},
+        {{10, 1, 34, 0, 0}, {16, 1, 28, 0, 0}, {22, 1, 22, 0, 0}, {28, 1, 16, 0, 0}},
+        {{15, 1, 55, 0, 0}, {26, 1, 44, 0, 0}, {18, 2, 17, 0, 0}, {22, 2, 13, 0, 0}},
+        {{20, 1, 80, 0, 0}, {18, 2, 32, 0, 0}, {26, 2, 24, 0, 0}, {16, 4, 9, 0, 0}},
+        {{26, 1, 108, 0, 0}, {24, 2, 43, 0, 0}, {18, 2, 15, 2, 16}, {22, 2, 11, 2, 12}},
+        {{18, 2, 68, 0, 0}, {16, 4, 27, 0, 0}, {24, 4, 19, 0, 0}, {28, 4, 15, 0, 0}},
+        {{20, 2, 78, 0, 0}, {18, 4, 31, 0, 0}, {18, 2, 14, 4, 15}, {26, 4, 13, 1, 14}},
+        {{24, 2, 97, 0, 0}, {22, 2, 38, 2, 39}, {22, 4, 18, 2, 19}, {26, 4, 14, 2, 15}},
+        {{30, 2, 116, 0, 0}, {22, 3, 36, 2, 37}, {20, 4, 16, 4, 17}, {24, 4, 12, 4, 13}},
+        {{18, 2, 68, 2, 69}, {26, 4, 43, 1, 44}, {24, 6, 19, 2, 20}, {28, 6, 15, 2, 16}},
+    };
+
+    // Alignment pattern centers of each version.
+    private static final int[][] ALIGNMENT = {
+        {}, {6, 18}, {6, 22}, {6, 26}, {6, 30}, {6, 34},
+        {6, 22, 38}, {6, 24, 42}, {6, 26, 46}, {6, 28, 50},
+    };
+
+    // Level of the 2 format bits: 00 is M, 01 is L, 10 is H and 11 is Q.
+    private static final int[] LEVEL_OF_BITS = {1, 0, 3, 2};
+
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    // Masked format codes of the 32 format values, and version codes of versions 7 and up.
+    private static final int[] FORMAT_CODES = new int[32];
+    private static final int[] VERSION_CODES = new int[MAX_VERSION + 1];
+
+    static {
+        for (int f = 0; f < 32; ++f) {
+            FORMAT_CODES[f] = ((f << 10) | bchRemainder(f << 10, 0x537, 10)) ^ 0x5412;
+        }
+        for (int v = 7; v <= MAX_VERSION; ++v) {
+            VERSION_CODES[v] = (v << 12) | bchRemainder(v << 12, 0x1F25, 12);
+        }
+    }
+
+    private final byte[] mModules = new byte[MAX_DIMENSION * MAX_DIMENSION];
+    private final boolean[] mFunction = new boolean[MAX_DIMENSION * MAX_DIMENSION];
+    private int mFunctionVersion;
+    private final int[] mCodewords = new int[MAX_CODEWORDS];
+    private final int[] mBlock = new int[MAX_CODEWORDS];
+    private final byte[] mData = new byte[MAX_CODEWORDS];
+    private final ReedSolomon mRs = new ReedSolomon(MAX_EC_PER_BLOCK);
+    private final StringBuilder mText = new StringBuilder();
+
+    private int mDataBits;
+    private int mBitPos;
+
+    /**
+     * @param dimension A symbol dimension in modules.
+     * @return the version of that dimension, or -1 if it is not a supported QR code size.
+     */
+    static int versionOf(int dimension) {
+        if (dimension < 21 || (dimension - 17) % 4 != 0)
+            return -1;
+        int v = (dimension - 17) / 4;
+        return v <= MAX_VERSION ? v : -1;
+    }
+
+    /**
+     * @param version A version.
+     * @return the alignment pattern centers of the version.
+     */
+    static int[] alignmentCenters(int version) {
+        return ALIGNMENT[version - 1];
+    }
+
+    /**
+     * Decodes a symbol.
+     * @param modules   Module colors, 1 for dark, row by row.
+     * @param dimension Number of modules per side.
+     * @return the text, or null if the symbol cannot be decoded.
+     */
+    String decode(byte[] modules, int dimension) {
+        int version = versionOf(dimension);
+        if (version < 0)
+            return null;
+        System.arraycopy(modules, 0, mModules, 0, dimension * dimension);
+
+        // Format information: level and mask, from either copy.
+        int copy1 = 0, copy2 = 0;
+        for (int x = 0; x < 6; ++x) {
+            copy1 = (copy1 << 1) | module(x, 8, dimension);
+        }
+        copy1 = (copy1 << 1) | module(7, 8, dimension);
+        copy1 = (copy1 << 1) | module(8, 8, dimension);
+        copy1 = (copy1 << 1) | module(8, 7, dimension);
+        for (int y = 5; y >= 0; --y) {
+            copy1 = (copy1 << 1) | module(8, y, dimension);
+        }
+        for (int y = dimension - 1; y >= dimension - 7; --y) {
+            copy2 = (copy2 << 1) | module(8, y, dimension);
+        }
+        for (int x = dimension - 8; x < dimension; ++x) {
+            copy2 = (copy2 << 1) | module(x, 8, dimension);
+        }
+        int format = -1, bestDistance = 4;
+        for (int f = 0; f < 32; ++f) {
+            int d = Math.min(Integer.bitCount(copy1 ^ FORMAT_CODES[f]), Integer.bitCount(copy2 ^ FORMAT_CODES[f]));
+            if (d < bestDistance) {
+                bestDistance = d;
+                format = f;
+            }
+        }
+        if (format < 0)
+            return null;
+        int level = LEVEL_OF_BITS[format >> 3];
+        int mask = format & 7;
+
+        // Version information, as a check of the sampled dimension.
+        if (version >= 7) {
+            int bits = 0;
+            for (int y = 5; y >= 0; --y) {
+                for (int x = dimension - 9; x >= dimension - 11; --x) {
+                    bits = (bits << 1) | module(x, y, dimension);
+                }
+            }
+            if (Integer.bitCount(bits ^ VERSION_CODES[version]) > 3)
+                return null;
+        }
+
+        buildFunctionPatterns(version, dimension);
+        int[] blocks = BLOCKS[version - 1][level];
+        int ec = blocks[0];
+        int blockCount = blocks[1] + blocks[3];
+        int total = blocks[1] * (blocks[2] + ec) + blocks[3] * (blocks[4] + ec);
+        if (readCodewords(dimension, mask) < total)
+            return null;
+
+        // De-interleave and correct each block. Data codewords are interleaved first, then
+        // error correction codewords; the blocks of the second group have one more data codeword.
+        int shortData = blocks[2];
+        int totalData = blocks[1] * blocks[2] + blocks[3] * blocks[4];
+        int dataCount = 0;
+        for (int b = 0; b < blockCount; ++b) {
+            int data = b < blocks[1] ? blocks[2] : blocks[4];
+            for (int i = 0; i < shortData; ++i) {
+                mBlock[i] = mCodewords[i * blockCount + b];
+            }
+            if (data > shortData)
+                mBlock[shortData] = mCodewords[shortData * blockCount + b - blocks[1]];
+            for (int i = 0; i < ec; ++i) {
+                mBlock[data + i] = mCodewords[totalData + i * blockCount + b];
+            }
+            if (mRs.decode(mBlock, 0, data + ec, ec) < 0)
+                return null;
+            for (int i = 0; i < data; ++i) {
+                mData[dataCount++] = (byte) mBlock[i];
+            }
+        }
+        return parse(version, dataCount);
+    }
+
+    private int module(int x, int y, int dimension) {
+        return mModules[y * dimension + x];
+    }
+
+    /**
+     * Marks the modules that do not hold data.
+     */
+    private void buildFunctionPatterns(int version, int dimension) {
+        if (mFunctionVersion == version)
+            return;
+        boolean[] f = mFunction;
+        for (int i = 0; i < dimension * dimension; ++i) {
+            f[i] = false;
+        }
+        // Finder patterns, separators and format information.
+        mark(0, 0, 9, 9, dimension);
+        mark(dimension - 8, 0, 8, 9, dimension);
+        mark(0, dimension - 8, 9, 8, dimension);
+        // Timing patterns.
+        mark(6, 0, 1, dimension, dimension);
+        mark(0, 6, dimension, 1, dimension);
+        // Alignment patterns, except over the finder patterns.
+        int[] centers = ALIGNMENT[version - 1];
+        int last = centers.length - 1;
+        for (int i = 0; i <= last; ++i) {
+            for (int j = 0; j <= last; ++j) {
+                if ((i == 0 && j == 0) || (i == 0 && j == last) || (i == last && j == 0))
+                    continue;
+                mark(centers[i] - 2, centers[j] - 2, 5, 5, dimension);
+            }
+        }
+        // Version information.
+        if (version >= 7) {
+            mark(dimension - 11, 0, 3, 6, dimension);
+            mark(0, dimension - 11, 6, 3, dimension);
+        }
+        mFunctionVersion = version;
+    }
+
+    private void mark(int x0, int y0, int w, int h, int dimension) {
+        for (int y = y0; y < y0 + h; ++y) {
+            for (int x = x0; x < x0 + w; ++x) {
+                mFunction[y * dimension + x] = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the codewords in zigzag order from the bottom right corner, unmasking them.
+     * @return the number of complete codewords read.
+     */
+    private int readCodewords(int dimension, int mask) {
+        int count = 0, bits = 0, value = 0;
+        boolean up = true;
+        for (int x = dimension - 1; x > 0; x -= 2) {
+            if (x == 6)
+                x--;
+            for (int n = 0; n < dimension; ++n) {
+                int y = up ? dimension - 1 - n : n;
+                for (int c = 0; c < 2; ++c) {
+                    int xx = x - c;
+                    int i = y * dimension + xx;
+                    if (mFunction[i])
+                        continue;
+                    int bit = mModules[i] ^ (masked(mask, y, xx) ? 1 : 0);
+                    value = (value << 1) | bit;
+                    if (++bits == 8) {
+                        if (count < MAX_CODEWORDS)
+                            mCodewords[count++] = value;
+                        bits = 0;
+                        value = 0;
+                    }
+                }
+            }
+            up = !up;
+        }
+        return count;
+    }
+
+    private static boolean masked(int mask, int row, int col) {
+        switch (mask) {
+            case 0: return ((row + col) & 1) == 0;
+            case 1: return (row & 1) == 0;
+            case 2: return col % 3 == 0;
+            case 3: return (row + col) % 3 == 0;
+            case 4: return (((row >> 1) + (col / 3)) & 1) == 0;
+            case 5: return (row * col) % 2 + (row * col) % 3 == 0;
+            case 6: return (((row * col) % 2 + (row * col) % 3) & 1) == 0;
+            default: return (((row + col) % 2 + (row * col) % 3) & 1) == 0;
+        }
+    }
+
+    /**
+     * Parses the segments of the data codewords.
+     */
+    private String parse(int version, int dataCount) {
+        mDataBits = dataCount * 8;
+        mBitPos = 0;
+        mText.setLength(0);
+        boolean utf8 = false;
+        boolean large = version >= 10;
+        while (mDataBits - mBitPos >= 4) {
+            int mode = read(4);
+            if (mode == 0)
+                break;
+            if (mode == 1) {
+                int count = read(large ? 12 : 10);
+                for (; count >= 3; count -= 3) {
+                    int v = read(10);
+                    if (v < 0 || v > 999)
+                        return null;
+                    mText.append((char) ('0' + v / 100)).append((char) ('0' + v / 10 % 10)).append((char) ('0' + v % 10));
+                }
+                if (count == 2) {
+                    int v = read(7);
+                    if (v < 0 || v > 99)
+                        return null;
+                    mText.append((char) ('0' + v / 10)).append((char) ('0' + v % 10));
+                }
+                else if (count == 1) {
+                    int v = read(4);
+                    if (v < 0 || v > 9)
+                        return null;
+                    mText.append((char) ('0' + v));
+                }
+            }
+            else if (mode == 2) {
+                int count = read(large ? 11 : 9);
+                for (; count >= 2; count -= 2) {
+                    int v = read(11);
+                    if (v < 0 || v >= 45 * 45)
+                        return null;
+                    mText.append(ALPHANUMERIC.charAt(v / 45)).append(ALPHANUMERIC.charAt(v % 45));
+                }
+                if (count == 1) {
+                    int v = read(6);
+                    if (v < 0 || v >= 45)
+                        return null;
+                    mText.append(ALPHANUMERIC.charAt(v));
+                }
+            }
+            else if (mode == 4) {
+                int count = read(large ? 16 : 8);
+                if (count < 0 || mBitPos + 8 * count > mDataBits)
+                    return null;
+                byte[] bytes = new byte[count];
+                for (int i = 0; i < count; ++i) {
+                    bytes[i] = (byte) read(8);
+                }
+                try {
+                    mText.append(new String(bytes, utf8 || isUtf8(bytes) ? "UTF-8" : "ISO-8859-1"));
+                } catch (UnsupportedEncodingException e) {
+                    return null;
+                }
+            }
+            else if (mode == 7) {
+                // ECI designator: only UTF-8 (26) changes the byte interpretation.
+                int eci = read(8);
+                if ((eci & 0xC0) == 0x80)
+                    eci = ((eci & 0x3F) << 8) | read(8);
+                else if ((eci & 0xE0) == 0xC0)
+                    eci = ((eci & 0x1F) << 16) | read(16);
+                utf8 = eci == 26;
+            }
+            else {
+                // Kanji, structured append, FNC1: not used on model stickers.
+                return null;
+            }
+        }
+        return mText.toString();
+    }
+
+    /**
+     * Reads the next bits of the data codewords.
+     * @return the bits, or -1 past the end.
+     */
+    private int read(int n) {
+        if (mBitPos + n > mDataBits)
+            return -1;
+        int v = 0;
+        for (int i = 0; i < n; ++i, ++mBitPos) {
+            v = (v << 1) | ((mData[mBitPos >> 3] >> (7 - (mBitPos & 7))) & 1);
+        }
+        return v;
+    }
+
+    /**
+     * @return true if the bytes contain non-ASCII characters that form valid UTF-8 sequences.
+     */
+    private static boolean isUtf8(byte[] bytes) {
+        boolean nonAscii = false;
+        for (int i = 0; i < bytes.length; ) {
+            int b = bytes[i] & 0xFF;
+            int extra = b < 0x80 ? 0 : (b & 0xE0) == 0xC0 ? 1 : (b & 0xF0) == 0xE0 ? 2 : (b & 0xF8) == 0xF0 ? 3 : -1;
+            if (extra < 0 || i + extra >= bytes.length)
+                return false;
+            for (int k = 1; k <= extra; ++k) {
+                if ((bytes[i + k] & 0xC0) != 0x80)
+                    return false;
+            }
+            nonAscii |= extra > 0;
+            i += extra + 1;
+        }
+        return nonAscii;
+    }
+
+    private static int bchRemainder(int value, int generator, int degree) {
+        int highBit = 31 - Integer.numberOfLeadingZeros(generator);
+        while (value != 0 && 31 - Integer.numberOfLeadingZeros(value) >= highBit) {
+            value ^= generator << (31 - Integer.numberOfLeadingZeros(value) - highBit);
+        }
+        return value & ((1 << degree) - 1);
+    }
+}
@@ -0,0 +1,417 @@
+package org.uw.cse.mag.ar.barcode;
+
+import org.uw.cse.mag.ar.vision.Homography;
+
+/**
+ * Locates and samples QR codes in a binarized image.
+ * <p>
+ * Finder patterns are found as 1:1:3:1:1 dark-light runs along rows, confirmed along the
+ * column and the row through their center. The three finders forming the best right
+ * isosceles triangle give the orientation and the size of the symbol. From version 2, the
+ * bottom right alignment pattern is searched around its predicted position, so that the
+ * module grid follows the perspective of the sticker.
+ * <p>
+ * A reader is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+final class QrReader {
+
+    private static final int MAX_CANDIDATES = 16;
+    private static final int MAX_DIMENSION = 17 + 4 * QrDecoder.MAX_VERSION;
+    private static final int MAX_ALIGNMENTS = 4;
+
+    // Finder pattern candidates: center, module size and number of confirmations.
+    private final float[] mCx = new float[MAX_CANDIDATES];
+    private final float[] mCy = new float[MAX_CANDIDATES];
+    private final float[] mModule = new float[MAX_CANDIDATES];
+    private final int[] mHits = new int[MAX_CANDIDATES];
+    private int mCount;
+
+    private final int[] mRuns = new int[5];
+    private final int[] mCross = new int[5];
+    private final float[] mModuleCorners = new float[8];
+    private final float[] mImageCorners = new float[8];
+    private final float[] mGrid = new float[9];
+    // Alignment pattern candidates: coordinate sums, pixel count and score.
+    private final float[] mAlignX = new float[MAX_ALIGNMENTS];
+    private final float[] mAlignY = new float[MAX_ALIGNMENTS];
+    private final int[] mAlignN = new int[MAX_ALIGNMENTS];
+    private final int[] mAlignScore = new int[MAX_ALIGNMENTS];
+    private final byte[] mModules = new byte[MAX_DIMENSION * MAX_DIMENSION];
+    private final QrDecoder mDecoder = new QrDecoder();
+
+    private Binarizer mBits;
+    private String mText;
+    private final float[] mCorners = new float[8];
+
+    /**
+     * Finds and decodes a QR code.
+     * @param bits    The binarized image.
+     * @param rowStep Distance between scanned rows, in pixels.
+     * @return true if a symbol was decoded, see {@link #getText()} and {@link #getCorners()}.
+     */
+    boolean read(Binarizer bits, int rowStep) {
+        mBits = bits;
+        mCount = 0;
+        mText = null;
+        int w = bits.getWidth(), h = bits.getHeight();
+        byte[] b = bits.getBits();
+        int[] r = mRuns;
+        for (int y = rowStep / 2; y < h; y += rowStep) {
+            // The last 5 runs of the row; when the last one is dark, they alternate D L D L D.
+            int row = y * w;
+            boolean color = b[row] != 0;
+            int length = 0, runs = 0;
+            for (int x = 0; x <= w; ++x) {
+                boolean dark = x < w ? b[row + x] != 0 : !color;
+                if (dark == color) {
+                    length++;
+                    continue;
+                }
+                r[0] = r[1];
+                r[1] = r[2];
+                r[2] = r[3];
+                r[3] = r[4];
+                r[4] = length;
+                runs++;
+                if (color && runs >= 5 && isFinder(r))
+                    confirm(x, y, r);
+                color = dark;
+                length = 1;
+            }
+        }
+        if (mCount < 3)
+            return false;
+        return decodeBest();
+    }
+
+    /**
+     * @return the text of the last decoded symbol.
+     */
+    String getText() {
+        return mText;
+    }
+
+    /**
+     * @return the 4 corners of the last decoded symbol, clockwise from the top left of the
+     *         symbol, in image pixels.
+     */
+    float[] getCorners() {
+        return mCorners;
+    }
+
+    /**
+     * @return true if the 5 runs are in 1:1:3:1:1 proportions.
+     */
+    private static boolean isFinder(int[] r) {
+        int total = r[0] + r[1] + r[2] + r[3] + r[4];
+        if (total < 7)
+            return false;
+        float module = total / 7f;
+        float tolerance = module / 2f;
+        return Math.abs(module - r[0]) < tolerance && Math.abs(module - r[1]) < tolerance
+                && Math.abs(3f * module - r[2]) < 3f * tolerance
+                && Math.abs(module - r[3]) < tolerance && Math.abs(module - r[4]) < tolerance;
+    }
+
+    /**
+     * Confirms a finder pattern found along a row, ending at {@code end}, then records it.
+     */
+    private void confirm(int end, int y, int[] r) {
+        int total = r[0] + r[1] + r[2] + r[3] + r[4];
+        float cx = end - r[4] - r[3] - r[2] / 2f;
+        float cy = crossCheck((int) cx, y, total, true);
+        if (Float.isNaN(cy))
+            return;
+        cx = crossCheck((int) cx, (int) cy, total, false);
+        if (Float.isNaN(cx))
+            return;
+        float module = total / 7f;
+        for (int i = 0; i < mCount; ++i) {
+            if (Math.abs(cx - mCx[i]) <= mModule[i] && Math.abs(cy - mCy[i]) <= mModule[i]
+                    && Math.abs(module - mModule[i]) <= Math.max(1f, mModule[i] / 2f)) {
+                int n = mHits[i];
+                mCx[i] = (mCx[i] * n + cx) / (n + 1);
+                mCy[i] = (mCy[i] * n + cy) / (n + 1);
+                mModule[i] = (mModule[i] * n + module) / (n + 1);
+                mHits[i] = n + 1;
+                return;
+            }
+        }
+        if (mCount < MAX_CANDIDATES) {
+            mCx[mCount] = cx;
+            mCy[mCount] = cy;
+            mModule[mCount] = module;
+            mHits[mCount] = 1;
+            mCount++;
+        }
+    }
+
+    /**
+     * Checks the 1:1:3:1:1 pattern along a column (or a row) through a point.
+     * @return the center of the pattern along that line, or NaN.
+     */
+    private float crossCheck(int x, int y, int expected, boolean vertical) {
+        Binarizer b = mBits;
+        int max = vertical ? b.getHeight() : b.getWidth();
+        int p = vertical ? y : x;
+        int[] r = mCross;
+        r[0] = r[1] = r[2] = r[3] = r[4] = 0;
+        if (!dark(b, x, y, vertical, p))
+            return Float.NaN;
+        int i = p;
+        while (i >= 0 && dark(b, x, y, vertical, i)) { r[2]++; i--; }
+        while (i >= 0 && !dark(b, x, y, vertical, i)) { r[1]++; i--; }
+        while (i >= 0 && dark(b, x, y, vertical, i)) { r[0]++; i--; }
+        i = p + 1;
+        while (i < max && dark(b, x, y, vertical, i)) { r[2]++; i++; }
+        while (i < max && !dark(b, x, y, vertical, i)) { r[3]++; i++; }
+        while (i < max && dark(b, x, y, vertical, i)) { r[4]++; i++; }
+        int total = r[0] + r[1] + r[2] + r[3] + r[4];
+        if (5 * Math.abs(total - expected) >= 2 * expected || !isFinder(r))
+            return Float.NaN;
+        return i - r[4] - r[3] - r[2] / 2f;
+    }
+
+    private static boolean dark(Binarizer b, int x, int y, boolean vertical, int i) {
+        return vertical ? b.isDark(x, i) : b.isDark(i, y);
+    }
+
+    /**
+     * Decodes the triple of finder patterns closest to a right isosceles triangle.
+     */
+    private boolean decodeBest() {
+        int bi = -1, bj = -1, bk = -1;
+        float bestScore = Float.MAX_VALUE;
+        for (int i = 0; i < mCount; ++i) {
+            for (int j = i + 1; j < mCount; ++j) {
+                for (int k = j + 1; k < mCount; ++k) {
+                    float score = triangleScore(i, j, k);
+                    if (score < bestScore) {
+                        bestScore = score;
+                        bi = i;
+                        bj = j;
+                        bk = k;
+                    }
+                }
+            }
+        }
+        if (bi < 0 || bestScore > 0.5f)
+            return false;
+        return decode(bi, bj, bk);
+    }
+
+    /**
+     * @return how far the 3 patterns are from a right isosceles triangle of equal modules, 0 being perfect.
+     */
+    private float triangleScore(int i, int j, int k) {
+        float mi = mModule[i], mj = mModule[j], mk = mModule[k];
+        float mMax = Math.max(mi, Math.max(mj, mk));
+        float mMin = Math.min(mi, Math.min(mj, mk));
+        if (mMax > 1.5f * mMin)
+            return Float.MAX_VALUE;
+        float a = dist2(j, k), b = dist2(i, k), c = dist2(i, j);
+        // Hypotenuse c, legs a and b.
+        if (a > c && a >= b) { float t = a; a = c; c = t; }
+        else if (b > c) { float t = b; b = c; c = t; }
+        float legs = (float) Math.abs(Math.sqrt(a) - Math.sqrt(b)) / (float) Math.sqrt(Math.max(a, b));
+        float right = Math.abs(c - a - b) / c;
+        return legs + right;
+    }
+
+    private float dist2(int i, int j) {
+        float dx = mCx[i] - mCx[j], dy = mCy[i] - mCy[j];
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Orients 3 finder patterns and decodes their symbol.
+     */
+    private boolean decode(int i, int j, int k) {
+        // Top left: the right angle, opposite to the hypotenuse.
+        int tl, a, c;
+        float dij = dist2(i, j), dik = dist2(i, k), djk = dist2(j, k);
+        if (djk >= dij && djk >= dik) { tl = i; a = j; c = k; }
+        else if (dik >= dij) { tl = j; a = i; c = k; }
+        else { tl = k; a = i; c = j; }
+        // In image coordinates (y down), top right then bottom left turn clockwise.
+        float cross = (mCx[a] - mCx[tl]) * (mCy[c] - mCy[tl]) - (mCy[a] - mCy[tl]) * (mCx[c] - mCx[tl]);
+        int tr = cross > 0 ? a : c;
+        int bl = cross > 0 ? c : a;
+
+        // Each side in the module size of its ends, which differ under perspective.
+        float module = (mModule[tl] + mModule[tr] + mModule[bl]) / 3f;
+        float side = (float) Math.sqrt(dist2(tl, tr)) / (mModule[tl] + mModule[tr])
+                + (float) Math.sqrt(dist2(tl, bl)) / (mModule[tl] + mModule[bl]);
+        // Dimensions are 4 * version + 17: try the closest one, then the other around the estimate.
+        float estimate = side + 7;
+        int below = (int) estimate - (((int) estimate - 1) & 3);
+        int first = estimate - below > 2 ? below + 4 : below;
+        int second = first == below ? below + 4 : below;
+        return sample(tl, tr, bl, module, first) || sample(tl, tr, bl, module, second);
+    }
+
+    /**
+     * Samples and decodes the symbol of 3 finder patterns, assuming a dimension.
+     */
+    private boolean sample(int tl, int tr, int bl, float module, int dimension) {
+        int version = QrDecoder.versionOf(dimension);
+        if (version < 0)
+            return false;
+
+        // Module space to image, finder centers at 3.5 modules from the corners.
+        float far = dimension - 3.5f;
+        float[] mc = mModuleCorners, ic = mImageCorners;
+        mc[0] = 3.5f; mc[1] = 3.5f; ic[0] = mCx[tl]; ic[1] = mCy[tl];
+        mc[2] = far; mc[3] = 3.5f; ic[2] = mCx[tr]; ic[3] = mCy[tr];
+        mc[4] = 3.5f; mc[5] = far; ic[4] = mCx[bl]; ic[5] = mCy[bl];
+        float brx = mCx[tr] + mCx[bl] - mCx[tl];
+        float bry = mCy[tr] + mCy[bl] - mCy[tl];
+        if (version >= 2) {
+            // Bottom right alignment pattern, at 6.5 modules from the bottom right corner.
+            // Data can look like one, so each candidate is checked by decoding.
+            float f = (dimension - 10f) / (dimension - 7f);
+            int found = findAlignments(mCx[tl] + f * (brx - mCx[tl]), mCy[tl] + f * (bry - mCy[tl]), module);
+            mc[6] = dimension - 6.5f;
+            mc[7] = dimension - 6.5f;
+            for (int i = 0; i < found; ++i) {
+                ic[6] = mAlignX[i];
+                ic[7] = mAlignY[i];
+                if (sampleGrid(dimension))
+                    return true;
+            }
+        }
+        // Without perspective, the 4th corner of the parallelogram.
+        mc[6] = far;
+        mc[7] = far;
+        ic[6] = brx;
+        ic[7] = bry;
+        return sampleGrid(dimension);
+    }
+
+    /**
+     * Samples the center of every module through the mapping of {@link #mModuleCorners}
+     * to {@link #mImageCorners}, and decodes the symbol.
+     */
+    private boolean sampleGrid(int dimension) {
+        if (!Homography.fromPoints(mModuleCorners, mImageCorners, mGrid))
+            return false;
+        float[] g = mGrid;
+        for (int y = 0; y < dimension; ++y) {
+            for (int x = 0; x < dimension; ++x) {
+                float u = x + 0.5f, v = y + 0.5f;
+                float iw = 1f / (g[6] * u + g[7] * v + g[8]);
+                int px = (int) ((g[0] * u + g[1] * v + g[2]) * iw);
+                int py = (int) ((g[3] * u + g[4] * v + g[5]) * iw);
+                mModules[y * dimension + x] = (byte) (mBits.isDark(px, py) ? 1 : 0);
+            }
+        }
+        String text = mDecoder.decode(mModules, dimension);
+        if (text == null)
+            return false;
+        mText = text;
+        float[] corners = mCorners;
+        corners[0] = 0; corners[1] = 0;
+        corners[2] = dimension; corners[3] = 0;
+        corners[4] = dimension; corners[5] = dimension;
+        corners[6] = 0; corners[7] = dimension;
+        Homography.project(g, corners, 0, corners, 0, 4);
+        return true;
+    }
+
+    /**
+     * Searches alignment patterns, a dark module in a light ring in a dark ring, within 6
+     * modules of a predicted center. Pixels matching at least 15 of the 16 ring tests are
+     * grouped by module.
+     * @return the number of candidates, best first in {@link #mAlignX} and {@link #mAlignY}.
+     */
+    private int findAlignments(float px, float py, float module) {
+        int m = Math.max(1, Math.round(module));
+        int radius = Math.round(6 * module);
+        int cx = Math.round(px), cy = Math.round(py);
+        int count = 0;
+        for (int y = cy - radius; y <= cy + radius; ++y) {
+            for (int x = cx - radius; x <= cx + radius; ++x) {
+                int score = alignmentScore(x, y, m);
+                if (score < 15)
+                    continue;
+                int c = 0;
+                while (c < count && (Math.abs(x * mAlignN[c] - mAlignX[c]) > m * mAlignN[c]
+                        || Math.abs(y * mAlignN[c] - mAlignY[c]) > m * mAlignN[c]))
+                    c++;
+                if (c == count) {
+                    // A new module, replacing the worst candidate when full.
+                    if (count < MAX_ALIGNMENTS)
+                        count++;
+                    else if (score <= mAlignScore[--c])
+                        continue;
+                    mAlignScore[c] = -1;
+                }
+                if (score > mAlignScore[c]) {
+                    mAlignScore[c] = score;
+                    mAlignN[c] = 0;
+                    mAlignX[c] = mAlignY[c] = 0;
+                }
+                if (score == mAlignScore[c]) {
+                    mAlignN[c]++;
+                    mAlignX[c] += x;
+                    mAlignY[c] += y;
+                }
+                // Keep the candidates sorted by score, then distance to the prediction.
+                while (c > 0 && better(c, c - 1, px, py)) {
+                    swapAlignments(c, c - 1);
+                    c--;
+                }
+            }
+        }
+        for (int c = 0; c < count; ++c) {
+            mAlignX[c] = mAlignX[c] / mAlignN[c] + 0.5f;
+            mAlignY[c] = mAlignY[c] / mAlignN[c] + 0.5f;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of the 8 directions where (x, y) is dark, light 1 module away and
+     *         dark 2 modules away, each test counting once, or 0 if (x, y) is light.
+     */
+    private int alignmentScore(int x, int y, int m) {
+        Binarizer b = mBits;
+        if (!b.isDark(x, y))
+            return 0;
+        int score = 0;
+        for (int dy = -1; dy <= 1; ++dy) {
+            for (int dx = -1; dx <= 1; ++dx) {
+                if (dx == 0 && dy == 0)
+                    continue;
+                if (!b.isDark(x + dx * m, y + dy * m))
+                    score++;
+                if (b.isDark(x + 2 * dx * m, y + 2 * dy * m))
+                    score++;
+            }
+        }
+        return score;
+    }
+
+    private boolean better(int a, int b, float px, float py) {
+        if (mAlignScore[a] != mAlignScore[b])
+            return mAlignScore[a] > mAlignScore[b];
+        float ax = mAlignX[a] / mAlignN[a] - px, ay = mAlignY[a] / mAlignN[a] - py;
+        float bx = mAlignX[b] / mAlignN[b] - px, by = mAlignY[b] / mAlignN[b] - py;
+        return ax * ax + ay * ay < bx * bx + by * by;
+    }
+
+    private void swapAlignments(int a, int b) {
+        float x = mAlignX[a], y = mAlignY[a];
+        int n = mAlignN[a], score = mAlignScore[a];
+        mAlignX[a] = mAlignX[b];
+        mAlignY[a] = mAlignY[b];
+        mAlignN[a] = mAlignN[b];
+        mAlignScore[a] = mAlignScore[b];
+        mAlignX[b] = x;
+        mAlignY[b] = y;
+        mAlignN[b] = n;
+        mAlignScore[b] = score;
+    }
+}
@@ -0,0 +1,169 @@
+package org.uw.cse.mag.ar.barcode;
+
+/**
+ * Reed-Solomon error correction over GF(256), primitive polynomial 0x11D and first
+ * generator root 1, as used by QR codes.
+ * <p>
+ * Syndromes, Berlekamp-Massey, Chien search and Forney's formula, all in preallocated
+ * arrays: a decoder is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+final class ReedSolomon {
+
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; ++i) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256)
+                x ^= 0x11D;
+        }
+        for (int i = 255; i < 512; ++i) {
+            EXP[i] = EXP[i - 255];
+        }
+    }
+
+    private final int[] mSyndromes;
+    private final int[] mLocator;
+    private final int[] mPrevious;
+    private final int[] mTemp;
+    private final int[] mEvaluator;
+    private final int[] mPositions;
+
+    /**
+     * Constructor.
+     * @param maxEcCodewords the largest number of error correction codewords per block.
+     */
+    ReedSolomon(int maxEcCodewords) {
+        mSyndromes = new int[maxEcCodewords];
+        mLocator = new int[maxEcCodewords + 1];
+        mPrevious = new int[maxEcCodewords + 1];
+        mTemp = new int[maxEcCodewords + 1];
+        mEvaluator = new int[maxEcCodewords];
+        mPositions = new int[maxEcCodewords];
+    }
+
+    private static int mul(int a, int b) {
+        return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]];
+    }
+
+    /**
+     * Corrects a block in place.
+     * @param block    Data then error correction codewords, as unsigned bytes.
+     * @param off      Index of the first codeword.
+     * @param length   Total number of codewords.
+     * @param ecLength Number of error correction codewords.
+     * @return the number of corrected codewords, or -1 if the block cannot be corrected.
+     */
+    int decode(int[] block, int off, int length, int ecLength) {
+        // Syndromes S_i = r(a^i), codeword 0 being the highest degree coefficient.
+        boolean clean = true;
+        for (int i = 0; i < ecLength; ++i) {
+            int s = 0;
+            for (int k = 0; k < length; ++k) {
+                s = mul(s, EXP[i]) ^ block[off + k];
+            }
+            mSyndromes[i] = s;
+            if (s != 0)
+                clean = false;
+        }
+        if (clean)
+            return 0;
+
+        // Berlekamp-Massey: error locator polynomial, lowest degree first.
+        int[] c = mLocator, b = mPrevious, t = mTemp;
+        for (int i = 0; i <= ecLength; ++i) {
+            c[i] = 0;
+            b[i] = 0;
+        }
+        c[0] = 1;
+        b[0] = 1;
+        int errors = 0;
+        int m = 1;
+        int bLast = 1;
+        for (int n = 0; n < ecLength; ++n) {
+            int d = mSyndromes[n];
+            for (int i = 1; i <= errors; ++i) {
+                d ^= mul(c[i], mSyndromes[n - i]);
+            }
+            if (d == 0) {
+                m++;
+                continue;
+            }
+            int coef = mul(d, EXP[255 - LOG[bLast]]);
+            if (2 * errors <= n) {
+                System.arraycopy(c, 0, t, 0, ecLength + 1);
+                for (int i = 0; i + m <= ecLength; ++i) {
+                    c[i + m] ^= mul(coef, b[i]);
+                }
+                errors = n + 1 - errors;
+                System.arraycopy(t, 0, b, 0, ecLength + 1);
+                bLast = d;
+                m = 1;
+            }
+            else {
+                for (int i = 0; i + m <= ecLength; ++i) {
+                    c[i + m] ^= mul(coef, b[i]);
+                }
+                m++;
+            }
+        }
+        if (2 * errors > ecLength)
+            return -1;
+
+        // Chien search: the roots of the locator are the inverses of a^p, p the error powers.
+        int found = 0;
+        for (int p = 0; p < length; ++p) {
+            int inv = EXP[(255 - p) % 255];
+            int v = 0;
+            for (int i = errors; i >= 0; --i) {
+                v = mul(v, inv) ^ c[i];
+            }
+            if (v == 0) {
+                if (found == errors)
+                    return -1;
+                mPositions[found++] = p;
+            }
+        }
+        if (found != errors)
+            return -1;
+
+        // Forney: evaluator omega = S(x) c(x) mod x^ecLength.
+        for (int i = 0; i < ecLength; ++i) {
+            int v = 0;
+            for (int j = 0; j <= Math.min(i, errors); ++j) {
+                v ^= mul(c[j], mSyndromes[i - j]);
+            }
+            mEvaluator[i] = v;
+        }
+        for (int e = 0; e < found; ++e) {
+            int p = mPositions[e];
+            int xInv = EXP[(255 - p) % 255];
+            int omega = 0;
+            for (int i = ecLength - 1; i >= 0; --i) {
+                omega = mul(omega, xInv) ^ mEvaluator[i];
+            }
+            // Formal derivative of c at xInv: odd terms only.
+            int deriv = 0;
+            for (int i = 1; i <= errors; i += 2) {
+                int term = c[i];
+                for (int k = 0; k < i - 1; ++k) {
+                    term = mul(term, xInv);
+                }
+                deriv ^= term;
+            }
+            if (deriv == 0)
+                return -1;
+            // With first root a^0, the magnitude is X * omega(X^-1) / c'(X^-1).
+            int magnitude = mul(EXP[p % 255], mul(omega, EXP[255 - LOG[deriv]]));
+            int k = off + length - 1 - p;
+            block[k] ^= magnitude;
+        }
+        return found;
+    }
+}
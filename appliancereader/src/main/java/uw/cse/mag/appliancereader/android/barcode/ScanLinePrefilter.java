@@ -0,0 +1,166 @@
+package org.uw.cse.mag.ar.barcode;
+
+import org.uw.cse.mag.ar.util.Result;
+import org.uw.cse.mag.ar.vision.GrayImage;
+
+/**
+ * Cheap test of a frame for barcode-like structure, run before any decoding.
+ * <p>
+ * A sparse set of rows and columns is thresholded against a running mean with hysteresis,
+ * so that only contrasted edges count. A long sequence of narrow runs between sharp edges,
+ * each within 4 times the width of the previous one, looks like a 1D barcode, and 5 runs in
+ * 1:1:3:1:1 proportions, again across the line through their middle, like a QR code finder
+ * pattern when seen twice. Frames with neither are rejected after reading a few percent of
+ * their pixels.
+ * <p>
+ * Buffers grow with the largest frame seen; a prefilter is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+final class ScanLinePrefilter {
+
+    private static final int WINDOW = 32;
+    private static final int HYSTERESIS = 8;
+    private static final int MIN_BAR_RUNS = 36;
+    private static final int MIN_EDGE = 20;
+    private static final int MIN_FINDERS = 2;
+
+    /**
+     * Distance between scan lines, in pixels.
+     */
+    int lineSpacing = 16;
+
+    private int[] mSums = new int[0];
+    private final int[] mRuns = new int[5];
+    private final int[] mCross = new int[5];
+    private int mFinders;
+
+    /**
+     * Tests a frame.
+     * @param img   The luma image.
+     * @param types The {@link Result.Type} barcode flags wanted.
+     * @return the wanted flags whose structure was seen, 0 if the frame can be skipped.
+     */
+    int candidates(GrayImage img, int types) {
+        int oneD = types & (Result.Type.EAN13 | Result.Type.EAN8);
+        int qr = types & Result.Type.QRCODE;
+        if (oneD == 0 && qr == 0)
+            return 0;
+        int w = img.width, h = img.height;
+        if (mSums.length < Math.max(w, h) + 1)
+            mSums = new int[Math.max(w, h) + 1];
+        int found = 0;
+        mFinders = 0;
+        int spacing = Math.max(1, lineSpacing);
+        for (int pass = 0; pass < 2; ++pass) {
+            boolean vertical = pass == 1;
+            int lines = vertical ? w : h;
+            int length = vertical ? h : w;
+            int step = vertical ? img.stride : 1;
+            int across = vertical ? 1 : img.stride;
+            for (int l = spacing / 2; l < lines; l += spacing) {
+                int start = vertical ? img.offset + l : img.offset + l * img.stride;
+                found |= scanLine(img.data, start, step, length, across, l, lines, oneD, qr);
+                if (found == (oneD | qr))
+                    return found;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Tests a line.
+     * @param across Step to the next line.
+     * @param line   Index of the line.
+     * @param lines  Number of lines.
+     */
+    private int scanLine(byte[] d, int start, int step, int length, int across, int line, int lines,
+            int oneD, int qr) {
+        int[] sums = mSums;
+        sums[0] = 0;
+        for (int i = 0, p = start; i < length; ++i, p += step) {
+            sums[i + 1] = sums[i] + (d[p] & 0xFF);
+        }
+        int[] r = mRuns;
+        int maxBar = Math.max(4, length / 20);
+        int bars = 0, runs = 0, run = 0;
+        int found = 0;
+        boolean dark = false;
+        for (int i = 0, p = start; i < length; ++i, p += step) {
+            int lo = Math.max(0, i - WINDOW / 2);
+            int hi = Math.min(length, i + WINDOW / 2);
+            // Against the mean of the window, scaled by its size rather than divided.
+            int n = hi - lo;
+            int sum = sums[hi] - sums[lo];
+            int v = d[p] & 0xFF;
+            boolean next = dark ? v * n < sum + HYSTERESIS * n : v * n < sum - HYSTERESIS * n;
+            if (next == dark) {
+                run++;
+                continue;
+            }
+            // A run of the current color ended. Bars and spaces are 1 to 4 modules wide, with
+            // printed edges much sharper than shading.
+            int last = r[4];
+            boolean sharp = i >= 2 && Math.abs(v - (d[p - 2 * step] & 0xFF)) >= MIN_EDGE;
+            bars = sharp && run <= maxBar && run <= 4 * last && last <= 4 * run ? bars + 1 : 0;
+            if (bars >= MIN_BAR_RUNS)
+                found |= oneD;
+            r[0] = r[1];
+            r[1] = r[2];
+            r[2] = r[3];
+            r[3] = r[4];
+            r[4] = run;
+            runs++;
+            if (dark && qr != 0 && runs >= 5 && isFinder(r)) {
+                // Middle run from m0 to m1, light runs around it from m0 - r[1] to m1 + r[3].
+                int m1 = i - r[4] - r[3];
+                int m0 = m1 - r[2];
+                int darkMean = (sums[m1] - sums[m0]) / r[2];
+                int lightMean = (sums[m0] - sums[m0 - r[1]] + sums[m1 + r[3]] - sums[m1]) / (r[1] + r[3]);
+                int center = start + (m0 + r[2] / 2) * step;
+                int total = r[0] + r[1] + r[2] + r[3] + r[4];
+                // A symbol has 3 finders, each usually crossed by several lines.
+                if (crossFinder(d, center, across, line, lines, (darkMean + lightMean) / 2, total)
+                        && ++mFinders >= MIN_FINDERS)
+                    found |= qr;
+            }
+            if (found == (oneD | qr))
+                return found;
+            dark = next;
+            run = 1;
+        }
+        return found;
+    }
+
+    /**
+     * Checks the 1:1:3:1:1 pattern across the line through a dark pixel, walking at most
+     * the expected length per run.
+     * @return true if found, of about the expected total length.
+     */
+    private boolean crossFinder(byte[] d, int center, int across, int line, int lines, int threshold, int expected) {
+        int[] r = mCross;
+        r[0] = r[1] = r[2] = r[3] = r[4] = 0;
+        int i = line, p = center;
+        while (i >= 0 && (d[p] & 0xFF) < threshold && r[2] < expected) { r[2]++; i--; p -= across; }
+        while (i >= 0 && (d[p] & 0xFF) >= threshold && r[1] < expected) { r[1]++; i--; p -= across; }
+        while (i >= 0 && (d[p] & 0xFF) < threshold && r[0] < expected) { r[0]++; i--; p -= across; }
+        i = line + 1;
+        p = center + across;
+        while (i < lines && (d[p] & 0xFF) < threshold && r[2] < expected) { r[2]++; i++; p += across; }
+        while (i < lines && (d[p] & 0xFF) >= threshold && r[3] < expected) { r[3]++; i++; p += across; }
+        while (i < lines && (d[p] & 0xFF) < threshold && r[4] < expected) { r[4]++; i++; p += across; }
+        int total = r[0] + r[1] + r[2] + r[3] + r[4];
+        return 2 * Math.abs(total - expected) < expected && isFinder(r);
+    }
+
+    private static boolean isFinder(int[] r) {
+        int total = r[0] + r[1] + r[2] + r[3] + r[4];
+        if (total < 7)
+            return false;
+        // Within half a module, in units of total / 7.
+        int tolerance = total / 2;
+        return Math.abs(total - 7 * r[0]) < tolerance && Math.abs(total - 7 * r[1]) < tolerance
+                && Math.abs(3 * total - 7 * r[2]) < 3 * tolerance
+                && Math.abs(total - 7 * r[3]) < tolerance && Math.abs(total - 7 * r[4]) < tolerance;
+    }
+}
@@ -41,11 +41,11 @@ public class Appliance implements Parcelable {
      * Directory where all the files are stored
      */
     private String mDirectory;
-//
-//    /**
-//     * Directory that stores appliance features
-//     */
-//    private ApplianceFeatures mFeatures;
+
+    /**
+     * Features of this appliance, loaded on first use; never parceled.
+     */
+    private FeatureHandle mFeatures;
 
     /**
      * Creates a bare Appliance with
@@ -156,9 +156,17 @@ public class Appliance implements Parcelable {
 //        return !mFeatures.isEmpty();
 //    }
 
-//    public ApplianceFeatures getApplianceFeatures(){
-//        return mFeatures;
-//    }
+    /**
+     * Returns the handle of the features of this appliance. The features are not loaded
+     * until the handle is asked for them, so this is cheap for appliances never scanned.
+     *
+     * @return the feature handle, shared by all the callers
+     */
+    public synchronized FeatureHandle getFeatures(){
+        if (mFeatures == null)
+            mFeatures = new FeatureHandle(this);
+        return mFeatures;
+    }
 
     public String getDirectoryPath(){
         return mDirectory;
@@ -192,30 +200,27 @@ public class Appliance implements Parcelable {
         return b;
     }
 
-//    /**
-//     * Creates an Appliance from a Bundle.
-//     *
-//     * @param Bundle representation of an appliance
-//     * @return null if Bundle doesn't represent appliance, Apliance otherwise
-//     */
-//    public static Appliance toAppliance(Bundle b){
-//        if (b == null) return null;
-//        long id = b.getLong(BUNDLE_ID, -1);
-//        if (id == -1L) return null;
-//        Appliance a = new Appliance();
-//        a.setId(id);
-//        a.setNickName(b.getString(BUNDLE_NICKNAME));
-//        a.setMake(b.getString(BUNDLE_MAKE));
-//        a.setModel(b.getString(BUNDLE_MODEL));
-//        a.setType(b.getString(BUNDLE_TYPE));
-//        a.setDirectoryPath(b.getString(BUNDLE_DIR));
-//
-//        // Attempt to get and reload the appliance features
-//        FileManager f = FileManager.getInstance();
-//        ApplianceFeatures af = f.getFeatures(a);
-//        a.mFeatures = af;
-//        return a;
-//    }
+    /**
+     * Creates an Appliance from a Bundle. Only the metadata is read: the features are
+     * loaded when {@link #getFeatures()} is first asked for them.
+     *
+     * @param b Bundle representation of an appliance
+     * @return null if Bundle doesn't represent appliance, Apliance otherwise
+     */
+    public static Appliance toAppliance(Bundle b){
+        if (b == null) return null;
+        long id = b.getLong(BUNDLE_ID, -1);
+        if (id == -1L) return null;
+        String make = b.getString(BUNDLE_MAKE);
+        String model = b.getString(BUNDLE_MODEL);
+        if (make == null || make.isEmpty() || model == null || model.isEmpty()) return null;
+        Appliance a = new Appliance(make, model);
+        a.setId(id);
+        a.setNickName(b.getString(BUNDLE_NICKNAME));
+        a.setType(b.getString(BUNDLE_TYPE));
+        a.setDirectoryPath(b.getString(BUNDLE_DIR));
+        return a;
+    }
 
 //    /**
 //     * Returns Configuration.ORIENTATION_LANDSCAPE, or Configuration.ORIENTATION_PORTRAIT
@@ -2,17 +2,22 @@ package org.uw.cse.mag.ar.data;
 
 import android.graphics.Point;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.uw.cse.mag.ar.vision.Homography;
+
 /**
  * <p>Contains the base contents for a distinguishable feature
  * inside an image. </p>
  * <p/>
  * The image is associated with values that correspond to different attributes and labels.
  * it is up to any client class that implements subclasses of this to decide the value of the attributes.
+ * <p/>
+ * The shape is stored as packed (x, y) pairs in a single float array, the layout used by
+ * {@link Homography#project}. Transforms work on it in place, and projections write into a
+ * buffer of the caller, so that no transform allocates.
  *
  * @author mhotan
  */
@@ -25,9 +30,10 @@ public class ApplianceFeature {
      */
     protected final String mName;
     /**
-     * List of points of this feature that describe its overall shape.
+     * Points of this feature that describe its overall shape, as packed (x, y) pairs
+     * in reference image coordinates.
      */
-    protected final List<Point> mPoints;
+    protected final float[] mCoords;
 
     /**
      * Create an Appliance Feature that
@@ -36,22 +42,39 @@ public class ApplianceFeature {
      * @param shape Points that correspond to Shape of this feature
      */
     public ApplianceFeature(String name, List<Point> shape) {
+        this(name, pack(shape));
+    }
+
+    /**
+     * Create an Appliance Feature from packed coordinates.
+     *
+     * @param name    Name of feature
+     * @param polygon (x, y) pairs of the shape of this feature; copied
+     */
+    public ApplianceFeature(String name, float[] polygon) {
         if (name == null) {
             log.log(Level.SEVERE, "Appliance Feature Attempted to be made with null name");
             throw new IllegalArgumentException("Appliance name cannot be null");
         }
-        if (shape.size() <= 2) {
-            log.log(Level.SEVERE, "Feature: " + name + " has to little points, size: " + shape.size());
-            throw new IllegalArgumentException("Number of shapes must be greater then 2, not " + shape.size());
+        if (polygon == null || (polygon.length & 1) != 0)
+            throw new IllegalArgumentException("Feature: " + name + " has an odd number of coordinates");
+        if (polygon.length <= 4) {
+            log.log(Level.SEVERE, "Feature: " + name + " has to little points, size: " + polygon.length / 2);
+            throw new IllegalArgumentException("Number of shapes must be greater then 2, not " + polygon.length / 2);
         }
 
         mName = name;
+        mCoords = polygon.clone();
+    }
 
-        //
-        mPoints = new ArrayList<Point>(shape.size());
-        for (Point p : shape) {
-            mPoints.add(new Point(p));
+    private static float[] pack(List<Point> shape) {
+        float[] coords = new float[2 * shape.size()];
+        for (int i = 0; i < shape.size(); ++i) {
+            Point p = shape.get(i);
+            coords[2 * i] = p.x;
+            coords[2 * i + 1] = p.y;
         }
+        return coords;
     }
 
     /**
@@ -61,25 +84,84 @@ public class ApplianceFeature {
         return mName;
     }
 
-//	/**
-//	 * @return Copy of the list of
-//	 */
-//	public List<Point> getPoints(){
-//		assert mPoints != null: "list of points null";
-//		return Collections.unmodifiableList(mPoints);
-//	}
+    /**
+     * @return the number of points of the shape of this feature.
+     */
+    public int getPointCount() {
+        return mCoords.length / 2;
+    }
+
+    /**
+     * @return the x coordinate of point i.
+     */
+    public float getX(int i) {
+        return mCoords[2 * i];
+    }
+
+    /**
+     * @return the y coordinate of point i.
+     */
+    public float getY(int i) {
+        return mCoords[2 * i + 1];
+    }
+
+    /**
+     * @return the shape of this feature as packed (x, y) pairs, in reference image coordinates.
+     */
+    public float[] toPolygon() {
+        return mCoords.clone();
+    }
+
+    /**
+     * Copies the shape of this feature into a buffer.
+     *
+     * @param dst    Receives the (x, y) pairs
+     * @param offset Index of the first coordinate to write
+     * @return the index following the last coordinate written
+     */
+    public int getPolygon(float[] dst, int offset) {
+        System.arraycopy(mCoords, 0, dst, offset, mCoords.length);
+        return offset + mCoords.length;
+    }
+
+    /**
+     * Projects the shape of this feature into a buffer, e.g. into a camera frame.
+     *
+     * @param h      Row-major homography from reference image to destination coordinates
+     * @param dst    Receives the projected (x, y) pairs
+     * @param offset Index of the first coordinate to write
+     * @return the index following the last coordinate written
+     */
+    public int project(float[] h, float[] dst, int offset) {
+        Homography.project(h, mCoords, 0, dst, offset, mCoords.length / 2);
+        return offset + mCoords.length;
+    }
+
+    /**
+     * Gets the bounding box of this feature.
+     *
+     * @param dst Receives left, top, right and bottom
+     */
+    public void getBounds(float[] dst) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < mCoords.length; i += 2) {
+            float x = mCoords[i], y = mCoords[i + 1];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        dst[0] = minX;
+        dst[1] = minY;
+        dst[2] = maxX;
+        dst[3] = maxY;
+    }
 
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer();
         buf.append(mName + ":");
-//		for (Point P: mPoints) {
-//			buf.append(" (");
-//			buf.append(P.x);
-//			buf.append(", ");
-//			buf.append(P.y);
-//			buf.append(")");
-//		}
         return buf.toString();
     }
 
@@ -95,90 +177,91 @@ public class ApplianceFeature {
         if (scaleFactor <= 0) {
             throw new IllegalArgumentException("Scalefactor cannot be 0 or negative. Argument: " + scaleFactor);
         }
-//
-//		List<Point> scaledList = new ArrayList<Point>(mPoints.size());
-//
-//		for (Point p : mPoints) {
-//			scaledList.add(new Point(p.x * scaleFactor, p.y * scaleFactor));
-//		}
-//
-//		// Clear out the old points
-//		mPoints.clear();
-//		for (Point p: scaledList) {
-//			mPoints.add(p);
-//		}
-    }
-
-//	/**
-//	 * Returns a bounding box for this appliance
-//	 * @return bounding box surrounding all the points
-//	 */
-//	public Rect getBoundingBox(){
-//		double minX = Double.MAX_VALUE;
-//		double minY = Double.MAX_VALUE;
-//		double maxX = Double.MIN_VALUE;
-//		double maxY = Double.MIN_VALUE;
-//
-//		for (Point p: mPoints){
-//			if (p.x < minX) minX = p.x;
-//			if (p.x > maxX) maxX = p.x;
-//			if (p.y < minY) minY = p.y;
-//			if (p.y > maxY) maxY = p.y;
-//		}
-//		Point minPt = new Point(minX, minY);
-//		Point maxPt = new Point(maxX, maxY);
-//		Rect r = new Rect(minPt, maxPt);
-//
-//		log.log(Level.INFO, "Bounding box found around feature " + mName + " TL:" + r.tl() + " BR:" + r.br());
-//
-//		return r;
-//	}
-//
-//	/**
-//	 * Rotates this feature
-//	 * @param center center to rotate feature around
-//	 * @param radians
-//	 */
-//	public void rotate(Point center, double radians) {
-//		List<Point> rotatedList = new ArrayList<Point>(mPoints.size());
-//		for (Point p : mPoints) {
-//			// translate point tP
-//			Point tP = new Point(p.x - center.x, p.y - center.y);
-//			// Rotated point
-//			Point rP = new Point(tP.x * Math.cos(radians) - tP.y * Math.sin(radians),
-//					tP.x * Math.sin(radians) + tP.y * Math.cos(radians));
-//			// Translate the point back
-//			rotatedList.add(new Point(rP.x + center.x, rP.y + center.y));
-//		}
-//
-//		// Clear out the old points
-//		mPoints.clear();
-//		for (Point p: rotatedList) {
-//			mPoints.add(p);
-//		}
-//	}
-//
-//	/**
-//	 * Rotates all the points of this feature by the matrix
-//	 * @param rotMat2by3
-//	 */
-//	public void rotate(Mat rotMat2by3) {
-//		double m11 = rotMat2by3.get(0, 0)[0];
-//		double m12 = rotMat2by3.get(0, 1)[0];
-//		double m13 = rotMat2by3.get(0, 2)[0];
-//		double m21 = rotMat2by3.get(1, 0)[0];
-//		double m22 = rotMat2by3.get(1, 1)[0];
-//		double m23 = rotMat2by3.get(1, 2)[0];
-//
-//		List<Point> rotatedList = new ArrayList<Point>(mPoints.size());
-//		for (Point p : mPoints) {
-//			rotatedList.add(new Point(m11*p.x + m12*p.y + m13, m21*p.x + m22*p.y + m23));
-//		}
-//
-//		// Clear out the old points
-//		mPoints.clear();
-//		for (Point p: rotatedList) {
-//			mPoints.add(p);
-//		}
-//	}
+        float s = (float) scaleFactor;
+        for (int i = 0; i < mCoords.length; ++i) {
+            mCoords[i] *= s;
+        }
+    }
+
+    /**
+     * Rotates this feature in place.
+     *
+     * @param cx      x of the center to rotate feature around
+     * @param cy      y of the center to rotate feature around
+     * @param radians angle, clockwise in image coordinates
+     */
+    public void rotate(float cx, float cy, double radians) {
+        float cos = (float) Math.cos(radians), sin = (float) Math.sin(radians);
+        for (int i = 0; i < mCoords.length; i += 2) {
+            float x = mCoords[i] - cx, y = mCoords[i + 1] - cy;
+            mCoords[i] = cos * x - sin * y + cx;
+            mCoords[i + 1] = sin * x + cos * y + cy;
+        }
+    }
+
+    /**
+     * Transforms all the points of this feature in place by an affine matrix.
+     *
+     * @param affine Row-major 2x3 matrix: {@code x' = m0 x + m1 y + m2}, {@code y' = m3 x + m4 y + m5}
+     */
+    public void transform(float[] affine) {
+        if (affine.length != 6)
+            throw new IllegalArgumentException("ApplianceFeature.transform(), expected 6 coefficients, not " + affine.length);
+        float m0 = affine[0], m1 = affine[1], m2 = affine[2];
+        float m3 = affine[3], m4 = affine[4], m5 = affine[5];
+        for (int i = 0; i < mCoords.length; i += 2) {
+            float x = mCoords[i], y = mCoords[i + 1];
+            mCoords[i] = m0 * x + m1 * y + m2;
+            mCoords[i + 1] = m3 * x + m4 * y + m5;
+        }
+    }
+
+    /**
+     * Transforms all the points of this feature in place by a homography, e.g. to move it
+     * to another reference image of the appliance.
+     *
+     * @param h Row-major 3x3 homography
+     */
+    public void warp(float[] h) {
+        Homography.project(h, mCoords, 0, mCoords, 0, mCoords.length / 2);
+    }
+
+    /**
+     * Applies a transform to every feature of a list, in place.
+     *
+     * @param features The features
+     * @param affine   Row-major 2x3 matrix
+     */
+    public static void transformAll(List<? extends ApplianceFeature> features, float[] affine) {
+        for (int i = 0; i < features.size(); ++i) {
+            features.get(i).transform(affine);
+        }
+    }
+
+    /**
+     * Projects every feature of a list into one buffer, one after the other.
+     *
+     * @param features The features
+     * @param h        Row-major homography from reference image to destination coordinates
+     * @param dst      Receives the projected (x, y) pairs; at least {@link #coordinateCount} long
+     * @return the number of coordinates written
+     */
+    public static int projectAll(List<? extends ApplianceFeature> features, float[] h, float[] dst) {
+        int offset = 0;
+        for (int i = 0; i < features.size(); ++i) {
+            offset = features.get(i).project(h, dst, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * @return the total number of coordinates of the features of a list.
+     */
+    public static int coordinateCount(List<? extends ApplianceFeature> features) {
+        int n = 0;
+        for (int i = 0; i < features.size(); ++i) {
+            n += features.get(i).mCoords.length;
+        }
+        return n;
+    }
 }
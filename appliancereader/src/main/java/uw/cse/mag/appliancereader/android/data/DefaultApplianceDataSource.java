@@ -0,0 +1,143 @@
+package org.uw.cse.mag.ar.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.uw.cse.mag.ar.store.ApplianceStore;
+
+/**
+ * <p>Default source of the appliances of the user, persisted in an {@link ApplianceStore}. </p>
+ * <p/>
+ * The list returned by {@link #getAllAppliances()} is a view of the store: each appliance
+ * is decoded when the list asks for it, so that showing the first rows of a large catalog
+ * does not decode the others. Decoded appliances are kept by ID and shared by all the
+ * callers, so that the features of an appliance are loaded once, by its single
+ * {@link FeatureHandle}. Changes rewrite the store and remap it.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class DefaultApplianceDataSource {
+
+    private static final Logger log = Logger.getLogger(DefaultApplianceDataSource.class.getSimpleName(), null);
+
+    private final File mFile;
+    private ApplianceStore mStore;
+    // Appliances of mStore decoded so far, by ID. Guarded by this; replaced with the store.
+    private Map<Long, Appliance> mDecoded = new HashMap<Long, Appliance>();
+
+    /**
+     * Opens the appliances of a file, or an empty catalog if the file does not exist.
+     *
+     * @param file File of the store
+     * @throws IOException if the file exists but could not be read
+     */
+    public DefaultApplianceDataSource(File file) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException("DefaultApplianceDataSource(), file cannot be null");
+        mFile = file;
+        if (file.exists())
+            mStore = new ApplianceStore(file);
+    }
+
+    /**
+     * @return the appliances by increasing IDs, decoded on first access. The list is a
+     *         snapshot: later changes are not reflected in it.
+     */
+    public synchronized List<Appliance> getAllAppliances() {
+        final ApplianceStore store = mStore;
+        final Map<Long, Appliance> decoded = mDecoded;
+        if (store == null)
+            return new ArrayList<Appliance>();
+        return new AbstractList<Appliance>() {
+            @Override
+            public Appliance get(int index) {
+                synchronized (DefaultApplianceDataSource.this) {
+                    return decode(store, decoded, index);
+                }
+            }
+
+            @Override
+            public int size() {
+                return store.size();
+            }
+        };
+    }
+
+    /**
+     * @param id Database ID of the appliance
+     * @return the appliance, or null if there is none with this ID
+     */
+    public synchronized Appliance getAppliance(long id) {
+        if (mStore == null)
+            return null;
+        int i = mStore.indexOf(id);
+        return i < 0 ? null : decode(mStore, mDecoded, i);
+    }
+
+    /**
+     * Adds an appliance, or replaces the one with the same ID.
+     *
+     * @param appliance Appliance to add; it is given the next free ID if it has none
+     * @throws IOException if the store could not be written
+     */
+    public synchronized void addAppliance(Appliance appliance) throws IOException {
+        List<Appliance> all = new ArrayList<Appliance>(getAllAppliances());
+        if (appliance.getID() < 0)
+            appliance.setId(all.isEmpty() ? 0 : all.get(all.size() - 1).getID() + 1);
+        int i = mStore == null ? -1 : mStore.indexOf(appliance.getID());
+        if (i >= 0)
+            all.set(i, appliance);
+        else
+            all.add(appliance);
+        update(all);
+    }
+
+    /**
+     * Removes an appliance.
+     *
+     * @param id Database ID of the appliance
+     * @return false if there is no appliance with this ID
+     * @throws IOException if the store could not be written
+     */
+    public synchronized boolean removeAppliance(long id) throws IOException {
+        int i = mStore == null ? -1 : mStore.indexOf(id);
+        if (i < 0)
+            return false;
+        List<Appliance> all = new ArrayList<Appliance>(getAllAppliances());
+        all.remove(i);
+        update(all);
+        return true;
+    }
+
+    private void update(List<Appliance> appliances) throws IOException {
+        ApplianceStore.write(mFile, appliances);
+        mStore = new ApplianceStore(mFile);
+        // The written instances stand for the new store, with the features they loaded.
+        mDecoded = new HashMap<Long, Appliance>();
+        for (Appliance a : appliances) {
+            mDecoded.put(a.getID(), a);
+        }
+    }
+
+    private static Appliance decode(ApplianceStore store, Map<Long, Appliance> decoded, int index) {
+        long id = store.getId(index);
+        Appliance appliance = decoded.get(id);
+        if (appliance != null)
+            return appliance;
+        try {
+            appliance = store.getAppliance(index);
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Corrupted appliance store", e);
+            throw new IllegalStateException("DefaultApplianceDataSource, corrupted appliance " + id, e);
+        }
+        decoded.put(id, appliance);
+        return appliance;
+    }
+}
@@ -0,0 +1,61 @@
+package org.uw.cse.mag.ar.data;
+
+import android.graphics.Point;
+
+import java.util.List;
+
+import org.uw.cse.mag.ar.display.DisplayRegion;
+
+/**
+ * <p>A seven-segment display of an appliance, such as a timer or a temperature readout,
+ * whose digits are read while the appliance is tracked. </p>
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class DisplayFeature extends ApplianceFeature {
+
+    /**
+     * True if lit segments are lighter than the background.
+     */
+    private final boolean mLightSegments;
+    /**
+     * Horizontal shift of the top of the digits, as a fraction of their height.
+     */
+    private final float mSlant;
+
+    /**
+     * Create a display feature.
+     *
+     * @param name          Name of feature
+     * @param shape         Points that correspond to the outline of the display
+     * @param lightSegments True for LED and VFD displays, false for LCDs
+     * @param slant         Horizontal shift of the top of the digits relative to their bottom,
+     *                      as a fraction of their height; 0 for upright digits
+     */
+    public DisplayFeature(String name, List<Point> shape, boolean lightSegments, float slant) {
+        super(name, shape);
+        mLightSegments = lightSegments;
+        mSlant = slant;
+    }
+
+    /**
+     * @return true if lit segments are lighter than the background.
+     */
+    public boolean hasLightSegments() {
+        return mLightSegments;
+    }
+
+    /**
+     * @return the horizontal shift of the top of the digits, as a fraction of their height.
+     */
+    public float getSlant() {
+        return mSlant;
+    }
+
+    /**
+     * @return the display, as handed to the scanner.
+     */
+    public DisplayRegion toDisplayRegion() {
+        return new DisplayRegion(toPolygon(), mLightSegments, mSlant);
+    }
+}
@@ -0,0 +1,271 @@
+package org.uw.cse.mag.ar.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Lazily loaded features of an {@link Appliance}. </p>
+ * <p/>
+ * Creating a handle costs nothing: the features are only read, by the installed
+ * {@link Source}, the first time they are requested through {@link #load()} or
+ * {@link #load(Callback)}, and on a background executor, so that list rows and parceled
+ * appliances that are never scanned never pay for them. The {@link FeatureIndex} of the
+ * features is built on the same thread. Once loaded, the features are kept by the handle.
+ * <p/>
+ * A handle can be used from any thread. A failed load is not retried by the same handle:
+ * call {@link #reset()} to try again.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class FeatureHandle {
+
+    private static final Logger log = Logger.getLogger(FeatureHandle.class.getSimpleName(), null);
+
+    /**
+     * Reads the features of appliances, e.g. from their directory.
+     */
+    public static interface Source {
+        /**
+         * @param appliance The appliance.
+         * @return the features of the appliance, empty if it has none.
+         * @throws IOException if the features could not be read.
+         */
+        public List<ApplianceFeature> load(Appliance appliance) throws IOException;
+    }
+
+    /**
+     * Notified when the features of a handle are loaded. Callbacks run on the loading
+     * thread, or on the calling thread if the load already completed: UI clients must post
+     * to their own thread.
+     */
+    public static interface Callback {
+        public void onFeaturesLoaded(FeatureHandle handle, List<ApplianceFeature> features);
+
+        public void onFeaturesFailed(FeatureHandle handle, Exception error);
+    }
+
+    private static volatile Source sSource = null;
+
+    private static volatile Executor sExecutor = null;
+
+    /**
+     * Installs the source features are read from, by handles loaded after the call.
+     *
+     * @param source The source
+     */
+    public static void setSource(Source source) {
+        sSource = source;
+    }
+
+    /**
+     * Replaces the executor features are loaded on, by default a single low-priority
+     * daemon thread.
+     *
+     * @param executor The executor, or null for the default one
+     */
+    public static void setExecutor(Executor executor) {
+        sExecutor = executor;
+    }
+
+    private static Executor getExecutor() {
+        Executor executor = sExecutor;
+        if (executor == null) {
+            synchronized (FeatureHandle.class) {
+                if (sExecutor == null)
+                    sExecutor = newDefaultExecutor();
+                executor = sExecutor;
+            }
+        }
+        return executor;
+    }
+
+    private static ExecutorService newDefaultExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "FeatureLoader");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    private final Appliance mAppliance;
+    // Guarded by this.
+    private LoadTask mTask = null;
+
+    /**
+     * Creates the handle of the features of an appliance, without loading them.
+     *
+     * @param appliance The appliance
+     */
+    public FeatureHandle(Appliance appliance) {
+        if (appliance == null)
+            throw new IllegalArgumentException("FeatureHandle(), appliance cannot be null");
+        mAppliance = appliance;
+    }
+
+    /**
+     * @return the appliance of the features.
+     */
+    public Appliance getAppliance() {
+        return mAppliance;
+    }
+
+    /**
+     * Starts loading the features if they were never requested.
+     *
+     * @return the future of the features, as an unmodifiable list. It fails with the
+     *         {@link IOException} of the source, if any.
+     */
+    public synchronized Future<List<ApplianceFeature>> load() {
+        if (mTask == null) {
+            mTask = new LoadTask();
+            getExecutor().execute(mTask);
+        }
+        return mTask;
+    }
+
+    /**
+     * Starts loading the features if they were never requested, and notifies a callback
+     * once they are.
+     *
+     * @param callback Notified once, when the load completes
+     */
+    public void load(Callback callback) {
+        if (callback == null)
+            throw new IllegalArgumentException("FeatureHandle.load(), callback cannot be null");
+        LoadTask task;
+        synchronized (this) {
+            task = (LoadTask) load();
+            if (task.mCallbacks != null) {
+                task.mCallbacks.add(callback);
+                return;
+            }
+        }
+        dispatch(callback, task);
+    }
+
+    /**
+     * @return true if the features are loaded, successfully or not.
+     */
+    public synchronized boolean isLoaded() {
+        return mTask != null && mTask.isDone();
+    }
+
+    /**
+     * @return the features if they are loaded, or null; never blocks nor starts a load.
+     */
+    public List<ApplianceFeature> getIfLoaded() {
+        LoadTask task = getDoneTask();
+        return task == null ? null : task.mFeatures;
+    }
+
+    /**
+     * @return the spatial index of the features if they are loaded, or null.
+     */
+    public FeatureIndex getIndexIfLoaded() {
+        LoadTask task = getDoneTask();
+        return task == null ? null : task.mIndex;
+    }
+
+    /**
+     * Forgets the features, e.g. after they changed on disk or failed to load. The next
+     * request loads them again; a load in progress completes for its own callbacks.
+     */
+    public synchronized void reset() {
+        mTask = null;
+    }
+
+    private synchronized LoadTask getDoneTask() {
+        return mTask != null && mTask.isDone() ? mTask : null;
+    }
+
+    private void dispatch(Callback callback, LoadTask task) {
+        try {
+            callback.onFeaturesLoaded(this, task.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            callback.onFeaturesFailed(this, cause instanceof Exception ? (Exception) cause : e);
+        } catch (CancellationException e) {
+            callback.onFeaturesFailed(this, e);
+        } catch (InterruptedException e) {
+            // Not reached: the task is done.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loads the features and builds their index, then notifies the callbacks registered
+     * with it.
+     */
+    private final class LoadTask extends FutureTask<List<ApplianceFeature>> {
+        // Set before the task is done.
+        private volatile List<ApplianceFeature> mFeatures;
+        private volatile FeatureIndex mIndex;
+        // Guarded by the handle; null once the callbacks were notified.
+        private List<Callback> mCallbacks = new ArrayList<Callback>();
+
+        private LoadTask() {
+            super(new Callable<List<ApplianceFeature>>() {
+                @Override
+                public List<ApplianceFeature> call() throws IOException {
+                    Source source = sSource;
+                    if (source == null)
+                        throw new IOException("FeatureHandle, no feature source installed");
+                    List<ApplianceFeature> loaded = source.load(mAppliance);
+                    if (loaded == null)
+                        loaded = Collections.emptyList();
+                    return Collections.unmodifiableList(new ArrayList<ApplianceFeature>(loaded));
+                }
+            });
+        }
+
+        @Override
+        protected void set(List<ApplianceFeature> features) {
+            FeatureIndex index;
+            try {
+                index = new FeatureIndex(features);
+            } catch (Throwable t) {
+                // Thrown outside call(): fail the task, or it never completes.
+                setException(t);
+                return;
+            }
+            mIndex = index;
+            mFeatures = features;
+            super.set(features);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            log.log(Level.WARNING, "Features of " + mAppliance + " could not be loaded", t);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            List<Callback> callbacks;
+            synchronized (FeatureHandle.this) {
+                callbacks = mCallbacks;
+                mCallbacks = null;
+            }
+            for (Callback c : callbacks) {
+                dispatch(c, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.uw.cse.mag.ar.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>Spatial index of the features of an appliance, for hit-testing taps and culling
+ * features against regions of a frame. </p>
+ * <p/>
+ * The bounding boxes of the features are packed into a static R-tree: items are sorted
+ * into vertical slices by the x of their center, then by y within each slice, and grouped
+ * {@link #NODE_SIZE} per node up to a single root. The tree is implicit: the parent of the
+ * node at position p of a level is the node at position p / NODE_SIZE of the level above,
+ * so that no node object is allocated. A lookup visits O(log n) nodes, and point lookups
+ * are refined by an exact point-in-polygon test.
+ * <p/>
+ * After features are transformed in place, {@link #refit(int)} or {@link #refitAll()}
+ * update the boxes along the paths to the root without re-sorting; after large changes,
+ * {@link #rebuild()} packs the tree again. An index is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class FeatureIndex {
+
+    /** Maximum number of children of a node. */
+    public static final int NODE_SIZE = 8;
+
+    private final ApplianceFeature[] mFeatures;
+    private final float[] mBounds = new float[4];
+
+    // Boxes of every level, leaves first, 4 floats per node: left, top, right, bottom.
+    private final float[] mBoxes;
+    // Per level: index of its first node in mBoxes, and its number of nodes.
+    private final int[] mLevelStart;
+    private final int[] mLevelSize;
+    // Feature of each leaf, and leaf of each feature.
+    private final int[] mOrder;
+    private final int[] mLeaf;
+    // Depth-first traversal stack: level and node.
+    private final int[] mStack;
+
+    /**
+     * Builds the index of some features.
+     *
+     * @param features The features; the index keeps them, and refers to them by their
+     *                 position in the list
+     */
+    public FeatureIndex(List<? extends ApplianceFeature> features) {
+        int n = features.size();
+        mFeatures = features.toArray(new ApplianceFeature[n]);
+        int levels = 1, nodes = n;
+        for (int size = n; size > 1; size = (size + NODE_SIZE - 1) / NODE_SIZE) {
+            levels++;
+            nodes += (size + NODE_SIZE - 1) / NODE_SIZE;
+        }
+        mBoxes = new float[4 * Math.max(1, nodes)];
+        mLevelStart = new int[levels];
+        mLevelSize = new int[levels];
+        mOrder = new int[n];
+        mLeaf = new int[n];
+        mStack = new int[2 * (NODE_SIZE * levels + 1)];
+        rebuild();
+    }
+
+    /**
+     * @return the number of features.
+     */
+    public int size() {
+        return mFeatures.length;
+    }
+
+    /**
+     * @return the feature at position i of the list the index was built from.
+     */
+    public ApplianceFeature getFeature(int i) {
+        return mFeatures[i];
+    }
+
+    /**
+     * Sorts and packs the tree again, from the current shapes of the features.
+     */
+    public void rebuild() {
+        int n = mFeatures.length;
+        if (n == 0)
+            return;
+        float[] centers = new float[2 * n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; ++i) {
+            mFeatures[i].getBounds(mBounds);
+            centers[2 * i] = (mBounds[0] + mBounds[2]) / 2;
+            centers[2 * i + 1] = (mBounds[1] + mBounds[3]) / 2;
+            order[i] = i;
+        }
+        // Sort-Tile-Recursive packing: slices of about sqrt(n / NODE_SIZE) leaves by x...
+        Arrays.sort(order, new CenterComparator(centers, 0));
+        int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int perSlice = NODE_SIZE * (int) Math.ceil(Math.sqrt(leaves));
+        // ...each sorted by y.
+        CenterComparator byY = new CenterComparator(centers, 1);
+        for (int s = 0; s < n; s += perSlice) {
+            Arrays.sort(order, s, Math.min(n, s + perSlice), byY);
+        }
+        for (int p = 0; p < n; ++p) {
+            mOrder[p] = order[p];
+            mLeaf[order[p]] = p;
+        }
+
+        // Levels, from the leaves up.
+        mLevelStart[0] = 0;
+        mLevelSize[0] = n;
+        for (int l = 1; l < mLevelStart.length; ++l) {
+            mLevelStart[l] = mLevelStart[l - 1] + mLevelSize[l - 1];
+            mLevelSize[l] = (mLevelSize[l - 1] + NODE_SIZE - 1) / NODE_SIZE;
+        }
+        refitAll();
+    }
+
+    /**
+     * Updates the boxes of every feature, and of every node, after features were
+     * transformed in place.
+     */
+    public void refitAll() {
+        for (int p = 0; p < mFeatures.length; ++p) {
+            setLeaf(p);
+        }
+        for (int l = 1; l < mLevelStart.length; ++l) {
+            for (int p = 0; p < mLevelSize[l]; ++p) {
+                fitNode(l, p);
+            }
+        }
+    }
+
+    /**
+     * Updates the box of a feature, and of its ancestors, after it was transformed in place.
+     *
+     * @param i The position of the feature
+     */
+    public void refit(int i) {
+        int p = mLeaf[i];
+        setLeaf(p);
+        for (int l = 1; l < mLevelStart.length; ++l) {
+            p /= NODE_SIZE;
+            fitNode(l, p);
+        }
+    }
+
+    /**
+     * Finds the feature under a point. When features overlap, e.g. a display inside a
+     * panel, the one with the smallest bounding box wins.
+     *
+     * @param x Point x, in reference image coordinates
+     * @param y Point y, in reference image coordinates
+     * @return the position of the feature, or -1 if the point is in no feature
+     */
+    public int hitTest(float x, float y) {
+        int best = -1;
+        float bestArea = Float.MAX_VALUE;
+        int top = push(0, mLevelStart.length - 1, 0);
+        while (top > 0) {
+            int p = mStack[--top];
+            int l = mStack[--top];
+            int b = 4 * (mLevelStart[l] + p);
+            if (x < mBoxes[b] || x > mBoxes[b + 2] || y < mBoxes[b + 1] || y > mBoxes[b + 3])
+                continue;
+            if (l > 0) {
+                top = pushChildren(top, l, p);
+                continue;
+            }
+            float area = (mBoxes[b + 2] - mBoxes[b]) * (mBoxes[b + 3] - mBoxes[b + 1]);
+            int f = mOrder[p];
+            if (area < bestArea && contains(mFeatures[f], x, y)) {
+                best = f;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the features whose bounding box intersects a rectangle, e.g. to cull the
+     * features outside the visible part of the appliance.
+     *
+     * @param x0  Left
+     * @param y0  Top
+     * @param x1  Right
+     * @param y1  Bottom
+     * @param dst Receives the positions of the features, in no particular order
+     * @return the number of features found, which may exceed the length of dst
+     */
+    public int query(float x0, float y0, float x1, float y1, int[] dst) {
+        int count = 0;
+        int top = push(0, mLevelStart.length - 1, 0);
+        while (top > 0) {
+            int p = mStack[--top];
+            int l = mStack[--top];
+            int b = 4 * (mLevelStart[l] + p);
+            if (x1 < mBoxes[b] || x0 > mBoxes[b + 2] || y1 < mBoxes[b + 1] || y0 > mBoxes[b + 3])
+                continue;
+            if (l > 0) {
+                top = pushChildren(top, l, p);
+                continue;
+            }
+            if (count < dst.length)
+                dst[count] = mOrder[p];
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Exact test of a point against the polygon of a feature, by counting the crossings
+     * of a horizontal ray.
+     *
+     * @return true if the point is inside the feature
+     */
+    public static boolean contains(ApplianceFeature feature, float x, float y) {
+        float[] c = feature.mCoords;
+        boolean inside = false;
+        for (int i = 0, j = c.length - 2; i < c.length; j = i, i += 2) {
+            float xi = c[i], yi = c[i + 1], xj = c[j], yj = c[j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi)
+                inside = !inside;
+        }
+        return inside;
+    }
+
+    private int push(int top, int level, int node) {
+        if (mFeatures.length == 0)
+            return top;
+        mStack[top] = level;
+        mStack[top + 1] = node;
+        return top + 2;
+    }
+
+    private int pushChildren(int top, int level, int node) {
+        int first = node * NODE_SIZE;
+        int end = Math.min(first + NODE_SIZE, mLevelSize[level - 1]);
+        for (int c = first; c < end; ++c) {
+            mStack[top++] = level - 1;
+            mStack[top++] = c;
+        }
+        return top;
+    }
+
+    private void setLeaf(int p) {
+        mFeatures[mOrder[p]].getBounds(mBounds);
+        System.arraycopy(mBounds, 0, mBoxes, 4 * p, 4);
+    }
+
+    private void fitNode(int level, int p) {
+        int first = p * NODE_SIZE;
+        int end = Math.min(first + NODE_SIZE, mLevelSize[level - 1]);
+        int c = 4 * (mLevelStart[level - 1] + first);
+        float left = mBoxes[c], top = mBoxes[c + 1], right = mBoxes[c + 2], bottom = mBoxes[c + 3];
+        for (int k = first + 1; k < end; ++k) {
+            c += 4;
+            left = Math.min(left, mBoxes[c]);
+            top = Math.min(top, mBoxes[c + 1]);
+            right = Math.max(right, mBoxes[c + 2]);
+            bottom = Math.max(bottom, mBoxes[c + 3]);
+        }
+        int b = 4 * (mLevelStart[level] + p);
+        mBoxes[b] = left;
+        mBoxes[b + 1] = top;
+        mBoxes[b + 2] = right;
+        mBoxes[b + 3] = bottom;
+    }
+
+    /**
+     * Orders feature positions by one coordinate of their centers.
+     */
+    private static final class CenterComparator implements Comparator<Integer> {
+        private final float[] mCenters;
+        private final int mAxis;
+
+        private CenterComparator(float[] centers, int axis) {
+            mCenters = centers;
+            mAxis = axis;
+        }
+
+        @Override
+        public int compare(Integer a, Integer b) {
+            return Float.compare(mCenters[2 * a + mAxis], mCenters[2 * b + mAxis]);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.uw.cse.mag.ar.display;
+
+/**
+ * A seven-segment display of an appliance: where it is on the reference image, and how
+ * its digits look.
+ * <p>
+ * Instances are immutable and can be handed to the scanning thread as is.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class DisplayRegion {
+
+    private final float[] mPolygon;
+    private final float mLeft, mTop, mRight, mBottom;
+    private final boolean mLightSegments;
+    private final float mSlant;
+
+    /**
+     * @param polygon       The outline of the display as (x, y) pairs, in reference image
+     *                      coordinates. Its bounding box is read.
+     * @param lightSegments True if lit segments are lighter than the background, as on LED
+     *                      and VFD displays; false for dark segments, as on LCDs.
+     * @param slant         The horizontal shift of the top of the digits relative to their
+     *                      bottom, as a fraction of their height; about 0.1 for italic digits.
+     */
+    public DisplayRegion(float[] polygon, boolean lightSegments, float slant) {
+        if (polygon == null || polygon.length < 6 || (polygon.length & 1) != 0)
+            throw new IllegalArgumentException("DisplayRegion(), Illegal polygon");
+        if (Math.abs(slant) > 0.5f)
+            throw new IllegalArgumentException("DisplayRegion(), Illegal slant: " + slant);
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < polygon.length; i += 2) {
+            left = Math.min(left, polygon[i]);
+            right = Math.max(right, polygon[i]);
+            top = Math.min(top, polygon[i + 1]);
+            bottom = Math.max(bottom, polygon[i + 1]);
+        }
+        if (right <= left || bottom <= top)
+            throw new IllegalArgumentException("DisplayRegion(), empty polygon");
+        mPolygon = polygon.clone();
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        mLightSegments = lightSegments;
+        mSlant = slant;
+    }
+
+    /**
+     * @return a copy of the outline of the display, in reference image coordinates.
+     */
+    public float[] getPolygon() {
+        return mPolygon.clone();
+    }
+
+    public float getLeft() {
+        return mLeft;
+    }
+
+    public float getTop() {
+        return mTop;
+    }
+
+    public float getRight() {
+        return mRight;
+    }
+
+    public float getBottom() {
+        return mBottom;
+    }
+
+    /**
+     * @return true if lit segments are lighter than the background.
+     */
+    public boolean hasLightSegments() {
+        return mLightSegments;
+    }
+
+    /**
+     * @return the horizontal shift of the top of the digits, as a fraction of their height.
+     */
+    public float getSlant() {
+        return mSlant;
+    }
+}
@@ -0,0 +1,414 @@
+package org.uw.cse.mag.ar.display;
+
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.IntegralImage;
+
+/**
+ * Reads the digits of a seven-segment display, such as a microwave timer or an oven
+ * temperature, from a camera frame in which the pose of the appliance is known.
+ * <p>
+ * The bounding box of the {@link DisplayRegion} is rectified into a small image of
+ * {@link #RECTIFIED_HEIGHT} rows, then binarized against the local mean given by an
+ * integral image. Glyphs are separated by the column projection of the lit pixels, and
+ * each segment is tested by probing a few short scans across it, rather than by matching
+ * the whole glyph. Narrow glyphs are read as 1, decimal points and colons as '.' and ':'.
+ * <p>
+ * All buffers are allocated by the constructor: reading a frame allocates nothing, so a
+ * reader can run on every tracked frame. A reader is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class SevenSegmentReader {
+
+    /** Height of the rectified display, in pixels. */
+    public static final int RECTIFIED_HEIGHT = 40;
+    /** Largest width to height ratio of a display. */
+    public static final int MAX_ASPECT = 10;
+
+    private static final int MAX_WIDTH = MAX_ASPECT * RECTIFIED_HEIGHT;
+
+    // Segment bits, clockwise from the top, then the middle.
+    private static final int A = 1, B = 2, C = 4, D = 8, E = 16, F = 32, G = 64;
+    private static final char[] GLYPHS = new char[128];
+
+    static {
+        glyph('0', A | B | C | D | E | F);
+        glyph('1', B | C);
+        glyph('1', E | F);
+        glyph('2', A | B | D | E | G);
+        glyph('3', A | B | C | D | G);
+        glyph('4', B | C | F | G);
+        glyph('5', A | C | D | F | G);
+        glyph('6', A | C | D | E | F | G);
+        glyph('6', C | D | E | F | G);
+        glyph('7', A | B | C);
+        glyph('7', A | B | C | F);
+        glyph('8', A | B | C | D | E | F | G);
+        glyph('9', A | B | C | D | F | G);
+        glyph('9', A | B | C | F | G);
+        glyph('-', G);
+        // Letters of common appliance messages and error codes: "End", "PrE", "HOt", "F1"...
+        glyph('A', A | B | C | E | F | G);
+        glyph('C', A | D | E | F);
+        glyph('c', D | E | G);
+        glyph('d', B | C | D | E | G);
+        glyph('E', A | D | E | F | G);
+        glyph('F', A | E | F | G);
+        glyph('H', B | C | E | F | G);
+        glyph('h', C | E | F | G);
+        glyph('L', D | E | F);
+        glyph('n', C | E | G);
+        glyph('o', C | D | E | G);
+        glyph('P', A | B | E | F | G);
+        glyph('r', E | G);
+        glyph('t', D | E | F | G);
+        glyph('U', B | C | D | E | F);
+        glyph('u', C | D | E);
+    }
+
+    private static void glyph(char c, int segments) {
+        GLYPHS[segments] = c;
+    }
+
+    /**
+     * The minimum difference, in percent, between a lit pixel and the mean of its
+     * neighbourhood.
+     *
+     * By default, this value is set to 15.
+     */
+    public int thresholdPercent = 15;
+
+    /**
+     * The minimum difference between the lightest and the darkest pixels of the display
+     * for it to be read; below, it is considered blank.
+     *
+     * By default, this value is set to 40.
+     */
+    public int minContrast = 40;
+
+    private final byte[] mPixels = new byte[MAX_WIDTH * RECTIFIED_HEIGHT];
+    private final GrayImage mRectified = new GrayImage();
+    private final IntegralImage mIntegral = new IntegralImage(MAX_WIDTH, RECTIFIED_HEIGHT);
+    private final byte[] mLit = new byte[MAX_WIDTH * RECTIFIED_HEIGHT];
+    private final int[] mColumns = new int[MAX_WIDTH];
+    private int mWidth;
+
+    // Glyphs: column range, row range and number of lit pixels.
+    private final int[] mLeft;
+    private final int[] mRight;
+    private final int[] mTop;
+    private final int[] mBottom;
+    private final int[] mArea;
+
+    private final char[] mChars;
+    private int mLength;
+
+    /**
+     * @param maxChars The largest number of characters of a display, separators included.
+     */
+    public SevenSegmentReader(int maxChars) {
+        if (maxChars <= 0)
+            throw new IllegalArgumentException("SevenSegmentReader(), Illegal number of characters: " + maxChars);
+        int maxGlyphs = 2 * maxChars;
+        mLeft = new int[maxGlyphs];
+        mRight = new int[maxGlyphs];
+        mTop = new int[maxGlyphs];
+        mBottom = new int[maxGlyphs];
+        mArea = new int[maxGlyphs];
+        mChars = new char[maxChars];
+    }
+
+    /**
+     * Reads a display.
+     * @param frame      The luma of the frame.
+     * @param homography The row-major homography from the reference image to the frame.
+     * @param display    The display, on the reference image.
+     * @return the number of characters read, see {@link #getChars()}; 0 if the display is
+     *         blank, -1 if it is outside the frame or a glyph could not be read.
+     */
+    public int read(GrayImage frame, float[] homography, DisplayRegion display) {
+        mLength = 0;
+        int h = RECTIFIED_HEIGHT;
+        float aspect = (display.getRight() - display.getLeft()) / (display.getBottom() - display.getTop());
+        int w = Math.max(h / 2, Math.min(MAX_WIDTH, Math.round(aspect * h)));
+        mWidth = w;
+        int contrast = rectify(frame, homography, display, w, h);
+        if (contrast < 0)
+            return -1;
+        if (contrast < minContrast)
+            return 0;
+        binarize(w, h, display.hasLightSegments());
+        int glyphs = findGlyphs(w, h);
+        if (glyphs < 0)
+            return -1;
+        return decode(glyphs, display.getSlant());
+    }
+
+    /**
+     * @return the characters read by the last {@link #read}, of which the first
+     *         {@link #getLength()} are valid.
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    /**
+     * @return the number of characters read by the last {@link #read}.
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @param s A string, or null.
+     * @return true if the characters read by the last {@link #read} are the string.
+     */
+    public boolean contentEquals(String s) {
+        if (s == null || s.length() != mLength)
+            return false;
+        for (int i = 0; i < mLength; ++i) {
+            if (s.charAt(i) != mChars[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the rectified display of the last {@link #read}, for debugging.
+     */
+    public GrayImage getRectified() {
+        return mRectified;
+    }
+
+    /**
+     * Samples the bounding box of the display into a w x h image, bilinearly.
+     * @return the difference between the lightest and darkest pixels, or -1 if the box
+     *         is not entirely in the frame.
+     */
+    private int rectify(GrayImage frame, float[] hm, DisplayRegion display, int w, int h) {
+        float sx = (display.getRight() - display.getLeft()) / w;
+        float sy = (display.getBottom() - display.getTop()) / h;
+        byte[] d = frame.data;
+        int fw = frame.width, fh = frame.height;
+        int min = 255, max = 0;
+        for (int v = 0; v < h; ++v) {
+            float ry = display.getTop() + (v + 0.5f) * sy;
+            float rx = display.getLeft() + 0.5f * sx;
+            // Projected numerators and denominator, stepped along the row.
+            float px = hm[0] * rx + hm[1] * ry + hm[2];
+            float py = hm[3] * rx + hm[4] * ry + hm[5];
+            float pw = hm[6] * rx + hm[7] * ry + hm[8];
+            float dx = hm[0] * sx, dy = hm[3] * sx, dw = hm[6] * sx;
+            int dst = v * w;
+            for (int u = 0; u < w; ++u, px += dx, py += dy, pw += dw) {
+                if (pw <= 0)
+                    return -1;
+                float x = px / pw, y = py / pw;
+                int ix = (int) x, iy = (int) y;
+                if (x < 0 || y < 0 || ix + 1 >= fw || iy + 1 >= fh)
+                    return -1;
+                float fx = x - ix, fy = y - iy;
+                int p = frame.offset + iy * frame.stride + ix;
+                float top = (d[p] & 0xFF) + fx * ((d[p + 1] & 0xFF) - (d[p] & 0xFF));
+                int q = p + frame.stride;
+                float bottom = (d[q] & 0xFF) + fx * ((d[q + 1] & 0xFF) - (d[q] & 0xFF));
+                int value = (int) (top + fy * (bottom - top) + 0.5f);
+                mPixels[dst + u] = (byte) value;
+                if (value < min)
+                    min = value;
+                if (value > max)
+                    max = value;
+            }
+        }
+        mRectified.wrap(mPixels, 0, w, w, h);
+        return max - min;
+    }
+
+    /**
+     * Marks the lit pixels, and counts them per column.
+     */
+    private void binarize(int w, int h, boolean light) {
+        IntegralImage ii = mIntegral;
+        ii.compute(mRectified);
+        // Half the window: wider than a segment, narrower than a glyph.
+        int r = h / 4;
+        int low = 100 - thresholdPercent, high = 100 + thresholdPercent;
+        byte[] px = mPixels, lit = mLit;
+        int[] columns = mColumns;
+        for (int u = 0; u < w; ++u) {
+            columns[u] = 0;
+        }
+        for (int v = 0; v < h; ++v) {
+            int y0 = Math.max(0, v - r), y1 = Math.min(h, v + r + 1);
+            for (int u = 0; u < w; ++u) {
+                int x0 = Math.max(0, u - r), x1 = Math.min(w, u + r + 1);
+                int sum = ii.sum(x0, y0, x1, y1);
+                int scaled = 100 * (px[v * w + u] & 0xFF) * ((x1 - x0) * (y1 - y0));
+                boolean on = light ? scaled >= high * sum : scaled <= low * sum;
+                lit[v * w + u] = (byte) (on ? 1 : 0);
+                if (on)
+                    columns[u]++;
+            }
+        }
+    }
+
+    /**
+     * Splits the lit pixels into glyphs, along runs of lit columns.
+     * @return the number of glyphs, or -1 if there are too many.
+     */
+    private int findGlyphs(int w, int h) {
+        // The segments a, d and g span their glyph: every column of a glyph is lit.
+        int count = 0;
+        int u = 0;
+        while (u < w) {
+            if (mColumns[u] == 0) {
+                u++;
+                continue;
+            }
+            int left = u, area = 0;
+            for (; u < w && mColumns[u] != 0; ++u) {
+                area += mColumns[u];
+            }
+            int right = u - 1;
+            // A few pixels of noise are no glyph.
+            if (area < 3)
+                continue;
+            if (count == mLeft.length)
+                return -1;
+            int top = h, bottom = -1;
+            for (int v = 0; v < h; ++v) {
+                for (int x = left; x <= right; ++x) {
+                    if (mLit[v * w + x] != 0) {
+                        top = Math.min(top, v);
+                        bottom = v;
+                        break;
+                    }
+                }
+            }
+            mLeft[count] = left;
+            mRight[count] = right;
+            mTop[count] = top;
+            mBottom[count] = bottom;
+            mArea[count] = area;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decodes the glyphs found.
+     * @return the number of characters, or -1.
+     */
+    private int decode(int glyphs, float slant) {
+        if (glyphs == 0)
+            return 0;
+        // Digits share a band of rows, set by the tallest glyphs; a lone "-" has no height.
+        int tallest = 0;
+        for (int i = 0; i < glyphs; ++i) {
+            tallest = Math.max(tallest, mBottom[i] - mTop[i] + 1);
+        }
+        int bandTop = RECTIFIED_HEIGHT, bandBottom = -1, digitWidth = 0;
+        for (int i = 0; i < glyphs; ++i) {
+            int height = mBottom[i] - mTop[i] + 1;
+            if (10 * height < 6 * tallest)
+                continue;
+            bandTop = Math.min(bandTop, mTop[i]);
+            bandBottom = Math.max(bandBottom, mBottom[i]);
+            digitWidth = Math.max(digitWidth, mRight[i] - mLeft[i] + 1);
+        }
+        if (10 * tallest < 4 * RECTIFIED_HEIGHT) {
+            // Only short glyphs, such as "--": the band is the display.
+            bandTop = 0;
+            bandBottom = RECTIFIED_HEIGHT - 1;
+        }
+        int bandHeight = bandBottom - bandTop + 1;
+        // Narrowest width of a glyph other than 1: its segments a, d and g span it.
+        int minWidth = (int) (0.3f * bandHeight + Math.abs(slant) * bandHeight);
+        digitWidth = Math.max(digitWidth, minWidth + 1);
+
+        for (int i = 0; i < glyphs; ++i) {
+            int width = mRight[i] - mLeft[i] + 1;
+            int height = mBottom[i] - mTop[i] + 1;
+            char c;
+            if (width < minWidth && 10 * height >= 6 * bandHeight) {
+                // Only the segments b and c, or e and f, of a full-size glyph.
+                c = '1';
+            }
+            else if (width < minWidth && width < 2 * height) {
+                // Dots: a decimal point on the baseline, or the dots of a colon.
+                c = 4 * (bandBottom - mBottom[i]) < bandHeight && 3 * height < bandHeight ? '.' : ':';
+            }
+            else {
+                int left = Math.max(0, mRight[i] + 1 - digitWidth);
+                c = GLYPHS[probe(Math.min(left, mLeft[i]), mRight[i], bandTop, bandBottom, slant)];
+                if (c == 0)
+                    return -1;
+            }
+            if (mLength == mChars.length)
+                return -1;
+            mChars[mLength++] = c;
+        }
+        return mLength;
+    }
+
+    /**
+     * Tests the 7 segments of a glyph cell.
+     * @return the segment bits found lit.
+     */
+    private int probe(int left, int right, int top, int bottom, float slant) {
+        int height = bottom - top + 1;
+        float lean = Math.abs(slant) * height;
+        float width = right - left + 1 - lean;
+        int segments = 0;
+        // Horizontal segments: 3 vertical scans through each, across its band of rows.
+        if (scans(left, top, width, height, slant, false, 0.3f, 0f, 0.2f))
+            segments |= A;
+        if (scans(left, top, width, height, slant, false, 0.3f, 0.4f, 0.6f))
+            segments |= G;
+        if (scans(left, top, width, height, slant, false, 0.3f, 0.8f, 1f))
+            segments |= D;
+        // Vertical segments: 3 horizontal scans through each, across its band of columns.
+        if (scans(left, top, width, height, slant, true, 0.22f, 0.7f, 1f))
+            segments |= B;
+        if (scans(left, top, width, height, slant, true, 0.62f, 0.7f, 1f))
+            segments |= C;
+        if (scans(left, top, width, height, slant, true, 0.62f, 0f, 0.3f))
+            segments |= E;
+        if (scans(left, top, width, height, slant, true, 0.22f, 0f, 0.3f))
+            segments |= F;
+        return segments;
+    }
+
+    /**
+     * Scans across a segment at 3 positions along it, 0.08 apart for vertical segments and
+     * 0.2 apart for horizontal ones.
+     * @param vertical True for a vertical segment, whose scans are horizontal.
+     * @param first    Position of the first scan along the segment, in glyph fractions.
+     * @param from     Start of the scans across the segment, in glyph fractions.
+     * @param to       End of the scans across the segment, in glyph fractions.
+     * @return true if at least 2 scans cross a lit pixel.
+     */
+    private boolean scans(int left, int top, float width, float height, float slant, boolean vertical,
+                          float first, float from, float to) {
+        int hits = 0;
+        float spacing = vertical ? 0.08f : 0.2f;
+        int steps = (int) ((to - from) * (vertical ? width : height)) + 1;
+        for (int k = 0; k < 3; ++k) {
+            float along = first + k * spacing;
+            for (int s = 0; s <= steps; ++s) {
+                float across = from + (to - from) * s / steps;
+                float gu = vertical ? across : along;
+                float gv = vertical ? along : across;
+                // Italic digits: the top leans by slant times the height.
+                float shift = slant >= 0 ? slant * (1 - gv) * height : -slant * gv * height;
+                int x = left + (int) (gu * (width - 1) + shift + 0.5f);
+                int y = top + (int) (gv * (height - 1) + 0.5f);
+                if (mLit[y * mWidth + x] != 0) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+        return hits >= 2;
+    }
+}
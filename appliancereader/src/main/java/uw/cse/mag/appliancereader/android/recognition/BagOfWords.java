@@ -0,0 +1,154 @@
+package org.uw.cse.mag.ar.recognition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * Visual word histogram of a reference image: how many of its descriptors quantize to
+ * each word of a {@link VocabularyTree}.
+ * <p>
+ * Computed offline with the vocabulary, and saved as {@link #FILE_NAME} in the directory
+ * of each appliance so that the shortlist can be rebuilt without the reference images.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class BagOfWords {
+
+    /** Name of the word histogram file, in each appliance directory. */
+    public static final String FILE_NAME = "words.bow";
+
+    static final int MAGIC = 0x41524257; // "ARBW"
+    static final int VERSION = 1;
+
+    // Distinct words in increasing order, and their counts.
+    private final int[] mWords;
+    private final int[] mCounts;
+
+    private BagOfWords(int[] words, int[] counts) {
+        mWords = words;
+        mCounts = counts;
+    }
+
+    /**
+     * Gets the word histogram file of an appliance.
+     * @param applianceDirectory the directory of an appliance, see
+     *                           {@link org.uw.cse.mag.ar.data.Appliance#getDirectoryPath()}.
+     * @return the histogram file in that directory.
+     */
+    public static File getFile(String applianceDirectory) {
+        return new File(applianceDirectory, FILE_NAME);
+    }
+
+    /**
+     * Quantizes the descriptors of a reference image.
+     * @param tree The vocabulary.
+     * @param kp   The keypoints of the reference image.
+     * @return the word histogram.
+     */
+    public static BagOfWords compute(VocabularyTree tree, Keypoints kp) {
+        if (kp.getDescriptorBits() != tree.getDescriptorBits())
+            throw new IllegalArgumentException("BagOfWords.compute(), descriptor length mismatch");
+        int[] q = new int[kp.count];
+        for (int i = 0; i < kp.count; ++i) {
+            q[i] = tree.quantize(kp.descriptors, i * kp.words);
+        }
+        Arrays.sort(q);
+        int distinct = 0;
+        for (int i = 0; i < q.length; ++i) {
+            if (i == 0 || q[i] != q[i - 1])
+                distinct++;
+        }
+        int[] words = new int[distinct];
+        int[] counts = new int[distinct];
+        int j = -1;
+        for (int i = 0; i < q.length; ++i) {
+            if (i == 0 || q[i] != q[i - 1])
+                words[++j] = q[i];
+            counts[j]++;
+        }
+        return new BagOfWords(words, counts);
+    }
+
+    /**
+     * @return the number of distinct words.
+     */
+    public int size() {
+        return mWords.length;
+    }
+
+    /**
+     * @param i Index between 0 and {@link #size()} - 1.
+     * @return the i-th distinct word, in increasing order.
+     */
+    public int getWord(int i) {
+        return mWords[i];
+    }
+
+    /**
+     * @param i Index between 0 and {@link #size()} - 1.
+     * @return the number of descriptors quantized to the i-th word.
+     */
+    public int getCount(int i) {
+        return mCounts[i];
+    }
+
+    /**
+     * Saves the histogram.
+     * @param file the file to write, usually {@link #getFile(String)}.
+     * @throws IOException if the file could not be written.
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mWords.length);
+            for (int i = 0; i < mWords.length; ++i) {
+                out.writeInt(mWords[i]);
+                out.writeInt(mCounts[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a histogram saved with {@link #save(java.io.File)}.
+     * @param file the file to read.
+     * @return the histogram.
+     * @throws IOException if the file could not be read or is not a word histogram.
+     */
+    public static BagOfWords load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("BagOfWords.load(), not a word histogram: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("BagOfWords.load(), unsupported version: " + version);
+            int n = in.readInt();
+            if (n < 0)
+                throw new IOException("BagOfWords.load(), corrupted file: " + file);
+            int[] words = new int[n];
+            int[] counts = new int[n];
+            for (int i = 0; i < n; ++i) {
+                words[i] = in.readInt();
+                counts[i] = in.readInt();
+                if (words[i] < 0 || counts[i] < 1 || (i > 0 && words[i] <= words[i - 1]))
+                    throw new IOException("BagOfWords.load(), corrupted file: " + file);
+            }
+            return new BagOfWords(words, counts);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.uw.cse.mag.ar.recognition;
+
+import org.uw.cse.mag.ar.scan.ScanEngine;
+import org.uw.cse.mag.ar.util.ApplianceReaderError;
+
+/**
+ * Brute-force matcher of packed binary descriptors, by Hamming distance.
+ * <p>
+ * Distances are XOR and {@link Long#bitCount} over the 64-bit words of two descriptors,
+ * which the JIT compiles to a hardware popcount where available. Each query descriptor
+ * keeps its nearest train descriptor if it passes Lowe's ratio test against the second
+ * nearest, and, with {@link #crossCheck}, if it is also the nearest query descriptor of
+ * its match.
+ * <p>
+ * Descriptor sets are given as a packed {@code long[]}, a first descriptor and a count, so
+ * that a range of a larger set (e.g. one reference of a {@link RecognitionIndex}) can be
+ * matched without copying. Results land in caller-provided {@code int[]}: nothing is boxed
+ * and no object is created per match.
+ * <p>
+ * With a {@link ScanEngine}, the query set is split across its workers. Results do not
+ * depend on the number of workers. A matcher is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class HammingMatcher {
+
+    /** Below this number of query descriptors, matching runs on the calling thread only. */
+    private static final int MIN_PARALLEL_QUERIES = 64;
+    /** Number of tasks per engine worker, to balance uneven workers. */
+    private static final int TASKS_PER_WORKER = 4;
+
+    /**
+     * The ratio test threshold: a match is kept only if its distance is below this
+     * fraction of the distance of the second nearest neighbour. 1 disables the test.
+     *
+     * By default, this value is set to 0.8.
+     */
+    public float ratio = 0.8f;
+
+    /**
+     * The largest Hamming distance of a match.
+     *
+     * By default, this value is set to 64.
+     */
+    public int maxDistance = 64;
+
+    /**
+     * If true, a match is only kept if the query descriptor is also the nearest neighbour
+     * of its match among the query descriptors.
+     *
+     * By default, this value is set to false.
+     */
+    public boolean crossCheck = false;
+
+    private ScanEngine mEngine;
+    private final KnnJob mJob = new KnnJob();
+
+    // Forward 2-NN of the queries, and backward 1-NN of the train descriptors.
+    private int[] mForwardIdx = new int[0];
+    private int[] mForwardDist = new int[0];
+    private int[] mBackwardIdx = new int[0];
+    private int[] mBackwardDist = new int[0];
+
+    /**
+     * Sets the engine sharing the matching work across threads.
+     * @param engine the engine, or null to match on the calling thread only.
+     */
+    public void setEngine(ScanEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * Finds the {@code k} nearest train descriptors of every query descriptor.
+     * @param query      Packed query descriptors.
+     * @param queryFirst Index of the first query descriptor.
+     * @param queryCount Number of query descriptors.
+     * @param train      Packed train descriptors.
+     * @param trainFirst Index of the first train descriptor.
+     * @param trainCount Number of train descriptors.
+     * @param words      Number of 64-bit words per descriptor.
+     * @param k          Number of neighbours.
+     * @param indices    Receives, at {@code i * k + j}, the j-th nearest neighbour of query i,
+     *                   relative to {@code trainFirst}, or -1 if there are fewer than k.
+     * @param distances  Receives the matching distances.
+     */
+    public void knnMatch(long[] query, int queryFirst, int queryCount,
+                         long[] train, int trainFirst, int trainCount,
+                         int words, int k, int[] indices, int[] distances) {
+        if (k < 1)
+            throw new IllegalArgumentException("HammingMatcher.knnMatch(), Illegal k: " + k);
+        if (indices.length < queryCount * k || distances.length < queryCount * k)
+            throw new IllegalArgumentException("HammingMatcher.knnMatch(), output arrays too small");
+        mJob.set(query, queryFirst, queryCount, train, trainFirst, trainCount, words, k, indices, distances);
+        run(mJob);
+        mJob.clear();
+    }
+
+    /**
+     * Matches query descriptors against train descriptors, with the ratio test and,
+     * if enabled, the cross-check.
+     * @param query      Packed query descriptors.
+     * @param queryFirst Index of the first query descriptor.
+     * @param queryCount Number of query descriptors.
+     * @param train      Packed train descriptors.
+     * @param trainFirst Index of the first train descriptor.
+     * @param trainCount Number of train descriptors.
+     * @param words      Number of 64-bit words per descriptor.
+     * @param queryIdx   Receives the query descriptor of each match, relative to {@code queryFirst}.
+     * @param trainIdx   Receives the train descriptor of each match, relative to {@code trainFirst}.
+     * @param distances  Receives the distance of each match.
+     * @return the number of matches, in increasing query order.
+     */
+    public int match(long[] query, int queryFirst, int queryCount,
+                     long[] train, int trainFirst, int trainCount,
+                     int words, int[] queryIdx, int[] trainIdx, int[] distances) {
+        if (queryCount == 0 || trainCount == 0)
+            return 0;
+        if (mForwardIdx.length < 2 * queryCount) {
+            mForwardIdx = new int[2 * queryCount];
+            mForwardDist = new int[2 * queryCount];
+        }
+        knnMatch(query, queryFirst, queryCount, train, trainFirst, trainCount, words, 2, mForwardIdx, mForwardDist);
+        if (crossCheck) {
+            if (mBackwardIdx.length < trainCount) {
+                mBackwardIdx = new int[trainCount];
+                mBackwardDist = new int[trainCount];
+            }
+            knnMatch(train, trainFirst, trainCount, query, queryFirst, queryCount, words, 1, mBackwardIdx, mBackwardDist);
+        }
+        int n = 0;
+        for (int i = 0; i < queryCount; ++i) {
+            int j = mForwardIdx[2 * i];
+            int d = mForwardDist[2 * i];
+            if (j < 0 || d > maxDistance)
+                continue;
+            if (mForwardIdx[2 * i + 1] >= 0 && d >= ratio * mForwardDist[2 * i + 1])
+                continue;
+            if (crossCheck && mBackwardIdx[j] != i)
+                continue;
+            queryIdx[n] = i;
+            trainIdx[n] = j;
+            distances[n] = d;
+            n++;
+        }
+        return n;
+    }
+
+    private void run(KnnJob job) {
+        ScanEngine engine = mEngine;
+        if (engine == null || engine.getWorkerCount() == 1 || job.mQueryCount < MIN_PARALLEL_QUERIES) {
+            job.match(0, job.mQueryCount);
+            return;
+        }
+        int tasks = Math.min(job.mQueryCount / 16, engine.getWorkerCount() * TASKS_PER_WORKER);
+        job.mTasks = Math.max(1, tasks);
+        try {
+            engine.run(job);
+        } catch (ApplianceReaderError e) {
+            // Matching tasks do not throw and a closed engine still runs the job: only an
+            // interrupt of the calling thread gets here.
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * k-NN of a range of queries. Tasks write disjoint ranges of the output arrays.
+     */
+    private static final class KnnJob implements ScanEngine.Job<Void> {
+        private long[] mQuery;
+        private int mQueryFirst;
+        private int mQueryCount;
+        private long[] mTrain;
+        private int mTrainFirst;
+        private int mTrainCount;
+        private int mWords;
+        private int mK;
+        private int[] mIndices;
+        private int[] mDistances;
+        private int mTasks = 1;
+
+        void set(long[] query, int queryFirst, int queryCount, long[] train, int trainFirst, int trainCount,
+                 int words, int k, int[] indices, int[] distances) {
+            mQuery = query;
+            mQueryFirst = queryFirst;
+            mQueryCount = queryCount;
+            mTrain = train;
+            mTrainFirst = trainFirst;
+            mTrainCount = trainCount;
+            mWords = words;
+            mK = k;
+            mIndices = indices;
+            mDistances = distances;
+        }
+
+        void clear() {
+            mQuery = null;
+            mTrain = null;
+            mIndices = null;
+            mDistances = null;
+        }
+
+        @Override
+        public int getTaskCount() {
+            return mTasks;
+        }
+
+        @Override
+        public Void process(int task) {
+            long lo = (long) mQueryCount * task / mTasks;
+            long hi = (long) mQueryCount * (task + 1) / mTasks;
+            match((int) lo, (int) hi);
+            return null;
+        }
+
+        @Override
+        public Void merge(Void merged, Void partial) {
+            return null;
+        }
+
+        void match(int from, int to) {
+            if (mK > 2)
+                matchK(from, to);
+            else if (mWords == 4)
+                match256(from, to);
+            else
+                match2(from, to);
+        }
+
+        /**
+         * The common case, unrolled: one or two neighbours of 256-bit descriptors.
+         */
+        private void match256(int from, int to) {
+            final long[] q = mQuery;
+            final long[] t = mTrain;
+            final int tStart = mTrainFirst * 4;
+            final int tEnd = tStart + mTrainCount * 4;
+            for (int i = from; i < to; ++i) {
+                int qo = (mQueryFirst + i) * 4;
+                long q0 = q[qo], q1 = q[qo + 1], q2 = q[qo + 2], q3 = q[qo + 3];
+                int best = Integer.MAX_VALUE, second = Integer.MAX_VALUE;
+                int bestAt = -1, secondAt = -1;
+                for (int t4 = tStart; t4 < tEnd; t4 += 4) {
+                    int d = Long.bitCount(q0 ^ t[t4]) + Long.bitCount(q1 ^ t[t4 + 1])
+                            + Long.bitCount(q2 ^ t[t4 + 2]) + Long.bitCount(q3 ^ t[t4 + 3]);
+                    if (d < second) {
+                        if (d < best) {
+                            second = best;
+                            secondAt = bestAt;
+                            best = d;
+                            bestAt = t4;
+                        }
+                        else {
+                            second = d;
+                            secondAt = t4;
+                        }
+                    }
+                }
+                store(i, best, bestAt < 0 ? -1 : (bestAt - tStart) >> 2,
+                        second, secondAt < 0 ? -1 : (secondAt - tStart) >> 2);
+            }
+        }
+
+        /**
+         * One or two neighbours of descriptors of any length.
+         */
+        private void match2(int from, int to) {
+            final long[] q = mQuery;
+            final long[] t = mTrain;
+            final int words = mWords;
+            for (int i = from; i < to; ++i) {
+                int qo = (mQueryFirst + i) * words;
+                int best = Integer.MAX_VALUE, second = Integer.MAX_VALUE;
+                int bestIdx = -1, secondIdx = -1;
+                int tOff = mTrainFirst * words;
+                for (int c = 0; c < mTrainCount; ++c, tOff += words) {
+                    int d = 0;
+                    for (int w = 0; w < words; ++w) {
+                        d += Long.bitCount(q[qo + w] ^ t[tOff + w]);
+                    }
+                    if (d < second) {
+                        if (d < best) {
+                            second = best;
+                            secondIdx = bestIdx;
+                            best = d;
+                            bestIdx = c;
+                        }
+                        else {
+                            second = d;
+                            secondIdx = c;
+                        }
+                    }
+                }
+                store(i, best, bestIdx, second, secondIdx);
+            }
+        }
+
+        private void store(int i, int best, int bestIdx, int second, int secondIdx) {
+            if (mK == 1) {
+                mIndices[i] = bestIdx;
+                mDistances[i] = best;
+            }
+            else {
+                mIndices[2 * i] = bestIdx;
+                mDistances[2 * i] = best;
+                mIndices[2 * i + 1] = secondIdx;
+                mDistances[2 * i + 1] = second;
+            }
+        }
+
+        private void matchK(int from, int to) {
+            final long[] q = mQuery;
+            final long[] t = mTrain;
+            final int words = mWords;
+            final int k = mK;
+            for (int i = from; i < to; ++i) {
+                int out = i * k;
+                for (int j = 0; j < k; ++j) {
+                    mIndices[out + j] = -1;
+                    mDistances[out + j] = Integer.MAX_VALUE;
+                }
+                int qo = (mQueryFirst + i) * words;
+                int worst = Integer.MAX_VALUE;
+                for (int c = 0; c < mTrainCount; ++c) {
+                    int tOff = (mTrainFirst + c) * words;
+                    int d = 0;
+                    for (int w = 0; w < words; ++w) {
+                        d += Long.bitCount(q[qo + w] ^ t[tOff + w]);
+                    }
+                    if (d >= worst)
+                        continue;
+                    // Insertion into the sorted neighbour list.
+                    int j = k - 1;
+                    while (j > 0 && mDistances[out + j - 1] > d) {
+                        mDistances[out + j] = mDistances[out + j - 1];
+                        mIndices[out + j] = mIndices[out + j - 1];
+                        j--;
+                    }
+                    mDistances[out + j] = d;
+                    mIndices[out + j] = c;
+                    worst = mDistances[out + k - 1];
+                }
+            }
+        }
+    }
+}
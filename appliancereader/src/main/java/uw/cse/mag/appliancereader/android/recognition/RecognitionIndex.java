@@ -0,0 +1,523 @@
+package org.uw.cse.mag.ar.recognition;
+
+import java.util.Random;
+
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * In-memory index of the binary descriptors of every reference image, answering
+ * approximate nearest-neighbour queries in sub-linear time.
+ * <p>
+ * Descriptors are hashed with bit-sampling locality-sensitive hashing: each of the
+ * {@code tableCount} tables keys a descriptor by a few of its bits, picked at random, so that
+ * two descriptors at a small Hamming distance are likely to share a bucket in at least
+ * one table. A query only compares the descriptors found in its buckets (and, with
+ * {@link #multiProbe}, in the buckets one bit away) instead of the whole catalog. The
+ * number of bits per key grows with the catalog, so buckets hold a few descriptors
+ * whether it has ten or thousands of appliances.
+ * <p>
+ * Each query descriptor keeps its nearest neighbour if it passes the ratio test, and
+ * votes for the reference image it belongs to.
+ * <pre>
+ *   RecognitionIndex index = new RecognitionIndex(256);
+ *   for (...)
+ *       index.addReference(appliance.getID(), referenceKeypoints);
+ *   index.build();
+ *   RecognitionIndex.Matches matches = new RecognitionIndex.Matches(frameKeypoints.capacity);
+ *   int ref = index.search(frameKeypoints, matches);
+ * </pre>
+ * References are added from a single thread. Once {@link #build() built}, the index is
+ * read-only and can be searched by several threads, each with its own {@link Matches}.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class RecognitionIndex {
+
+    /** Default number of hash tables. */
+    public static final int DEFAULT_TABLE_COUNT = 8;
+    /** Largest number of bits per hash key, i.e. 64K buckets per table. */
+    public static final int MAX_KEY_BITS = 16;
+    private static final int MIN_KEY_BITS = 8;
+
+    /**
+     * The largest Hamming distance of a match. Defaults to a quarter of the descriptor length.
+     */
+    public int maxDistance;
+
+    /**
+     * The ratio test threshold: a match is kept only if its distance is below this
+     * fraction of the distance of the second nearest neighbour.
+     *
+     * By default, this value is set to 0.8.
+     */
+    public float ratio = 0.8f;
+
+    /**
+     * If true, the buckets whose key differs by one bit from the query key are also
+     * searched: fewer tables are needed for the same recall.
+     *
+     * By default, this value is set to true.
+     */
+    public boolean multiProbe = true;
+
+    private final int mWords;
+    private final int mTableCount;
+    private final long mSeed;
+
+    // References: the entries of reference r are mRefStart[r] to mRefStart[r + 1] - 1.
+    private long[] mRefIds = new long[16];
+    private int[] mRefStart = new int[17];
+    private int mRefCount;
+
+    // Entries: one per reference descriptor.
+    private long[] mDescriptors;
+    private float[] mX;
+    private float[] mY;
+    private int[] mEntryRef;
+    private int mEntryCount;
+
+    // Hash tables, in compressed rows: the entries of bucket k of table t
+    // are mEntries[t][mBuckets[t][k]] to mEntries[t][mBuckets[t][k + 1] - 1].
+    private int mKeyBits;
+    private int[][] mKeyBitPositions;
+    private int[][] mBuckets;
+    private int[][] mEntries;
+    private boolean mBuilt;
+
+    /**
+     * Creates an index with {@link #DEFAULT_TABLE_COUNT} tables.
+     * @param descriptorBits Descriptor length in bits, a multiple of 64.
+     */
+    public RecognitionIndex(int descriptorBits) {
+        this(descriptorBits, DEFAULT_TABLE_COUNT, 0x5EEDL);
+    }
+
+    /**
+     * Constructor.
+     * @param descriptorBits Descriptor length in bits, a multiple of 64.
+     * @param tableCount     Number of hash tables: more tables find more matches, slower.
+     * @param seed           Seed of the hashed bit positions, fixed for reproducible results.
+     */
+    public RecognitionIndex(int descriptorBits, int tableCount, long seed) {
+        if (descriptorBits < 64 || (descriptorBits & 63) != 0)
+            throw new IllegalArgumentException("RecognitionIndex(), Illegal descriptor length: " + descriptorBits);
+        if (tableCount < 1)
+            throw new IllegalArgumentException("RecognitionIndex(), Illegal table count: " + tableCount);
+        mWords = descriptorBits >> 6;
+        mTableCount = tableCount;
+        mSeed = seed;
+        maxDistance = descriptorBits / 4;
+        mDescriptors = new long[256 * mWords];
+        mX = new float[256];
+        mY = new float[256];
+        mEntryRef = new int[256];
+    }
+
+    /**
+     * @return the descriptor length in bits.
+     */
+    public int getDescriptorBits() {
+        return mWords << 6;
+    }
+
+    /**
+     * Adds the keypoints of a reference image. {@link #build()} must be called before searching.
+     * @param id The identifier of the reference, e.g. the appliance database ID.
+     * @param kp The keypoints of the reference image, whose positions are kept for
+     *           geometric verification.
+     * @return the index of the new reference.
+     */
+    public int addReference(long id, Keypoints kp) {
+        if (kp.words != mWords)
+            throw new IllegalArgumentException("RecognitionIndex.addReference(), expected "
+                    + getDescriptorBits() + "-bit descriptors, not " + kp.getDescriptorBits());
+        if (mRefCount == mRefIds.length) {
+            mRefIds = copyOf(mRefIds, mRefCount * 2);
+            mRefStart = copyOf(mRefStart, mRefCount * 2 + 1);
+        }
+        int n = kp.count;
+        if (mEntryCount + n > mX.length) {
+            int cap = Math.max(mEntryCount + n, mX.length * 2);
+            mDescriptors = copyOf(mDescriptors, cap * mWords);
+            mX = copyOf(mX, cap);
+            mY = copyOf(mY, cap);
+            mEntryRef = copyOf(mEntryRef, cap);
+        }
+        int r = mRefCount++;
+        mRefIds[r] = id;
+        System.arraycopy(kp.descriptors, 0, mDescriptors, mEntryCount * mWords, n * mWords);
+        System.arraycopy(kp.x, 0, mX, mEntryCount, n);
+        System.arraycopy(kp.y, 0, mY, mEntryCount, n);
+        for (int i = 0; i < n; ++i) {
+            mEntryRef[mEntryCount + i] = r;
+        }
+        mEntryCount += n;
+        mRefStart[r + 1] = mEntryCount;
+        mBuilt = false;
+        return r;
+    }
+
+    /**
+     * Builds the hash tables. Must be called after adding references, before searching.
+     */
+    public void build() {
+        int keyBits = MIN_KEY_BITS;
+        while (keyBits < MAX_KEY_BITS && (1 << keyBits) < mEntryCount)
+            keyBits++;
+        int bits = getDescriptorBits();
+        keyBits = Math.min(keyBits, bits);
+        int size = 1 << keyBits;
+
+        mKeyBits = keyBits;
+        mKeyBitPositions = new int[mTableCount][keyBits];
+        mBuckets = new int[mTableCount][size + 1];
+        mEntries = new int[mTableCount][mEntryCount];
+        int[] positions = new int[bits];
+        int[] keys = new int[mEntryCount];
+        for (int t = 0; t < mTableCount; ++t) {
+            // Distinct random bits: partial Fisher-Yates shuffle.
+            Random rnd = new Random(mSeed + t);
+            for (int b = 0; b < bits; ++b) {
+                positions[b] = b;
+            }
+            for (int b = 0; b < keyBits; ++b) {
+                int j = b + rnd.nextInt(bits - b);
+                int tmp = positions[b];
+                positions[b] = positions[j];
+                positions[j] = tmp;
+                mKeyBitPositions[t][b] = positions[b];
+            }
+
+            // Counting sort of the entries by key.
+            int[] start = mBuckets[t];
+            for (int e = 0; e < mEntryCount; ++e) {
+                keys[e] = key(mDescriptors, e * mWords, mKeyBitPositions[t]);
+                start[keys[e] + 1]++;
+            }
+            for (int k = 0; k < size; ++k) {
+                start[k + 1] += start[k];
+            }
+            int[] entries = mEntries[t];
+            for (int e = 0; e < mEntryCount; ++e) {
+                entries[start[keys[e]]++] = e;
+            }
+            // start[k] now holds the end of bucket k: shift back.
+            for (int k = size; k > 0; --k) {
+                start[k] = start[k - 1];
+            }
+            start[0] = 0;
+        }
+        mBuilt = true;
+    }
+
+    /**
+     * @return the number of references.
+     */
+    public int getReferenceCount() {
+        return mRefCount;
+    }
+
+    /**
+     * @param ref A reference index.
+     * @return the identifier given to {@link #addReference}.
+     */
+    public long getReferenceId(int ref) {
+        return mRefIds[ref];
+    }
+
+    /**
+     * @return the number of indexed descriptors.
+     */
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /**
+     * @param ref A reference index.
+     * @return the first entry of the reference.
+     */
+    public int getFirstEntry(int ref) {
+        return mRefStart[ref];
+    }
+
+    /**
+     * @param ref A reference index.
+     * @return the entry following the last entry of the reference.
+     */
+    public int getEndEntry(int ref) {
+        return mRefStart[ref + 1];
+    }
+
+    /**
+     * @param entry An entry, i.e. a reference descriptor.
+     * @return the reference it belongs to.
+     */
+    public int getReference(int entry) {
+        return mEntryRef[entry];
+    }
+
+    /**
+     * @param entry An entry, i.e. a reference descriptor.
+     * @return its horizontal position in the reference image.
+     */
+    public float getX(int entry) {
+        return mX[entry];
+    }
+
+    /**
+     * @param entry An entry, i.e. a reference descriptor.
+     * @return its vertical position in the reference image.
+     */
+    public float getY(int entry) {
+        return mY[entry];
+    }
+
+    /**
+     * @return the packed descriptors of all entries, {@code getDescriptorBits() / 64} words each.
+     *         Must not be modified.
+     */
+    public long[] getDescriptors() {
+        return mDescriptors;
+    }
+
+    /**
+     * Matches the descriptors of a frame against the index.
+     * @param query The frame keypoints.
+     * @param out   Receives the match of each query keypoint and the votes of each reference.
+     * @return the reference with the most votes, or -1 if no descriptor matched.
+     */
+    public int search(Keypoints query, Matches out) {
+        return search(query, out, null, 0);
+    }
+
+    /**
+     * Matches the descriptors of a frame against some references only, e.g. the
+     * {@link VocabularyIndex.Shortlist shortlist} of the frame.
+     * @param query    The frame keypoints.
+     * @param out      Receives the match of each query keypoint and the votes of each reference.
+     * @param refs     The reference indices to match against, or null for all of them.
+     * @param refCount The number of valid indices in {@code refs}.
+     * @return the reference with the most votes, or -1 if no descriptor matched.
+     */
+    public int search(Keypoints query, Matches out, int[] refs, int refCount) {
+        if (!mBuilt)
+            throw new IllegalStateException("RecognitionIndex.search(), build() was not called");
+        if (query.words != mWords)
+            throw new IllegalArgumentException("RecognitionIndex.search(), expected "
+                    + getDescriptorBits() + "-bit descriptors, not " + query.getDescriptorBits());
+        out.prepare(query.count, mRefCount, mEntryCount);
+        if (refs != null)
+            out.restrict(refs, refCount);
+        long[] q = query.descriptors;
+        for (int i = 0; i < query.count; ++i) {
+            int off = i * mWords;
+            out.nextQuery();
+            for (int t = 0; t < mTableCount; ++t) {
+                int k = key(q, off, mKeyBitPositions[t]);
+                probe(t, k, q, off, out);
+                if (multiProbe) {
+                    for (int b = 0; b < mKeyBits; ++b) {
+                        probe(t, k ^ (1 << b), q, off, out);
+                    }
+                }
+            }
+            if (out.mBest <= maxDistance && out.mBest < ratio * out.mSecond) {
+                out.mEntry[i] = out.mBestEntry;
+                out.mDistance[i] = out.mBest;
+                out.mVotes[mEntryRef[out.mBestEntry]]++;
+            }
+        }
+        return out.findBest(mRefCount);
+    }
+
+    private void probe(int t, int k, long[] q, int off, Matches out) {
+        int[] entries = mEntries[t];
+        int[] visited = out.mVisited;
+        int stamp = out.mStamp;
+        int[] allowed = out.mRestricted ? out.mAllowed : null;
+        int allowStamp = out.mAllowStamp;
+        int end = mBuckets[t][k + 1];
+        for (int j = mBuckets[t][k]; j < end; ++j) {
+            int e = entries[j];
+            if (visited[e] == stamp)
+                continue;
+            if (allowed != null && allowed[mEntryRef[e]] != allowStamp)
+                continue;
+            visited[e] = stamp;
+            int d = Keypoints.distance(q, off, mDescriptors, e * mWords, mWords);
+            if (d < out.mBest) {
+                out.mSecond = out.mBest;
+                out.mBest = d;
+                out.mBestEntry = e;
+            }
+            else if (d < out.mSecond) {
+                out.mSecond = d;
+            }
+        }
+    }
+
+    private static int key(long[] d, int off, int[] positions) {
+        int k = 0;
+        for (int i = 0; i < positions.length; ++i) {
+            int b = positions[i];
+            k |= (int) ((d[off + (b >>> 6)] >>> (b & 63)) & 1L) << i;
+        }
+        return k;
+    }
+
+    private static long[] copyOf(long[] a, int n) {
+        long[] b = new long[n];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+        return b;
+    }
+
+    private static int[] copyOf(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+        return b;
+    }
+
+    private static float[] copyOf(float[] a, int n) {
+        float[] b = new float[n];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+        return b;
+    }
+
+    /**
+     * Outcome of a {@link RecognitionIndex#search}: the match of each query keypoint and the
+     * votes of each reference. Reused from frame to frame, it only allocates when the
+     * index or the query grows.
+     */
+    public static class Matches {
+        private int[] mEntry;
+        private int[] mDistance;
+        private int[] mVotes = new int[0];
+        private int[] mVisited = new int[0];
+        private int mStamp;
+        private int[] mAllowed = new int[0];
+        private int mAllowStamp;
+        private boolean mRestricted;
+        private int mCount;
+        private int mBestRef = -1;
+
+        // Nearest neighbours of the current query descriptor.
+        private int mBest;
+        private int mSecond;
+        private int mBestEntry;
+
+        /**
+         * Constructor.
+         * @param capacity the expected number of query keypoints.
+         */
+        public Matches(int capacity) {
+            mEntry = new int[capacity];
+            mDistance = new int[capacity];
+        }
+
+        /**
+         * @return the number of query keypoints of the last search.
+         */
+        public int getQueryCount() {
+            return mCount;
+        }
+
+        /**
+         * @param i A query keypoint.
+         * @return the matched entry, or -1 if it did not match.
+         */
+        public int getEntry(int i) {
+            return mEntry[i];
+        }
+
+        /**
+         * @param i A query keypoint.
+         * @return the Hamming distance to the matched entry, meaningless if none.
+         */
+        public int getDistance(int i) {
+            return mDistance[i];
+        }
+
+        /**
+         * @param ref A reference index.
+         * @return the number of query keypoints matched to the reference.
+         */
+        public int getVotes(int ref) {
+            return ref < mVotes.length ? mVotes[ref] : 0;
+        }
+
+        /**
+         * @return the reference with the most votes, or -1 if none.
+         */
+        public int getBestReference() {
+            return mBestRef;
+        }
+
+        /**
+         * @return the votes of the best reference.
+         */
+        public int getBestVotes() {
+            return mBestRef < 0 ? 0 : mVotes[mBestRef];
+        }
+
+        private void prepare(int queries, int refs, int entries) {
+            if (mEntry.length < queries) {
+                mEntry = new int[queries];
+                mDistance = new int[queries];
+            }
+            if (mVotes.length < refs) {
+                mVotes = new int[refs];
+                mAllowed = new int[refs];
+                mAllowStamp = 0;
+            }
+            if (mVisited.length < entries) {
+                mVisited = new int[entries];
+                mStamp = 0;
+            }
+            for (int i = 0; i < queries; ++i) {
+                mEntry[i] = -1;
+            }
+            for (int r = 0; r < refs; ++r) {
+                mVotes[r] = 0;
+            }
+            mCount = queries;
+            mRestricted = false;
+        }
+
+        private void restrict(int[] refs, int count) {
+            if (++mAllowStamp == Integer.MAX_VALUE) {
+                for (int r = 0; r < mAllowed.length; ++r) {
+                    mAllowed[r] = 0;
+                }
+                mAllowStamp = 1;
+            }
+            for (int i = 0; i < count; ++i) {
+                mAllowed[refs[i]] = mAllowStamp;
+            }
+            mRestricted = true;
+        }
+
+        private void nextQuery() {
+            if (++mStamp == Integer.MAX_VALUE) {
+                for (int e = 0; e < mVisited.length; ++e) {
+                    mVisited[e] = 0;
+                }
+                mStamp = 1;
+            }
+            mBest = Integer.MAX_VALUE;
+            mSecond = Integer.MAX_VALUE;
+            mBestEntry = -1;
+        }
+
+        private int findBest(int refs) {
+            mBestRef = -1;
+            int best = 0;
+            for (int r = 0; r < refs; ++r) {
+                if (mVotes[r] > best) {
+                    best = mVotes[r];
+                    mBestRef = r;
+                }
+            }
+            return mBestRef;
+        }
+    }
+}
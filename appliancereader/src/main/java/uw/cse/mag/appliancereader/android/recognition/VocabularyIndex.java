@@ -0,0 +1,299 @@
+package org.uw.cse.mag.ar.recognition;
+
+import java.util.Arrays;
+
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * Inverted file over the {@link BagOfWords} of every reference image, ranking the whole
+ * catalog against a frame in one pass.
+ * <p>
+ * Words are weighted by tf-idf, with the smoothed {@code idf = log((N + 1) / df)} so that
+ * words found in every reference still count and a catalog of a single reference can be
+ * searched, and histograms are L1-normalized; the score of a reference
+ * is the histogram intersection {@code sum(min(q_w, d_w))}, between 0 and 1. Only the
+ * references sharing a word with the frame are visited, through the posting list of each
+ * frame word, and the best {@link Shortlist#getCapacity()} are returned for matching and
+ * geometric verification.
+ * <p>
+ * References must be added in the same order as in the {@link RecognitionIndex} they
+ * shortlist, so that reference indices agree. Once {@link #build() built}, the index is
+ * read-only and can be searched by several threads, each with its own {@link Shortlist}.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class VocabularyIndex {
+
+    private final VocabularyTree mTree;
+
+    private long[] mRefIds = new long[16];
+    private BagOfWords[] mBags = new BagOfWords[16];
+    private int mRefCount;
+
+    // Posting lists: the references containing word w are mPostRef[mPostStart[w]]
+    // to mPostRef[mPostStart[w + 1] - 1], with their normalized weights.
+    private float[] mIdf;
+    private int[] mPostStart;
+    private int[] mPostRef;
+    private float[] mPostWeight;
+    private boolean mBuilt;
+
+    /**
+     * Constructor.
+     * @param tree the vocabulary the word histograms were computed with.
+     */
+    public VocabularyIndex(VocabularyTree tree) {
+        if (tree == null)
+            throw new IllegalArgumentException("VocabularyIndex(), tree cannot be null");
+        mTree = tree;
+    }
+
+    /**
+     * @return the vocabulary.
+     */
+    public VocabularyTree getTree() {
+        return mTree;
+    }
+
+    /**
+     * Adds a reference image. {@link #build()} must be called before searching.
+     * @param id  The identifier of the reference, e.g. the appliance database ID.
+     * @param bow The word histogram of the reference image.
+     * @return the index of the new reference.
+     */
+    public int addReference(long id, BagOfWords bow) {
+        if (mRefCount == mRefIds.length) {
+            long[] ids = new long[mRefCount * 2];
+            System.arraycopy(mRefIds, 0, ids, 0, mRefCount);
+            mRefIds = ids;
+            mBags = Arrays.copyOf(mBags, mRefCount * 2);
+        }
+        mRefIds[mRefCount] = id;
+        mBags[mRefCount] = bow;
+        mBuilt = false;
+        return mRefCount++;
+    }
+
+    /**
+     * @return the number of references.
+     */
+    public int getReferenceCount() {
+        return mRefCount;
+    }
+
+    /**
+     * @param ref A reference index.
+     * @return the identifier given to {@link #addReference}.
+     */
+    public long getReferenceId(int ref) {
+        return mRefIds[ref];
+    }
+
+    /**
+     * @param index A recognition index.
+     * @return true if it holds the same references as this index, in the same order.
+     */
+    public boolean isAlignedWith(RecognitionIndex index) {
+        if (index.getReferenceCount() != mRefCount)
+            return false;
+        for (int r = 0; r < mRefCount; ++r) {
+            if (index.getReferenceId(r) != mRefIds[r])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the word weights and the posting lists.
+     */
+    public void build() {
+        int words = mTree.getWordCount();
+        int[] df = new int[words];
+        int postings = 0;
+        for (int r = 0; r < mRefCount; ++r) {
+            BagOfWords b = mBags[r];
+            for (int i = 0; i < b.size(); ++i) {
+                if (b.getWord(i) >= words)
+                    throw new IllegalStateException("VocabularyIndex.build(), reference " + mRefIds[r]
+                            + " was computed with another vocabulary");
+                df[b.getWord(i)]++;
+            }
+            postings += b.size();
+        }
+        mIdf = new float[words];
+        for (int w = 0; w < words; ++w) {
+            mIdf[w] = df[w] == 0 ? 0f : (float) Math.log((double) (mRefCount + 1) / df[w]);
+        }
+        mPostStart = new int[words + 1];
+        for (int w = 0; w < words; ++w) {
+            mPostStart[w + 1] = mPostStart[w] + df[w];
+        }
+        mPostRef = new int[postings];
+        mPostWeight = new float[postings];
+        int[] fill = Arrays.copyOf(mPostStart, words);
+        for (int r = 0; r < mRefCount; ++r) {
+            BagOfWords b = mBags[r];
+            float total = 0f;
+            for (int i = 0; i < b.size(); ++i) {
+                total += b.getCount(i) * mIdf[b.getWord(i)];
+            }
+            for (int i = 0; i < b.size(); ++i) {
+                int w = b.getWord(i);
+                int p = fill[w]++;
+                mPostRef[p] = r;
+                mPostWeight[p] = total > 0f ? b.getCount(i) * mIdf[w] / total : 0f;
+            }
+        }
+        mBuilt = true;
+    }
+
+    /**
+     * Ranks the references against the descriptors of a frame.
+     * @param query The frame keypoints.
+     * @param out   Receives the best references, by decreasing score.
+     * @return the number of references in the shortlist.
+     */
+    public int shortlist(Keypoints query, Shortlist out) {
+        if (!mBuilt)
+            throw new IllegalStateException("VocabularyIndex.shortlist(), build() was not called");
+        if (query.getDescriptorBits() != mTree.getDescriptorBits())
+            throw new IllegalArgumentException("VocabularyIndex.shortlist(), descriptor length mismatch");
+        out.prepare(query.count, mRefCount);
+        int n = query.count;
+        int[] q = out.mWords;
+        for (int i = 0; i < n; ++i) {
+            q[i] = mTree.quantize(query.descriptors, i * query.words);
+        }
+        Arrays.sort(q, 0, n);
+
+        float total = 0f;
+        for (int i = 0; i < n; ++i) {
+            total += mIdf[q[i]];
+        }
+        if (total <= 0f)
+            return 0;
+
+        float[] acc = out.mAcc;
+        int[] touched = out.mTouched;
+        int touchedCount = 0;
+        for (int i = 0; i < n; ) {
+            int w = q[i];
+            int j = i + 1;
+            while (j < n && q[j] == w)
+                j++;
+            float idf = mIdf[w];
+            if (idf > 0f) {
+                float qw = (j - i) * idf / total;
+                for (int p = mPostStart[w]; p < mPostStart[w + 1]; ++p) {
+                    int r = mPostRef[p];
+                    if (mPostWeight[p] <= 0f)
+                        continue;
+                    if (acc[r] == 0f)
+                        touched[touchedCount++] = r;
+                    acc[r] += Math.min(qw, mPostWeight[p]);
+                }
+            }
+            i = j;
+        }
+        for (int t = 0; t < touchedCount; ++t) {
+            int r = touched[t];
+            out.offer(r, acc[r]);
+            acc[r] = 0f;
+        }
+        return out.mCount;
+    }
+
+    /**
+     * Best references of a {@link VocabularyIndex#shortlist} query. Reused from frame to
+     * frame, it only allocates when the index or the query grows.
+     */
+    public static class Shortlist {
+        private final int[] mRefs;
+        private final float[] mScores;
+        private int mCount;
+
+        private int[] mWords = new int[0];
+        private float[] mAcc = new float[0];
+        private int[] mTouched = new int[0];
+
+        /**
+         * Constructor.
+         * @param capacity the number of references to keep.
+         */
+        public Shortlist(int capacity) {
+            if (capacity < 1)
+                throw new IllegalArgumentException("Shortlist(), Illegal capacity: " + capacity);
+            mRefs = new int[capacity];
+            mScores = new float[capacity];
+        }
+
+        /**
+         * @return the number of references kept.
+         */
+        public int getCapacity() {
+            return mRefs.length;
+        }
+
+        /**
+         * @return the number of references in the shortlist.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @param i Rank between 0 and {@link #getCount()} - 1.
+         * @return the reference index at that rank.
+         */
+        public int getReference(int i) {
+            return mRefs[i];
+        }
+
+        /**
+         * @param i Rank between 0 and {@link #getCount()} - 1.
+         * @return the score at that rank, between 0 and 1.
+         */
+        public float getScore(int i) {
+            return mScores[i];
+        }
+
+        /**
+         * @return the shortlisted reference indices, the first {@link #getCount()} are valid.
+         *         Must not be modified.
+         */
+        public int[] getReferences() {
+            return mRefs;
+        }
+
+        private void prepare(int queries, int refs) {
+            if (mWords.length < queries)
+                mWords = new int[queries];
+            if (mAcc.length < refs) {
+                mAcc = new float[refs];
+                mTouched = new int[refs];
+            }
+            mCount = 0;
+        }
+
+        /**
+         * Inserts a reference if it ranks among the best ones. Ties keep the lowest index first.
+         */
+        private void offer(int ref, float score) {
+            int cap = mRefs.length;
+            if (mCount == cap && !better(ref, score, mRefs[cap - 1], mScores[cap - 1]))
+                return;
+            int i = mCount < cap ? mCount++ : cap - 1;
+            while (i > 0 && better(ref, score, mRefs[i - 1], mScores[i - 1])) {
+                mRefs[i] = mRefs[i - 1];
+                mScores[i] = mScores[i - 1];
+                i--;
+            }
+            mRefs[i] = ref;
+            mScores[i] = score;
+        }
+
+        private static boolean better(int ref, float score, int otherRef, float otherScore) {
+            return score > otherScore || (score == otherScore && ref < otherRef);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package org.uw.cse.mag.ar.recognition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical vocabulary of binary descriptors, quantizing each descriptor to a visual word.
+ * <p>
+ * The tree is trained offline by recursive k-majority clustering (k-means for Hamming
+ * space: cluster centers are bitwise majorities) of a sample of reference descriptors.
+ * Quantizing a descriptor descends from the root to the nearest child at each level,
+ * i.e. {@code branching * depth} Hamming distances for {@code branching ^ depth} words.
+ * <p>
+ * The trained tree is saved as {@link #FILE_NAME} in the directory holding the appliance
+ * directories (see {@link #getFile(String)}), and is immutable, so it can be shared by
+ * several threads.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class VocabularyTree {
+
+    /** Name of the vocabulary file, next to the appliance directories. */
+    public static final String FILE_NAME = "vocabulary.tree";
+
+    static final int MAGIC = 0x41525654; // "ARVT"
+    static final int VERSION = 1;
+
+    private final int mWords;
+    private final int mBranching;
+    private final int mDepth;
+
+    // Nodes: node 0 is the root, the children of node n are mFirstChild[n] to
+    // mFirstChild[n] + mChildCount[n] - 1, and leaves have a word in mWordOf.
+    private long[] mCenters;
+    private int[] mFirstChild;
+    private int[] mChildCount;
+    private int[] mWordOf;
+    private int mNodeCount;
+    private int mWordCount;
+
+    private VocabularyTree(int descriptorBits, int branching, int depth, int nodeCapacity) {
+        mWords = descriptorBits >> 6;
+        mBranching = branching;
+        mDepth = depth;
+        mCenters = new long[nodeCapacity * mWords];
+        mFirstChild = new int[nodeCapacity];
+        mChildCount = new int[nodeCapacity];
+        mWordOf = new int[nodeCapacity];
+    }
+
+    /**
+     * Gets the vocabulary file shared by the appliances stored next to an appliance directory.
+     * @param applianceDirectory the directory of an appliance, see
+     *                           {@link org.uw.cse.mag.ar.data.Appliance#getDirectoryPath()}.
+     * @return the vocabulary file in its parent directory.
+     */
+    public static File getFile(String applianceDirectory) {
+        return new File(new File(applianceDirectory).getAbsoluteFile().getParentFile(), FILE_NAME);
+    }
+
+    /**
+     * Trains a vocabulary. This takes seconds for a few hundred thousand descriptors
+     * and is meant to run offline, when the catalog changes, not on the scan thread.
+     * @param descriptors    Packed training descriptors, {@code descriptorBits / 64} words each.
+     * @param count          Number of training descriptors.
+     * @param descriptorBits Descriptor length in bits, a multiple of 64.
+     * @param branching      Number of children per node, at least 2.
+     * @param depth          Number of levels below the root, at least 1.
+     * @param iterations     Maximum number of clustering iterations per node.
+     * @param seed           Random seed, fixed for reproducible vocabularies.
+     * @return the trained vocabulary, with at most {@code branching ^ depth} words.
+     */
+    public static VocabularyTree train(long[] descriptors, int count, int descriptorBits,
+                                       int branching, int depth, int iterations, long seed) {
+        if (descriptorBits < 64 || (descriptorBits & 63) != 0)
+            throw new IllegalArgumentException("VocabularyTree.train(), Illegal descriptor length: " + descriptorBits);
+        if (branching < 2 || depth < 1)
+            throw new IllegalArgumentException("VocabularyTree.train(), Illegal shape: " + branching + "^" + depth);
+        if (count < 1 || descriptors.length < count * (descriptorBits >> 6))
+            throw new IllegalArgumentException("VocabularyTree.train(), Illegal descriptor count: " + count);
+        VocabularyTree tree = new VocabularyTree(descriptorBits, branching, depth, 1 + branching);
+        Trainer t = new Trainer(tree, descriptors, count, iterations, seed);
+        tree.mNodeCount = 1;
+        tree.mWordOf[0] = -1;
+        t.split(0, 0, count, 0);
+        return tree;
+    }
+
+    /**
+     * @return the descriptor length in bits.
+     */
+    public int getDescriptorBits() {
+        return mWords << 6;
+    }
+
+    /**
+     * @return the number of children per node.
+     */
+    public int getBranching() {
+        return mBranching;
+    }
+
+    /**
+     * @return the number of levels below the root.
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * @return the number of visual words, i.e. leaves.
+     */
+    public int getWordCount() {
+        return mWordCount;
+    }
+
+    /**
+     * Quantizes a descriptor.
+     * @param d   Packed descriptors.
+     * @param off Index of the first word of the descriptor.
+     * @return its visual word, between 0 and {@link #getWordCount()} - 1.
+     */
+    public int quantize(long[] d, int off) {
+        int node = 0;
+        while (mWordOf[node] < 0) {
+            int first = mFirstChild[node];
+            int end = first + mChildCount[node];
+            int best = first;
+            int bestDist = Integer.MAX_VALUE;
+            for (int c = first; c < end; ++c) {
+                int dist = 0;
+                int co = c * mWords;
+                for (int w = 0; w < mWords; ++w) {
+                    dist += Long.bitCount(d[off + w] ^ mCenters[co + w]);
+                }
+                if (dist < bestDist) {
+                    bestDist = dist;
+                    best = c;
+                }
+            }
+            node = best;
+        }
+        return mWordOf[node];
+    }
+
+    /**
+     * Saves the vocabulary.
+     * @param file the file to write, usually {@link #getFile(String)}.
+     * @throws IOException if the file could not be written.
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(getDescriptorBits());
+            out.writeInt(mBranching);
+            out.writeInt(mDepth);
+            out.writeInt(mNodeCount);
+            out.writeInt(mWordCount);
+            for (int n = 0; n < mNodeCount; ++n) {
+                out.writeInt(mFirstChild[n]);
+                out.writeInt(mChildCount[n]);
+                out.writeInt(mWordOf[n]);
+                for (int w = 0; w < mWords; ++w) {
+                    out.writeLong(mCenters[n * mWords + w]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a vocabulary saved with {@link #save(java.io.File)}.
+     * @param file the file to read.
+     * @return the vocabulary.
+     * @throws IOException if the file could not be read or is not a vocabulary.
+     */
+    public static VocabularyTree load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("VocabularyTree.load(), not a vocabulary: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("VocabularyTree.load(), unsupported version: " + version);
+            int bits = in.readInt();
+            int branching = in.readInt();
+            int depth = in.readInt();
+            int nodes = in.readInt();
+            int words = in.readInt();
+            if (bits < 64 || (bits & 63) != 0 || branching < 2 || depth < 1 || nodes < 1 || words < 1)
+                throw new IOException("VocabularyTree.load(), corrupted file: " + file);
+            VocabularyTree tree = new VocabularyTree(bits, branching, depth, nodes);
+            for (int n = 0; n < nodes; ++n) {
+                tree.mFirstChild[n] = in.readInt();
+                tree.mChildCount[n] = in.readInt();
+                tree.mWordOf[n] = in.readInt();
+                if (tree.mWordOf[n] >= words || (tree.mWordOf[n] < 0 && (tree.mChildCount[n] < 1
+                        || tree.mFirstChild[n] <= n || tree.mFirstChild[n] + tree.mChildCount[n] > nodes)))
+                    throw new IOException("VocabularyTree.load(), corrupted file: " + file);
+                for (int w = 0; w < tree.mWords; ++w) {
+                    tree.mCenters[n * tree.mWords + w] = in.readLong();
+                }
+            }
+            tree.mNodeCount = nodes;
+            tree.mWordCount = words;
+            return tree;
+        } finally {
+            in.close();
+        }
+    }
+
+    private int allocateNodes(int n) {
+        int first = mNodeCount;
+        if (first + n > mFirstChild.length) {
+            int cap = Math.max(first + n, mFirstChild.length * 2);
+            long[] centers = new long[cap * mWords];
+            System.arraycopy(mCenters, 0, centers, 0, mNodeCount * mWords);
+            mCenters = centers;
+            mFirstChild = grow(mFirstChild, cap);
+            mChildCount = grow(mChildCount, cap);
+            mWordOf = grow(mWordOf, cap);
+        }
+        mNodeCount += n;
+        return first;
+    }
+
+    private static int[] grow(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    /**
+     * Recursive k-majority clustering, over a permutation of the training descriptors.
+     */
+    private static final class Trainer {
+        private final VocabularyTree mTree;
+        private final long[] mData;
+        private final int mWords;
+        private final int mBits;
+        private final int mIterations;
+        private final Random mRandom;
+
+        private final int[] mOrder;
+        private final int[] mLabels;
+        private final int[] mScratch;
+        private final int[] mDist;
+
+        Trainer(VocabularyTree tree, long[] data, int count, int iterations, long seed) {
+            mTree = tree;
+            mData = data;
+            mWords = tree.mWords;
+            mBits = mWords << 6;
+            mIterations = Math.max(1, iterations);
+            mRandom = new Random(seed);
+            mOrder = new int[count];
+            mLabels = new int[count];
+            mScratch = new int[count];
+            mDist = new int[count];
+            for (int i = 0; i < count; ++i) {
+                mOrder[i] = i;
+            }
+        }
+
+        /**
+         * Clusters mOrder[lo..hi) into the children of {@code node}, then recurses.
+         */
+        void split(int node, int lo, int hi, int level) {
+            int n = hi - lo;
+            int k = Math.min(mTree.mBranching, n);
+            long[] centers = new long[k * mWords];
+            if (n <= mTree.mBranching) {
+                // Too few descriptors: one child each.
+                for (int i = 0; i < n; ++i) {
+                    System.arraycopy(mData, mOrder[lo + i] * mWords, centers, i * mWords, mWords);
+                    mLabels[lo + i] = i;
+                }
+            }
+            else {
+                seed(lo, hi, centers, k);
+                int[][] ones = new int[k][mBits];
+                int[] sizes = new int[k];
+                for (int it = 0; it < mIterations; ++it) {
+                    boolean changed = assign(lo, hi, centers, k) || it == 0;
+                    if (!changed)
+                        break;
+                    majority(lo, hi, centers, k, ones, sizes);
+                }
+            }
+
+            // Partition by label, dropping empty clusters.
+            int[] sizes = new int[k];
+            for (int i = lo; i < hi; ++i) {
+                sizes[mLabels[i]]++;
+            }
+            int children = 0;
+            int[] childOf = new int[k];
+            for (int c = 0; c < k; ++c) {
+                childOf[c] = sizes[c] > 0 ? children++ : -1;
+            }
+            int[] start = new int[children + 1];
+            for (int c = 0; c < k; ++c) {
+                if (childOf[c] >= 0)
+                    start[childOf[c] + 1] = sizes[c];
+            }
+            for (int c = 0; c < children; ++c) {
+                start[c + 1] += start[c];
+            }
+            int[] fill = new int[children];
+            System.arraycopy(start, 0, fill, 0, children);
+            for (int i = lo; i < hi; ++i) {
+                mScratch[lo + fill[childOf[mLabels[i]]]++] = mOrder[i];
+            }
+            System.arraycopy(mScratch, lo, mOrder, lo, n);
+
+            VocabularyTree t = mTree;
+            int first = t.allocateNodes(children);
+            t.mFirstChild[node] = first;
+            t.mChildCount[node] = children;
+            t.mWordOf[node] = -1;
+            for (int c = 0; c < k; ++c) {
+                if (childOf[c] >= 0)
+                    System.arraycopy(centers, c * mWords, t.mCenters, (first + childOf[c]) * mWords, mWords);
+            }
+            for (int c = 0; c < children; ++c) {
+                int child = first + c;
+                int clo = lo + start[c];
+                int chi = lo + start[c + 1];
+                if (level + 1 >= t.mDepth || chi - clo <= 1) {
+                    t.mFirstChild[child] = 0;
+                    t.mChildCount[child] = 0;
+                    t.mWordOf[child] = t.mWordCount++;
+                }
+                else {
+                    split(child, clo, chi, level + 1);
+                }
+            }
+        }
+
+        /**
+         * k-means++ seeding: each new center is drawn with a probability proportional
+         * to the squared distance to the nearest center already chosen.
+         */
+        private void seed(int lo, int hi, long[] centers, int k) {
+            int n = hi - lo;
+            int first = mOrder[lo + mRandom.nextInt(n)];
+            System.arraycopy(mData, first * mWords, centers, 0, mWords);
+            for (int i = lo; i < hi; ++i) {
+                mDist[i] = distance(mOrder[i], centers, 0);
+            }
+            for (int c = 1; c < k; ++c) {
+                long total = 0;
+                for (int i = lo; i < hi; ++i) {
+                    total += (long) mDist[i] * mDist[i];
+                }
+                int pick = lo;
+                if (total > 0) {
+                    long r = (long) (mRandom.nextDouble() * total);
+                    for (int i = lo; i < hi; ++i) {
+                        r -= (long) mDist[i] * mDist[i];
+                        if (r < 0) {
+                            pick = i;
+                            break;
+                        }
+                    }
+                }
+                else {
+                    pick = lo + mRandom.nextInt(n);
+                }
+                System.arraycopy(mData, mOrder[pick] * mWords, centers, c * mWords, mWords);
+                for (int i = lo; i < hi; ++i) {
+                    mDist[i] = Math.min(mDist[i], distance(mOrder[i], centers, c * mWords));
+                }
+            }
+        }
+
+        /**
+         * Assigns every descriptor to its nearest center.
+         * @return true if any label changed.
+         */
+        private boolean assign(int lo, int hi, long[] centers, int k) {
+            boolean changed = false;
+            for (int i = lo; i < hi; ++i) {
+                int best = 0;
+                int bestDist = Integer.MAX_VALUE;
+                for (int c = 0; c < k; ++c) {
+                    int d = distance(mOrder[i], centers, c * mWords);
+                    if (d < bestDist) {
+                        bestDist = d;
+                        best = c;
+                    }
+                }
+                if (mLabels[i] != best) {
+                    mLabels[i] = best;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Moves every non-empty cluster center to the bitwise majority of its members.
+         */
+        private void majority(int lo, int hi, long[] centers, int k, int[][] ones, int[] sizes) {
+            for (int c = 0; c < k; ++c) {
+                sizes[c] = 0;
+                Arrays.fill(ones[c], 0);
+            }
+            for (int i = lo; i < hi; ++i) {
+                int c = mLabels[i];
+                int off = mOrder[i] * mWords;
+                int[] o = ones[c];
+                sizes[c]++;
+                for (int w = 0; w < mWords; ++w) {
+                    long v = mData[off + w];
+                    while (v != 0) {
+                        int b = Long.numberOfTrailingZeros(v);
+                        o[(w << 6) + b]++;
+                        v &= v - 1;
+                    }
+                }
+            }
+            for (int c = 0; c < k; ++c) {
+                if (sizes[c] == 0)
+                    continue;
+                int half = sizes[c] / 2;
+                for (int w = 0; w < mWords; ++w) {
+                    long v = 0;
+                    for (int b = 0; b < 64; ++b) {
+                        if (ones[c][(w << 6) + b] > half)
+                            v |= 1L << b;
+                    }
+                    centers[c * mWords + w] = v;
+                }
+            }
+        }
+
+        private int distance(int i, long[] centers, int off) {
+            int d = 0;
+            int o = i * mWords;
+            for (int w = 0; w < mWords; ++w) {
+                d += Long.bitCount(mData[o + w] ^ centers[off + w]);
+            }
+            return d;
+        }
+    }
+}
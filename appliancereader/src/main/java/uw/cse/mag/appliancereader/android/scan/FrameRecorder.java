@@ -0,0 +1,229 @@
+package org.uw.cse.mag.ar.scan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records camera frames to a file, for offline replay with {@link FrameReplay}.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ *   header:  int magic 'ARFR', int version, int width, int height, int flags
+ *   records: long timestamp (ns), int orientation, int length, byte[length] frame
+ * </pre>
+ * With {@link #FLAG_LUMA_ONLY}, only the Y plane of each NV21 frame is stored.
+ * <p>
+ * {@link #offer(byte[], long, int)} is meant to be called from the camera callback: it only
+ * copies the frame into one of a few preallocated slots, and a background thread writes
+ * the slots to disk. When every slot is waiting to be written the frame is dropped
+ * rather than stalling the camera, and counted in {@link #getDroppedCount()}.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class FrameRecorder {
+
+    /** File magic number, "ARFR". */
+    public static final int MAGIC = 0x41524652;
+    /** Current file format version. */
+    public static final int VERSION = 1;
+    /** Only the luma plane of the frames is stored. */
+    public static final int FLAG_LUMA_ONLY = 1;
+
+    static final int HEADER_SIZE = 20;
+    static final int RECORD_HEADER_SIZE = 16;
+
+    /** Default number of frames waiting to be written before frames are dropped. */
+    public static final int DEFAULT_SLOT_COUNT = 4;
+
+    private final FileOutputStream mStream;
+    private final FileChannel mChannel;
+    private final int mFrameSize;
+    private final Thread mWriter;
+
+    // Slots waiting to be written, used as a FIFO ring, and free slots, used as a stack.
+    private final byte[][] mSlots;
+    private final long[] mTimestamps;
+    private final int[] mOrientations;
+    private final int[] mQueue;
+    private int mQueueHead;
+    private int mQueueCount;
+    private final int[] mFree;
+    private int mFreeCount;
+
+    private boolean mClosed;
+    private IOException mError;
+    private long mRecorded;
+    private long mDropped;
+
+    /**
+     * Creates a recorder with {@link #DEFAULT_SLOT_COUNT} slots.
+     * @see #FrameRecorder(java.io.File, int, int, boolean, int)
+     */
+    public FrameRecorder(File file, int width, int height, boolean lumaOnly) throws IOException {
+        this(file, width, height, lumaOnly, DEFAULT_SLOT_COUNT);
+    }
+
+    /**
+     * Constructor. Creates or truncates the file and starts the writer thread.
+     * @param file      The file to write.
+     * @param width     The frame width.
+     * @param height    The frame height.
+     * @param lumaOnly  true to store only the Y plane of the frames.
+     * @param slotCount Number of frames that can wait to be written.
+     * @throws IOException if the file could not be created.
+     */
+    public FrameRecorder(File file, int width, int height, boolean lumaOnly, int slotCount) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("FrameRecorder(), Illegal frame size: " + width + "x" + height);
+        if (slotCount < 1)
+            throw new IllegalArgumentException("FrameRecorder(), Illegal slot count: " + slotCount);
+        mFrameSize = lumaOnly ? width * height : width * height * 3 / 2;
+        mSlots = new byte[slotCount][];
+        mTimestamps = new long[slotCount];
+        mOrientations = new int[slotCount];
+        mQueue = new int[slotCount];
+        mFree = new int[slotCount];
+        for (int i = 0; i < slotCount; ++i) {
+            mSlots[i] = new byte[mFrameSize];
+            mFree[i] = i;
+        }
+        mFreeCount = slotCount;
+
+        mStream = new FileOutputStream(file);
+        mChannel = mStream.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                    .putInt(lumaOnly ? FLAG_LUMA_ONLY : 0);
+            header.flip();
+            writeFully(header);
+        } catch (IOException e) {
+            mStream.close();
+            throw e;
+        }
+
+        mWriter = new Thread("FrameRecorder") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Queues a frame for writing, or drops it if the writer is behind.
+     * @param nv21        The NV21 frame. It is copied: the caller keeps ownership.
+     * @param timestamp   The capture time, in nanoseconds.
+     * @param orientation The frame orientation among the
+     *                    {@link org.uw.cse.mag.ar.util.OrientationListener.Orientation} values.
+     * @return true if the frame was queued.
+     */
+    public synchronized boolean offer(byte[] nv21, long timestamp, int orientation) {
+        if (mClosed || mError != null)
+            return false;
+        if (mFreeCount == 0 || nv21.length < mFrameSize) {
+            mDropped++;
+            return false;
+        }
+        int slot = mFree[--mFreeCount];
+        System.arraycopy(nv21, 0, mSlots[slot], 0, mFrameSize);
+        mTimestamps[slot] = timestamp;
+        mOrientations[slot] = orientation;
+        mQueue[(mQueueHead + mQueueCount) % mQueue.length] = slot;
+        mQueueCount++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return the number of frames written so far.
+     */
+    public synchronized long getRecordedCount() {
+        return mRecorded;
+    }
+
+    /**
+     * @return the number of frames dropped because the writer was behind.
+     */
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Writes the queued frames and closes the file.
+     * @throws IOException if a frame could not be written.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mClosed)
+                return;
+            mClosed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mWriter.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        mStream.close();
+        synchronized (this) {
+            if (mError != null)
+                throw mError;
+        }
+    }
+
+    private void writeLoop() {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (true) {
+            int slot;
+            synchronized (this) {
+                while (mQueueCount == 0 && !mClosed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        mClosed = true;
+                    }
+                }
+                if (mQueueCount == 0)
+                    return;
+                slot = mQueue[mQueueHead];
+            }
+            try {
+                header.clear();
+                header.putLong(mTimestamps[slot]).putInt(mOrientations[slot]).putInt(mFrameSize);
+                header.flip();
+                writeFully(header);
+                writeFully(ByteBuffer.wrap(mSlots[slot], 0, mFrameSize));
+            } catch (IOException e) {
+                synchronized (this) {
+                    mError = e;
+                    mClosed = true;
+                }
+                return;
+            }
+            synchronized (this) {
+                mQueueHead = (mQueueHead + 1) % mQueue.length;
+                mQueueCount--;
+                mFree[mFreeCount++] = slot;
+                mRecorded++;
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            mChannel.write(b);
+        }
+    }
+}
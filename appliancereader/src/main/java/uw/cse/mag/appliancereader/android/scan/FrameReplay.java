@@ -0,0 +1,172 @@
+package org.uw.cse.mag.ar.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads back the frames written by a {@link FrameRecorder}.
+ * <p>
+ * The file is memory-mapped, so frames are copied straight from the page cache without
+ * any read call or intermediate buffer. Files are limited to 2 GB.
+ * <pre>
+ *   FrameReplay replay = new FrameReplay(file);
+ *   byte[] frame = new byte[replay.getFrameSize()];
+ *   while (replay.next()) {
+ *       replay.copyFrame(frame);
+ *       scanner.scan(frame, replay.getWidth(), replay.getHeight(), replay.getOrientation());
+ *   }
+ * </pre>
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class FrameReplay {
+
+    private final MappedByteBuffer mBuffer;
+    // Relative bulk reads need a position: frames are copied through this view.
+    private final ByteBuffer mReader;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFlags;
+
+    private int mPosition;
+    private int mFrameOffset = -1;
+    private int mFrameLength;
+    private long mTimestamp;
+    private int mOrientation;
+
+    /**
+     * Constructor. Maps the file and checks its header.
+     * @param file The file written by a {@link FrameRecorder}.
+     * @throws IOException if the file could not be read or is not a frame recording.
+     */
+    public FrameReplay(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("FrameReplay(), file too large: " + size + " bytes");
+            if (size < FrameRecorder.HEADER_SIZE)
+                throw new IOException("FrameReplay(), not a frame recording: " + file);
+            // The mapping stays valid once the file is closed.
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+        if (mBuffer.getInt(0) != FrameRecorder.MAGIC)
+            throw new IOException("FrameReplay(), not a frame recording: " + file);
+        int version = mBuffer.getInt(4);
+        if (version != FrameRecorder.VERSION)
+            throw new IOException("FrameReplay(), unsupported version: " + version);
+        mReader = mBuffer.duplicate();
+        mWidth = mBuffer.getInt(8);
+        mHeight = mBuffer.getInt(12);
+        mFlags = mBuffer.getInt(16);
+        if (mWidth < 1 || mHeight < 1)
+            throw new IOException("FrameReplay(), illegal frame size: " + mWidth + "x" + mHeight);
+        rewind();
+    }
+
+    /**
+     * @return the frame width.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return the frame height.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return true if only the luma plane of the frames was recorded.
+     */
+    public boolean isLumaOnly() {
+        return (mFlags & FrameRecorder.FLAG_LUMA_ONLY) != 0;
+    }
+
+    /**
+     * @return the size in bytes of the NV21 frames filled by {@link #copyFrame(byte[])}.
+     */
+    public int getFrameSize() {
+        return mWidth * mHeight * 3 / 2;
+    }
+
+    /**
+     * Goes back to the first frame. {@link #next()} must be called before reading it.
+     */
+    public void rewind() {
+        mPosition = FrameRecorder.HEADER_SIZE;
+        mFrameOffset = -1;
+    }
+
+    /**
+     * Moves to the next frame.
+     * <p>
+     * A record cut short, e.g. because recording was interrupted, ends the replay.
+     * @return false if there is no more frame.
+     */
+    public boolean next() {
+        int limit = mBuffer.limit();
+        if (limit - mPosition < FrameRecorder.RECORD_HEADER_SIZE) {
+            mFrameOffset = -1;
+            return false;
+        }
+        long timestamp = mBuffer.getLong(mPosition);
+        int orientation = mBuffer.getInt(mPosition + 8);
+        int length = mBuffer.getInt(mPosition + 12);
+        int offset = mPosition + FrameRecorder.RECORD_HEADER_SIZE;
+        if (length < 0 || length > limit - offset) {
+            mFrameOffset = -1;
+            return false;
+        }
+        mTimestamp = timestamp;
+        mOrientation = orientation;
+        mFrameOffset = offset;
+        mFrameLength = length;
+        mPosition = offset + length;
+        return true;
+    }
+
+    /**
+     * @return the capture time of the current frame, in nanoseconds.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return the orientation of the current frame among the
+     *         {@link org.uw.cse.mag.ar.util.OrientationListener.Orientation} values.
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * Copies the current frame.
+     * <p>
+     * For luma-only recordings, the chroma plane is filled with neutral gray.
+     * @param nv21 The destination, at least {@link #getFrameSize()} bytes.
+     */
+    public void copyFrame(byte[] nv21) {
+        if (mFrameOffset < 0)
+            throw new IllegalStateException("FrameReplay.copyFrame(), no current frame");
+        int size = getFrameSize();
+        if (nv21.length < size)
+            throw new IllegalArgumentException("FrameReplay.copyFrame(), buffer too small: " + nv21.length);
+        int n = Math.min(mFrameLength, size);
+        mReader.position(mFrameOffset);
+        mReader.get(nv21, 0, n);
+        if (n < size)
+            Arrays.fill(nv21, n, size, (byte) 128);
+    }
+}
@@ -0,0 +1,649 @@
+package org.uw.cse.mag.ar.scan;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import org.uw.cse.mag.ar.barcode.BarcodeScanner;
+import org.uw.cse.mag.ar.display.DisplayRegion;
+import org.uw.cse.mag.ar.display.SevenSegmentReader;
+import org.uw.cse.mag.ar.recognition.HammingMatcher;
+import org.uw.cse.mag.ar.recognition.RecognitionIndex;
+import org.uw.cse.mag.ar.recognition.VocabularyIndex;
+import org.uw.cse.mag.ar.util.ApplianceReaderError;
+import org.uw.cse.mag.ar.util.Result;
+import org.uw.cse.mag.ar.vision.FeatureExtractor;
+import org.uw.cse.mag.ar.vision.FrameOrientation;
+import org.uw.cse.mag.ar.vision.Homography;
+import org.uw.cse.mag.ar.vision.HomographyEstimator;
+import org.uw.cse.mag.ar.vision.ImagePyramid;
+import org.uw.cse.mag.ar.vision.Keypoints;
+import org.uw.cse.mag.ar.vision.LumaPreprocessor;
+import org.uw.cse.mag.ar.vision.PatchTracker;
+import org.uw.cse.mag.ar.vision.RoiSet;
+
+/**
+ * Per-frame recognition pipeline, from a raw NV21 frame to a {@link Result}.
+ * <p>
+ * This is the code run by the scanner worker thread for every frame. It does not depend
+ * on Android, so recorded frames can be replayed through it on a plain JVM (see
+ * {@link FrameReplay}). A FrameScanner keeps the locking state between frames and must
+ * only be used by one thread.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class FrameScanner {
+
+    private static final int MAX_ROIS = 64;
+    private static final int MAX_ROI_VERTICES = 32;
+    private static final int MAX_DISPLAY_CHARS = 16;
+
+    /**
+     * The number of consecutive frames a locked result can be lost by the tracker
+     * before falling back to a full search.
+     */
+    public int maxLostFrames = 2;
+
+    /**
+     * The maximum number of levels of the image pyramid, including the full resolution frame.
+     * Changes take effect the next time the frame size changes.
+     */
+    public int pyramidLevels = 4;
+
+    /**
+     * The scale factor between two levels of the image pyramid.
+     * Changes take effect the next time the frame size changes.
+     */
+    public float pyramidScale = 2f;
+
+    /**
+     * The clockwise rotation, in degrees, that makes the camera frames upright when the
+     * device is held upright, see {@link FrameOrientation}.
+     */
+    public int sensorOrientation = 90;
+
+    /**
+     * The margin, in frame pixels, added around the projected features of interest.
+     */
+    public int roiMargin = 16;
+
+    /**
+     * The number of frame keypoints that must match a reference image for its
+     * appliance to be recognized.
+     */
+    public int minMatches = 12;
+
+    /**
+     * The largest number of keypoints extracted from a frame for image search.
+     */
+    public int maxKeypoints = 500;
+
+    /**
+     * The number of references shortlisted by the vocabulary, if any, before matching.
+     * Changes take effect the next time the index is set.
+     */
+    public int shortlistSize = 8;
+
+    /**
+     * If true, a recognized appliance must also be geometrically consistent: at least
+     * {@link #minMatches} of its matches must agree on a homography from the reference
+     * image to the frame, which is then reported with the result.
+     */
+    public boolean verifyGeometry = true;
+
+    /**
+     * The {@link Result.Type} flags of the barcodes decoded in frames that are not locked
+     * on a result, among {@link BarcodeScanner#SUPPORTED_TYPES}; 0 disables decoding.
+     * A barcode encoding a known model number (see {@link #setApplianceModels(Map)})
+     * identifies its appliance without image search.
+     */
+    public int barcodeTypes = 0;
+
+    private ScanStats stats;
+    private float[][] roiPolygons;
+
+    // image search:
+    private RecognitionIndex index;
+    private FeatureExtractor extractor;
+    private Keypoints keypoints;
+    private RecognitionIndex.Matches matches;
+    private VocabularyIndex vocabulary;
+    private VocabularyIndex.Shortlist shortlist;
+    // shortlisted references are matched exhaustively; the pairs of the best one are kept.
+    private final HammingMatcher matcher = new HammingMatcher();
+    private int[] pairQuery = new int[0];
+    private int[] pairTrain = new int[0];
+    private int[] pairDistance = new int[0];
+    private int[] bestQuery = new int[0];
+    private int[] bestEntry = new int[0];
+    private int[] bestDistance = new int[0];
+    private int bestCount;
+    // geometric verification, pairs ordered by distance:
+    private HomographyEstimator estimator;
+    private long[] pairOrder;
+    private float[] pairSrc;
+    private float[] pairDst;
+
+    // barcode decoding:
+    private final BarcodeScanner barcodes = new BarcodeScanner();
+    private Map<String, Long> models;
+
+    private DisplayRegion[] displays;
+    private SevenSegmentReader displayReader;
+    private String[] readings;
+
+    private LumaPreprocessor luma;
+    private FrameOrientation orientations;
+    private int frameOrientation;
+    private ImagePyramid pyramid;
+    private final RoiSet rois = new RoiSet(MAX_ROIS, MAX_ROI_VERTICES);
+    // True if the pyramid of the current frame was only built inside the regions of interest.
+    private boolean partialPyramid = false;
+
+    // locking values:
+    private final PatchTracker tracker = new PatchTracker();
+    private int trackLevel = 0;
+    private Result _result = null;
+    private int _losts = 0;
+
+    /**
+     * Sets the statistics receiving the preprocessing and scan timings.
+     * @param stats the statistics, or null.
+     */
+    public void setStats(ScanStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Sets the engine sharing the descriptor matching across threads.
+     * @param engine the engine, or null to match on the scanning thread only.
+     */
+    public void setEngine(ScanEngine engine) {
+        matcher.setEngine(engine);
+    }
+
+    /**
+     * Restricts the per-frame processing to some regions of the appliance, once its pose is known.
+     * @param polygons (x, y) pairs of each region, in reference image coordinates, or null
+     *                 to always process the whole frame.
+     */
+    public void setFeaturesOfInterest(float[][] polygons) {
+        roiPolygons = polygons;
+    }
+
+    /**
+     * Sets the seven-segment displays read in every frame where the pose of the appliance
+     * is known, see {@link Result#getDisplayReadings()}.
+     * @param displays the displays, in reference image coordinates, or null.
+     */
+    public void setDisplays(DisplayRegion[] displays) {
+        if (displays != this.displays)
+            readings = null;
+        this.displays = displays;
+    }
+
+    /**
+     * Sets the appliances a decoded barcode can name.
+     * @param models the appliance database IDs by model number, as returned by
+     *               {@link #modelKey(String)}, or null.
+     */
+    public void setApplianceModels(Map<String, Long> models) {
+        this.models = models;
+    }
+
+    /**
+     * Normalizes a model number, as printed on an appliance or encoded in a barcode.
+     * @param model the model number.
+     * @return the key of the model in the map given to {@link #setApplianceModels(Map)}.
+     */
+    public static String modelKey(String model) {
+        return model.trim().toUpperCase(Locale.US);
+    }
+
+    /**
+     * Sets the reference images searched in every frame that is not locked on a result.
+     * <p>
+     * Recognized appliances are returned as {@link Result.Type#IMAGE} results whose value
+     * is the reference identifier given to {@link RecognitionIndex#addReference}.
+     * @param index     The built index of the reference images, or null to disable image search.
+     * @param extractor The extractor the reference keypoints were computed with.
+     */
+    public void setRecognitionIndex(RecognitionIndex index, FeatureExtractor extractor) {
+        setRecognitionIndex(index, extractor, null);
+    }
+
+    /**
+     * Sets the reference images searched in every frame that is not locked on a result,
+     * matching each frame only against the references shortlisted by a vocabulary.
+     * @param index      The built index of the reference images, or null to disable image search.
+     * @param extractor  The extractor the reference keypoints were computed with.
+     * @param vocabulary The built vocabulary index of the same references, in the same
+     *                   order, or null to match against all references.
+     */
+    public void setRecognitionIndex(RecognitionIndex index, FeatureExtractor extractor,
+                                    VocabularyIndex vocabulary) {
+        if (index == this.index && extractor == this.extractor && vocabulary == this.vocabulary)
+            return;
+        if (index != null && extractor == null)
+            throw new IllegalArgumentException("FrameScanner.setRecognitionIndex(), extractor cannot be null");
+        if (index != null && extractor.getDescriptorBits() != index.getDescriptorBits())
+            throw new IllegalArgumentException("FrameScanner.setRecognitionIndex(), descriptor length mismatch");
+        if (index != null && vocabulary != null && !vocabulary.isAlignedWith(index))
+            throw new IllegalArgumentException("FrameScanner.setRecognitionIndex(), references do not match the index");
+        this.index = index;
+        this.extractor = extractor;
+        this.vocabulary = index == null ? null : vocabulary;
+        if (index != null && (keypoints == null || keypoints.capacity != maxKeypoints
+                || keypoints.getDescriptorBits() != index.getDescriptorBits())) {
+            keypoints = new Keypoints(maxKeypoints, index.getDescriptorBits());
+            matches = new RecognitionIndex.Matches(maxKeypoints);
+        }
+        if (index != null && pairQuery.length != maxKeypoints) {
+            pairQuery = new int[maxKeypoints];
+            pairTrain = new int[maxKeypoints];
+            pairDistance = new int[maxKeypoints];
+            bestQuery = new int[maxKeypoints];
+            bestEntry = new int[maxKeypoints];
+            bestDistance = new int[maxKeypoints];
+            estimator = new HomographyEstimator(maxKeypoints);
+            pairOrder = new long[maxKeypoints];
+            pairSrc = new float[2 * maxKeypoints];
+            pairDst = new float[2 * maxKeypoints];
+        }
+        bestCount = 0;
+        if (this.vocabulary != null && (shortlist == null || shortlist.getCapacity() != shortlistSize))
+            shortlist = new VocabularyIndex.Shortlist(shortlistSize);
+        reset();
+    }
+
+    /**
+     * @return the keypoints extracted from the last searched frame, or null.
+     */
+    public Keypoints getKeypoints() {
+        return keypoints;
+    }
+
+    /**
+     * @return the index matches of the last frame searched without a vocabulary, or null.
+     */
+    public RecognitionIndex.Matches getMatches() {
+        return matches;
+    }
+
+    /**
+     * Forgets the locked result, if any: the next frame is fully searched.
+     */
+    public void reset() {
+        _result = null;
+        _losts = 0;
+        tracker.stop();
+    }
+
+    /**
+     * @return the image pyramid of the last frame, or null if no frame was scanned yet.
+     */
+    public ImagePyramid getPyramid() {
+        return pyramid;
+    }
+
+    /**
+     * @return the regions of interest of the last frame, empty if the whole frame was processed.
+     */
+    public RoiSet getRegionsOfInterest() {
+        return rois;
+    }
+
+    /**
+     * Scans a frame.
+     * <p>
+     * The frame is scanned as the sensor delivers it, whatever the device orientation: the
+     * geometry of the result is in sensor frame coordinates, see {@link #toUpright(Result)}.
+     * @param data        The NV21 frame.
+     * @param width       The frame width.
+     * @param height      The frame height.
+     * @param orientation The device orientation among the
+     *                    {@link org.uw.cse.mag.ar.util.OrientationListener.Orientation} values.
+     * @return the result if any, null otherwise.
+     * @throws ApplianceReaderError if the scan failed.
+     */
+    public Result scan(byte[] data, int width, int height, int orientation) throws ApplianceReaderError {
+        ScanStats s = stats;
+        boolean timed = s != null && s.isEnabled();
+        long t0 = timed ? System.nanoTime() : 0L;
+        if (luma == null || luma.getWidth() != width || luma.getHeight() != height) {
+            luma = new LumaPreprocessor(width, height);
+            pyramid = new ImagePyramid(width, height, pyramidLevels, pyramidScale);
+            reset();
+        }
+        if (orientations == null || orientations.getWidth() != width || orientations.getHeight() != height
+                || orientations.getSensorOrientation() != sensorOrientation)
+            orientations = new FrameOrientation(width, height, sensorOrientation);
+        frameOrientation = orientation;
+        luma.process(data);
+        partialPyramid = regionsOfInterest(width, height);
+        pyramid.build(luma.getFull(), rois);
+        long t1 = timed ? System.nanoTime() : 0L;
+        Result result = scan(pyramid);
+        if (timed) {
+            s.record(ScanStats.Stage.PREPROCESS, t1 - t0);
+            s.record(ScanStats.Stage.SCAN, System.nanoTime() - t1);
+        }
+        if (s != null)
+            s.frameScanned(result != null);
+        return result;
+    }
+
+    /**
+     * Maps the geometry of a result from the sensor frame to the last scanned frame as the
+     * user sees it, in place. The results returned by {@link #scan} are tracked in sensor
+     * coordinates: only copies of them, such as {@link ResultFusion} outcomes, can be mapped.
+     * @param result a copy of a result.
+     */
+    public void toUpright(Result result) {
+        if (orientations == null)
+            return;
+        float[] corners = result.getCorners();
+        if (corners != null)
+            orientations.toUpright(frameOrientation, corners, 0, corners.length / 2);
+        float[] h = result.getHomography();
+        if (h != null)
+            orientations.toUpright(frameOrientation, h);
+    }
+
+    /**
+     * @return the transforms between the sensor and upright frames of the last scanned
+     *         frame size, or null if no frame was scanned yet.
+     */
+    public FrameOrientation getFrameOrientation() {
+        return orientations;
+    }
+
+    /**
+     * Computes the parts of the frame worth processing into {@link #rois}: when locked on
+     * an appliance whose pose is known, the projected features of interest and the tracker
+     * search windows. Leaves the set empty, meaning the whole frame, otherwise.
+     * @return true if the set restricts the processing to part of the frame.
+     */
+    private boolean regionsOfInterest(int width, int height) {
+        rois.reset(width, height);
+        float[][] polygons = roiPolygons;
+        if (polygons == null || _result == null || _result.getHomography() == null || !tracker.isTracking())
+            return false;
+        boolean ok = tracker.addSearchRegions(rois, pyramid.getLevelScale(trackLevel));
+        for (int i = 0; ok && i < polygons.length; ++i) {
+            ok = rois.addProjected(_result.getHomography(), polygons[i], roiMargin);
+        }
+        if (!ok) {
+            // Too many regions: process the whole frame.
+            rois.reset(width, height);
+        }
+        rois.mergeOverlapping();
+        return !rois.isEmpty();
+    }
+
+    /* Performs a search in the local cache, as well as
+     * barcode decoding, according to the options previously set.
+     */
+    private Result scan(ImagePyramid qry) throws ApplianceReaderError {
+
+        Result result = null;
+        //----------
+        // LOCKING
+        //----------
+        // While locked, the result is followed by the patch tracker at about
+        // half resolution. A lost result is kept for up to maxLostFrames frames
+        // before falling back to a full search.
+        if (_result != null && tracker.isTracking()) {
+            if (tracker.update(qry.getLevel(trackLevel))) {
+                float scale = qry.getLevelScale(trackLevel);
+                _losts = 0;
+                tracker.apply(_result.getCorners(), scale);
+                if (_result.getHomography() != null)
+                    Homography.translate(_result.getHomography(), tracker.getDx() * scale, tracker.getDy() * scale);
+                result = _result;
+            }
+            else if (++_losts < maxLostFrames) {
+                result = _result;
+            }
+        }
+
+        // The result is lost: the barcode decoder and the image search look at the whole
+        // frame, and a new lock tracks its level, so the levels outside the regions of
+        // interest, still holding older frames, are built now.
+        if (result == null && partialPyramid) {
+            qry.build(luma.getFull());
+            partialPyramid = false;
+            rois.reset(qry.getLevel(0).width, qry.getLevel(0).height);
+        }
+
+        //-------------------
+        // BARCODE DECODING
+        //-------------------
+        // First, as most frames are rejected in a fraction of a millisecond, and a
+        // known model number makes image search needless.
+        Result barcode = null;
+        if (result == null && barcodeTypes != 0) {
+            barcode = decode(qry);
+            if (barcode != null && barcode.getApplianceId() >= 0) {
+                result = barcode;
+                _losts = 0;
+            }
+        }
+
+        //---------------
+        // IMAGE SEARCH
+        //---------------
+        if (result == null && index != null && index.getReferenceCount() > 0) {
+            result = search(qry);
+            if (result != null) {
+                _losts = 0;
+            }
+        }
+
+        // Any other barcode, if no appliance was recognized.
+        if (result == null && barcode != null) {
+            result = barcode;
+            _losts = 0;
+        }
+
+        //----------------
+        // Locking update
+        //---------------
+        if (result == null) {
+            tracker.stop();
+        }
+        else if (result != _result) {
+            lock(qry, result);
+            readings = null;
+        }
+        _result = result;
+
+        //-----------------
+        // DISPLAY READING
+        //-----------------
+        if (result != null && result.getHomography() != null && displays != null && displays.length > 0)
+            readDisplays(qry, result);
+        return result;
+    }
+
+    /**
+     * Reads the displays of the recognized appliance in the full resolution frame.
+     * The readings are only copied into a new array when one of them changes.
+     */
+    private void readDisplays(ImagePyramid qry, Result result) {
+        if (displayReader == null)
+            displayReader = new SevenSegmentReader(MAX_DISPLAY_CHARS);
+        DisplayRegion[] d = displays;
+        String[] current = readings;
+        boolean changed = current == null || current.length != d.length;
+        if (changed)
+            current = new String[d.length];
+        for (int i = 0; i < d.length; ++i) {
+            int n = displayReader.read(qry.getLevel(0), result.getHomography(), d[i]);
+            String previous = current[i];
+            if (n < 0 ? previous == null : displayReader.contentEquals(previous))
+                continue;
+            if (!changed) {
+                current = current.clone();
+                changed = true;
+            }
+            current[i] = n < 0 ? null : new String(displayReader.getChars(), 0, n);
+        }
+        readings = current;
+        result.setDisplayReadings(current);
+    }
+
+    /**
+     * Decodes a barcode in the full resolution frame, and looks its text up in the models.
+     * @return the barcode, or null.
+     */
+    private Result decode(ImagePyramid qry) {
+        Result result = barcodes.decode(qry.getLevel(0), barcodeTypes);
+        Map<String, Long> m = models;
+        if (result != null && m != null) {
+            Long id = m.get(modelKey(result.getValue()));
+            if (id != null)
+                result.setApplianceId(id);
+        }
+        return result;
+    }
+
+    /**
+     * Searches the frame in the recognition index.
+     * @return the recognized appliance, or null.
+     */
+    private Result search(ImagePyramid qry) {
+        extractor.extract(qry, keypoints);
+        int ref;
+        int votes;
+        if (vocabulary != null) {
+            int n = vocabulary.shortlist(keypoints, shortlist);
+            if (n == 0)
+                return null;
+            ref = matchShortlist(n);
+            votes = bestCount;
+        }
+        else {
+            ref = index.search(keypoints, matches);
+            votes = matches.getBestVotes();
+        }
+        if (ref < 0 || votes < minMatches)
+            return null;
+        long id = index.getReferenceId(ref);
+        Result result = new Result(Result.Type.IMAGE, String.valueOf(id));
+        result.setApplianceId(id);
+        if (verifyGeometry) {
+            if (vocabulary == null)
+                collectPairs(ref);
+            if (!verify(result))
+                return null;
+        }
+        return result;
+    }
+
+    /**
+     * Keeps the index matches of a reference as its pairs.
+     */
+    private void collectPairs(int ref) {
+        bestCount = 0;
+        for (int i = 0; i < keypoints.count; ++i) {
+            int e = matches.getEntry(i);
+            if (e >= 0 && index.getReference(e) == ref) {
+                bestQuery[bestCount] = i;
+                bestEntry[bestCount] = e;
+                bestDistance[bestCount] = matches.getDistance(i);
+                bestCount++;
+            }
+        }
+    }
+
+    /**
+     * Estimates the homography from the reference image to the frame from the kept pairs,
+     * best first, and sets it on the result with the projected bounds of the inliers.
+     * @return false if too few pairs agree on a homography.
+     */
+    private boolean verify(Result result) {
+        int n = bestCount;
+        for (int k = 0; k < n; ++k) {
+            pairOrder[k] = ((long) bestDistance[k] << 32) | k;
+        }
+        Arrays.sort(pairOrder, 0, n);
+        for (int j = 0; j < n; ++j) {
+            int k = (int) pairOrder[j];
+            int e = bestEntry[k];
+            int q = bestQuery[k];
+            pairSrc[2 * j] = index.getX(e);
+            pairSrc[2 * j + 1] = index.getY(e);
+            pairDst[2 * j] = keypoints.x[q];
+            pairDst[2 * j + 1] = keypoints.y[q];
+        }
+        float[] h = new float[9];
+        if (estimator.estimate(pairSrc, pairDst, n, h) < minMatches)
+            return false;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int j = 0; j < n; ++j) {
+            if (!estimator.isInlier(j))
+                continue;
+            minX = Math.min(minX, pairSrc[2 * j]);
+            maxX = Math.max(maxX, pairSrc[2 * j]);
+            minY = Math.min(minY, pairSrc[2 * j + 1]);
+            maxY = Math.max(maxY, pairSrc[2 * j + 1]);
+        }
+        float[] corners = {minX, minY, maxX, minY, maxX, maxY, minX, maxY};
+        Homography.project(h, corners, 0, corners, 0, 4);
+        result.setHomography(h);
+        result.setCorners(corners);
+        return true;
+    }
+
+    /**
+     * Matches the frame keypoints against every descriptor of the shortlisted references,
+     * keeping the pairs of the reference with the most matches.
+     * @return the best reference, or -1.
+     */
+    private int matchShortlist(int n) {
+        matcher.ratio = index.ratio;
+        matcher.maxDistance = index.maxDistance;
+        matcher.crossCheck = true;
+        long[] train = index.getDescriptors();
+        int words = keypoints.words;
+        int best = -1;
+        bestCount = 0;
+        for (int i = 0; i < n; ++i) {
+            int r = shortlist.getReference(i);
+            int first = index.getFirstEntry(r);
+            int count = matcher.match(keypoints.descriptors, 0, keypoints.count,
+                    train, first, index.getEndEntry(r) - first, words, pairQuery, pairTrain, pairDistance);
+            if (count > bestCount) {
+                best = r;
+                bestCount = count;
+                for (int k = 0; k < count; ++k) {
+                    bestQuery[k] = pairQuery[k];
+                    bestEntry[k] = first + pairTrain[k];
+                    bestDistance[k] = pairDistance[k];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Starts tracking a new result, if its location is known.
+     */
+    private void lock(ImagePyramid qry, Result result) {
+        _losts = 0;
+        float[] corners = result.getCorners();
+        if (corners == null) {
+            tracker.stop();
+            return;
+        }
+        trackLevel = qry.findLevel(2f);
+        float scale = qry.getLevelScale(trackLevel);
+        float[] scaled = new float[corners.length];
+        for (int i = 0; i < corners.length; ++i) {
+            scaled[i] = corners[i] / scale;
+        }
+        tracker.start(qry.getLevel(trackLevel), scaled);
+    }
+}
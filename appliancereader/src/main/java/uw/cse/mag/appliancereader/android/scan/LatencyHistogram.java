@@ -0,0 +1,112 @@
+package org.uw.cse.mag.ar.scan;
+
+/**
+ * Fixed-size, allocation-free latency histogram.
+ * <p>
+ * Values are recorded in microseconds into log-linear buckets: exact below 16 us, then
+ * 16 buckets per power of two, i.e. a relative error under 7% up to about a minute.
+ * Recording is a few arithmetic operations and an array increment.
+ * <p>
+ * Recording and reading are synchronized, so a histogram can be written by the worker
+ * thread while the UI thread takes snapshots.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_MSB = 26;
+    private static final int BUCKETS = (MAX_MSB - SUB_BITS + 2) * SUB;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mTotal;
+    private long mMax;
+    private long mSum;
+
+    /**
+     * Records a duration.
+     * @param nanos the duration in nanoseconds, negative values are ignored.
+     */
+    public synchronized void recordNanos(long nanos) {
+        if (nanos < 0)
+            return;
+        long us = nanos / 1000;
+        mCounts[bucket(us)]++;
+        mTotal++;
+        mSum += us;
+        if (us > mMax)
+            mMax = us;
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            mCounts[i] = 0;
+        }
+        mTotal = 0;
+        mMax = 0;
+        mSum = 0;
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public synchronized long getCount() {
+        return mTotal;
+    }
+
+    /**
+     * @return the largest recorded value, in microseconds.
+     */
+    public synchronized long getMaxMicros() {
+        return mMax;
+    }
+
+    /**
+     * @return the mean of the recorded values, in microseconds, or 0 if empty.
+     */
+    public synchronized long getMeanMicros() {
+        return mTotal == 0 ? 0 : mSum / mTotal;
+    }
+
+    /**
+     * Gets a percentile of the recorded values.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the value in microseconds, accurate to the bucket resolution, or 0 if empty.
+     */
+    public synchronized long getPercentileMicros(double percentile) {
+        if (mTotal == 0)
+            return 0;
+        long target = (long) Math.ceil(percentile / 100.0 * mTotal);
+        if (target < 1)
+            target = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += mCounts[i];
+            if (seen >= target)
+                return Math.min(mMax, middle(i));
+        }
+        return mMax;
+    }
+
+    private static int bucket(long us) {
+        if (us < SUB)
+            return (int) us;
+        int msb = 63 - Long.numberOfLeadingZeros(us);
+        if (msb > MAX_MSB)
+            return BUCKETS - 1;
+        return (msb - SUB_BITS + 1) * SUB + (int) ((us >> (msb - SUB_BITS)) & (SUB - 1));
+    }
+
+    private static long middle(int bucket) {
+        if (bucket < SUB)
+            return bucket;
+        int msb = bucket / SUB + SUB_BITS - 1;
+        long width = 1L << (msb - SUB_BITS);
+        long lower = (SUB + (bucket % SUB)) * width;
+        return lower + width / 2;
+    }
+}
@@ -0,0 +1,230 @@
+package org.uw.cse.mag.ar.scan;
+
+import java.util.Arrays;
+
+import org.uw.cse.mag.ar.util.Result;
+
+/**
+ * Fuses the per-frame results of a {@link FrameScanner} into a stable outcome.
+ * <p>
+ * Single-frame results flicker: a search misses a frame, a display reads "8" for "3" while
+ * its digits change. The last {@link #window} results are kept in a ring, and an outcome
+ * is only confirmed once {@link #minVotes} of them agree on it. Barcodes, whose checksum
+ * already vouches for them, are confirmed on their first frame. The readings of the
+ * displays of a confirmed appliance are voted on separately.
+ * <p>
+ * {@link #offer(Result)} returns true only when the confirmed outcome changes, so that
+ * listeners are notified once per change rather than once per frame. While a result stays
+ * confirmed, its geometry is refreshed from the tracked result every {@link #poseFrames}
+ * frames at most, so that listeners follow the appliance at a bounded rate.
+ * <p>
+ * A ResultFusion must only be used by one thread, and allocates nothing unless the
+ * outcome changes. The outcomes it returns may be modified by the caller, e.g. mapped to
+ * the screen orientation.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class ResultFusion {
+
+    /**
+     * The number of recent frames voting on the outcome.
+     */
+    public int window = 5;
+
+    /**
+     * The number of frames among the {@link #window} last ones that must agree on an
+     * outcome, or on a display reading, to confirm it.
+     */
+    public int minVotes = 3;
+
+    /**
+     * If true, barcode results are confirmed on their first frame.
+     */
+    public boolean trustBarcodes = true;
+
+    /**
+     * The minimum number of frames between two refreshes of the geometry of a confirmed
+     * result; 0 or less keeps the geometry of the confirming frame.
+     */
+    public int poseFrames = 5;
+
+    // The ring of recent results: type, value and display readings; type NONE for no result.
+    private int[] mTypes = new int[0];
+    private String[] mValues = new String[0];
+    private String[][] mReadings = new String[0][];
+    private int mHead;
+    private int mCount;
+
+    // The confirmed outcome, null for none.
+    private Result mStable;
+    // Frames since the geometry of the outcome was last refreshed, and that geometry as
+    // the scanner returned it.
+    private int mPoseAge;
+    private float[] mCorners;
+    private float[] mHomography;
+
+    /**
+     * Adds the result of a frame.
+     * @param result the result of the frame, or null.
+     * @return true if the confirmed outcome changed, see {@link #getStable()}.
+     */
+    public boolean offer(Result result) {
+        if (minVotes < 1 || minVotes > window)
+            throw new IllegalArgumentException("ResultFusion.offer(), Illegal votes: " + minVotes + " of " + window);
+        if (mTypes.length != window) {
+            mTypes = new int[window];
+            mValues = new String[window];
+            mReadings = new String[window][];
+            mHead = 0;
+            mCount = 0;
+        }
+        int type = result == null ? Result.Type.NONE : result.getType();
+        String value = result == null ? null : result.getValue();
+        mTypes[mHead] = type;
+        mValues[mHead] = value;
+        mReadings[mHead] = result == null ? null : result.getDisplayReadings();
+        mHead = (mHead + 1) % window;
+        if (mCount < window)
+            mCount++;
+
+        boolean confirmed = votes(type, value) >= minVotes
+                || trustBarcodes && type != Result.Type.NONE && type != Result.Type.IMAGE;
+        if (result == null) {
+            if (mStable == null || !confirmed)
+                return false;
+            mStable = null;
+            return true;
+        }
+        if (mStable == null || !isStable(type, value)) {
+            if (!confirmed)
+                return false;
+            mStable = copy(result, null);
+            fuseReadings(result);
+            setPose(result);
+            return true;
+        }
+        if (fuseReadings(result)) {
+            setPose(result);
+            return true;
+        }
+        if (poseFrames <= 0 || ++mPoseAge < poseFrames || !hasMoved(result))
+            return false;
+        mStable = copy(result, mStable.getDisplayReadings());
+        setPose(result);
+        return true;
+    }
+
+    /**
+     * @return the confirmed outcome, a copy of the result that confirmed it, or that last
+     *         refreshed its geometry or its display readings, with its confirmed display
+     *         readings; or null if nothing is confirmed.
+     */
+    public Result getStable() {
+        return mStable;
+    }
+
+    /**
+     * @return true if a result is confirmed.
+     */
+    public boolean isConfirmed() {
+        return mStable != null;
+    }
+
+    /**
+     * Forgets the recent results and the confirmed outcome.
+     */
+    public void reset() {
+        for (int i = 0; i < mCount; ++i) {
+            mValues[i] = null;
+            mReadings[i] = null;
+        }
+        mHead = 0;
+        mCount = 0;
+        mStable = null;
+        mCorners = null;
+        mHomography = null;
+    }
+
+    /**
+     * @return the number of recent results with this type and value.
+     */
+    private int votes(int type, String value) {
+        int n = 0;
+        for (int i = 0; i < mCount; ++i) {
+            if (mTypes[i] == type && (value == null ? mValues[i] == null : value.equals(mValues[i])))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return true if the geometry of a result of the confirmed outcome differs from the
+     *         geometry last handed out.
+     */
+    private boolean hasMoved(Result result) {
+        return !Arrays.equals(result.getCorners(), mCorners)
+                || !Arrays.equals(result.getHomography(), mHomography);
+    }
+
+    private void setPose(Result result) {
+        float[] corners = result.getCorners();
+        float[] homography = result.getHomography();
+        mCorners = corners == null ? null : corners.clone();
+        mHomography = homography == null ? null : homography.clone();
+        mPoseAge = 0;
+    }
+
+    private boolean isStable(int type, String value) {
+        return mStable.getType() == type && mStable.getValue().equals(value);
+    }
+
+    /**
+     * Confirms the display readings agreed on by the recent results of the confirmed outcome.
+     * @return true if a confirmed reading changed.
+     */
+    private boolean fuseReadings(Result result) {
+        int type = result.getType();
+        String value = result.getValue();
+        String[] latest = mReadings[(mHead + window - 1) % window];
+        String[] stable = mStable.getDisplayReadings();
+        if (latest == null)
+            return false;
+        String[] fused = stable;
+        for (int d = 0; d < latest.length; ++d) {
+            String reading = latest[d];
+            if (reading == null || stable != null && d < stable.length && reading.equals(stable[d]))
+                continue;
+            int n = 0;
+            for (int i = 0; i < mCount; ++i) {
+                String[] r = mReadings[i];
+                if (r != null && d < r.length && reading.equals(r[d])
+                        && mTypes[i] == type && value.equals(mValues[i]))
+                    n++;
+            }
+            if (n < minVotes)
+                continue;
+            if (fused == stable) {
+                fused = new String[latest.length];
+                if (stable != null)
+                    System.arraycopy(stable, 0, fused, 0, Math.min(stable.length, fused.length));
+            }
+            fused[d] = reading;
+        }
+        if (fused == stable)
+            return false;
+        // A new copy: the outcome handed to the listener is never modified.
+        mStable = copy(result, fused);
+        return true;
+    }
+
+    private static Result copy(Result result, String[] readings) {
+        Result r = new Result(result.getType(), result.getValue());
+        r.setApplianceId(result.getApplianceId());
+        float[] corners = result.getCorners();
+        r.setCorners(corners == null ? null : corners.clone());
+        float[] homography = result.getHomography();
+        r.setHomography(homography == null ? null : homography.clone());
+        r.setDisplayReadings(readings);
+        return r;
+    }
+}
@@ -0,0 +1,248 @@
+package org.uw.cse.mag.ar.scan;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.uw.cse.mag.ar.util.ApplianceReaderError;
+
+/**
+ * Shares a piece of the work of a single frame among several threads.
+ * <p>
+ * The work is described by a {@link Job}: a number of independent tasks whose partial
+ * results are merged into one. Tasks are claimed dynamically by the calling thread and
+ * {@code workerCount - 1} helper threads owned by the engine.
+ * <p>
+ * Only the descriptor matching of {@link org.uw.cse.mag.ar.recognition.HammingMatcher}
+ * runs jobs so far. Preprocessing, feature extraction, the vocabulary shortlist, barcode
+ * decoding and pose estimation stay on the scanning thread, so a frame scans at most as
+ * much faster as its matching share allows.
+ * <p>
+ * Results are deterministic: partial results are always folded in task order,
+ * whatever thread computed them and whenever they completed.
+ * <p>
+ * An engine runs one job at a time and is meant to be driven by a single thread,
+ * e.g. the scanner worker thread. It can be closed from another one.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class ScanEngine {
+
+    /**
+     * Parallel unit of work for a single frame.
+     * @param <T> type of the partial and merged results.
+     */
+    public static interface Job<T> {
+        /**
+         * @return the number of tasks of this job.
+         */
+        public int getTaskCount();
+
+        /**
+         * Processes one task. Called concurrently for different tasks, so implementations
+         * must only write to task-specific state.
+         * @param task index of the task, between 0 and {@link #getTaskCount()} - 1.
+         * @return the partial result of this task, may be null.
+         * @throws ApplianceReaderError if the task failed.
+         */
+        public T process(int task) throws ApplianceReaderError;
+
+        /**
+         * Merges a partial result into the current one. Always called on the
+         * thread running the job, in increasing task order.
+         * @param merged  the result merged so far, null for the first task.
+         * @param partial the partial result of the next task, may be null.
+         * @return the new merged result.
+         */
+        public T merge(T merged, T partial);
+    }
+
+    private final int mWorkerCount;
+    private final Thread[] mHelpers;
+
+    private final Object mLock = new Object();
+    private final AtomicInteger mNextTask = new AtomicInteger();
+    // guarded by mLock
+    private Job<?> mJob;
+    private int mTaskCount;
+    private int mPending;
+    private int mActiveHelpers;
+    private long mGeneration;
+    private boolean mClosed;
+
+    // Written by the task owner, read by the caller once mPending reaches 0.
+    private Object[] mPartials = new Object[0];
+    private Throwable[] mErrors = new Throwable[0];
+
+    /**
+     * @return the default number of workers: the number of available processors.
+     */
+    public static int defaultWorkerCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     * @param workerCount the number of threads working on each job, including the caller.
+     *                    A value of 1 runs every job on the caller thread.
+     */
+    public ScanEngine(int workerCount) {
+        if (workerCount < 1)
+            throw new IllegalArgumentException("ScanEngine(), Illegal worker count: " + workerCount);
+        mWorkerCount = workerCount;
+        mHelpers = new Thread[workerCount - 1];
+        for (int i = 0; i < mHelpers.length; ++i) {
+            mHelpers[i] = new HelperThread(i);
+            mHelpers[i].start();
+        }
+    }
+
+    /**
+     * @return the number of threads working on each job, including the caller.
+     */
+    public int getWorkerCount() {
+        return mWorkerCount;
+    }
+
+    /**
+     * Runs a job and blocks until all its tasks are done.
+     * @param job the job to run.
+     * @param <T> type of the results.
+     * @return the merged result, in task order.
+     * @throws ApplianceReaderError the error raised by the first failing task, in task order.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T run(Job<T> job) throws ApplianceReaderError {
+        int n = job.getTaskCount();
+        if (n <= 0)
+            return null;
+        if (mPartials.length < n) {
+            mPartials = new Object[n];
+            mErrors = new Throwable[n];
+        }
+
+        boolean shared = false;
+        if (mHelpers.length > 0 && n > 1) {
+            synchronized (mLock) {
+                // Once closed, jobs still run, on the calling thread only.
+                shared = !mClosed;
+                if (shared) {
+                    mJob = job;
+                    mTaskCount = n;
+                    mPending = n;
+                    mNextTask.set(0);
+                    mGeneration++;
+                    mLock.notifyAll();
+                }
+            }
+        }
+        if (!shared) {
+            mNextTask.set(0);
+            mTaskCount = n;
+            drain(job, n);
+        }
+        else {
+            int done = drain(job, n);
+            synchronized (mLock) {
+                mPending -= done;
+                while (mPending > 0 || mActiveHelpers > 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ApplianceReaderError("ScanEngine interrupted", ApplianceReaderError.Code.THREAD);
+                    }
+                }
+                mJob = null;
+            }
+        }
+
+        // Fold partial results in task order.
+        T merged = null;
+        Throwable error = null;
+        for (int i = 0; i < n; ++i) {
+            if (error == null && mErrors[i] != null)
+                error = mErrors[i];
+            if (error == null)
+                merged = job.merge(merged, (T) mPartials[i]);
+            mPartials[i] = null;
+            mErrors[i] = null;
+        }
+        if (error instanceof ApplianceReaderError)
+            throw (ApplianceReaderError) error;
+        if (error instanceof RuntimeException)
+            throw (RuntimeException) error;
+        if (error instanceof Error)
+            throw (Error) error;
+        return merged;
+    }
+
+    /**
+     * Stops the helper threads. May be called from any thread: a job already running
+     * completes, and later jobs run on the calling thread only.
+     */
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Claims and processes tasks until none is left.
+     * @return the number of tasks processed by the calling thread.
+     */
+    private int drain(Job<?> job, int n) {
+        int done = 0;
+        int i;
+        while ((i = mNextTask.getAndIncrement()) < n) {
+            try {
+                mPartials[i] = job.process(i);
+            } catch (Throwable t) {
+                mErrors[i] = t;
+            }
+            done++;
+        }
+        return done;
+    }
+
+    /**
+     * <i>Helper thread claiming tasks of the current job.</i>
+     */
+    private class HelperThread extends Thread {
+
+        private HelperThread(int index) {
+            super("ScanEngine-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long seen = 0;
+            while (true) {
+                Job<?> job;
+                int n;
+                synchronized (mLock) {
+                    while (!mClosed && (mGeneration == seen || mJob == null)) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mClosed)
+                        return;
+                    seen = mGeneration;
+                    job = mJob;
+                    n = mTaskCount;
+                    mActiveHelpers++;
+                }
+                int done = drain(job, n);
+                synchronized (mLock) {
+                    mPending -= done;
+                    mActiveHelpers--;
+                    if (mPending == 0 && mActiveHelpers == 0)
+                        mLock.notifyAll();
+                }
+            }
+        }
+    }
+}
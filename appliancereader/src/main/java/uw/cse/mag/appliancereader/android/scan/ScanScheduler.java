@@ -0,0 +1,178 @@
+package org.uw.cse.mag.ar.scan;
+
+/**
+ * Scan-rate policy of a scan session.
+ * <p>
+ * Scanning every camera frame drains the battery while nothing is in view. The scheduler
+ * scans slowly while idle, at full rate as soon as a frame has a candidate result, and at
+ * a lower tracking cadence once a result is confirmed (see {@link ResultFusion}). After a
+ * candidate is seen, or a confirmed result is lost, the full rate is kept for
+ * {@link #candidateHoldMillis} so that the scanner can settle.
+ * <p>
+ * Time is read from a {@link Clock}, so the policy can be driven by a fake clock. The
+ * scheduler is updated by the scanning thread and queried by the camera and UI threads:
+ * its methods are synchronized.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class ScanScheduler {
+
+    /**
+     * Source of time of a scheduler.
+     */
+    public static interface Clock {
+        /**
+         * @return a monotonic time in nanoseconds.
+         */
+        public long nanoTime();
+    }
+
+    /**
+     * The {@link System#nanoTime()} clock.
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Enum listing the scheduler states.
+     */
+    public static final class State {
+        /** Nothing in view. */
+        public static final int IDLE = 0;
+        /** A result was seen recently, but is not confirmed. */
+        public static final int CANDIDATE = 1;
+        /** A result is confirmed and tracked. */
+        public static final int LOCKED = 2;
+    }
+
+    /**
+     * The time the candidate rate is kept after the last candidate, in milliseconds.
+     */
+    public long candidateHoldMillis = 1000;
+
+    private final Clock mClock;
+    // Scan rates of the states, see setRates(); guarded by this.
+    private float mIdleRate = 4f;
+    private float mCandidateRate = 0f;
+    private float mLockedRate = 10f;
+    private int mState = State.IDLE;
+    private boolean mStarted = false;
+    private long mLastScan;
+    private long mLastCandidate;
+
+    /**
+     * Constructor, using the {@link #SYSTEM_CLOCK}.
+     */
+    public ScanScheduler() {
+        this(SYSTEM_CLOCK);
+    }
+
+    /**
+     * Constructor.
+     * @param clock the source of time.
+     */
+    public ScanScheduler(Clock clock) {
+        if (clock == null)
+            throw new IllegalArgumentException("ScanScheduler(), clock cannot be null");
+        mClock = clock;
+    }
+
+    /**
+     * Goes back to the idle state, with the next frame due at once.
+     */
+    public synchronized void reset() {
+        mState = State.IDLE;
+        mStarted = false;
+    }
+
+    /**
+     * Sets the scan rates of the states, in frames per second; 0 or less scans every frame.
+     * By default, the rates are 4 while idle, every frame for a candidate, and 10 once
+     * a result is confirmed.
+     * @param idle the scan rate while idle.
+     * @param candidate the scan rate while a result is not confirmed.
+     * @param locked the scan rate once a result is confirmed.
+     */
+    public synchronized void setRates(float idle, float candidate, float locked) {
+        mIdleRate = idle;
+        mCandidateRate = candidate;
+        mLockedRate = locked;
+    }
+
+    /**
+     * Updates the state with the outcome of a scanned frame.
+     * @param candidate true if the frame had a result.
+     * @param confirmed true if a result is confirmed over several frames.
+     */
+    public synchronized void frameScanned(boolean candidate, boolean confirmed) {
+        long now = mClock.nanoTime();
+        if (confirmed) {
+            mState = State.LOCKED;
+        }
+        else if (candidate || mState == State.LOCKED) {
+            // A lost result is searched at full rate for a while.
+            mState = State.CANDIDATE;
+            mLastCandidate = now;
+        }
+        else if (mState == State.CANDIDATE && now - mLastCandidate >= candidateHoldMillis * 1000000L) {
+            mState = State.IDLE;
+        }
+    }
+
+    /**
+     * @return true if a frame received now should be scanned.
+     */
+    public synchronized boolean isDue() {
+        return delayNanos() <= 0;
+    }
+
+    /**
+     * Records that a frame is being scanned.
+     */
+    public synchronized void frameAccepted() {
+        mLastScan = mClock.nanoTime();
+        mStarted = true;
+    }
+
+    /**
+     * @return the time until the next frame is due, in milliseconds rounded up; 0 if due.
+     */
+    public synchronized long nextDelayMillis() {
+        long delay = delayNanos();
+        return delay <= 0 ? 0 : (delay + 999999L) / 1000000L;
+    }
+
+    /**
+     * @return the current state among the {@link State} values.
+     */
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * @return the scan rate of the current state, in frames per second; 0 or less if
+     *         every frame is scanned.
+     */
+    public synchronized float getRate() {
+        switch (mState) {
+            case State.LOCKED:
+                return mLockedRate;
+            case State.CANDIDATE:
+                return mCandidateRate;
+            default:
+                return mIdleRate;
+        }
+    }
+
+    private long delayNanos() {
+        float rate = getRate();
+        if (!mStarted || rate <= 0)
+            return 0;
+        long interval = (long) (1e9f / rate);
+        return mLastScan + interval - mClock.nanoTime();
+    }
+}
@@ -0,0 +1,232 @@
+package org.uw.cse.mag.ar.scan;
+
+/**
+ * Latency and frame accounting of a scan session.
+ * <p>
+ * Each {@link Stage} of the pipeline records its duration into a {@link LatencyHistogram},
+ * and the frames are counted as they are captured, dropped, throttled by the scan rate,
+ * scanned and matched. Every captured frame is eventually counted once as dropped,
+ * throttled or scanned. Apps and tests poll the figures with {@link #snapshot()}.
+ * <p>
+ * Instrumentation is disabled by default: while disabled, every method returns right
+ * after a single flag check.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class ScanStats {
+
+    /**
+     * Enum listing the timed stages of the pipeline.
+     */
+    public static final class Stage {
+        /** From the camera callback to the worker picking the frame up. */
+        public static final int QUEUE = 0;
+        /** Luma extraction and pyramid build. */
+        public static final int PREPROCESS = 1;
+        /** Recognition: tracking, search and decoding. */
+        public static final int SCAN = 2;
+        /** From the end of the scan to the result reaching the UI thread. */
+        public static final int DELIVERY = 3;
+        /** From the camera callback to the result reaching the UI thread. */
+        public static final int TOTAL = 4;
+
+        static final int COUNT = 5;
+        static final String[] NAMES = {"queue", "preprocess", "scan", "delivery", "total"};
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Stage.COUNT];
+    private volatile boolean mEnabled = false;
+
+    // Each counter has a single writer thread.
+    private volatile long mCaptured;
+    private volatile long mDropped;
+    private volatile long mThrottled;
+    private volatile long mScanned;
+    private volatile long mMatched;
+
+    /**
+     * Constructor.
+     */
+    public ScanStats() {
+        for (int i = 0; i < Stage.COUNT; ++i) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Enables or disables the instrumentation.
+     * @param enabled true to record timings and counters.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @return true if the instrumentation is enabled.
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Records the duration of a stage.
+     * @param stage the stage among the {@link Stage} values.
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(int stage, long nanos) {
+        if (mEnabled)
+            mHistograms[stage].recordNanos(nanos);
+    }
+
+    /** Counts a frame received from the camera. Camera thread only. */
+    public void frameCaptured() {
+        if (mEnabled)
+            mCaptured++;
+    }
+
+    /** Counts a frame dropped before being scanned. Camera thread only. */
+    public void frameDropped() {
+        if (mEnabled)
+            mDropped++;
+    }
+
+    /** Counts a frame skipped because no scan was due yet. Camera thread only. */
+    public void frameThrottled() {
+        if (mEnabled)
+            mThrottled++;
+    }
+
+    /**
+     * Counts a scanned frame. Worker thread only.
+     * @param matched true if the scan produced a result.
+     */
+    public void frameScanned(boolean matched) {
+        if (mEnabled) {
+            mScanned++;
+            if (matched)
+                mMatched++;
+        }
+    }
+
+    /**
+     * Clears all timings and counters.
+     */
+    public void reset() {
+        for (int i = 0; i < Stage.COUNT; ++i) {
+            mHistograms[i].reset();
+        }
+        mCaptured = 0;
+        mDropped = 0;
+        mThrottled = 0;
+        mScanned = 0;
+        mMatched = 0;
+    }
+
+    /**
+     * @return a copy of the current timings and counters.
+     */
+    public Snapshot snapshot() {
+        Snapshot s = new Snapshot();
+        for (int i = 0; i < Stage.COUNT; ++i) {
+            LatencyHistogram h = mHistograms[i];
+            s.mCounts[i] = h.getCount();
+            s.mP50[i] = h.getPercentileMicros(50);
+            s.mP95[i] = h.getPercentileMicros(95);
+            s.mP99[i] = h.getPercentileMicros(99);
+            s.mMax[i] = h.getMaxMicros();
+        }
+        s.mCaptured = mCaptured;
+        s.mDropped = mDropped;
+        s.mThrottled = mThrottled;
+        s.mScanned = mScanned;
+        s.mMatched = mMatched;
+        return s;
+    }
+
+    /**
+     * Immutable copy of the statistics at a point in time.
+     */
+    public static class Snapshot {
+        private final long[] mCounts = new long[Stage.COUNT];
+        private final long[] mP50 = new long[Stage.COUNT];
+        private final long[] mP95 = new long[Stage.COUNT];
+        private final long[] mP99 = new long[Stage.COUNT];
+        private final long[] mMax = new long[Stage.COUNT];
+        private long mCaptured, mDropped, mThrottled, mScanned, mMatched;
+
+        private Snapshot() {
+        }
+
+        /** @return the number of timings recorded for a {@link Stage}. */
+        public long getCount(int stage) {
+            return mCounts[stage];
+        }
+
+        /** @return the median duration of a {@link Stage}, in microseconds. */
+        public long getP50(int stage) {
+            return mP50[stage];
+        }
+
+        /** @return the 95th percentile duration of a {@link Stage}, in microseconds. */
+        public long getP95(int stage) {
+            return mP95[stage];
+        }
+
+        /** @return the 99th percentile duration of a {@link Stage}, in microseconds. */
+        public long getP99(int stage) {
+            return mP99[stage];
+        }
+
+        /** @return the longest duration of a {@link Stage}, in microseconds. */
+        public long getMax(int stage) {
+            return mMax[stage];
+        }
+
+        /**
+         * @return the number of frames received from the camera: the dropped, throttled
+         *         and scanned frames, and the frames still waiting for a scan.
+         */
+        public long getFramesCaptured() {
+            return mCaptured;
+        }
+
+        /** @return the number of frames dropped before being scanned. */
+        public long getFramesDropped() {
+            return mDropped;
+        }
+
+        /** @return the number of frames skipped because no scan was due yet. */
+        public long getFramesThrottled() {
+            return mThrottled;
+        }
+
+        /** @return the number of frames scanned. */
+        public long getFramesScanned() {
+            return mScanned;
+        }
+
+        /** @return the number of scanned frames that produced a result. */
+        public long getFramesMatched() {
+            return mMatched;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append("frames captured=").append(mCaptured)
+                    .append(" dropped=").append(mDropped)
+                    .append(" throttled=").append(mThrottled)
+                    .append(" scanned=").append(mScanned)
+                    .append(" matched=").append(mMatched);
+            for (int i = 0; i < Stage.COUNT; ++i) {
+                b.append('\n').append(Stage.NAMES[i])
+                        .append(": n=").append(mCounts[i])
+                        .append(" p50=").append(mP50[i])
+                        .append("us p95=").append(mP95[i])
+                        .append("us p99=").append(mP99[i])
+                        .append("us max=").append(mMax[i]).append("us");
+            }
+            return b.toString();
+        }
+    }
+}
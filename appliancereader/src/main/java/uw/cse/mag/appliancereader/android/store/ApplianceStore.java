@@ -0,0 +1,270 @@
+package org.uw.cse.mag.ar.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import org.uw.cse.mag.ar.data.Appliance;
+
+/**
+ * Read-only, memory-mapped catalog of {@link Appliance}s, written by {@link #write}.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ *   header:  int magic 'ARAP', int version, int count, int flags
+ *   index:   count entries of long id, int offset, int length, sorted by id
+ *   records: short field count, then per field: byte tag, unsigned short length, UTF-8 bytes
+ * </pre>
+ * Opening a store only maps the file and checks its header: records are decoded when
+ * they are accessed, and looked up by ID with a binary search of the mapped index, so a
+ * catalog of thousands of appliances opens in a fraction of a millisecond. Fields with an
+ * unknown tag are skipped, so that later versions can add fields to the records.
+ * <p>
+ * A store can be read from any thread. Files are limited to 2 GB.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class ApplianceStore {
+
+    /** File magic number, "ARAP". */
+    public static final int MAGIC = 0x41524150;
+    /** Current file format version. */
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    // Record field tags.
+    private static final int TAG_NICKNAME = 1;
+    private static final int TAG_MAKE = 2;
+    private static final int TAG_MODEL = 3;
+    private static final int TAG_TYPE = 4;
+    private static final int TAG_DIRECTORY = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCount;
+
+    /**
+     * Constructor. Maps the file and checks its header.
+     * @param file The file written by {@link #write}.
+     * @throws IOException if the file could not be read or is not an appliance store.
+     */
+    public ApplianceStore(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("ApplianceStore(), file too large: " + size + " bytes");
+            if (size < HEADER_SIZE)
+                throw new IOException("ApplianceStore(), not an appliance store: " + file);
+            // The mapping stays valid once the file is closed.
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+        if (mBuffer.getInt(0) != MAGIC)
+            throw new IOException("ApplianceStore(), not an appliance store: " + file);
+        int version = mBuffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("ApplianceStore(), unsupported version: " + version);
+        mCount = mBuffer.getInt(8);
+        if (mCount < 0 || (long) HEADER_SIZE + (long) mCount * INDEX_ENTRY_SIZE > mBuffer.limit())
+            throw new IOException("ApplianceStore(), truncated index: " + mCount + " appliances");
+    }
+
+    /**
+     * @return the number of appliances.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @param i An index, between 0 and {@link #size()}.
+     * @return the ID of the i-th appliance, by increasing IDs.
+     */
+    public long getId(int i) {
+        checkIndex(i);
+        return mBuffer.getLong(HEADER_SIZE + i * INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * Finds an appliance by ID.
+     * @param id The database ID of the appliance.
+     * @return the index of the appliance, or -1 if it is not in the store.
+     */
+    public int indexOf(long id) {
+        int lo = 0, hi = mCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = mBuffer.getLong(HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+            if (midId < id)
+                lo = mid + 1;
+            else if (midId > id)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes an appliance by ID.
+     * @param id The database ID of the appliance.
+     * @return a new appliance, or null if it is not in the store.
+     * @throws IOException if its record is corrupted.
+     */
+    public Appliance get(long id) throws IOException {
+        int i = indexOf(id);
+        return i < 0 ? null : getAppliance(i);
+    }
+
+    /**
+     * Decodes an appliance.
+     * @param i An index, between 0 and {@link #size()}.
+     * @return a new appliance, which the caller owns.
+     * @throws IOException if its record is corrupted.
+     */
+    public Appliance getAppliance(int i) throws IOException {
+        checkIndex(i);
+        int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+        long id = mBuffer.getLong(entry);
+        int offset = mBuffer.getInt(entry + 8);
+        int length = mBuffer.getInt(entry + 12);
+        if (offset < HEADER_SIZE || length < 2 || length > mBuffer.limit() - offset)
+            throw new IOException("ApplianceStore.getAppliance(), corrupted record of appliance " + id);
+        // Relative reads on a private view: the store stays readable from any thread.
+        ByteBuffer record = mBuffer.duplicate();
+        record.position(offset);
+        record.limit(offset + length);
+        String nickname = null, make = null, model = null, type = null, directory = null;
+        int fields = record.getShort() & 0xFFFF;
+        for (int f = 0; f < fields; ++f) {
+            if (record.remaining() < 3)
+                throw new IOException("ApplianceStore.getAppliance(), corrupted record of appliance " + id);
+            int tag = record.get() & 0xFF;
+            int size = record.getShort() & 0xFFFF;
+            if (size > record.remaining())
+                throw new IOException("ApplianceStore.getAppliance(), corrupted record of appliance " + id);
+            if (tag < TAG_NICKNAME || tag > TAG_DIRECTORY) {
+                // A field of a later version.
+                record.position(record.position() + size);
+                continue;
+            }
+            byte[] bytes = new byte[size];
+            record.get(bytes);
+            String value = new String(bytes, UTF8);
+            switch (tag) {
+                case TAG_NICKNAME: nickname = value; break;
+                case TAG_MAKE: make = value; break;
+                case TAG_MODEL: model = value; break;
+                case TAG_TYPE: type = value; break;
+                default: directory = value; break;
+            }
+        }
+        if (make == null || make.isEmpty() || model == null || model.isEmpty())
+            throw new IOException("ApplianceStore.getAppliance(), appliance " + id + " has no make or model");
+        Appliance a = new Appliance(make, model);
+        a.setId(id);
+        a.setNickName(nickname);
+        a.setType(type);
+        a.setDirectoryPath(directory);
+        return a;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= mCount)
+            throw new IndexOutOfBoundsException("ApplianceStore, index " + i + " of " + mCount);
+    }
+
+    /**
+     * Writes a store. The file is written next to its destination, then renamed over it,
+     * so that readers never see a partial store.
+     * @param file       The file to write, replaced if it exists.
+     * @param appliances The appliances, with distinct, non-negative IDs.
+     * @throws IOException if the file could not be written.
+     */
+    public static void write(File file, Collection<Appliance> appliances) throws IOException {
+        Appliance[] sorted = appliances.toArray(new Appliance[appliances.size()]);
+        Arrays.sort(sorted, new Comparator<Appliance>() {
+            @Override
+            public int compare(Appliance a, Appliance b) {
+                return a.getID() < b.getID() ? -1 : a.getID() > b.getID() ? 1 : 0;
+            }
+        });
+        byte[][] records = new byte[sorted.length][];
+        int size = HEADER_SIZE + sorted.length * INDEX_ENTRY_SIZE;
+        for (int i = 0; i < sorted.length; ++i) {
+            Appliance a = sorted[i];
+            if (a.getID() < 0)
+                throw new IllegalArgumentException("ApplianceStore.write(), appliance without ID: " + a);
+            if (i > 0 && sorted[i - 1].getID() == a.getID())
+                throw new IllegalArgumentException("ApplianceStore.write(), duplicate ID: " + a.getID());
+            records[i] = encode(a);
+            size += records[i].length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(sorted.length).putInt(0);
+        int offset = HEADER_SIZE + sorted.length * INDEX_ENTRY_SIZE;
+        for (int i = 0; i < sorted.length; ++i) {
+            out.putLong(sorted[i].getID()).putInt(offset).putInt(records[i].length);
+            offset += records[i].length;
+        }
+        for (byte[] r : records) {
+            out.put(r);
+        }
+        out.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = stream.getChannel();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("ApplianceStore.write(), could not replace " + file);
+        }
+    }
+
+    private static byte[] encode(Appliance a) {
+        String[] values = {a.getNickname(), a.getMake(), a.getModel(), a.getType(), a.getDirectoryPath()};
+        byte[][] bytes = new byte[values.length][];
+        int size = 2, fields = 0;
+        for (int f = 0; f < values.length; ++f) {
+            if (values[f] == null)
+                continue;
+            bytes[f] = values[f].getBytes(UTF8);
+            if (bytes[f].length > 0xFFFF)
+                throw new IllegalArgumentException("ApplianceStore.write(), field too long in appliance " + a.getID());
+            size += 3 + bytes[f].length;
+            fields++;
+        }
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putShort((short) fields);
+        for (int f = 0; f < values.length; ++f) {
+            if (bytes[f] == null)
+                continue;
+            // Tags follow the order of the values, from TAG_NICKNAME.
+            record.put((byte) (TAG_NICKNAME + f)).putShort((short) bytes[f].length).put(bytes[f]);
+        }
+        return record.array();
+    }
+}
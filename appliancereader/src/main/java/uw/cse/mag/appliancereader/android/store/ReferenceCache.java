@@ -0,0 +1,227 @@
+package org.uw.cse.mag.ar.store;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.ImagePyramid;
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * Memory-bounded cache of the decoded reference images of appliances, and of the data
+ * derived from them, keyed by appliance ID.
+ * <p>
+ * Decoding a reference image, building its pyramid and extracting its descriptors takes
+ * far longer than a scan, so switching back to a recently used appliance should cost no
+ * disk I/O at all. Entries are weighed by the bytes they hold, and the least recently used
+ * ones are evicted once the total exceeds the budget. An entry larger than the whole
+ * budget is handed back to the caller but not kept.
+ * <p>
+ * The cache can be used from any thread. A {@link Loader} runs outside the lock, so that
+ * a slow load does not block lookups of other appliances; two threads missing the same
+ * appliance at once may both load it, the last one being kept.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class ReferenceCache {
+
+    /**
+     * Decoded reference data of one appliance. The cache shares an entry with every caller:
+     * it must not be modified once cached.
+     */
+    public static final class Entry {
+        private final GrayImage mImage;
+        private final ImagePyramid mPyramid;
+        private final Keypoints mKeypoints;
+        private final long mBytes;
+
+        /**
+         * @param image     The grayscale reference image, owning its pixels.
+         * @param pyramid   The pyramid of the image, or null.
+         * @param keypoints The keypoints and descriptors of the image, or null.
+         */
+        public Entry(GrayImage image, ImagePyramid pyramid, Keypoints keypoints) {
+            if (image == null || image.data == null)
+                throw new IllegalArgumentException("ReferenceCache.Entry(), image cannot be null");
+            mImage = image;
+            mPyramid = pyramid;
+            mKeypoints = keypoints;
+            mBytes = image.data.length
+                    + (pyramid == null ? 0 : pyramid.getMemoryBytes())
+                    + (keypoints == null ? 0 : keypoints.getMemoryBytes());
+        }
+
+        public GrayImage getImage() {
+            return mImage;
+        }
+
+        public ImagePyramid getPyramid() {
+            return mPyramid;
+        }
+
+        public Keypoints getKeypoints() {
+            return mKeypoints;
+        }
+
+        /**
+         * @return the number of bytes the entry holds.
+         */
+        public long getMemoryBytes() {
+            return mBytes;
+        }
+    }
+
+    /**
+     * Decodes the reference data of an appliance on a cache miss.
+     */
+    public static interface Loader {
+        /**
+         * @param id The database ID of the appliance.
+         * @return the decoded data, or null if the appliance has no reference image.
+         * @throws IOException if the reference image could not be read.
+         */
+        public Entry load(long id) throws IOException;
+    }
+
+    // Iterates from the least to the most recently used entry.
+    private final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+    private long mBudget;
+    private long mBytes = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+
+    /**
+     * Constructor.
+     * @param budgetBytes The maximum number of bytes held by the entries.
+     */
+    public ReferenceCache(long budgetBytes) {
+        setBudget(budgetBytes);
+    }
+
+    /**
+     * Changes the budget, evicting entries if the cache now exceeds it.
+     * @param budgetBytes The maximum number of bytes held by the entries.
+     */
+    public synchronized void setBudget(long budgetBytes) {
+        if (budgetBytes < 0)
+            throw new IllegalArgumentException("ReferenceCache.setBudget(), Illegal budget: " + budgetBytes);
+        mBudget = budgetBytes;
+        trim();
+    }
+
+    /**
+     * Looks up the data of an appliance.
+     * @param id The database ID of the appliance.
+     * @return the cached data, or null if it is not cached.
+     */
+    public synchronized Entry get(long id) {
+        Entry e = mEntries.get(id);
+        if (e != null)
+            mHits++;
+        else
+            mMisses++;
+        return e;
+    }
+
+    /**
+     * Looks up the data of an appliance, loading and caching it on a miss.
+     * @param id     The database ID of the appliance.
+     * @param loader Decodes the data on a miss, on the calling thread.
+     * @return the data, or null if the loader found none.
+     * @throws IOException if the loader failed.
+     */
+    public Entry get(long id, Loader loader) throws IOException {
+        Entry e = get(id);
+        if (e != null)
+            return e;
+        e = loader.load(id);
+        if (e != null)
+            put(id, e);
+        return e;
+    }
+
+    /**
+     * Caches the data of an appliance, replacing any previous data, and evicts the least
+     * recently used entries beyond the budget.
+     * @param id    The database ID of the appliance.
+     * @param entry The data.
+     */
+    public synchronized void put(long id, Entry entry) {
+        if (entry == null)
+            throw new IllegalArgumentException("ReferenceCache.put(), entry cannot be null");
+        Entry old = mEntries.remove(id);
+        if (old != null)
+            mBytes -= old.getMemoryBytes();
+        if (entry.getMemoryBytes() > mBudget)
+            return;
+        mEntries.put(id, entry);
+        mBytes += entry.getMemoryBytes();
+        trim();
+    }
+
+    /**
+     * Drops the data of an appliance, e.g. once its reference image changed.
+     * @param id The database ID of the appliance.
+     */
+    public synchronized void remove(long id) {
+        Entry old = mEntries.remove(id);
+        if (old != null)
+            mBytes -= old.getMemoryBytes();
+    }
+
+    /**
+     * Drops every entry, e.g. when the system runs low on memory. Counters are kept.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Long, Entry>> it = mEntries.entrySet().iterator();
+        while (mBytes > mBudget && it.hasNext()) {
+            mBytes -= it.next().getValue().getMemoryBytes();
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    public synchronized long getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * @return the number of bytes held by the entries.
+     */
+    public synchronized long getMemoryBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return the number of cached appliances.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReferenceCache: " + mEntries.size() + " appliances, " + mBytes + "/" + mBudget
+                + " bytes, " + mHits + " hits, " + mMisses + " misses, " + mEvictions + " evictions";
+    }
+}
@@ -106,7 +106,8 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
   private int surface_height;
   private int preview_width;
   private int preview_height;
-  private byte[] buffer;
+  private int buffer_count = FrameBufferPool.DEFAULT_BUFFER_COUNT;
+  private FrameBufferPool pool;
 
   private boolean frame_requested = false;
   private boolean ready = false;
@@ -187,13 +188,53 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
   }
 
   /**
-   * Asks for a new frame to be delivered to the listener.
+   * Sets the number of preview buffers cycled between the camera and the listener.
+   * <p>
+   * With more than one buffer, the camera keeps capturing while the listener
+   * processes a frame. Takes effect the next time the preview size is computed.
+   * @param count   the number of buffers, at least 1.
+   */
+  public void setPreviewBufferCount(int count) {
+    if (count < 1)
+      throw new IllegalArgumentException("setPreviewBufferCount(), Illegal buffer count: " + count);
+    buffer_count = count;
+  }
+
+  /**
+   * Gets the pool of preview buffers.
+   * @return  the {@link org.uw.cse.mag.ar.util.FrameBufferPool} in use, or null if the preview has not started yet.
+   */
+  public FrameBufferPool getFramePool() {
+    return pool;
+  }
+
+  /**
+   * Asks for new frames to be delivered to the listener: every free
+   * preview buffer is handed to the camera.
    */
   public void requestNewFrame() {
-    if (!ready)
+    if (!ready) {
       frame_requested = true;
-    else
-      cam.addCallbackBuffer(buffer);
+      return;
+    }
+    byte[] b;
+    while ((b = pool.checkout()) != null) {
+      cam.addCallbackBuffer(b);
+    }
+  }
+
+  /**
+   * Gives a frame received through {@link android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)}
+   * back to the pool, once the listener is done with it.
+   * <p>
+   * Can be called from any thread. The buffer is handed back to the camera on the
+   * next call to {@link #requestNewFrame()}.
+   * @param data  the frame buffer to release.
+   */
+  public void releaseFrame(byte[] data) {
+    FrameBufferPool p = pool;
+    if (p != null)
+      p.checkin(data);
   }
 
   /**
@@ -287,14 +328,25 @@ public class CameraManager extends Handler implements SurfaceHolder.Callback, Ca
     // we force the preview format to NV21
     params.setPreviewFormat(ImageFormat.NV21);
     cam.setParameters(params);
-    // pre-allocate buffer of size #pixels x 3/2
+    // pre-allocate buffers of size #pixels x 3/2
     // as NV21 uses #pixels for grayscale and twice
     // #pixels/4 for chroma.
-    buffer = new byte[preview_width*preview_height*3/2];
+    pool = new FrameBufferPool(buffer_count, preview_width*preview_height*3/2);
     // notify Listener
     listener.onPreviewInfoFound(preview_width, preview_height, front_facing);
   }
   
+  /**
+   * Gets the rotation of the frames of the camera in use.
+   * @return the clockwise rotation, in degrees, that makes the frames upright when the
+   *         device is held in its natural orientation.
+   */
+  public static int getSensorOrientation() {
+    Camera.CameraInfo info = new Camera.CameraInfo();
+    Camera.getCameraInfo(camera_id, info);
+    return info.orientation;
+  }
+
   /**
    * Corrects the camera preview orientation to fit the enclosing Activity UI. 
    * @param activity    The {@link android.app.Activity} currently displaying the camera preview.
@@ -0,0 +1,101 @@
+package org.uw.cse.mag.ar.util;
+
+/**
+ * Fixed-size pool of preview frame buffers shared by the camera and the scanner.
+ * <p>
+ * Every buffer is owned by exactly one party at a time:
+ * <ul>
+ * <li><b>free</b>: idle in the pool, waiting to be handed to the camera with {@link #checkout()},</li>
+ * <li><b>camera</b>: queued in the camera, waiting to be filled with a preview frame,</li>
+ * <li><b>posted</b>: filled by the camera and posted to the {@link FrameMailbox}, waiting for the scanner,</li>
+ * <li><b>in use</b>: taken from the mailbox by the scanner, until it is {@link #checkin(byte[]) returned}.</li>
+ * </ul>
+ * The pool is only the free list: frames are handed from the camera to the scanner by
+ * the mailbox, which keeps the newest frame and hands superseded ones back to be checked
+ * in, so the camera never runs out of buffers because of a slow consumer.
+ * <p>
+ * All methods are thread-safe: the camera side runs on the UI thread while the
+ * scanner side runs on the worker thread.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class FrameBufferPool {
+
+    /**
+     * Default number of preview buffers.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    private final int mBufferSize;
+
+    // Free buffers, used as a stack.
+    private final byte[][] mFree;
+    private int mFreeCount;
+
+    /**
+     * Constructor.
+     * @param count      Number of buffers to allocate, at least 1.
+     * @param bufferSize Size in bytes of each buffer.
+     */
+    public FrameBufferPool(int count, int bufferSize) {
+        if (count < 1)
+            throw new IllegalArgumentException("FrameBufferPool(), Illegal buffer count: " + count);
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("FrameBufferPool(), Illegal buffer size: " + bufferSize);
+
+        mBufferSize = bufferSize;
+        mFree = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            mFree[i] = new byte[bufferSize];
+        }
+        mFreeCount = count;
+    }
+
+    /**
+     * @return the size in bytes of each buffer.
+     */
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * @return the total number of buffers managed by this pool.
+     */
+    public int getCapacity() {
+        return mFree.length;
+    }
+
+    /**
+     * Takes a free buffer out of the pool, to be filled by the camera.
+     * @return a free buffer, or null if all buffers are in use.
+     */
+    public synchronized byte[] checkout() {
+        if (mFreeCount == 0)
+            return null;
+        byte[] b = mFree[--mFreeCount];
+        mFree[mFreeCount] = null;
+        return b;
+    }
+
+    /**
+     * Returns a buffer to the free list.
+     * <p>
+     * Buffers that do not belong to this pool (e.g. left over from a previous preview
+     * size) are ignored.
+     * @param buffer the buffer to return.
+     * @return true if the buffer was taken back.
+     */
+    public synchronized boolean checkin(byte[] buffer) {
+        if (buffer == null || buffer.length != mBufferSize || mFreeCount == mFree.length)
+            return false;
+        mFree[mFreeCount++] = buffer;
+        return true;
+    }
+
+    /**
+     * @return the number of buffers currently in the free list.
+     */
+    public synchronized int getFreeCount() {
+        return mFreeCount;
+    }
+}
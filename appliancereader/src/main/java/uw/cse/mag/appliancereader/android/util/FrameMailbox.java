@@ -0,0 +1,69 @@
+package org.uw.cse.mag.ar.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single-slot, lock-free exchange of camera frames between one producer
+ * (the camera callback) and one consumer (the scanner worker).
+ * <p>
+ * The newest frame always wins: posting a frame while the previous one has not been
+ * taken yet replaces it, and the superseded buffer is handed back to the producer so
+ * it can return it to the {@link FrameBufferPool}. The consumer therefore always
+ * works on the freshest frame, however long the previous scan took.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class FrameMailbox {
+
+    private final AtomicReference<byte[]> mSlot = new AtomicReference<byte[]>();
+
+    // Only written by the producer thread.
+    private volatile long mPosted;
+    private volatile long mSkipped;
+
+    /**
+     * Posts a new frame, replacing any frame that was not taken yet.
+     * <p>
+     * Must only be called from the producer thread.
+     * @param frame the new frame, cannot be null.
+     * @return the superseded frame that the caller must recycle, or null if the slot was empty.
+     */
+    public byte[] post(byte[] frame) {
+        if (frame == null)
+            throw new IllegalArgumentException("FrameMailbox.post(), frame cannot be null");
+        byte[] old = mSlot.getAndSet(frame);
+        mPosted++;
+        if (old != null)
+            mSkipped++;
+        return old;
+    }
+
+    /**
+     * Takes the latest frame out of the mailbox. The caller owns the returned buffer.
+     * @return the latest frame, or null if none was posted since the last call.
+     */
+    public byte[] take() {
+        return mSlot.getAndSet(null);
+    }
+
+    /**
+     * @return true if a frame is waiting to be taken.
+     */
+    public boolean isFull() {
+        return mSlot.get() != null;
+    }
+
+    /**
+     * @return the number of frames posted so far.
+     */
+    public long getPostedCount() {
+        return mPosted;
+    }
+
+    /**
+     * @return the number of frames superseded by a newer one before being taken.
+     */
+    public long getSkippedCount() {
+        return mSkipped;
+    }
+}
@@ -1,9 +1,153 @@
 package org.uw.cse.mag.ar.util;
 
 /**
- *
+ * Result of a successful scan: what was recognized in a camera frame and where.
  *
  * @author - Michael Hotan, michael.hotan@gmail.com
  */
 public class Result {
+
+    /**
+     * Enum listing the possible result types.
+     */
+    public static final class Type {
+        /** No result */
+        public static final int NONE = 0;
+        /** Appliance recognized by image search */
+        public static final int IMAGE = 1;
+        /** EAN-8 barcode */
+        public static final int EAN8 = 2;
+        /** EAN-13 barcode */
+        public static final int EAN13 = 4;
+        /** QR Code */
+        public static final int QRCODE = 8;
+        /** Datamatrix */
+        public static final int DATAMATRIX = 16;
+    }
+
+    private final int mType;
+    private final String mValue;
+
+    /**
+     * Location of the result in the frame, as (x, y) pairs in frame pixels, or null.
+     */
+    private float[] mCorners;
+
+    /**
+     * Homography from the reference image of the recognized appliance to the frame, or null.
+     */
+    private float[] mHomography;
+
+    /**
+     * Database ID of the identified appliance, or -1.
+     */
+    private long mApplianceId = -1;
+
+    /**
+     * Text of the displays of the appliance, or null.
+     */
+    private String[] mDisplayReadings;
+
+    /**
+     * Constructor
+     * @param type  The result type among the {@link Result.Type} flags.
+     * @param value The result value: appliance identifier or decoded barcode.
+     */
+    public Result(int type, String value) {
+        if (value == null)
+            throw new IllegalArgumentException("Result(), value cannot be null");
+        mType = type;
+        mValue = value;
+    }
+
+    /**
+     * @return the result type among the {@link Result.Type} flags.
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return the result value: appliance identifier or decoded barcode.
+     */
+    public String getValue() {
+        return mValue;
+    }
+
+    /**
+     * Gets the location of the result in the frame.
+     * @return (x, y) pairs in frame pixels, or null if unknown.
+     */
+    public float[] getCorners() {
+        return mCorners;
+    }
+
+    /**
+     * Sets the location of the result in the frame.
+     * @param corners (x, y) pairs in frame pixels, or null if unknown.
+     */
+    public void setCorners(float[] corners) {
+        if (corners != null && (corners.length & 1) != 0)
+            throw new IllegalArgumentException("Result.setCorners(), odd number of coordinates: " + corners.length);
+        mCorners = corners;
+    }
+
+    /**
+     * Gets the pose of the recognized appliance in the frame.
+     * @return the row-major 3x3 homography from the reference image to the frame, or null if unknown.
+     */
+    public float[] getHomography() {
+        return mHomography;
+    }
+
+    /**
+     * Sets the pose of the recognized appliance in the frame.
+     * @param homography the row-major 3x3 homography from the reference image to the frame, or null.
+     */
+    public void setHomography(float[] homography) {
+        if (homography != null && homography.length != 9)
+            throw new IllegalArgumentException("Result.setHomography(), expected 9 coefficients, not " + homography.length);
+        mHomography = homography;
+    }
+
+    /**
+     * Gets the appliance identified by this result: the recognized one for image
+     * results, the one whose model number a barcode encodes otherwise.
+     * @return the database ID of the appliance, or -1 if unknown.
+     */
+    public long getApplianceId() {
+        return mApplianceId;
+    }
+
+    /**
+     * Sets the appliance identified by this result.
+     * @param id the database ID of the appliance, or -1 if unknown.
+     */
+    public void setApplianceId(long id) {
+        mApplianceId = id;
+    }
+
+    /**
+     * Gets what the displays of the recognized appliance show in the frame.
+     * <p>
+     * The array is replaced, never modified, when a reading changes.
+     * @return the text of each display, in the order they were given to the scanner,
+     *         null for a display that could not be read; or null if no display was read.
+     */
+    public String[] getDisplayReadings() {
+        return mDisplayReadings;
+    }
+
+    /**
+     * Sets what the displays of the recognized appliance show in the frame.
+     * @param readings the text of each display, null for an unreadable one; or null.
+     */
+    public void setDisplayReadings(String[] readings) {
+        mDisplayReadings = readings;
+    }
+
+    @Override
+    public String toString() {
+        return mType + ":" + mValue;
+    }
 }
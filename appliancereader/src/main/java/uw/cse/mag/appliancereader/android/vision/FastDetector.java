@@ -0,0 +1,161 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * FAST-9 corner detector with non-maximum suppression.
+ * <p>
+ * A pixel is a corner if 9 contiguous pixels of the 16-pixel circle of radius 3 around it
+ * are all brighter than the center plus {@link #threshold}, or all darker than the center
+ * minus {@link #threshold}. Most pixels are rejected after reading the 4 compass pixels
+ * of the circle. The score of a corner is the sum of the differences beyond the threshold,
+ * and only corners scoring higher than their 8 neighbours are kept.
+ * <p>
+ * Working buffers grow with the largest image seen, then nothing is allocated.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class FastDetector {
+
+    /** Default intensity threshold. */
+    public static final int DEFAULT_THRESHOLD = 20;
+
+    // Circle of radius 3, clockwise from the top.
+    private static final int[] CIRCLE_X = {0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1};
+    private static final int[] CIRCLE_Y = {-3, -3, -2, -1, 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3};
+
+    /**
+     * The intensity difference to the center for a circle pixel to count as brighter or darker.
+     */
+    public int threshold = DEFAULT_THRESHOLD;
+
+    private final int[] mCircle = new int[16];
+    private int mCircleStride = -1;
+
+    // Score map of the current image, zero outside of candidates.
+    private int[] mScores = new int[0];
+    private final int[] mCandX;
+    private final int[] mCandY;
+    private final int[] mCandScore;
+
+    /**
+     * Constructor.
+     * @param maxCandidates the largest number of corners kept per image before
+     *                      non-maximum suppression; further corners are ignored.
+     */
+    public FastDetector(int maxCandidates) {
+        if (maxCandidates < 1)
+            throw new IllegalArgumentException("FastDetector(), Illegal candidate count: " + maxCandidates);
+        mCandX = new int[maxCandidates];
+        mCandY = new int[maxCandidates];
+        mCandScore = new int[maxCandidates];
+    }
+
+    /**
+     * Detects the corners of an image.
+     * @param img    The image.
+     * @param border Margin in pixels where no corner is reported, at least 3.
+     * @param xs     Receives the corner abscissas, from {@code off}.
+     * @param ys     Receives the corner ordinates, from {@code off}.
+     * @param scores Receives the corner scores, from {@code off}.
+     * @param off    Index of the first corner in the output arrays.
+     * @param max    The largest number of corners to report.
+     * @return the number of corners reported.
+     */
+    public int detect(GrayImage img, int border, int[] xs, int[] ys, int[] scores, int off, int max) {
+        int w = img.width;
+        int h = img.height;
+        border = Math.max(3, border);
+        if (w <= 2 * border || h <= 2 * border || max <= 0)
+            return 0;
+        if (mScores.length < w * h)
+            mScores = new int[w * h];
+        if (mCircleStride != img.stride) {
+            for (int k = 0; k < 16; ++k) {
+                mCircle[k] = CIRCLE_Y[k] * img.stride + CIRCLE_X[k];
+            }
+            mCircleStride = img.stride;
+        }
+        final byte[] d = img.data;
+        final int[] circle = mCircle;
+        final int c0 = circle[0], c4 = circle[4], c8 = circle[8], c12 = circle[12];
+        final int t = threshold;
+        final int[] map = mScores;
+        int n = 0;
+        int cap = mCandX.length;
+
+        rows:
+        for (int y = border; y < h - border; ++y) {
+            int row = img.offset + y * img.stride;
+            for (int x = border; x < w - border; ++x) {
+                int p = row + x;
+                int c = d[p] & 0xFF;
+                int hi = c + t;
+                int lo = c - t;
+                int v0 = d[p + c0] & 0xFF, v4 = d[p + c4] & 0xFF;
+                int v8 = d[p + c8] & 0xFF, v12 = d[p + c12] & 0xFF;
+                // An arc of 9 covers at least 2 of the 4 compass pixels.
+                int nb = (v0 > hi ? 1 : 0) + (v4 > hi ? 1 : 0) + (v8 > hi ? 1 : 0) + (v12 > hi ? 1 : 0);
+                int nd = (v0 < lo ? 1 : 0) + (v4 < lo ? 1 : 0) + (v8 < lo ? 1 : 0) + (v12 < lo ? 1 : 0);
+                if (nb < 2 && nd < 2)
+                    continue;
+
+                int bright = 0, dark = 0, sb = 0, sd = 0;
+                for (int k = 0; k < 16; ++k) {
+                    int v = d[p + circle[k]] & 0xFF;
+                    if (v > hi) {
+                        bright |= 1 << k;
+                        sb += v - hi;
+                    }
+                    else if (v < lo) {
+                        dark |= 1 << k;
+                        sd += lo - v;
+                    }
+                }
+                int score;
+                if (nb >= 2 && hasArc(bright))
+                    score = sb;
+                else if (nd >= 2 && hasArc(dark))
+                    score = sd;
+                else
+                    continue;
+                if (n == cap)
+                    break rows;
+                map[y * w + x] = score;
+                mCandX[n] = x;
+                mCandY[n] = y;
+                mCandScore[n] = score;
+                n++;
+            }
+        }
+
+        // Non-maximum suppression over 3x3 neighbourhoods; ties go to the first in raster order.
+        int out = 0;
+        for (int i = 0; i < n; ++i) {
+            int x = mCandX[i], y = mCandY[i], s = mCandScore[i];
+            int m = y * w + x;
+            boolean max3 = map[m - w - 1] < s && map[m - w] < s && map[m - w + 1] < s && map[m - 1] < s
+                    && map[m + 1] <= s && map[m + w - 1] <= s && map[m + w] <= s && map[m + w + 1] <= s;
+            if (max3 && out < max) {
+                xs[off + out] = x;
+                ys[off + out] = y;
+                scores[off + out] = s;
+                out++;
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            map[mCandY[i] * w + mCandX[i]] = 0;
+        }
+        return out;
+    }
+
+    /**
+     * @return true if the 16-bit circular mask has 9 contiguous bits set.
+     */
+    private static boolean hasArc(int mask) {
+        int m = mask | (mask << 16);
+        int r = m & (m >>> 1);
+        r &= r >>> 2;
+        r &= r >>> 4;
+        r &= m >>> 8;
+        return r != 0;
+    }
+}
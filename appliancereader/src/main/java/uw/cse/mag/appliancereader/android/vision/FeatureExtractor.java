@@ -0,0 +1,23 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Detects keypoints in a frame and computes their binary descriptors.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public interface FeatureExtractor {
+
+    /**
+     * @return the length in bits of the descriptors, a multiple of 64.
+     */
+    public int getDescriptorBits();
+
+    /**
+     * Extracts the keypoints of an image.
+     * @param img The image pyramid of the frame, already built.
+     * @param out The keypoints, cleared then filled, in base image coordinates. Its
+     *            descriptor length must be {@link #getDescriptorBits()}.
+     * @return the number of keypoints found.
+     */
+    public int extract(ImagePyramid img, Keypoints out);
+}
@@ -0,0 +1,158 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Quarter-turn transforms between the camera frame, as the sensor delivers it, and the
+ * frame as the user sees it for each device orientation.
+ * <p>
+ * Frames are always scanned in sensor orientation: the reference images are matched with
+ * rotation invariant descriptors, so rotating the pixels of every frame would only cost
+ * time. The device orientation is applied to coordinates instead, through the transforms
+ * precomputed here for a frame size: to the geometry of the results handed to the UI, and
+ * back to the sensor frame for coordinates coming from the UI.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class FrameOrientation {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSensorOrientation;
+    // Per device orientation: the clockwise quarter turns, and the transforms both ways.
+    private final int[] mTurns = new int[4];
+    private final float[][] mToUpright = new float[4][];
+    private final float[][] mToSensor = new float[4][];
+
+    /**
+     * @param width             The width of the camera frames.
+     * @param height            The height of the camera frames.
+     * @param sensorOrientation The clockwise rotation, in degrees and a multiple of 90, that
+     *                          makes the frames upright when the device is held upright.
+     */
+    public FrameOrientation(int width, int height, int sensorOrientation) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("FrameOrientation(), Illegal size: " + width + "x" + height);
+        if (sensorOrientation % 90 != 0)
+            throw new IllegalArgumentException("FrameOrientation(), Illegal sensor orientation: " + sensorOrientation);
+        mWidth = width;
+        mHeight = height;
+        mSensorOrientation = sensorOrientation;
+        int sensorTurns = ((sensorOrientation / 90) % 4 + 4) % 4;
+        for (int o = 0; o < 4; ++o) {
+            int k = (sensorTurns + o) % 4;
+            mTurns[o] = k;
+            mToUpright[o] = rotation(k, width, height);
+            boolean swap = (k & 1) != 0;
+            mToSensor[o] = rotation((4 - k) % 4, swap ? height : width, swap ? width : height);
+        }
+    }
+
+    /**
+     * @return the transform turning a w x h image clockwise by k quarter turns.
+     */
+    private static float[] rotation(int k, int w, int h) {
+        switch (k) {
+            case 1:
+                return new float[]{0, -1, h - 1, 1, 0, 0, 0, 0, 1};
+            case 2:
+                return new float[]{-1, 0, w - 1, 0, -1, h - 1, 0, 0, 1};
+            case 3:
+                return new float[]{0, 1, 0, -1, 0, w - 1, 0, 0, 1};
+            default:
+                return new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+        }
+    }
+
+    /**
+     * @param orientation A device orientation among the
+     *                    {@link org.uw.cse.mag.ar.util.OrientationListener.Orientation}
+     *                    values; unknown orientations are taken as upright.
+     * @return the number of clockwise quarter turns from the sensor frame to the upright one.
+     */
+    public int getQuarterTurns(int orientation) {
+        return mTurns[index(orientation)];
+    }
+
+    /**
+     * @return the transform from sensor frame to upright frame coordinates, not to be modified.
+     */
+    public float[] getToUpright(int orientation) {
+        return mToUpright[index(orientation)];
+    }
+
+    /**
+     * @return the transform from upright frame to sensor frame coordinates, not to be modified.
+     */
+    public float[] getToSensor(int orientation) {
+        return mToSensor[index(orientation)];
+    }
+
+    /**
+     * @return the width of the upright frame.
+     */
+    public int getUprightWidth(int orientation) {
+        return (getQuarterTurns(orientation) & 1) != 0 ? mHeight : mWidth;
+    }
+
+    /**
+     * @return the height of the upright frame.
+     */
+    public int getUprightHeight(int orientation) {
+        return (getQuarterTurns(orientation) & 1) != 0 ? mWidth : mHeight;
+    }
+
+    /**
+     * Maps points from sensor frame to upright frame coordinates, in place.
+     * @param orientation The device orientation.
+     * @param points      (x, y) pairs.
+     * @param offset      Index of the first coordinate.
+     * @param count       Number of points.
+     */
+    public void toUpright(int orientation, float[] points, int offset, int count) {
+        map(mToUpright[index(orientation)], points, offset, count);
+    }
+
+    /**
+     * Maps points from upright frame to sensor frame coordinates, in place.
+     * @param orientation The device orientation.
+     * @param points      (x, y) pairs.
+     * @param offset      Index of the first coordinate.
+     * @param count       Number of points.
+     */
+    public void toSensor(int orientation, float[] points, int offset, int count) {
+        map(mToSensor[index(orientation)], points, offset, count);
+    }
+
+    /**
+     * Maps a homography to the sensor frame into one to the upright frame, in place.
+     * @param orientation The device orientation.
+     * @param h           The homography.
+     */
+    public void toUpright(int orientation, float[] h) {
+        Homography.premultiply(mToUpright[index(orientation)], h);
+    }
+
+    private static void map(float[] t, float[] points, int offset, int count) {
+        for (int i = 0; i < count; ++i) {
+            int p = offset + 2 * i;
+            float x = points[p], y = points[p + 1];
+            points[p] = t[0] * x + t[1] * y + t[2];
+            points[p + 1] = t[3] * x + t[4] * y + t[5];
+        }
+    }
+
+    private static int index(int orientation) {
+        return orientation >= 0 && orientation < 4 ? orientation : 0;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+}
@@ -0,0 +1,110 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * 8-bit grayscale image backed by a byte array.
+ * <p>
+ * The image is either owning its pixels (see {@link #GrayImage(int, int)}), or a view over
+ * an existing buffer such as the Y plane of an NV21 camera frame (see {@link #wrap}),
+ * in which case no pixel is copied. Pixel (x, y) is stored at {@code data[offset + y * stride + x]}
+ * and must be read as an unsigned value.
+ * <p>
+ * Fields are public so that inner loops can index the buffer directly.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class GrayImage {
+
+    /** Pixel buffer. */
+    public byte[] data;
+    /** Index of pixel (0, 0) in {@link #data}. */
+    public int offset;
+    /** Number of bytes between two rows. */
+    public int stride;
+    /** Width in pixels. */
+    public int width;
+    /** Height in pixels. */
+    public int height;
+
+    /**
+     * Creates an empty view, to be set with {@link #wrap}.
+     */
+    public GrayImage() {
+    }
+
+    /**
+     * Creates an image owning a buffer of {@code width * height} pixels.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     */
+    public GrayImage(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("GrayImage(), Illegal size: " + width + "x" + height);
+        this.data = new byte[width * height];
+        this.offset = 0;
+        this.stride = width;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Makes this image a view over an existing buffer, without copying it.
+     * @param data   The pixel buffer.
+     * @param offset Index of pixel (0, 0).
+     * @param stride Number of bytes between two rows.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @return this image.
+     */
+    public GrayImage wrap(byte[] data, int offset, int stride, int width, int height) {
+        if (stride < width || offset < 0 || offset + (height - 1) * stride + width > data.length)
+            throw new IllegalArgumentException("GrayImage.wrap(), buffer too small for " + width + "x" + height);
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    /**
+     * Makes this image a view over a sub-rectangle of another image, without copying it.
+     * @param src Image to view.
+     * @param x   Left of the rectangle.
+     * @param y   Top of the rectangle.
+     * @param w   Width of the rectangle.
+     * @param h   Height of the rectangle.
+     * @return this image.
+     */
+    public GrayImage subImage(GrayImage src, int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > src.width || y + h > src.height)
+            throw new IllegalArgumentException("GrayImage.subImage(), rectangle out of bounds");
+        return wrap(src.data, src.offset + y * src.stride + x, src.stride, w, h);
+    }
+
+    /**
+     * @param x Column.
+     * @param y Row.
+     * @return the unsigned value of pixel (x, y).
+     */
+    public int get(int x, int y) {
+        return data[offset + y * stride + x] & 0xFF;
+    }
+
+    /**
+     * @param x     Column.
+     * @param y     Row.
+     * @param value The value of pixel (x, y), between 0 and 255.
+     */
+    public void set(int x, int y, int value) {
+        data[offset + y * stride + x] = (byte) value;
+    }
+
+    /**
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @return true if this image has the given size.
+     */
+    public boolean isSize(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+}
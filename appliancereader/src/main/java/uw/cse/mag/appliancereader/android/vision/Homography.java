@@ -0,0 +1,138 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Helpers for planar homographies stored as row-major 3x3 matrices in a {@code float[9]}.
+ * <p>
+ * A homography maps a point of the appliance reference image to the camera frame:
+ * {@code x' = (h0 x + h1 y + h2) / (h6 x + h7 y + h8)} and
+ * {@code y' = (h3 x + h4 y + h5) / (h6 x + h7 y + h8)}.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class Homography {
+
+    private Homography() {
+    }
+
+    /**
+     * Sets a matrix to the identity.
+     * @param h The matrix to set.
+     * @return {@code h}.
+     */
+    public static float[] identity(float[] h) {
+        h[0] = 1; h[1] = 0; h[2] = 0;
+        h[3] = 0; h[4] = 1; h[5] = 0;
+        h[6] = 0; h[7] = 0; h[8] = 1;
+        return h;
+    }
+
+    /**
+     * Projects a set of points.
+     * @param h      The homography.
+     * @param src    Source (x, y) pairs.
+     * @param srcOff Index of the first source coordinate.
+     * @param dst    Destination (x, y) pairs, may be {@code src}.
+     * @param dstOff Index of the first destination coordinate.
+     * @param count  Number of points.
+     */
+    public static void project(float[] h, float[] src, int srcOff, float[] dst, int dstOff, int count) {
+        for (int i = 0; i < count; ++i) {
+            float x = src[srcOff + 2 * i];
+            float y = src[srcOff + 2 * i + 1];
+            float w = h[6] * x + h[7] * y + h[8];
+            float iw = w != 0 ? 1f / w : 0f;
+            dst[dstOff + 2 * i] = (h[0] * x + h[1] * y + h[2]) * iw;
+            dst[dstOff + 2 * i + 1] = (h[3] * x + h[4] * y + h[5]) * iw;
+        }
+    }
+
+    /**
+     * Composes a homography with a translation of the destination plane, in place.
+     * @param h  The homography.
+     * @param dx Horizontal translation.
+     * @param dy Vertical translation.
+     */
+    public static void translate(float[] h, float dx, float dy) {
+        h[0] += dx * h[6]; h[1] += dx * h[7]; h[2] += dx * h[8];
+        h[3] += dy * h[6]; h[4] += dy * h[7]; h[5] += dy * h[8];
+    }
+
+    /**
+     * Composes a homography with a uniform scaling of the destination plane, in place.
+     * @param h     The homography.
+     * @param scale Scale factor.
+     */
+    public static void scale(float[] h, float scale) {
+        for (int i = 0; i < 6; ++i) {
+            h[i] *= scale;
+        }
+    }
+
+    /**
+     * Composes a homography with a transform of the destination plane, in place: {@code h = t h}.
+     * @param t The transform of the destination plane.
+     * @param h The homography.
+     */
+    public static void premultiply(float[] t, float[] h) {
+        for (int c = 0; c < 3; ++c) {
+            float h0 = h[c], h1 = h[3 + c], h2 = h[6 + c];
+            h[c] = t[0] * h0 + t[1] * h1 + t[2] * h2;
+            h[3 + c] = t[3] * h0 + t[4] * h1 + t[5] * h2;
+            h[6 + c] = t[6] * h0 + t[7] * h1 + t[8] * h2;
+        }
+    }
+
+    /**
+     * Computes the homography mapping 4 source points exactly to 4 destination points.
+     * @param src Source (x, y) pairs of the 4 points.
+     * @param dst Destination (x, y) pairs of the 4 points.
+     * @param h   Receives the homography.
+     * @return false if 3 of the points are collinear.
+     */
+    public static boolean fromPoints(float[] src, float[] dst, float[] h) {
+        // 8 equations in h0..h7, h8 = 1, solved by Gaussian elimination with partial pivoting.
+        double[] a = new double[8 * 9];
+        for (int k = 0; k < 4; ++k) {
+            double x = src[2 * k], y = src[2 * k + 1];
+            double u = dst[2 * k], v = dst[2 * k + 1];
+            int r0 = 18 * k, r1 = r0 + 9;
+            a[r0] = x; a[r0 + 1] = y; a[r0 + 2] = 1;
+            a[r0 + 6] = -u * x; a[r0 + 7] = -u * y; a[r0 + 8] = u;
+            a[r1 + 3] = x; a[r1 + 4] = y; a[r1 + 5] = 1;
+            a[r1 + 6] = -v * x; a[r1 + 7] = -v * y; a[r1 + 8] = v;
+        }
+        for (int c = 0; c < 8; ++c) {
+            int pivot = c;
+            for (int r = c + 1; r < 8; ++r) {
+                if (Math.abs(a[r * 9 + c]) > Math.abs(a[pivot * 9 + c]))
+                    pivot = r;
+            }
+            if (Math.abs(a[pivot * 9 + c]) < 1e-9)
+                return false;
+            for (int k = c; k < 9; ++k) {
+                double t = a[c * 9 + k];
+                a[c * 9 + k] = a[pivot * 9 + k];
+                a[pivot * 9 + k] = t;
+            }
+            for (int r = c + 1; r < 8; ++r) {
+                double f = a[r * 9 + c] / a[c * 9 + c];
+                for (int k = c; k < 9; ++k) {
+                    a[r * 9 + k] -= f * a[c * 9 + k];
+                }
+            }
+        }
+        double[] m = new double[8];
+        for (int r = 7; r >= 0; --r) {
+            double v = a[r * 9 + 8];
+            for (int k = r + 1; k < 8; ++k) {
+                v -= a[r * 9 + k] * m[k];
+            }
+            m[r] = v / a[r * 9 + r];
+        }
+        for (int i = 0; i < 8; ++i) {
+            h[i] = (float) m[i];
+        }
+        h[8] = 1;
+        return true;
+    }
+}
@@ -0,0 +1,433 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Robust estimation of the homography between two sets of matched points, e.g. from a
+ * reference image of an appliance to the camera frame.
+ * <p>
+ * Hypotheses are computed from 4 matches drawn PROSAC-style: the matches must be given best
+ * first, and samples are drawn from a set of top matches that grows with the iterations, so
+ * that good matches are tried first. Sampling stops as soon as the best hypothesis so far
+ * has, with the requested {@link #confidence}, been found. The inliers of that hypothesis
+ * are then refitted by least squares, for at most {@link #refineIterations} rounds.
+ * <p>
+ * Points are normalized (centered, mean distance sqrt(2)) before estimation. All working
+ * arrays are allocated by the constructor; an estimator is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class HomographyEstimator {
+
+    private static final int SAMPLE_SIZE = 4;
+    private static final long SEED = 0x5EEDL;
+    private static final double EPSILON = 1e-10;
+
+    /**
+     * The largest reprojection error, in destination pixels, of an inlier.
+     *
+     * By default, this value is set to 3.
+     */
+    public float threshold = 3f;
+
+    /**
+     * The probability of having drawn an all-inlier sample when sampling stops.
+     *
+     * By default, this value is set to 0.995.
+     */
+    public float confidence = 0.995f;
+
+    /**
+     * The largest number of samples drawn.
+     *
+     * By default, this value is set to 500.
+     */
+    public int maxIterations = 500;
+
+    /**
+     * The largest number of least squares refinement rounds.
+     *
+     * By default, this value is set to 4.
+     */
+    public int refineIterations = 4;
+
+    private final int mCapacity;
+    // Normalized points.
+    private final float[] mSrc;
+    private final float[] mDst;
+    private final boolean[] mInliers;
+    private final boolean[] mCandidates;
+    private int mInlierCount;
+    private int mIterations;
+
+    private final int[] mSample = new int[SAMPLE_SIZE];
+    // Augmented systems of the 8 unknown coefficients (h8 = 1), and the hypotheses.
+    private final double[] mSystem = new double[8 * 9];
+    private final double[] mModel = new double[9];
+    private final double[] mBest = new double[9];
+    // Normalizations: cx, cy, scale.
+    private final double[] mSrcNorm = new double[3];
+    private final double[] mDstNorm = new double[3];
+    private long mRandom;
+
+    /**
+     * Constructor.
+     * @param capacity the largest number of matches.
+     */
+    public HomographyEstimator(int capacity) {
+        if (capacity < SAMPLE_SIZE)
+            throw new IllegalArgumentException("HomographyEstimator(), Illegal capacity: " + capacity);
+        mCapacity = capacity;
+        mSrc = new float[2 * capacity];
+        mDst = new float[2 * capacity];
+        mInliers = new boolean[capacity];
+        mCandidates = new boolean[capacity];
+    }
+
+    /**
+     * @return the largest number of matches.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @param i A match index.
+     * @return true if the match is an inlier of the last estimate.
+     */
+    public boolean isInlier(int i) {
+        return mInliers[i];
+    }
+
+    /**
+     * @return the number of inliers of the last estimate.
+     */
+    public int getInlierCount() {
+        return mInlierCount;
+    }
+
+    /**
+     * @return the number of samples drawn by the last estimate.
+     */
+    public int getIterations() {
+        return mIterations;
+    }
+
+    /**
+     * Estimates the homography mapping source points to destination points.
+     * <p>
+     * Results are deterministic: the same matches always give the same homography.
+     * @param src   Source (x, y) pairs.
+     * @param dst   Destination (x, y) pairs, matching the source points.
+     * @param count Number of matches, best first.
+     * @param h     Receives the row-major homography, if found.
+     * @return the number of inliers, or 0 if no homography was found.
+     */
+    public int estimate(float[] src, float[] dst, int count, float[] h) {
+        if (count > mCapacity)
+            throw new IllegalArgumentException("HomographyEstimator.estimate(), " + count
+                    + " matches exceed the capacity of " + mCapacity);
+        mInlierCount = 0;
+        mIterations = 0;
+        if (count < SAMPLE_SIZE)
+            return 0;
+        mRandom = SEED;
+
+        // Normalization: T = [s 0 -s cx; 0 s -s cy; 0 0 1], for both point sets.
+        double[] ts = mSrcNorm;
+        double[] td = mDstNorm;
+        normalize(src, count, mSrc, ts);
+        normalize(dst, count, mDst, td);
+        float thr = (float) (threshold * td[2]);
+        float thr2 = thr * thr;
+
+        // PROSAC sampling: draws from the n best matches, n growing from 4 to count.
+        double logFail = Math.log(1.0 - confidence);
+        int needed = maxIterations;
+        int best = 0;
+        int n = SAMPLE_SIZE;
+        double tn = maxIterations;
+        for (int i = 0; i < SAMPLE_SIZE; ++i) {
+            tn *= (double) (n - i) / (count - i);
+        }
+        int tnPrime = 1;
+        for (int t = 1; t <= needed; ++t) {
+            mIterations = t;
+            if (t == tnPrime && n < count) {
+                double tnNext = tn * (n + 1) / (n + 1 - SAMPLE_SIZE);
+                tnPrime += (int) Math.ceil(tnNext - tn);
+                tn = tnNext;
+                n++;
+            }
+            if (tnPrime <= t || n == count) {
+                draw(n, SAMPLE_SIZE);
+            }
+            else {
+                // The newest match, with 3 better ones.
+                draw(n - 1, SAMPLE_SIZE - 1);
+                mSample[SAMPLE_SIZE - 1] = n - 1;
+            }
+            if (!fitSample())
+                continue;
+            int inliers = score(count, thr2, best, mCandidates);
+            if (inliers > best) {
+                best = inliers;
+                System.arraycopy(mModel, 0, mBest, 0, 9);
+                System.arraycopy(mCandidates, 0, mInliers, 0, count);
+                double w = (double) best / count;
+                double p = 1.0 - w * w * w * w;
+                int k = p <= 0 ? 0 : (int) Math.ceil(logFail / Math.log(p));
+                needed = Math.min(maxIterations, Math.max(k, t));
+            }
+        }
+        if (best < SAMPLE_SIZE)
+            return 0;
+
+        // Local refinement: least squares on the inliers, while it does not lose any.
+        for (int r = 0; r < refineIterations; ++r) {
+            if (!fitInliers(count))
+                break;
+            int inliers = score(count, thr2, 0, mCandidates);
+            if (inliers < best)
+                break;
+            best = inliers;
+            System.arraycopy(mModel, 0, mBest, 0, 9);
+            System.arraycopy(mCandidates, 0, mInliers, 0, count);
+        }
+
+        // Back to pixels: H = Td^-1 Hn Ts.
+        double[] m = mBest;
+        double s = ts[2], cx = ts[0], cy = ts[1];
+        double is = 1.0 / td[2], dx = td[0], dy = td[1];
+        for (int row = 0; row < 3; ++row) {
+            double a = m[3 * row], b = m[3 * row + 1];
+            double c = m[3 * row + 2] - s * (a * cx + b * cy);
+            mModel[3 * row] = a * s;
+            mModel[3 * row + 1] = b * s;
+            mModel[3 * row + 2] = c;
+        }
+        for (int col = 0; col < 3; ++col) {
+            double w = mModel[6 + col];
+            h[col] = (float) (is * mModel[col] + dx * w);
+            h[3 + col] = (float) (is * mModel[3 + col] + dy * w);
+            h[6 + col] = (float) w;
+        }
+        if (Math.abs(h[8]) > EPSILON) {
+            float inv = 1f / h[8];
+            for (int i = 0; i < 9; ++i) {
+                h[i] *= inv;
+            }
+        }
+        mInlierCount = best;
+        return best;
+    }
+
+    /**
+     * Centers and scales points so that their mean distance to the origin is sqrt(2).
+     * @param t receives cx, cy and the scale.
+     */
+    private static void normalize(float[] pts, int count, float[] out, double[] t) {
+        double cx = 0, cy = 0;
+        for (int i = 0; i < count; ++i) {
+            cx += pts[2 * i];
+            cy += pts[2 * i + 1];
+        }
+        cx /= count;
+        cy /= count;
+        double dist = 0;
+        for (int i = 0; i < count; ++i) {
+            double dx = pts[2 * i] - cx, dy = pts[2 * i + 1] - cy;
+            dist += Math.sqrt(dx * dx + dy * dy);
+        }
+        double s = dist > 0 ? Math.sqrt(2.0) * count / dist : 1.0;
+        for (int i = 0; i < count; ++i) {
+            out[2 * i] = (float) ((pts[2 * i] - cx) * s);
+            out[2 * i + 1] = (float) ((pts[2 * i + 1] - cy) * s);
+        }
+        t[0] = cx;
+        t[1] = cy;
+        t[2] = s;
+    }
+
+    /**
+     * Draws k distinct indices below n into the sample.
+     */
+    private void draw(int n, int k) {
+        for (int i = 0; i < k; ++i) {
+            int v;
+            boolean again;
+            do {
+                v = nextInt(n);
+                again = false;
+                for (int j = 0; j < i; ++j) {
+                    if (mSample[j] == v) {
+                        again = true;
+                        break;
+                    }
+                }
+            } while (again);
+            mSample[i] = v;
+        }
+    }
+
+    private int nextInt(int n) {
+        // xorshift64*
+        long x = mRandom;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        mRandom = x;
+        return (int) (((x * 0x2545F4914F6CDD1DL) >>> 33) % n);
+    }
+
+    /**
+     * Computes the homography of the current sample into mModel.
+     * @return false if the sample is degenerate.
+     */
+    private boolean fitSample() {
+        int[] s = mSample;
+        if (collinear(mSrc, s) || collinear(mDst, s))
+            return false;
+        double[] a = mSystem;
+        for (int k = 0; k < SAMPLE_SIZE; ++k) {
+            int i = s[k];
+            double x = mSrc[2 * i], y = mSrc[2 * i + 1];
+            double u = mDst[2 * i], v = mDst[2 * i + 1];
+            int r0 = 2 * k * 9, r1 = r0 + 9;
+            a[r0] = x; a[r0 + 1] = y; a[r0 + 2] = 1; a[r0 + 3] = 0; a[r0 + 4] = 0; a[r0 + 5] = 0;
+            a[r0 + 6] = -u * x; a[r0 + 7] = -u * y; a[r0 + 8] = u;
+            a[r1] = 0; a[r1 + 1] = 0; a[r1 + 2] = 0; a[r1 + 3] = x; a[r1 + 4] = y; a[r1 + 5] = 1;
+            a[r1 + 6] = -v * x; a[r1 + 7] = -v * y; a[r1 + 8] = v;
+        }
+        return solve(a, mModel);
+    }
+
+    /**
+     * Computes the least squares homography of the current inliers into mModel,
+     * from the normal equations.
+     */
+    private boolean fitInliers(int count) {
+        double[] a = mSystem;
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = 0;
+        }
+        double[] row = mModel;
+        for (int i = 0; i < count; ++i) {
+            if (!mInliers[i])
+                continue;
+            double x = mSrc[2 * i], y = mSrc[2 * i + 1];
+            double u = mDst[2 * i], v = mDst[2 * i + 1];
+            for (int pass = 0; pass < 2; ++pass) {
+                double d = pass == 0 ? u : v;
+                for (int j = 0; j < 9; ++j) {
+                    row[j] = 0;
+                }
+                int o = 3 * pass;
+                row[o] = x;
+                row[o + 1] = y;
+                row[o + 2] = 1;
+                row[6] = -d * x;
+                row[7] = -d * y;
+                row[8] = d;
+                // Only the upper triangle of the 8 first columns, and the right hand side.
+                for (int p = 0; p < 8; ++p) {
+                    double rp = row[p];
+                    if (rp == 0)
+                        continue;
+                    for (int q = p; q < 9; ++q) {
+                        a[p * 9 + q] += rp * row[q];
+                    }
+                }
+            }
+        }
+        for (int p = 1; p < 8; ++p) {
+            for (int q = 0; q < p; ++q) {
+                a[p * 9 + q] = a[q * 9 + p];
+            }
+        }
+        return solve(a, mModel);
+    }
+
+    /**
+     * Counts the matches projected within the threshold, giving up once they cannot
+     * exceed {@code toBeat}.
+     */
+    private int score(int count, float thr2, int toBeat, boolean[] inliers) {
+        double[] m = mModel;
+        float h0 = (float) m[0], h1 = (float) m[1], h2 = (float) m[2];
+        float h3 = (float) m[3], h4 = (float) m[4], h5 = (float) m[5];
+        float h6 = (float) m[6], h7 = (float) m[7], h8 = (float) m[8];
+        int n = 0;
+        for (int i = 0; i < count; ++i) {
+            if (n + count - i <= toBeat)
+                return 0;
+            float x = mSrc[2 * i], y = mSrc[2 * i + 1];
+            float w = h6 * x + h7 * y + h8;
+            boolean in = false;
+            if (w > 0f) {
+                float iw = 1f / w;
+                float dx = (h0 * x + h1 * y + h2) * iw - mDst[2 * i];
+                float dy = (h3 * x + h4 * y + h5) * iw - mDst[2 * i + 1];
+                in = dx * dx + dy * dy <= thr2;
+            }
+            inliers[i] = in;
+            if (in)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return true if 3 of the 4 sample points are (nearly) collinear.
+     */
+    private static boolean collinear(float[] p, int[] s) {
+        for (int i = 0; i < SAMPLE_SIZE; ++i) {
+            int a = s[(i + 1) & 3], b = s[(i + 2) & 3], c = s[(i + 3) & 3];
+            float ux = p[2 * b] - p[2 * a], uy = p[2 * b + 1] - p[2 * a + 1];
+            float vx = p[2 * c] - p[2 * a], vy = p[2 * c + 1] - p[2 * a + 1];
+            if (Math.abs(ux * vy - uy * vx) < 1e-3f)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Solves the 8x9 augmented system in place by Gaussian elimination with partial pivoting.
+     * @param m receives the 8 coefficients, and 1.
+     * @return false if the system is singular.
+     */
+    private static boolean solve(double[] a, double[] m) {
+        for (int c = 0; c < 8; ++c) {
+            int pivot = c;
+            for (int r = c + 1; r < 8; ++r) {
+                if (Math.abs(a[r * 9 + c]) > Math.abs(a[pivot * 9 + c]))
+                    pivot = r;
+            }
+            if (Math.abs(a[pivot * 9 + c]) < EPSILON)
+                return false;
+            if (pivot != c) {
+                for (int k = c; k < 9; ++k) {
+                    double tmp = a[c * 9 + k];
+                    a[c * 9 + k] = a[pivot * 9 + k];
+                    a[pivot * 9 + k] = tmp;
+                }
+            }
+            double inv = 1.0 / a[c * 9 + c];
+            for (int r = c + 1; r < 8; ++r) {
+                double f = a[r * 9 + c] * inv;
+                if (f == 0)
+                    continue;
+                for (int k = c; k < 9; ++k) {
+                    a[r * 9 + k] -= f * a[c * 9 + k];
+                }
+            }
+        }
+        for (int r = 7; r >= 0; --r) {
+            double v = a[r * 9 + 8];
+            for (int k = r + 1; k < 8; ++k) {
+                v -= a[r * 9 + k] * m[k];
+            }
+            m[r] = v / a[r * 9 + r];
+        }
+        m[8] = 1;
+        return true;
+    }
+}
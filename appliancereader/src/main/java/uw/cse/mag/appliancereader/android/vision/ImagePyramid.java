@@ -0,0 +1,255 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Grayscale image pyramid, built once per frame and shared by all recognition stages.
+ * <p>
+ * Level 0 is a view over the base image (usually the luma of the camera frame) and
+ * each following level is the previous one shrunk by the pyramid scale factor. A factor
+ * of 2 uses a 2x2 box filter; any other factor uses bilinear interpolation with
+ * sampling tables precomputed in the constructor.
+ * <p>
+ * All buffers are allocated in the constructor, so {@link #build(GrayImage)} never allocates,
+ * and the memory used is bounded and reported by {@link #getMemoryBytes()}.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class ImagePyramid {
+
+    /** Levels smaller than this, in pixels, are not built. */
+    public static final int MIN_LEVEL_SIZE = 16;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final float mScale;
+    private final GrayImage[] mLevels;
+    private final float[] mLevelScales;
+
+    // Bilinear sampling tables of each level, null when the 2x2 box filter is used.
+    private final int[][] mXIndex;
+    private final int[][] mXWeight;
+    private final int[][] mYIndex;
+    private final int[][] mYWeight;
+
+    private final long mMemory;
+
+    // Views used to build regions of interest.
+    private final GrayImage mSrcView = new GrayImage();
+    private final GrayImage mDstView = new GrayImage();
+
+    /**
+     * Constructor.
+     * @param width  Width of the base images.
+     * @param height Height of the base images.
+     * @param levels Maximum number of levels, including the base. Levels smaller than
+     *               {@link #MIN_LEVEL_SIZE} are dropped.
+     * @param scale  Scale factor between two levels, greater than 1.
+     */
+    public ImagePyramid(int width, int height, int levels, float scale) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("ImagePyramid(), Illegal size: " + width + "x" + height);
+        if (levels < 1)
+            throw new IllegalArgumentException("ImagePyramid(), Illegal number of levels: " + levels);
+        if (!(scale > 1f))
+            throw new IllegalArgumentException("ImagePyramid(), Illegal scale factor: " + scale);
+        mWidth = width;
+        mHeight = height;
+        mScale = scale;
+        boolean box = scale == 2f;
+
+        int n = 1;
+        float w = width, h = height;
+        while (n < levels) {
+            w /= scale;
+            h /= scale;
+            if ((int) w < MIN_LEVEL_SIZE || (int) h < MIN_LEVEL_SIZE)
+                break;
+            n++;
+        }
+
+        mLevels = new GrayImage[n];
+        mLevelScales = new float[n];
+        mXIndex = new int[n][];
+        mXWeight = new int[n][];
+        mYIndex = new int[n][];
+        mYWeight = new int[n][];
+        mLevels[0] = new GrayImage();
+        mLevelScales[0] = 1f;
+
+        long memory = 0;
+        int pw = width, ph = height;
+        for (int i = 1; i < n; ++i) {
+            int lw = box ? pw / 2 : (int) (pw / scale);
+            int lh = box ? ph / 2 : (int) (ph / scale);
+            mLevels[i] = new GrayImage(lw, lh);
+            mLevelScales[i] = width / (float) lw;
+            memory += lw * lh;
+            if (!box) {
+                mXIndex[i] = new int[lw];
+                mXWeight[i] = new int[lw];
+                mYIndex[i] = new int[lh];
+                mYWeight[i] = new int[lh];
+                table(pw, lw, mXIndex[i], mXWeight[i]);
+                table(ph, lh, mYIndex[i], mYWeight[i]);
+                memory += 8L * (lw + lh);
+            }
+            pw = lw;
+            ph = lh;
+        }
+        mMemory = memory;
+    }
+
+    /**
+     * Builds all levels from a new base image.
+     * <p>
+     * Level 0 is a view over {@code base}, which must stay valid while the pyramid is in use.
+     * @param base Base image, of the size given to the constructor.
+     */
+    public void build(GrayImage base) {
+        if (!base.isSize(mWidth, mHeight))
+            throw new IllegalArgumentException("ImagePyramid.build(), base must be " + mWidth + "x" + mHeight);
+        mLevels[0].wrap(base.data, base.offset, base.stride, base.width, base.height);
+        for (int i = 1; i < mLevels.length; ++i) {
+            if (mXIndex[i] == null)
+                LumaPreprocessor.downscale2x(mLevels[i - 1], mLevels[i]);
+            else
+                resample(mLevels[i - 1], mLevels[i], mXIndex[i], mXWeight[i], mYIndex[i], mYWeight[i],
+                        0, 0, mLevels[i].width, mLevels[i].height);
+        }
+    }
+
+    /**
+     * Builds the levels from a new base image, only inside a set of regions of interest.
+     * <p>
+     * Pixels outside the regions keep stale values from previous frames, and a few pixels
+     * along the region borders of the smaller levels may be stale as well: regions should
+     * include a margin. If {@code rois} is null or empty, all levels are built in full.
+     * @param base Base image, of the size given to the constructor.
+     * @param rois Regions of interest, in base image coordinates.
+     */
+    public void build(GrayImage base, RoiSet rois) {
+        if (rois == null || rois.isEmpty()) {
+            build(base);
+            return;
+        }
+        if (!base.isSize(mWidth, mHeight))
+            throw new IllegalArgumentException("ImagePyramid.build(), base must be " + mWidth + "x" + mHeight);
+        mLevels[0].wrap(base.data, base.offset, base.stride, base.width, base.height);
+        for (int r = 0; r < rois.size(); ++r) {
+            // Region valid in the previous level, shrunk level after level.
+            int x0 = rois.getX0(r), y0 = rois.getY0(r);
+            int x1 = rois.getX1(r), y1 = rois.getY1(r);
+            for (int i = 1; i < mLevels.length; ++i) {
+                GrayImage src = mLevels[i - 1];
+                GrayImage dst = mLevels[i];
+                float rx = src.width / (float) dst.width;
+                float ry = src.height / (float) dst.height;
+                x0 = (int) Math.ceil(x0 / rx);
+                y0 = (int) Math.ceil(y0 / ry);
+                x1 = Math.min(dst.width, (int) ((x1 - 1) / rx));
+                y1 = Math.min(dst.height, (int) ((y1 - 1) / ry));
+                if (x1 <= x0 || y1 <= y0)
+                    break;
+                if (mXIndex[i] == null) {
+                    mSrcView.subImage(src, 2 * x0, 2 * y0, 2 * (x1 - x0), 2 * (y1 - y0));
+                    mDstView.subImage(dst, x0, y0, x1 - x0, y1 - y0);
+                    LumaPreprocessor.downscale2x(mSrcView, mDstView);
+                }
+                else {
+                    resample(src, dst, mXIndex[i], mXWeight[i], mYIndex[i], mYWeight[i], x0, y0, x1, y1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of levels, including the base.
+     */
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * @param level Level index, 0 being the base.
+     * @return the image of this level, as of the last {@link #build(GrayImage)}.
+     */
+    public GrayImage getLevel(int level) {
+        return mLevels[level];
+    }
+
+    /**
+     * @param level Level index, 0 being the base.
+     * @return the size ratio between the base and this level, e.g. 4 for the second level
+     *         of a pyramid with a scale factor of 2.
+     */
+    public float getLevelScale(int level) {
+        return mLevelScales[level];
+    }
+
+    /**
+     * @return the scale factor between two levels.
+     */
+    public float getScale() {
+        return mScale;
+    }
+
+    /**
+     * Finds the smallest level that is at least {@code 1 / scale} the size of the base.
+     * @param scale The largest acceptable size ratio between the base and the level.
+     * @return the index of the level.
+     */
+    public int findLevel(float scale) {
+        int best = 0;
+        for (int i = 1; i < mLevels.length; ++i) {
+            if (mLevelScales[i] <= scale * 1.001f)
+                best = i;
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of bytes allocated by this pyramid, excluding the base image it views.
+     */
+    public long getMemoryBytes() {
+        return mMemory;
+    }
+
+    /**
+     * Computes the source index and the 8-bit weight of the next source sample for
+     * each destination coordinate, sampling pixel centers.
+     */
+    private static void table(int srcSize, int dstSize, int[] index, int[] weight) {
+        float ratio = srcSize / (float) dstSize;
+        for (int i = 0; i < dstSize; ++i) {
+            float s = (i + 0.5f) * ratio - 0.5f;
+            if (s < 0) s = 0;
+            int i0 = (int) s;
+            if (i0 >= srcSize - 1) {
+                index[i] = srcSize - 2;
+                weight[i] = 256;
+            }
+            else {
+                index[i] = i0;
+                weight[i] = (int) ((s - i0) * 256 + 0.5f);
+            }
+        }
+    }
+
+    private static void resample(GrayImage src, GrayImage dst, int[] xi, int[] xw, int[] yi, int[] yw,
+                                 int x0, int y0, int x1, int y1) {
+        byte[] s = src.data;
+        byte[] d = dst.data;
+        for (int y = y0; y < y1; ++y) {
+            int r0 = src.offset + yi[y] * src.stride;
+            int r1 = r0 + src.stride;
+            int wy = yw[y];
+            int o = dst.offset + y * dst.stride;
+            for (int x = x0; x < x1; ++x) {
+                int c = xi[x];
+                int wx = xw[x];
+                int top = ((s[r0 + c] & 0xFF) << 8) + ((s[r0 + c + 1] & 0xFF) - (s[r0 + c] & 0xFF)) * wx;
+                int bot = ((s[r1 + c] & 0xFF) << 8) + ((s[r1 + c + 1] & 0xFF) - (s[r1 + c] & 0xFF)) * wx;
+                d[o + x] = (byte) (((top << 8) + (bot - top) * wy + (1 << 15)) >> 16);
+            }
+        }
+    }
+}
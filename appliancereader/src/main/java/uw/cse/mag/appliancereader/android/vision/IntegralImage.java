@@ -0,0 +1,88 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Summed-area table of a {@link GrayImage}, giving the sum of any rectangle in 4 lookups.
+ * <p>
+ * The table is allocated once for the largest image it will hold, and recomputed in
+ * place for every new image.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class IntegralImage {
+
+    private final int[] mSums;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param maxWidth  The largest width of the images to sum.
+     * @param maxHeight The largest height of the images to sum.
+     */
+    public IntegralImage(int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0)
+            throw new IllegalArgumentException("IntegralImage(), Illegal size: " + maxWidth + "x" + maxHeight);
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        // One more row and column of zeros, at the top and on the left.
+        mSums = new int[(maxWidth + 1) * (maxHeight + 1)];
+    }
+
+    /**
+     * Computes the table of an image.
+     * @param img An image of at most the size given to the constructor.
+     */
+    public void compute(GrayImage img) {
+        int w = img.width, h = img.height;
+        if (w > mMaxWidth || h > mMaxHeight)
+            throw new IllegalArgumentException("IntegralImage.compute(), image too large: " + w + "x" + h);
+        mWidth = w;
+        mHeight = h;
+        int[] s = mSums;
+        int stride = w + 1;
+        for (int x = 0; x <= w; ++x) {
+            s[x] = 0;
+        }
+        byte[] d = img.data;
+        for (int y = 0; y < h; ++y) {
+            int src = img.offset + y * img.stride;
+            int row = (y + 1) * stride;
+            int rowSum = 0;
+            s[row] = 0;
+            for (int x = 0; x < w; ++x) {
+                rowSum += d[src + x] & 0xFF;
+                s[row + x + 1] = s[row - stride + x + 1] + rowSum;
+            }
+        }
+    }
+
+    /**
+     * @param x0 Left column, inclusive.
+     * @param y0 Top row, inclusive.
+     * @param x1 Right column, exclusive.
+     * @param y1 Bottom row, exclusive.
+     * @return the sum of the pixels of the rectangle, which must be inside the image.
+     */
+    public int sum(int x0, int y0, int x1, int y1) {
+        int stride = mWidth + 1;
+        int[] s = mSums;
+        return s[y1 * stride + x1] - s[y0 * stride + x1] - s[y1 * stride + x0] + s[y0 * stride + x0];
+    }
+
+    public int getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    public int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+}
@@ -0,0 +1,101 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Fixed-capacity set of keypoints with packed binary descriptors.
+ * <p>
+ * Keypoint {@code i} is at ({@code x[i]}, {@code y[i]}) and its descriptor is stored in
+ * {@code descriptors[i * words]} to {@code descriptors[i * words + words - 1]}, bit {@code b}
+ * being bit {@code b & 63} of word {@code b >> 6}. Nothing is allocated once constructed,
+ * so a set can be refilled for every frame.
+ * <p>
+ * Fields are public so that inner loops can index the arrays directly.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public final class Keypoints {
+
+    /** Maximum number of keypoints. */
+    public final int capacity;
+    /** Number of 64-bit words per descriptor. */
+    public final int words;
+
+    /** Horizontal positions, in base image pixels. */
+    public final float[] x;
+    /** Vertical positions, in base image pixels. */
+    public final float[] y;
+    /** Detector responses, higher is stronger. */
+    public final float[] response;
+    /** Pyramid level each keypoint was detected at. */
+    public final int[] level;
+    /** Packed descriptors, {@link #words} per keypoint. */
+    public final long[] descriptors;
+    /** Number of keypoints in the set. */
+    public int count;
+
+    /**
+     * Constructor.
+     * @param capacity       Maximum number of keypoints.
+     * @param descriptorBits Descriptor length in bits, a multiple of 64.
+     */
+    public Keypoints(int capacity, int descriptorBits) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Keypoints(), Illegal capacity: " + capacity);
+        if (descriptorBits < 64 || (descriptorBits & 63) != 0)
+            throw new IllegalArgumentException("Keypoints(), Illegal descriptor length: " + descriptorBits);
+        this.capacity = capacity;
+        this.words = descriptorBits >> 6;
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.response = new float[capacity];
+        this.level = new int[capacity];
+        this.descriptors = new long[capacity * words];
+    }
+
+    /**
+     * @return the descriptor length in bits.
+     */
+    public int getDescriptorBits() {
+        return words << 6;
+    }
+
+    /**
+     * @return the number of bytes allocated by this set, whatever its count.
+     */
+    public long getMemoryBytes() {
+        // x, y, response and level are 4 bytes per keypoint.
+        return 16L * capacity + 8L * descriptors.length;
+    }
+
+    /**
+     * Removes all keypoints.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Appends a keypoint. Its descriptor must then be written at {@code i * words}.
+     * @return the index {@code i} of the new keypoint, or -1 if the set is full.
+     */
+    public int add(float px, float py, float r, int lvl) {
+        if (count == capacity)
+            return -1;
+        int i = count++;
+        x[i] = px;
+        y[i] = py;
+        response[i] = r;
+        level[i] = lvl;
+        return i;
+    }
+
+    /**
+     * Hamming distance between two packed descriptors.
+     */
+    public static int distance(long[] a, int aOff, long[] b, int bOff, int words) {
+        int d = 0;
+        for (int w = 0; w < words; ++w) {
+            d += Long.bitCount(a[aOff + w] ^ b[bOff + w]);
+        }
+        return d;
+    }
+}
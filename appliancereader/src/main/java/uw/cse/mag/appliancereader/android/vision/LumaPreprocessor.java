@@ -0,0 +1,100 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * First stage of the frame pipeline: extracts the luma of NV21 camera frames, and
+ * downsamples grayscale images by 2.
+ * <p>
+ * NV21 frames start with the full resolution Y plane, so the full resolution image is a
+ * view over the camera buffer and costs nothing. The 2x and 4x downsampled images are the
+ * levels of the frame {@link ImagePyramid}, which {@link #downscale2x} writes with a 2x2
+ * box filter into buffers the pyramid allocates once: processing a frame never allocates.
+ * <p>
+ * Unlike {@code boofcv.android.ConvertNV21}, this class does not depend on the Android
+ * or BoofCV image classes and can run on a plain JVM.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class LumaPreprocessor {
+
+    private final int mWidth;
+    private final int mHeight;
+
+    private final GrayImage mFull = new GrayImage();
+
+    /**
+     * Constructor.
+     * @param width  Width of the camera frames.
+     * @param height Height of the camera frames.
+     */
+    public LumaPreprocessor(int width, int height) {
+        if (width < 4 || height < 4)
+            throw new IllegalArgumentException("LumaPreprocessor(), Illegal frame size: " + width + "x" + height);
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @return the width of the camera frames.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return the height of the camera frames.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the size in bytes of an NV21 frame of the given size.
+     */
+    public static int nv21Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Processes a new frame.
+     * <p>
+     * The full resolution image returned by {@link #getFull()} is a view over {@code nv21}:
+     * the buffer must not be recycled while it is in use.
+     * @param nv21 The NV21 camera frame.
+     */
+    public void process(byte[] nv21) {
+        if (nv21.length < mWidth * mHeight)
+            throw new IllegalArgumentException("LumaPreprocessor.process(), frame too small: " + nv21.length);
+        mFull.wrap(nv21, 0, mWidth, mWidth, mHeight);
+    }
+
+    /**
+     * @return the full resolution luma of the last frame, a view over the camera buffer.
+     */
+    public GrayImage getFull() {
+        return mFull;
+    }
+
+    /**
+     * Downsamples an image by 2 with a 2x2 box filter. The destination must be
+     * {@code (src.width / 2) x (src.height / 2)}; an odd last row or column is ignored.
+     * @param src Source image.
+     * @param dst Destination image.
+     */
+    public static void downscale2x(GrayImage src, GrayImage dst) {
+        int w = src.width / 2;
+        int h = src.height / 2;
+        if (dst.width != w || dst.height != h)
+            throw new IllegalArgumentException("downscale2x(), destination must be " + w + "x" + h);
+        byte[] s = src.data;
+        byte[] d = dst.data;
+        for (int y = 0; y < h; ++y) {
+            int i0 = src.offset + 2 * y * src.stride;
+            int i1 = i0 + src.stride;
+            int o = dst.offset + y * dst.stride;
+            for (int x = 0; x < w; ++x, i0 += 2, i1 += 2) {
+                int sum = (s[i0] & 0xFF) + (s[i0 + 1] & 0xFF) + (s[i1] & 0xFF) + (s[i1 + 1] & 0xFF);
+                d[o + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package org.uw.cse.mag.ar.vision;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pure-Java ORB-style feature extractor: FAST corners, oriented by intensity centroid,
+ * described by a steered BRIEF binary test pattern.
+ * <p>
+ * Corners are detected on the first {@link #maxLevels} levels of the frame pyramid, then the
+ * strongest ones are kept, at most {@link #maxPerCell} per cell of a
+ * {@link #gridColumns} x {@link #gridRows} grid so that they spread over the whole frame.
+ * Each descriptor bit compares the 5x5 box means of two points of a fixed random pattern,
+ * rotated by the keypoint orientation (in 12 degree steps) and read from an integral image.
+ * <p>
+ * All buffers are allocated up front or grow with the largest frame seen; an extractor
+ * is not thread-safe.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class OrbExtractor implements FeatureExtractor {
+
+    /** Default number of keypoints per frame. */
+    public static final int DEFAULT_MAX_KEYPOINTS = 500;
+    /** Default descriptor length in bits. */
+    public static final int DEFAULT_DESCRIPTOR_BITS = 256;
+
+    // Pattern points lie within PATTERN_RADIUS, sampled with a box of half size BOX:
+    // keypoints must lie BORDER pixels away from the level edges.
+    private static final int PATTERN_RADIUS = 13;
+    private static final int BOX = 2;
+    private static final int CENTROID_RADIUS = 15;
+    private static final int BORDER = CENTROID_RADIUS + 1;
+    private static final int ANGLE_BINS = 30;
+    private static final long PATTERN_SEED = 0x0B1EFL;
+
+    /**
+     * The FAST intensity threshold.
+     *
+     * By default, this value is set to {@link FastDetector#DEFAULT_THRESHOLD}.
+     */
+    public int fastThreshold = FastDetector.DEFAULT_THRESHOLD;
+
+    /**
+     * The number of pyramid levels searched for corners.
+     *
+     * By default, this value is set to 2.
+     */
+    public int maxLevels = 2;
+
+    /**
+     * The number of grid columns used to spread the keypoints.
+     */
+    public int gridColumns = 8;
+
+    /**
+     * The number of grid rows used to spread the keypoints.
+     */
+    public int gridRows = 6;
+
+    /**
+     * The largest number of keypoints kept per grid cell, or 0 for no limit.
+     *
+     * By default, this value is set to 16.
+     */
+    public int maxPerCell = 16;
+
+    private final int mBits;
+    private final int mWords;
+    private final FastDetector mFast;
+
+    // Corners of all levels, before selection.
+    private final int[] mCandX;
+    private final int[] mCandY;
+    private final int[] mCandScore;
+    private final int[] mCandLevel;
+    private final long[] mOrder;
+    private int[] mCellCounts = new int[0];
+
+    // Integral image of each level: (width + 1) x (height + 1), first row and column zero.
+    private int[][] mIntegrals = new int[0][];
+
+    // Test pattern, for each angle bin: x1, y1, x2, y2 of each bit.
+    private final int[][] mPattern;
+    // Half-widths of the centroid disc, per row.
+    private final int[] mUMax = new int[CENTROID_RADIUS + 1];
+
+    /**
+     * Creates an extractor of {@link #DEFAULT_MAX_KEYPOINTS} 256-bit descriptors.
+     */
+    public OrbExtractor() {
+        this(DEFAULT_MAX_KEYPOINTS, DEFAULT_DESCRIPTOR_BITS);
+    }
+
+    /**
+     * Constructor.
+     * @param maxKeypoints   The expected number of keypoints per frame, sizing the corner buffers.
+     * @param descriptorBits The descriptor length in bits, a multiple of 64.
+     */
+    public OrbExtractor(int maxKeypoints, int descriptorBits) {
+        if (descriptorBits < 64 || (descriptorBits & 63) != 0)
+            throw new IllegalArgumentException("OrbExtractor(), Illegal descriptor length: " + descriptorBits);
+        if (maxKeypoints < 1)
+            throw new IllegalArgumentException("OrbExtractor(), Illegal keypoint count: " + maxKeypoints);
+        mBits = descriptorBits;
+        mWords = descriptorBits >> 6;
+        // Room for plenty of corners before the strongest ones are kept.
+        int cands = Math.max(4096, maxKeypoints * 8);
+        mFast = new FastDetector(cands);
+        mCandX = new int[cands];
+        mCandY = new int[cands];
+        mCandScore = new int[cands];
+        mCandLevel = new int[cands];
+        mOrder = new long[cands];
+        mPattern = buildPattern(descriptorBits);
+        for (int v = 0; v <= CENTROID_RADIUS; ++v) {
+            mUMax[v] = (int) Math.round(Math.sqrt(CENTROID_RADIUS * CENTROID_RADIUS - v * v));
+        }
+    }
+
+    @Override
+    public int getDescriptorBits() {
+        return mBits;
+    }
+
+    @Override
+    public int extract(ImagePyramid pyr, Keypoints out) {
+        if (out.words != mWords)
+            throw new IllegalArgumentException("OrbExtractor.extract(), expected " + mBits
+                    + "-bit descriptors, not " + out.getDescriptorBits());
+        out.clear();
+        int levels = Math.min(Math.max(1, maxLevels), pyr.getLevelCount());
+        if (mIntegrals.length < levels)
+            mIntegrals = Arrays.copyOf(mIntegrals, levels);
+        mFast.threshold = fastThreshold;
+
+        // 1. Corners of every level.
+        int n = 0;
+        for (int l = 0; l < levels; ++l) {
+            GrayImage img = pyr.getLevel(l);
+            int found = mFast.detect(img, BORDER, mCandX, mCandY, mCandScore, n, mCandX.length - n);
+            for (int i = n; i < n + found; ++i) {
+                mCandLevel[i] = l;
+                mOrder[i] = ((long) mCandScore[i] << 32) | i;
+            }
+            n += found;
+        }
+        if (n == 0)
+            return 0;
+
+        // 2. Strongest first, spread over the grid.
+        Arrays.sort(mOrder, 0, n);
+        GrayImage base = pyr.getLevel(0);
+        int cols = Math.max(1, gridColumns);
+        int rows = Math.max(1, gridRows);
+        if (mCellCounts.length < cols * rows)
+            mCellCounts = new int[cols * rows];
+        Arrays.fill(mCellCounts, 0, cols * rows, 0);
+        for (int k = n - 1; k >= 0 && out.count < out.capacity; --k) {
+            int i = (int) mOrder[k];
+            int l = mCandLevel[i];
+            float scale = pyr.getLevelScale(l);
+            float bx = (mCandX[i] + 0.5f) * scale - 0.5f;
+            float by = (mCandY[i] + 0.5f) * scale - 0.5f;
+            if (maxPerCell > 0) {
+                int cx = Math.max(0, Math.min(cols - 1, (int) (bx * cols / base.width)));
+                int cy = Math.max(0, Math.min(rows - 1, (int) (by * rows / base.height)));
+                if (mCellCounts[cy * cols + cx] >= maxPerCell)
+                    continue;
+                mCellCounts[cy * cols + cx]++;
+            }
+            out.add(bx, by, mCandScore[i], l);
+        }
+
+        // 3. Orientation and descriptor of the kept keypoints.
+        int builtLevels = 0;
+        for (int i = 0; i < out.count; ++i) {
+            builtLevels |= 1 << out.level[i];
+        }
+        for (int l = 0; l < levels; ++l) {
+            if ((builtLevels & (1 << l)) != 0)
+                integrate(pyr.getLevel(l), l);
+        }
+        for (int i = 0; i < out.count; ++i) {
+            int l = out.level[i];
+            float scale = pyr.getLevelScale(l);
+            GrayImage img = pyr.getLevel(l);
+            int x = Math.round((out.x[i] + 0.5f) / scale - 0.5f);
+            int y = Math.round((out.y[i] + 0.5f) / scale - 0.5f);
+            int bin = angleBin(img, x, y);
+            describe(mIntegrals[l], img.width + 1, x, y, mPattern[bin], out.descriptors, i * mWords);
+        }
+        return out.count;
+    }
+
+    /**
+     * Orientation of the intensity centroid of the disc around (x, y), quantized to a bin.
+     */
+    private int angleBin(GrayImage img, int x, int y) {
+        byte[] d = img.data;
+        int stride = img.stride;
+        int center = img.offset + y * stride + x;
+        int m01 = 0, m10 = 0;
+        for (int u = -CENTROID_RADIUS; u <= CENTROID_RADIUS; ++u) {
+            m10 += u * (d[center + u] & 0xFF);
+        }
+        for (int v = 1; v <= CENTROID_RADIUS; ++v) {
+            int sumV = 0;
+            int umax = mUMax[v];
+            for (int u = -umax; u <= umax; ++u) {
+                int below = d[center + v * stride + u] & 0xFF;
+                int above = d[center - v * stride + u] & 0xFF;
+                sumV += below - above;
+                m10 += u * (below + above);
+            }
+            m01 += v * sumV;
+        }
+        double angle = Math.atan2(m01, m10);
+        int bin = (int) Math.round(angle * ANGLE_BINS / (2 * Math.PI));
+        return ((bin % ANGLE_BINS) + ANGLE_BINS) % ANGLE_BINS;
+    }
+
+    /**
+     * Computes one descriptor from the integral image of the keypoint level.
+     */
+    private void describe(int[] integral, int istride, int x, int y, int[] pattern, long[] out, int off) {
+        int base = y * istride + x;
+        int lo = -BOX * istride - BOX;
+        int hi = (BOX + 1) * istride + BOX + 1;
+        int dxy = (2 * BOX + 1) * istride;
+        int bit = 0;
+        for (int w = 0; w < mWords; ++w) {
+            long v = 0;
+            for (int b = 0; b < 64; ++b, ++bit) {
+                int p1 = base + pattern[4 * bit + 1] * istride + pattern[4 * bit];
+                int p2 = base + pattern[4 * bit + 3] * istride + pattern[4 * bit + 2];
+                // Box sums: integral[y1][x1] - integral[y0][x1] - integral[y1][x0] + integral[y0][x0].
+                int s1 = integral[p1 + hi] - integral[p1 + hi - dxy] - integral[p1 + lo + dxy] + integral[p1 + lo];
+                int s2 = integral[p2 + hi] - integral[p2 + hi - dxy] - integral[p2 + lo + dxy] + integral[p2 + lo];
+                if (s1 < s2)
+                    v |= 1L << b;
+            }
+            out[off + w] = v;
+        }
+    }
+
+    /**
+     * Computes the integral image of a pyramid level.
+     */
+    private void integrate(GrayImage img, int level) {
+        int w = img.width, h = img.height;
+        int iw = w + 1;
+        int[] integral = mIntegrals[level];
+        if (integral == null || integral.length < iw * (h + 1)) {
+            integral = new int[iw * (h + 1)];
+            mIntegrals[level] = integral;
+        }
+        byte[] d = img.data;
+        for (int x = 0; x <= w; ++x) {
+            integral[x] = 0;
+        }
+        for (int y = 0; y < h; ++y) {
+            int row = 0;
+            int src = img.offset + y * img.stride;
+            int prev = y * iw;
+            int cur = prev + iw;
+            integral[cur] = 0;
+            for (int x = 0; x < w; ++x) {
+                row += d[src + x] & 0xFF;
+                integral[cur + x + 1] = integral[prev + x + 1] + row;
+            }
+        }
+    }
+
+    /**
+     * Random test pairs, Gaussian around the keypoint, rotated to each angle bin.
+     */
+    private static int[][] buildPattern(int bits) {
+        Random rnd = new Random(PATTERN_SEED);
+        double sigma = (2 * PATTERN_RADIUS + 1) / 5.0;
+        double[] pts = new double[4 * bits];
+        for (int i = 0; i < 2 * bits; ++i) {
+            double px, py;
+            do {
+                px = rnd.nextGaussian() * sigma;
+                py = rnd.nextGaussian() * sigma;
+            } while (px * px + py * py > PATTERN_RADIUS * PATTERN_RADIUS);
+            pts[2 * i] = px;
+            pts[2 * i + 1] = py;
+        }
+        int[][] pattern = new int[ANGLE_BINS][4 * bits];
+        for (int a = 0; a < ANGLE_BINS; ++a) {
+            double angle = 2 * Math.PI * a / ANGLE_BINS;
+            double cos = Math.cos(angle), sin = Math.sin(angle);
+            for (int i = 0; i < 2 * bits; ++i) {
+                double px = pts[2 * i], py = pts[2 * i + 1];
+                pattern[a][2 * i] = (int) Math.round(px * cos - py * sin);
+                pattern[a][2 * i + 1] = (int) Math.round(px * sin + py * cos);
+            }
+        }
+        return pattern;
+    }
+}
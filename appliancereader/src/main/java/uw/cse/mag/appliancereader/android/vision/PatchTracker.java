@@ -0,0 +1,360 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Cheap frame-to-frame tracker for a recognized appliance panel.
+ * <p>
+ * When tracking {@link #start(GrayImage, float[]) starts}, up to {@code maxPoints} textured
+ * points are picked on a grid inside the panel and a small patch is stored around each one.
+ * On each new frame, every patch is searched in a small window around its last position by
+ * sum of absolute differences (SAD). The panel motion is the median displacement of the
+ * patches that were found; patches disagreeing with it are outliers.
+ * <p>
+ * This costs a few hundred thousand pixel operations per frame instead of a full search,
+ * and never allocates once constructed.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class PatchTracker {
+
+    /** Default side of the square patches, in pixels. */
+    public static final int DEFAULT_PATCH_SIZE = 9;
+    /** Default search radius around the last position, in pixels. */
+    public static final int DEFAULT_SEARCH_RADIUS = 8;
+    /** Default maximum number of tracked points. */
+    public static final int DEFAULT_MAX_POINTS = 16;
+
+    private final int mPatchSize;
+    private final int mHalf;
+    private final int mRadius;
+    private final int mMaxPoints;
+
+    // Reference patches, one row of mPatchSize^2 bytes per point.
+    private final byte[] mPatches;
+    // Current point positions and per-frame displacements.
+    private final float[] mX;
+    private final float[] mY;
+    private final int[] mDx;
+    private final int[] mDy;
+    private final boolean[] mFound;
+    private final int[] mScratch;
+    private int mCount;
+
+    private int mMinPoints;
+    private int mMaxMeanSad = 24;
+    private boolean mTracking;
+    private int mLastInliers;
+    private float mTotalDx;
+    private float mTotalDy;
+
+    /**
+     * Creates a tracker with the default parameters.
+     */
+    public PatchTracker() {
+        this(DEFAULT_PATCH_SIZE, DEFAULT_SEARCH_RADIUS, DEFAULT_MAX_POINTS);
+    }
+
+    /**
+     * Constructor.
+     * @param patchSize    Side of the square patches, odd.
+     * @param searchRadius Search radius around the last position, in pixels.
+     * @param maxPoints    Maximum number of tracked points.
+     */
+    public PatchTracker(int patchSize, int searchRadius, int maxPoints) {
+        if (patchSize < 3 || (patchSize & 1) == 0)
+            throw new IllegalArgumentException("PatchTracker(), Illegal patch size: " + patchSize);
+        if (searchRadius < 1)
+            throw new IllegalArgumentException("PatchTracker(), Illegal search radius: " + searchRadius);
+        if (maxPoints < 1)
+            throw new IllegalArgumentException("PatchTracker(), Illegal number of points: " + maxPoints);
+        mPatchSize = patchSize;
+        mHalf = patchSize / 2;
+        mRadius = searchRadius;
+        mMaxPoints = maxPoints;
+        mPatches = new byte[maxPoints * patchSize * patchSize];
+        mX = new float[maxPoints];
+        mY = new float[maxPoints];
+        mDx = new int[maxPoints];
+        mDy = new int[maxPoints];
+        mFound = new boolean[maxPoints];
+        mScratch = new int[maxPoints];
+        mMinPoints = Math.max(3, maxPoints / 4);
+    }
+
+    /**
+     * Sets the minimum number of points that must agree on the motion for a frame to be tracked.
+     * @param minPoints the minimum number of inliers.
+     */
+    public void setMinPoints(int minPoints) {
+        mMinPoints = Math.max(1, minPoints);
+    }
+
+    /**
+     * Sets the highest mean absolute difference per pixel for a patch to be considered found.
+     * @param maxMeanSad the threshold, between 0 and 255.
+     */
+    public void setMaxMeanDifference(int maxMeanSad) {
+        mMaxMeanSad = maxMeanSad;
+    }
+
+    /**
+     * Starts tracking a region of an image.
+     * @param img    The image in which the region was detected.
+     * @param region Polygon around the region, as (x, y) pairs in {@code img} coordinates.
+     * @return true if enough textured points were found to track the region.
+     */
+    public boolean start(GrayImage img, float[] region) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i + 1 < region.length; i += 2) {
+            minX = Math.min(minX, region[i]);
+            maxX = Math.max(maxX, region[i]);
+            minY = Math.min(minY, region[i + 1]);
+            maxY = Math.max(maxY, region[i + 1]);
+        }
+        int margin = mHalf + mRadius;
+        int x0 = Math.max(margin, (int) minX);
+        int y0 = Math.max(margin, (int) minY);
+        int x1 = Math.min(img.width - 1 - margin, (int) maxX);
+        int y1 = Math.min(img.height - 1 - margin, (int) maxY);
+
+        mCount = 0;
+        mTracking = false;
+        mTotalDx = 0;
+        mTotalDy = 0;
+        if (x1 <= x0 || y1 <= y0)
+            return false;
+
+        // One candidate per grid cell: the most textured pixel among a few samples.
+        int cells = (int) Math.ceil(Math.sqrt(mMaxPoints));
+        float cw = (x1 - x0) / (float) cells;
+        float ch = (y1 - y0) / (float) cells;
+        for (int cy = 0; cy < cells && mCount < mMaxPoints; ++cy) {
+            for (int cx = 0; cx < cells && mCount < mMaxPoints; ++cx) {
+                int bestX = -1, bestY = -1, bestScore = -1;
+                for (int sy = 1; sy <= 3; ++sy) {
+                    for (int sx = 1; sx <= 3; ++sx) {
+                        int x = x0 + (int) (cw * (cx + sx * 0.25f));
+                        int y = y0 + (int) (ch * (cy + sy * 0.25f));
+                        int score = texture(img, x, y);
+                        if (score > bestScore) {
+                            bestScore = score;
+                            bestX = x;
+                            bestY = y;
+                        }
+                    }
+                }
+                // Flat patches cannot be localized.
+                if (bestScore >= mPatchSize * mPatchSize * 4) {
+                    copyPatch(img, bestX, bestY, mCount);
+                    mX[mCount] = bestX;
+                    mY[mCount] = bestY;
+                    mCount++;
+                }
+            }
+        }
+        mTracking = mCount >= mMinPoints;
+        return mTracking;
+    }
+
+    /**
+     * Stops tracking.
+     */
+    public void stop() {
+        mTracking = false;
+        mCount = 0;
+    }
+
+    /**
+     * @return true if a region is currently tracked.
+     */
+    public boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * Tracks the region in a new frame.
+     * <p>
+     * On success, the motion since the last frame is available from {@link #getDx()} and
+     * {@link #getDy()}. On failure, the last position is kept so tracking can resume.
+     * @param img The new frame, with the same scale as the one passed to {@link #start}.
+     * @return true if the region was found.
+     */
+    public boolean update(GrayImage img) {
+        if (!mTracking)
+            return false;
+        int maxSad = mMaxMeanSad * mPatchSize * mPatchSize;
+        int found = 0;
+        for (int i = 0; i < mCount; ++i) {
+            mFound[i] = search(img, i, maxSad);
+            if (mFound[i])
+                mScratch[found++] = mDx[i];
+        }
+        mLastInliers = 0;
+        if (found < mMinPoints)
+            return false;
+        int mdx = median(mScratch, found);
+        found = 0;
+        for (int i = 0; i < mCount; ++i) {
+            if (mFound[i])
+                mScratch[found++] = mDy[i];
+        }
+        int mdy = median(mScratch, found);
+
+        // Inliers move like the median, within one pixel.
+        for (int i = 0; i < mCount; ++i) {
+            if (mFound[i] && Math.abs(mDx[i] - mdx) <= 1 && Math.abs(mDy[i] - mdy) <= 1)
+                mLastInliers++;
+        }
+        if (mLastInliers < mMinPoints)
+            return false;
+
+        for (int i = 0; i < mCount; ++i) {
+            mX[i] += mdx;
+            mY[i] += mdy;
+        }
+        mTotalDx = mdx;
+        mTotalDy = mdy;
+        return true;
+    }
+
+    /**
+     * @return the horizontal motion found by the last successful {@link #update}.
+     */
+    public float getDx() {
+        return mTotalDx;
+    }
+
+    /**
+     * @return the vertical motion found by the last successful {@link #update}.
+     */
+    public float getDy() {
+        return mTotalDy;
+    }
+
+    /**
+     * @return the number of points agreeing with the motion found by the last {@link #update}.
+     */
+    public int getInlierCount() {
+        return mLastInliers;
+    }
+
+    /**
+     * @return the number of tracked points.
+     */
+    public int getPointCount() {
+        return mCount;
+    }
+
+    /**
+     * Applies the motion of the last successful {@link #update} to a set of points.
+     * @param pts   (x, y) pairs to move, in place.
+     * @param scale Scale of {@code pts} relative to the tracked images, e.g. 2 if the points
+     *              are in full resolution frame coordinates and tracking runs at half resolution.
+     */
+    public void apply(float[] pts, float scale) {
+        float dx = mTotalDx * scale;
+        float dy = mTotalDy * scale;
+        for (int i = 0; i + 1 < pts.length; i += 2) {
+            pts[i] += dx;
+            pts[i + 1] += dy;
+        }
+    }
+
+    /**
+     * Adds the search window of every tracked point to a set of regions of interest,
+     * so that the image levels the tracker reads are built.
+     * @param rois  The regions of interest, in base image coordinates.
+     * @param scale Scale of the base image relative to the tracked images.
+     * @return false if the set is full.
+     */
+    public boolean addSearchRegions(RoiSet rois, float scale) {
+        int r = mHalf + mRadius + 1;
+        for (int i = 0; i < mCount; ++i) {
+            if (!rois.add((int) ((mX[i] - r) * scale), (int) ((mY[i] - r) * scale),
+                    (int) Math.ceil((mX[i] + r + 1) * scale), (int) Math.ceil((mY[i] + r + 1) * scale)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Searches patch {@code i} around its last position.
+     * @return true if the best match is under {@code maxSad}.
+     */
+    private boolean search(GrayImage img, int i, int maxSad) {
+        int px = (int) mX[i];
+        int py = (int) mY[i];
+        int n = mPatchSize;
+        byte[] d = img.data;
+        int pOff = i * n * n;
+        int best = Integer.MAX_VALUE;
+        int bestDx = 0, bestDy = 0;
+        for (int dy = -mRadius; dy <= mRadius; ++dy) {
+            int top = py + dy - mHalf;
+            if (top < 0 || top + n > img.height) continue;
+            for (int dx = -mRadius; dx <= mRadius; ++dx) {
+                int left = px + dx - mHalf;
+                if (left < 0 || left + n > img.width) continue;
+                int sad = 0;
+                int p = pOff;
+                // Early exit as soon as the candidate is worse than the best one.
+                for (int r = 0; r < n && sad < best; ++r) {
+                    int o = img.offset + (top + r) * img.stride + left;
+                    for (int c = 0; c < n; ++c) {
+                        int diff = (d[o + c] & 0xFF) - (mPatches[p++] & 0xFF);
+                        sad += diff < 0 ? -diff : diff;
+                    }
+                }
+                if (sad < best) {
+                    best = sad;
+                    bestDx = dx;
+                    bestDy = dy;
+                }
+            }
+        }
+        mDx[i] = bestDx;
+        mDy[i] = bestDy;
+        return best <= maxSad;
+    }
+
+    private void copyPatch(GrayImage img, int x, int y, int i) {
+        int n = mPatchSize;
+        int p = i * n * n;
+        for (int r = 0; r < n; ++r) {
+            System.arraycopy(img.data, img.offset + (y - mHalf + r) * img.stride + x - mHalf, mPatches, p, n);
+            p += n;
+        }
+    }
+
+    /**
+     * Sum of absolute horizontal and vertical differences over the patch around (x, y).
+     */
+    private int texture(GrayImage img, int x, int y) {
+        int score = 0;
+        byte[] d = img.data;
+        for (int r = -mHalf; r < mHalf; ++r) {
+            int o = img.offset + (y + r) * img.stride + x;
+            for (int c = -mHalf; c < mHalf; ++c) {
+                int v = d[o + c] & 0xFF;
+                score += Math.abs(v - (d[o + c + 1] & 0xFF)) + Math.abs(v - (d[o + c + img.stride] & 0xFF));
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Median of the first {@code n} values, sorting them in place (insertion sort, n is small).
+     */
+    private static int median(int[] v, int n) {
+        for (int i = 1; i < n; ++i) {
+            int x = v[i];
+            int j = i - 1;
+            while (j >= 0 && v[j] > x) {
+                v[j + 1] = v[j];
+                j--;
+            }
+            v[j + 1] = x;
+        }
+        return v[n / 2];
+    }
+}
@@ -0,0 +1,178 @@
+package org.uw.cse.mag.ar.vision;
+
+/**
+ * Set of rectangular regions of interest in a camera frame.
+ * <p>
+ * Regions are usually the bounding boxes of the appliance features (displays, buttons...)
+ * projected into the frame with the current panel pose, grown by a margin. Stages that
+ * support them only process these regions instead of the whole frame.
+ * <p>
+ * Rectangles are stored as packed {@code [x0, y0, x1, y1]} integers, {@code x1} and
+ * {@code y1} being exclusive, in a buffer allocated once.
+ *
+ * @author - Michael Hotan, michael.hotan@gmail.com
+ */
+public class RoiSet {
+
+    private final int[] mRects;
+    private final float[] mScratch;
+    private int mCount;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Constructor.
+     * @param capacity    Maximum number of regions.
+     * @param maxVertices Maximum number of vertices of the polygons passed to {@link #addProjected}.
+     */
+    public RoiSet(int capacity, int maxVertices) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("RoiSet(), Illegal capacity: " + capacity);
+        mRects = new int[4 * capacity];
+        mScratch = new float[2 * Math.max(1, maxVertices)];
+    }
+
+    /**
+     * Removes all regions and sets the size of the frame regions are clipped to.
+     * @param width  Frame width.
+     * @param height Frame height.
+     */
+    public void reset(int width, int height) {
+        mCount = 0;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Adds a rectangle, clipped to the frame. Empty rectangles are ignored.
+     * @param x0 Left.
+     * @param y0 Top.
+     * @param x1 Exclusive right.
+     * @param y1 Exclusive bottom.
+     * @return false if the set is full.
+     */
+    public boolean add(int x0, int y0, int x1, int y1) {
+        if (x0 < 0) x0 = 0;
+        if (y0 < 0) y0 = 0;
+        if (x1 > mWidth) x1 = mWidth;
+        if (y1 > mHeight) y1 = mHeight;
+        if (x1 <= x0 || y1 <= y0)
+            return true;
+        if (4 * mCount == mRects.length)
+            return false;
+        int i = 4 * mCount++;
+        mRects[i] = x0;
+        mRects[i + 1] = y0;
+        mRects[i + 2] = x1;
+        mRects[i + 3] = y1;
+        return true;
+    }
+
+    /**
+     * Projects a polygon with a homography and adds its bounding box, grown by a margin.
+     * @param h       Homography from the polygon plane to the frame.
+     * @param polygon (x, y) pairs of the polygon vertices.
+     * @param margin  Margin added on each side, in frame pixels.
+     * @return false if the set is full or the polygon has too many vertices.
+     */
+    public boolean addProjected(float[] h, float[] polygon, int margin) {
+        int n = polygon.length / 2;
+        if (2 * n > mScratch.length)
+            return false;
+        Homography.project(h, polygon, 0, mScratch, 0, n);
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < n; ++i) {
+            float x = mScratch[2 * i];
+            float y = mScratch[2 * i + 1];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        return add((int) Math.floor(minX) - margin, (int) Math.floor(minY) - margin,
+                (int) Math.ceil(maxX) + margin + 1, (int) Math.ceil(maxY) + margin + 1);
+    }
+
+    /**
+     * Merges overlapping regions until none overlap, so that no pixel is processed twice.
+     */
+    public void mergeOverlapping() {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < mCount && !merged; ++i) {
+                for (int j = i + 1; j < mCount; ++j) {
+                    int a = 4 * i, b = 4 * j;
+                    if (mRects[a] < mRects[b + 2] && mRects[b] < mRects[a + 2]
+                            && mRects[a + 1] < mRects[b + 3] && mRects[b + 1] < mRects[a + 3]) {
+                        mRects[a] = Math.min(mRects[a], mRects[b]);
+                        mRects[a + 1] = Math.min(mRects[a + 1], mRects[b + 1]);
+                        mRects[a + 2] = Math.max(mRects[a + 2], mRects[b + 2]);
+                        mRects[a + 3] = Math.max(mRects[a + 3], mRects[b + 3]);
+                        // Move the last region into the freed slot.
+                        int last = 4 * --mCount;
+                        System.arraycopy(mRects, last, mRects, b, 4);
+                        merged = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of regions.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return true if there is no region.
+     */
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /** @return the left of region {@code i}. */
+    public int getX0(int i) {
+        return mRects[4 * i];
+    }
+
+    /** @return the top of region {@code i}. */
+    public int getY0(int i) {
+        return mRects[4 * i + 1];
+    }
+
+    /** @return the exclusive right of region {@code i}. */
+    public int getX1(int i) {
+        return mRects[4 * i + 2];
+    }
+
+    /** @return the exclusive bottom of region {@code i}. */
+    public int getY1(int i) {
+        return mRects[4 * i + 3];
+    }
+
+    /**
+     * @return the number of pixels covered by the regions, counting overlaps twice.
+     */
+    public long getArea() {
+        long area = 0;
+        for (int i = 0; i < mCount; ++i) {
+            int a = 4 * i;
+            area += (long) (mRects[a + 2] - mRects[a]) * (mRects[a + 3] - mRects[a + 1]);
+        }
+        return area;
+    }
+
+    /**
+     * @return the fraction of the frame covered by the regions.
+     */
+    public float getCoverage() {
+        if (mWidth == 0 || mHeight == 0)
+            return 0f;
+        return Math.min(1f, getArea() / (float) ((long) mWidth * mHeight));
+    }
+}
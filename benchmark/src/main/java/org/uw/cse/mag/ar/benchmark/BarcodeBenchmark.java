@@ -0,0 +1,72 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.barcode.BarcodeScanner;
+import org.uw.cse.mag.ar.util.Result;
+import org.uw.cse.mag.ar.vision.GrayImage;
+
+/**
+ * Per-frame cost of barcode decoding: frames without a barcode, which the prefilter should
+ * reject in a fraction of a millisecond, and frames with an EAN-13 sticker.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BarcodeBenchmark {
+
+    // Modules of 4006381333931: guards, then the L/G and R codes of the digits.
+    private static final String EAN13 = "101" + "0001101" + "0100111" + "0101111" + "0111101" + "0001001"
+            + "0110011" + "01010" + "1000010" + "1000010" + "1000010" + "1110100" + "1000010" + "1100110" + "101";
+
+    @Param({Frames.SIZES_MEDIUM, Frames.SIZES_LARGE})
+    public String size;
+
+    private GrayImage plain;
+    private GrayImage sticker;
+    private BarcodeScanner scanner;
+
+    @Setup
+    public void setup() {
+        int w = Frames.width(size), h = Frames.height(size);
+        plain = Frames.luma(w, h, 42);
+        sticker = Frames.luma(w, h, 42);
+        int module = w / 320;
+        int x0 = (w - (EAN13.length() + 20) * module) / 2;
+        for (int y = h / 3; y < 2 * h / 3; ++y) {
+            for (int x = 0; x < (EAN13.length() + 20) * module; ++x) {
+                int m = x / module - 10;
+                boolean dark = m >= 0 && m < EAN13.length() && EAN13.charAt(m) == '1';
+                sticker.set(x0 + x, y, dark ? 30 : 220);
+            }
+        }
+        scanner = new BarcodeScanner();
+    }
+
+    @Benchmark
+    public Result reject() {
+        return scanner.decode(plain, BarcodeScanner.SUPPORTED_TYPES);
+    }
+
+    @Benchmark
+    public Result decodeEan13() {
+        Result r = scanner.decode(sticker, BarcodeScanner.SUPPORTED_TYPES);
+        if (r == null)
+            throw new IllegalStateException("BarcodeBenchmark.decodeEan13(), barcode not found");
+        return r;
+    }
+}
@@ -0,0 +1,147 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.uw.cse.mag.ar.recognition.BagOfWords;
+import org.uw.cse.mag.ar.recognition.RecognitionIndex;
+import org.uw.cse.mag.ar.recognition.VocabularyIndex;
+import org.uw.cse.mag.ar.recognition.VocabularyTree;
+import org.uw.cse.mag.ar.scan.FrameScanner;
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.ImagePyramid;
+import org.uw.cse.mag.ar.vision.Keypoints;
+import org.uw.cse.mag.ar.vision.OrbExtractor;
+
+/**
+ * Appliance catalog read from a directory, to replay recordings against the references
+ * the app scans for.
+ * <p>
+ * The directory is laid out like the appliance directories of the app: one directory per
+ * appliance, named by its database ID, holding its reference image (the first PNG or JPEG
+ * file by name), and optionally its {@link BagOfWords#FILE_NAME word histogram} and a
+ * {@code model.txt} file with its model number. A {@link VocabularyTree#FILE_NAME
+ * vocabulary} next to the appliance directories enables the shortlist.
+ */
+final class Catalog {
+
+    /** Name of the optional model number file, in each appliance directory. */
+    static final String MODEL_FILE_NAME = "model.txt";
+
+    final OrbExtractor extractor = new OrbExtractor();
+    final RecognitionIndex index = new RecognitionIndex(OrbExtractor.DEFAULT_DESCRIPTOR_BITS);
+    /** Null if the catalog has no vocabulary. */
+    final VocabularyIndex vocabulary;
+    /** Appliance IDs by model key, see {@link FrameScanner#modelKey(String)}. */
+    final Map<String, Long> models;
+
+    /**
+     * Reads a catalog and extracts the keypoints of its reference images, with the pyramid
+     * settings of a default {@link FrameScanner}.
+     * @param dir The catalog directory.
+     * @throws IOException if an appliance directory could not be read.
+     */
+    Catalog(File dir) throws IOException {
+        File[] entries = dir.listFiles();
+        if (entries == null)
+            throw new IOException("Catalog(), not a directory: " + dir);
+        Arrays.sort(entries);
+        File treeFile = new File(dir, VocabularyTree.FILE_NAME);
+        VocabularyTree tree = treeFile.isFile() ? VocabularyTree.load(treeFile) : null;
+        vocabulary = tree == null ? null : new VocabularyIndex(tree);
+        FrameScanner defaults = new FrameScanner();
+        Map<String, Long> m = new HashMap<String, Long>();
+
+        for (File a : entries) {
+            if (!a.isDirectory())
+                continue;
+            long id;
+            try {
+                id = Long.parseLong(a.getName());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            File image = referenceImage(a);
+            if (image == null)
+                continue;
+            GrayImage gray = load(image);
+            ImagePyramid pyr = new ImagePyramid(gray.width, gray.height, defaults.pyramidLevels, defaults.pyramidScale);
+            pyr.build(gray);
+            Keypoints kp = new Keypoints(defaults.maxKeypoints, extractor.getDescriptorBits());
+            extractor.extract(pyr, kp);
+            index.addReference(id, kp);
+            if (vocabulary != null) {
+                File bow = BagOfWords.getFile(a.getPath());
+                vocabulary.addReference(id, bow.isFile() ? BagOfWords.load(bow) : BagOfWords.compute(tree, kp));
+            }
+            File model = new File(a, MODEL_FILE_NAME);
+            if (model.isFile())
+                m.put(FrameScanner.modelKey(readLine(model)), id);
+        }
+        index.build();
+        if (vocabulary != null)
+            vocabulary.build();
+        models = Collections.unmodifiableMap(m);
+    }
+
+    /**
+     * Configures a scanner to search this catalog, as the session does.
+     */
+    void install(FrameScanner scanner) {
+        scanner.setRecognitionIndex(index, extractor, vocabulary);
+        scanner.setApplianceModels(models);
+    }
+
+    private static File referenceImage(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return null;
+        Arrays.sort(files);
+        for (File f : files) {
+            String name = f.getName().toLowerCase();
+            if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg"))
+                return f;
+        }
+        return null;
+    }
+
+    /**
+     * Decodes an image to its luma, with the BT.601 weights of the camera frames.
+     */
+    private static GrayImage load(File file) throws IOException {
+        BufferedImage img = ImageIO.read(file);
+        if (img == null)
+            throw new IOException("Catalog, not an image: " + file);
+        GrayImage gray = new GrayImage(img.getWidth(), img.getHeight());
+        int[] row = new int[img.getWidth()];
+        for (int y = 0; y < img.getHeight(); ++y) {
+            img.getRGB(0, y, row.length, 1, row, 0, row.length);
+            for (int x = 0; x < row.length; ++x) {
+                int rgb = row[x];
+                int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                gray.data[y * gray.stride + x] = (byte) ((77 * r + 150 * g + 29 * b) >> 8);
+            }
+        }
+        return gray;
+    }
+
+    private static String readLine(File file) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = in.readLine();
+            return line == null ? "" : line;
+        } finally {
+            in.close();
+        }
+    }
+}
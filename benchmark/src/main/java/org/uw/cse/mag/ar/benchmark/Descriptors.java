@@ -0,0 +1,56 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.Random;
+
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * Synthetic binary descriptors for the recognition benchmarks.
+ * <p>
+ * Reference descriptors are uniformly random. Query descriptors are copies of reference
+ * descriptors with a few bits flipped, as between two views of the same keypoint.
+ */
+public final class Descriptors {
+
+    private Descriptors() {
+    }
+
+    /**
+     * @param count Number of keypoints.
+     * @param bits  Descriptor length.
+     * @param seed  Random seed.
+     * @return keypoints with random positions in a 640x480 image and random descriptors.
+     */
+    public static Keypoints random(int count, int bits, long seed) {
+        Random rnd = new Random(seed);
+        Keypoints kp = new Keypoints(count, bits);
+        for (int i = 0; i < count; ++i) {
+            kp.add(rnd.nextFloat() * 640, rnd.nextFloat() * 480, 1f, 0);
+        }
+        for (int i = 0; i < count * kp.words; ++i) {
+            kp.descriptors[i] = rnd.nextLong();
+        }
+        return kp;
+    }
+
+    /**
+     * @param src     Keypoints to copy.
+     * @param flipped Number of bits flipped in each descriptor.
+     * @param seed    Random seed.
+     * @return noisy copies of the keypoints.
+     */
+    public static Keypoints noisy(Keypoints src, int flipped, long seed) {
+        Random rnd = new Random(seed);
+        int bits = src.getDescriptorBits();
+        Keypoints kp = new Keypoints(src.capacity, bits);
+        for (int i = 0; i < src.count; ++i) {
+            kp.add(src.x[i], src.y[i], src.response[i], src.level[i]);
+            System.arraycopy(src.descriptors, i * src.words, kp.descriptors, i * kp.words, kp.words);
+            for (int f = 0; f < flipped; ++f) {
+                int b = rnd.nextInt(bits);
+                kp.descriptors[i * kp.words + (b >> 6)] ^= 1L << (b & 63);
+            }
+        }
+        return kp;
+    }
+}
@@ -0,0 +1,78 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.display.DisplayRegion;
+import org.uw.cse.mag.ar.display.SevenSegmentReader;
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.Homography;
+
+/**
+ * Per-frame cost of reading a 4 digit LCD, as done on every tracked frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DisplayBenchmark {
+
+    // Segments a to g of the digits 1, 2, 3 and 4.
+    private static final int[] DIGITS = {0x06, 0x5B, 0x4F, 0x66};
+
+    private GrayImage frame;
+    private float[] homography;
+    private DisplayRegion display;
+    private SevenSegmentReader reader;
+
+    @Setup
+    public void setup() {
+        frame = Frames.luma(640, 480, 42);
+        // The reference display: 4 digits 40 high, 22 wide, 8 apart, from (10, 10).
+        int height = 40, width = 22, thick = 5;
+        homography = Homography.identity(new float[9]);
+        Homography.scale(homography, 1.5f);
+        Homography.translate(homography, 200, 150);
+        for (int y = 0; y < 60 * 3 / 2; ++y) {
+            for (int x = 0; x < 130 * 3 / 2; ++x) {
+                float rx = x / 1.5f, ry = y / 1.5f;
+                int dx = (int) rx - 10, dy = (int) ry - 10;
+                int digit = dx / (width + 8), u = dx % (width + 8);
+                boolean lit = false;
+                if (dx >= 0 && dy >= 0 && dy < height && digit < DIGITS.length && u < width) {
+                    int s = DIGITS[digit];
+                    boolean top = dy < height / 2;
+                    lit = (s & 1) != 0 && dy < thick
+                            || (s & 64) != 0 && Math.abs(dy - height / 2) < thick / 2 + 1
+                            || (s & 8) != 0 && dy >= height - thick
+                            || (s & 2) != 0 && top && u >= width - thick
+                            || (s & 4) != 0 && !top && u >= width - thick
+                            || (s & 32) != 0 && top && u < thick
+                            || (s & 16) != 0 && !top && u < thick;
+                }
+                frame.set(200 + x, 150 + y, lit ? 40 : 190);
+            }
+        }
+        display = new DisplayRegion(new float[]{0, 0, 130, 0, 130, 60, 0, 60}, false, 0f);
+        reader = new SevenSegmentReader(8);
+    }
+
+    @Benchmark
+    public int read() {
+        int n = reader.read(frame, homography, display);
+        if (!reader.contentEquals("1234"))
+            throw new IllegalStateException("DisplayBenchmark.read(), read " + n + " characters");
+        return n;
+    }
+}
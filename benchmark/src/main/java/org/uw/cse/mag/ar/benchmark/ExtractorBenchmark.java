@@ -0,0 +1,56 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.ImagePyramid;
+import org.uw.cse.mag.ar.vision.Keypoints;
+import org.uw.cse.mag.ar.vision.OrbExtractor;
+
+/**
+ * Cost of extracting the keypoints and descriptors of a frame, from its pyramid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExtractorBenchmark {
+
+    @Param({Frames.SIZES_SMALL, Frames.SIZES_MEDIUM, Frames.SIZES_LARGE})
+    public String size;
+
+    @Param({"256", "512"})
+    public int bits;
+
+    private ImagePyramid pyramid;
+    private OrbExtractor extractor;
+    private Keypoints keypoints;
+
+    @Setup
+    public void setup() {
+        int w = Frames.width(size), h = Frames.height(size);
+        GrayImage frame = Frames.luma(w, h, 42);
+        pyramid = new ImagePyramid(w, h, 4, 2f);
+        pyramid.build(frame);
+        extractor = new OrbExtractor(OrbExtractor.DEFAULT_MAX_KEYPOINTS, bits);
+        keypoints = new Keypoints(OrbExtractor.DEFAULT_MAX_KEYPOINTS, bits);
+    }
+
+    @Benchmark
+    public int extract() {
+        return extractor.extract(pyramid, keypoints);
+    }
+}
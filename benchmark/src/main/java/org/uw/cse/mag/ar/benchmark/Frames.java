@@ -0,0 +1,117 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.Random;
+
+import org.uw.cse.mag.ar.vision.GrayImage;
+
+/**
+ * Synthetic camera frames for the benchmarks.
+ * <p>
+ * Frames are NV21 buffers whose luma looks vaguely like an appliance panel: smooth
+ * noise, a few dark rectangles (displays, buttons) and sharp edges, so that detectors
+ * and trackers have something to work on.
+ */
+public final class Frames {
+
+    // Preview sizes CameraManager.findBestPreviewSize() typically picks, up to 1280.
+    public static final String SIZES_SMALL = "320x240";
+    public static final String SIZES_MEDIUM = "640x480";
+    public static final String SIZES_LARGE = "1280x720";
+
+    private Frames() {
+    }
+
+    /**
+     * @param size A size as {@code WIDTHxHEIGHT}.
+     * @return the width.
+     */
+    public static int width(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    /**
+     * @param size A size as {@code WIDTHxHEIGHT}.
+     * @return the height.
+     */
+    public static int height(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+
+    /**
+     * Creates a synthetic NV21 frame.
+     * @param width  Frame width.
+     * @param height Frame height.
+     * @param seed   Random seed, the same seed gives the same frame.
+     * @return the NV21 buffer.
+     */
+    public static byte[] nv21(int width, int height, long seed) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        Random r = new Random(seed);
+        // Low frequency background.
+        int cell = 16;
+        int cw = width / cell + 2, ch = height / cell + 2;
+        int[] grid = new int[cw * ch];
+        for (int i = 0; i < grid.length; ++i) {
+            grid[i] = 96 + r.nextInt(96);
+        }
+        for (int y = 0; y < height; ++y) {
+            int gy = y / cell, fy = y % cell;
+            for (int x = 0; x < width; ++x) {
+                int gx = x / cell, fx = x % cell;
+                int a = grid[gy * cw + gx], b = grid[gy * cw + gx + 1];
+                int c = grid[(gy + 1) * cw + gx], d = grid[(gy + 1) * cw + gx + 1];
+                int top = a * (cell - fx) + b * fx;
+                int bot = c * (cell - fx) + d * fx;
+                int v = (top * (cell - fy) + bot * fy) / (cell * cell) + r.nextInt(9) - 4;
+                frame[y * width + x] = (byte) Math.max(0, Math.min(255, v));
+            }
+        }
+        // Panel parts.
+        for (int k = 0; k < 24; ++k) {
+            int w = width / 20 + r.nextInt(width / 8);
+            int h = height / 20 + r.nextInt(height / 8);
+            int x0 = r.nextInt(width - w), y0 = r.nextInt(height - h);
+            int v = r.nextBoolean() ? 20 + r.nextInt(40) : 200 + r.nextInt(50);
+            for (int y = y0; y < y0 + h; ++y) {
+                for (int x = x0; x < x0 + w; ++x) {
+                    frame[y * width + x] = (byte) v;
+                }
+            }
+        }
+        // Neutral chroma.
+        for (int i = width * height; i < frame.length; ++i) {
+            frame[i] = (byte) 128;
+        }
+        return frame;
+    }
+
+    /**
+     * Creates the luma of a synthetic frame.
+     * @param width  Frame width.
+     * @param height Frame height.
+     * @param seed   Random seed.
+     * @return a view over the Y plane of a new synthetic NV21 frame.
+     */
+    public static GrayImage luma(int width, int height, long seed) {
+        return new GrayImage().wrap(nv21(width, height, seed), 0, width, width, height);
+    }
+
+    /**
+     * Shifts the luma of a frame, to simulate camera motion.
+     * @param src The source image.
+     * @param dx  Horizontal shift.
+     * @param dy  Vertical shift.
+     * @return a new image, borders are replicated.
+     */
+    public static GrayImage shift(GrayImage src, int dx, int dy) {
+        GrayImage dst = new GrayImage(src.width, src.height);
+        for (int y = 0; y < src.height; ++y) {
+            int sy = Math.max(0, Math.min(src.height - 1, y - dy));
+            for (int x = 0; x < src.width; ++x) {
+                int sx = Math.max(0, Math.min(src.width - 1, x - dx));
+                dst.set(x, y, src.get(sx, sy));
+            }
+        }
+        return dst;
+    }
+}
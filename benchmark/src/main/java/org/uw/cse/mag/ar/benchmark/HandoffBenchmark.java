@@ -0,0 +1,98 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.scan.ScanEngine;
+import org.uw.cse.mag.ar.util.ApplianceReaderError;
+import org.uw.cse.mag.ar.util.FrameBufferPool;
+import org.uw.cse.mag.ar.util.FrameMailbox;
+
+/**
+ * Hand-off of frames from the camera to the worker, and dispatch of a frame's
+ * tasks to the scan engine workers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HandoffBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    private FrameBufferPool pool;
+    private FrameMailbox mailbox;
+    private ScanEngine engine;
+    private ScanEngine.Job<Integer> job;
+
+    @Setup
+    public void setup() {
+        pool = new FrameBufferPool(3, 640 * 480 * 3 / 2);
+        mailbox = new FrameMailbox();
+        engine = new ScanEngine(workers);
+        job = new ScanEngine.Job<Integer>() {
+            private final int[] sums = new int[16];
+
+            @Override
+            public int getTaskCount() {
+                return sums.length;
+            }
+
+            @Override
+            public Integer process(int task) {
+                int s = 0;
+                for (int i = 0; i < 1000; ++i) {
+                    s += (i * task) ^ (s >>> 3);
+                }
+                sums[task] = s;
+                return null;
+            }
+
+            @Override
+            public Integer merge(Integer merged, Integer partial) {
+                return merged;
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    /**
+     * One camera frame going through the pool and mailbox, and back.
+     */
+    @Benchmark
+    public byte[] poolAndMailbox() {
+        byte[] b = pool.checkout();
+        byte[] skipped = mailbox.post(b);
+        if (skipped != null)
+            pool.checkin(skipped);
+        byte[] taken = mailbox.take();
+        pool.checkin(taken);
+        return taken;
+    }
+
+    /**
+     * Dispatch of 16 small tasks to the engine workers.
+     */
+    @Benchmark
+    public Integer engineDispatch() throws ApplianceReaderError {
+        return engine.run(job);
+    }
+}
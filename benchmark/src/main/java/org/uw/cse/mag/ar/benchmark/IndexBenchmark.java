@@ -0,0 +1,59 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.recognition.RecognitionIndex;
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * Cost of searching the descriptors of one frame in the recognition index, against the
+ * catalog size. Each reference image has 300 descriptors of 256 bits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IndexBenchmark {
+
+    static final int DESCRIPTORS_PER_REFERENCE = 300;
+
+    @Param({"10", "100", "1000"})
+    public int references;
+
+    private RecognitionIndex index;
+    private Keypoints query;
+    private RecognitionIndex.Matches matches;
+
+    @Setup
+    public void setup() {
+        index = new RecognitionIndex(256);
+        Keypoints target = null;
+        for (int r = 0; r < references; ++r) {
+            Keypoints kp = Descriptors.random(DESCRIPTORS_PER_REFERENCE, 256, r);
+            index.addReference(r, kp);
+            if (r == references / 2)
+                target = kp;
+        }
+        index.build();
+        query = Descriptors.noisy(target, 24, 7);
+        matches = new RecognitionIndex.Matches(query.capacity);
+    }
+
+    @Benchmark
+    public int search() {
+        return index.search(query, matches);
+    }
+}
@@ -0,0 +1,58 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.LumaPreprocessor;
+
+/**
+ * NV21 luma extraction and 2x downscaling, the first stage of the pyramid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LumaBenchmark {
+
+    @Param({Frames.SIZES_SMALL, Frames.SIZES_MEDIUM, Frames.SIZES_LARGE})
+    public String size;
+
+    private byte[] frame;
+    private LumaPreprocessor luma;
+    private GrayImage full;
+    private GrayImage half;
+
+    @Setup
+    public void setup() {
+        int w = Frames.width(size), h = Frames.height(size);
+        frame = Frames.nv21(w, h, 42);
+        luma = new LumaPreprocessor(w, h);
+        full = new GrayImage().wrap(frame, 0, w, w, h);
+        half = new GrayImage(w / 2, h / 2);
+    }
+
+    @Benchmark
+    public GrayImage process() {
+        luma.process(frame);
+        return luma.getFull();
+    }
+
+    @Benchmark
+    public GrayImage downscale2x() {
+        LumaPreprocessor.downscale2x(full, half);
+        return half;
+    }
+}
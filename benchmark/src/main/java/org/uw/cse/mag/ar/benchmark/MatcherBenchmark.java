@@ -0,0 +1,76 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.recognition.HammingMatcher;
+import org.uw.cse.mag.ar.scan.ScanEngine;
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * Cost of brute-force matching the descriptors of one frame against one reference image,
+ * 500 against 500, with the ratio test and with or without the cross-check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MatcherBenchmark {
+
+    static final int DESCRIPTORS = 500;
+
+    @Param({"256", "512"})
+    public int bits;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    @Param({"false", "true"})
+    public boolean crossCheck;
+
+    private ScanEngine engine;
+    private HammingMatcher matcher;
+    private Keypoints train;
+    private Keypoints query;
+    private int[] queryIdx;
+    private int[] trainIdx;
+    private int[] distances;
+
+    @Setup
+    public void setup() {
+        engine = new ScanEngine(workers);
+        matcher = new HammingMatcher();
+        matcher.setEngine(engine);
+        matcher.crossCheck = crossCheck;
+        matcher.maxDistance = bits / 4;
+        train = Descriptors.random(DESCRIPTORS, bits, 1);
+        query = Descriptors.noisy(train, bits / 10, 2);
+        queryIdx = new int[DESCRIPTORS];
+        trainIdx = new int[DESCRIPTORS];
+        distances = new int[DESCRIPTORS];
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public int match() {
+        return matcher.match(query.descriptors, 0, query.count, train.descriptors, 0, train.count,
+                train.words, queryIdx, trainIdx, distances);
+    }
+}
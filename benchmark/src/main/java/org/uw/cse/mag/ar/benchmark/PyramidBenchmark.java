@@ -0,0 +1,69 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.ImagePyramid;
+import org.uw.cse.mag.ar.vision.RoiSet;
+
+/**
+ * Per-frame image pyramid build, in full and restricted to regions of interest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PyramidBenchmark {
+
+    @Param({Frames.SIZES_SMALL, Frames.SIZES_MEDIUM, Frames.SIZES_LARGE})
+    public String size;
+
+    @Param({"2.0", "1.5"})
+    public float scale;
+
+    @Param({"4"})
+    public int levels;
+
+    private GrayImage base;
+    private ImagePyramid pyramid;
+    private RoiSet rois;
+
+    @Setup
+    public void setup() {
+        int w = Frames.width(size), h = Frames.height(size);
+        base = Frames.luma(w, h, 42);
+        pyramid = new ImagePyramid(w, h, levels, scale);
+        // A display and a few buttons: about 10% of the frame.
+        rois = new RoiSet(8, 4);
+        rois.reset(w, h);
+        rois.add(w / 4, h / 8, w / 2, h / 4);
+        for (int i = 0; i < 4; ++i) {
+            rois.add(w / 8 + i * w / 6, h / 2, w / 8 + i * w / 6 + w / 16, h / 2 + h / 12);
+        }
+    }
+
+    @Benchmark
+    public ImagePyramid build() {
+        pyramid.build(base);
+        return pyramid;
+    }
+
+    @Benchmark
+    public ImagePyramid buildRegionsOfInterest() {
+        pyramid.build(base, rois);
+        return pyramid;
+    }
+}
@@ -0,0 +1,191 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.uw.cse.mag.ar.scan.FrameRecorder;
+import org.uw.cse.mag.ar.scan.FrameReplay;
+import org.uw.cse.mag.ar.scan.FrameScanner;
+import org.uw.cse.mag.ar.scan.ScanEngine;
+import org.uw.cse.mag.ar.scan.ScanStats;
+import org.uw.cse.mag.ar.util.ApplianceReaderError;
+import org.uw.cse.mag.ar.util.Result;
+import org.uw.cse.mag.ar.vision.GrayImage;
+
+/**
+ * Replays a frame recording through the scan pipeline and prints the stage latencies
+ * and match counts.
+ * <pre>
+ *   ./gradlew :benchmark:replay -Preplay='capture.arfr 5 --catalog appliances --barcodes ean13,qrcode'
+ * </pre>
+ * Arguments: the recording, then optionally the number of passes (the first pass is a
+ * warm-up and is not reported), and the scanner configuration of the session that made
+ * the recording:
+ * <ul>
+ * <li>{@code --catalog DIR}: the appliances searched by image and barcode, see {@link Catalog},</li>
+ * <li>{@code --barcodes TYPES}: the barcode types decoded, a comma separated list among
+ *     {@code ean8}, {@code ean13} and {@code qrcode},</li>
+ * <li>{@code --sensor-orientation DEGREES}: the camera sensor orientation, 90 by default.</li>
+ * </ul>
+ * With {@code --workers N}, the recording is then replayed again with a {@link ScanEngine}
+ * of 1 to N workers, and the throughput of each is reported. The engine only shares the
+ * descriptor matching against the shortlisted references, so it needs a catalog with a
+ * vocabulary, and the speedup is bounded by the share of that matching in the scan time.
+ * Without a catalog nor barcode types, only the preprocessing is exercised. With
+ * {@code --synthetic FILE WIDTHxHEIGHT COUNT}, writes a recording of moving synthetic
+ * frames instead.
+ */
+public final class Replay {
+
+    // Scanner configuration, from the arguments.
+    private static Catalog catalog = null;
+    private static int barcodeTypes = 0;
+    private static int sensorOrientation = new FrameScanner().sensorOrientation;
+
+    private Replay() {
+    }
+
+    public static void main(String[] args) throws IOException, ApplianceReaderError {
+        if (args.length >= 4 && "--synthetic".equals(args[0])) {
+            writeSynthetic(new File(args[1]), args[2], Integer.parseInt(args[3]));
+            return;
+        }
+        File file = null;
+        int passes = 2;
+        int workers = 0;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if ("--catalog".equals(args[i]))
+                    catalog = new Catalog(new File(args[++i]));
+                else if ("--barcodes".equals(args[i]))
+                    barcodeTypes = barcodeTypes(args[++i]);
+                else if ("--sensor-orientation".equals(args[i]))
+                    sensorOrientation = Integer.parseInt(args[++i]);
+                else if ("--workers".equals(args[i]))
+                    workers = Integer.parseInt(args[++i]);
+                else if (file == null)
+                    file = new File(args[i]);
+                else
+                    passes = Integer.parseInt(args[i]);
+            }
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException)
+                System.err.println(e.getMessage());
+            file = null;
+        }
+        if (file == null) {
+            System.err.println("usage: Replay FILE [PASSES] [--catalog DIR] [--barcodes TYPES] [--sensor-orientation DEGREES]"
+                    + " [--workers N]"
+                    + " | --synthetic FILE WIDTHxHEIGHT COUNT");
+            System.exit(2);
+        }
+        FrameReplay replay = new FrameReplay(file);
+        if (catalog != null)
+            System.out.println("catalog: " + catalog.index.getReferenceCount() + " references, "
+                    + (catalog.vocabulary == null ? "no" : "with") + " vocabulary, "
+                    + catalog.models.size() + " models");
+
+        ScanStats stats = new ScanStats();
+        replay(replay, passes, null, stats, true);
+        System.out.println(replay.getWidth() + "x" + replay.getHeight()
+                + (replay.isLumaOnly() ? " luma only" : ""));
+        System.out.println(stats.snapshot());
+
+        if (workers > 0) {
+            if (catalog == null || catalog.vocabulary == null)
+                System.out.println("no vocabulary: the engine has no work to share");
+            double base = 0;
+            for (int w = 1; w <= workers; ++w) {
+                // A single worker is the session default: matching on the scanning thread.
+                ScanEngine engine = w > 1 ? new ScanEngine(w) : null;
+                double fps;
+                try {
+                    fps = replay(replay, passes, engine, null, false);
+                } finally {
+                    if (engine != null)
+                        engine.close();
+                }
+                if (w == 1)
+                    base = fps;
+                System.out.println(String.format("workers=%d %.1f frames/s x%.2f", w, fps, fps / base));
+            }
+        }
+    }
+
+    /**
+     * Scans the recording several times, the first pass being a warm-up unless there is
+     * only one.
+     * @return the scan throughput of the last pass, in frames per second.
+     */
+    private static double replay(FrameReplay replay, int passes, ScanEngine engine, ScanStats stats,
+                               boolean print) throws IOException, ApplianceReaderError {
+        byte[] frame = new byte[replay.getFrameSize()];
+        long nanos = 0;
+        int frames = 0;
+        for (int pass = 0; pass < passes; ++pass) {
+            // Fresh scanner per pass, so each pass sees the same locking sequence.
+            FrameScanner scanner = new FrameScanner();
+            scanner.barcodeTypes = barcodeTypes;
+            scanner.sensorOrientation = sensorOrientation;
+            if (catalog != null)
+                catalog.install(scanner);
+            scanner.setEngine(engine);
+            if (stats != null) {
+                scanner.setStats(stats);
+                stats.reset();
+                stats.setEnabled(pass > 0 || passes == 1);
+            }
+            replay.rewind();
+            nanos = 0;
+            frames = 0;
+            while (replay.next()) {
+                replay.copyFrame(frame);
+                long t0 = System.nanoTime();
+                Result r = scanner.scan(frame, replay.getWidth(), replay.getHeight(), replay.getOrientation());
+                nanos += System.nanoTime() - t0;
+                frames++;
+                if (print && r != null && pass == passes - 1)
+                    System.out.println(replay.getTimestamp() + " " + r);
+            }
+        }
+        return nanos == 0 ? 0 : frames * 1e9 / nanos;
+    }
+
+    private static int barcodeTypes(String list) {
+        int types = 0;
+        for (String t : list.split(",")) {
+            if ("ean8".equals(t))
+                types |= Result.Type.EAN8;
+            else if ("ean13".equals(t))
+                types |= Result.Type.EAN13;
+            else if ("qrcode".equals(t))
+                types |= Result.Type.QRCODE;
+            else if ("datamatrix".equals(t))
+                // Masked off by BarcodeScanner.SUPPORTED_TYPES: it would silently read nothing.
+                throw new IllegalArgumentException("Replay, unsupported barcode type: " + t);
+            else
+                throw new IllegalArgumentException("Replay, unknown barcode type: " + t);
+        }
+        return types;
+    }
+
+    private static void writeSynthetic(File file, String size, int count) throws IOException {
+        int w = Frames.width(size);
+        int h = Frames.height(size);
+        GrayImage base = Frames.luma(w, h, 42L);
+        byte[] frame = Frames.nv21(w, h, 42L);
+        FrameRecorder recorder = new FrameRecorder(file, w, h, false);
+        long t = 0;
+        for (int i = 0; i < count; ++i) {
+            GrayImage moved = Frames.shift(base, i % 7 - 3, i % 5 - 2);
+            System.arraycopy(moved.data, 0, frame, 0, w * h);
+            // offer() drops frames while the writer is behind: retry instead.
+            while (!recorder.offer(frame, t, 0)) {
+                Thread.yield();
+            }
+            t += 33333333L;
+        }
+        recorder.close();
+        System.out.println("wrote " + recorder.getRecordedCount() + " frames to " + file);
+    }
+}
@@ -0,0 +1,74 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.recognition.BagOfWords;
+import org.uw.cse.mag.ar.recognition.VocabularyIndex;
+import org.uw.cse.mag.ar.recognition.VocabularyTree;
+import org.uw.cse.mag.ar.vision.Keypoints;
+
+/**
+ * Cost of shortlisting the catalog for one frame with a vocabulary tree, against the
+ * catalog size. Each reference image has 300 descriptors of 256 bits, and the vocabulary
+ * has 8^4 words.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShortlistBenchmark {
+
+    static final int TRAINING_REFERENCES = 100;
+
+    @Param({"1", "100", "1000", "5000"})
+    public int references;
+
+    private VocabularyIndex index;
+    private Keypoints query;
+    private VocabularyIndex.Shortlist shortlist;
+
+    @Setup
+    public void setup() {
+        int n = IndexBenchmark.DESCRIPTORS_PER_REFERENCE;
+        // Offline training, on a sample of the catalog.
+        Keypoints sample = new Keypoints(TRAINING_REFERENCES * n, 256);
+        for (int r = 0; r < TRAINING_REFERENCES; ++r) {
+            Keypoints kp = Descriptors.random(n, 256, r);
+            System.arraycopy(kp.descriptors, 0, sample.descriptors, r * n * kp.words, n * kp.words);
+        }
+        VocabularyTree tree = VocabularyTree.train(sample.descriptors, TRAINING_REFERENCES * n, 256, 8, 4, 5, 1L);
+
+        index = new VocabularyIndex(tree);
+        Keypoints target = null;
+        for (int r = 0; r < references; ++r) {
+            Keypoints kp = Descriptors.random(n, 256, r);
+            index.addReference(r, BagOfWords.compute(tree, kp));
+            if (r == references / 2)
+                target = kp;
+        }
+        index.build();
+        query = Descriptors.noisy(target, 24, 7);
+        shortlist = new VocabularyIndex.Shortlist(8);
+        // A catalog of one reference must be searchable as well.
+        if (index.shortlist(query, shortlist) == 0 || shortlist.getReference(0) != references / 2)
+            throw new IllegalStateException("ShortlistBenchmark, the target is not shortlisted first");
+    }
+
+    @Benchmark
+    public int shortlist() {
+        return index.shortlist(query, shortlist);
+    }
+}
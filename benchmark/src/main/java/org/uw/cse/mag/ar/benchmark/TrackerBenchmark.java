@@ -0,0 +1,61 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.vision.GrayImage;
+import org.uw.cse.mag.ar.vision.PatchTracker;
+
+/**
+ * Per-frame cost of following a locked panel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TrackerBenchmark {
+
+    /** Tracking runs at half resolution of the preview. */
+    @Param({"160x120", "320x240", "640x360"})
+    public String size;
+
+    private GrayImage first;
+    private GrayImage moved;
+    private PatchTracker tracker;
+    private float[] panel;
+
+    @Setup
+    public void setup() {
+        int w = Frames.width(size), h = Frames.height(size);
+        first = Frames.luma(w, h, 42);
+        moved = Frames.shift(first, 3, -2);
+        panel = new float[] {w / 4f, h / 4f, 3 * w / 4f, h / 4f, 3 * w / 4f, 3 * h / 4f, w / 4f, 3 * h / 4f};
+        tracker = new PatchTracker();
+        tracker.start(first, panel);
+    }
+
+    /**
+     * Two tracked frames: the panel moves and comes back.
+     */
+    @Benchmark
+    public boolean updateTwoFrames() {
+        return tracker.update(moved) & tracker.update(first);
+    }
+
+    @Benchmark
+    public boolean start() {
+        return tracker.start(first, panel);
+    }
+}
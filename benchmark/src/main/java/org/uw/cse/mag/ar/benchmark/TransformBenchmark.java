@@ -0,0 +1,69 @@
+package org.uw.cse.mag.ar.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uw.cse.mag.ar.vision.Homography;
+import org.uw.cse.mag.ar.vision.RoiSet;
+
+/**
+ * Projection of appliance feature geometry into the frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransformBenchmark {
+
+    @Param({"8", "32"})
+    public int features;
+
+    private final float[] h = {0.9f, 0.05f, 40f, -0.04f, 0.95f, 25f, 1e-5f, 2e-5f, 1f};
+    private float[][] polygons;
+    private float[] points;
+    private float[] projected;
+    private RoiSet rois;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        polygons = new float[features][];
+        points = new float[features * 8];
+        for (int i = 0; i < features; ++i) {
+            float x = r.nextInt(560), y = r.nextInt(400), w = 20 + r.nextInt(60), hh = 10 + r.nextInt(40);
+            polygons[i] = new float[] {x, y, x + w, y, x + w, y + hh, x, y + hh};
+            System.arraycopy(polygons[i], 0, points, 8 * i, 8);
+        }
+        projected = new float[points.length];
+        rois = new RoiSet(features, 4);
+    }
+
+    @Benchmark
+    public float[] project() {
+        Homography.project(h, points, 0, projected, 0, points.length / 2);
+        return projected;
+    }
+
+    @Benchmark
+    public RoiSet regionsOfInterest() {
+        rois.reset(640, 480);
+        for (float[] p : polygons) {
+            rois.addProjected(h, p, 16);
+        }
+        rois.mergeOverlapping();
+        return rois;
+    }
+}
@@ -0,0 +1,252 @@
+package org.uw.cse.mag.ar.barcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.uw.cse.mag.ar.util.Result;
+import org.uw.cse.mag.ar.vision.GrayImage;
+
+/**
+ * QR codes and EAN barcodes rendered into luma images, read by the scanner.
+ */
+public class BarcodeScannerTest {
+
+    private static final int DARK = 40;
+    private static final int LIGHT = 210;
+
+    // Widths of the 4 runs (space, bar, space, bar) of the L-code of each digit.
+    private static final int[][] L_CODES = {
+        {3, 2, 1, 1}, {2, 2, 2, 1}, {2, 1, 2, 2}, {1, 4, 1, 1}, {1, 1, 3, 2},
+        {1, 2, 3, 1}, {1, 1, 1, 4}, {1, 3, 1, 2}, {1, 2, 1, 3}, {3, 1, 1, 2},
+    };
+    // Codes of the left digits of EAN-13, by first digit.
+    private static final String[] PARITIES = {
+        "LLLLLL", "LLGLGG", "LLGGLG", "LLGGGL", "LGLLGG", "LGGLLG", "LGGGLL", "LGLGLG", "LGLGGL", "LGGLGL",
+    };
+
+    /**
+     * Renders a QR code with a quiet zone of 4 modules, turned clockwise by
+     * {@code quarterTurns} quarter turns.
+     */
+    private static GrayImage renderQr(byte[] modules, int modulePixels, int quarterTurns) {
+        int dimension = QrDecoderTest.dimension(modules);
+        int side = (dimension + 8) * modulePixels;
+        GrayImage img = new GrayImage(side, side);
+        Arrays.fill(img.data, (byte) LIGHT);
+        for (int y = 0; y < dimension; ++y) {
+            for (int x = 0; x < dimension; ++x) {
+                if (modules[y * dimension + x] == 0)
+                    continue;
+                int mx = x, my = y;
+                for (int t = 0; t < quarterTurns; ++t) {
+                    int turned = dimension - 1 - my;
+                    my = mx;
+                    mx = turned;
+                }
+                fill(img, (mx + 4) * modulePixels, (my + 4) * modulePixels, modulePixels, modulePixels);
+            }
+        }
+        return img;
+    }
+
+    private static void fill(GrayImage img, int x0, int y0, int w, int h) {
+        for (int y = y0; y < y0 + h; ++y) {
+            for (int x = x0; x < x0 + w; ++x) {
+                img.set(x, y, DARK);
+            }
+        }
+    }
+
+    /**
+     * @return the module widths of an EAN barcode, alternating bar and space from the
+     *         start guard.
+     */
+    private static int[] eanWidths(String digits) {
+        int half = digits.length() == 13 ? 6 : 4;
+        int first = digits.length() == 13 ? 1 : 0;
+        String parity = digits.length() == 13 ? PARITIES[digits.charAt(0) - '0'] : "LLLL";
+        int[] widths = new int[3 + 4 * half + 5 + 4 * half + 3];
+        int n = 0;
+        for (int i = 0; i < 3; ++i) {
+            widths[n++] = 1;
+        }
+        for (int i = 0; i < half; ++i) {
+            int[] code = L_CODES[digits.charAt(first + i) - '0'];
+            for (int k = 0; k < 4; ++k) {
+                // G-codes are the L-codes reversed.
+                widths[n++] = parity.charAt(i) == 'G' ? code[3 - k] : code[k];
+            }
+        }
+        for (int i = 0; i < 5; ++i) {
+            widths[n++] = 1;
+        }
+        for (int i = 0; i < half; ++i) {
+            // R-codes have the widths of the L-codes, starting with a bar.
+            int[] code = L_CODES[digits.charAt(first + half + i) - '0'];
+            for (int k = 0; k < 4; ++k) {
+                widths[n++] = code[k];
+            }
+        }
+        for (int i = 0; i < 3; ++i) {
+            widths[n++] = 1;
+        }
+        return widths;
+    }
+
+    /**
+     * Renders an EAN barcode with a quiet zone of 11 modules, bars vertical, or horizontal
+     * when {@code vertical}; when {@code reversed}, the start guard is on the right (or at
+     * the bottom), as in a frame of the barcode upside down.
+     */
+    private static GrayImage renderEan(String digits, int modulePixels, boolean vertical, boolean reversed) {
+        int[] widths = eanWidths(digits);
+        int modules = 0;
+        for (int w : widths) {
+            modules += w;
+        }
+        int length = (modules + 22) * modulePixels;
+        int height = 40 * modulePixels;
+        GrayImage img = vertical ? new GrayImage(height, length) : new GrayImage(length, height);
+        Arrays.fill(img.data, (byte) LIGHT);
+        int p = 11;
+        for (int i = 0; i < widths.length; ++i) {
+            if ((i & 1) == 0) {
+                int start = reversed ? modules + 22 - p - widths[i] : p;
+                if (vertical)
+                    fill(img, 0, start * modulePixels, height, widths[i] * modulePixels);
+                else
+                    fill(img, start * modulePixels, 0, widths[i] * modulePixels, height);
+            }
+            p += widths[i];
+        }
+        return img;
+    }
+
+    private static void assertCorner(float[] corners, int i, float x, float y, float tolerance) {
+        String what = "corner " + i + " " + Arrays.toString(corners);
+        assertEquals(what, x, corners[2 * i], tolerance);
+        assertEquals(what, y, corners[2 * i + 1], tolerance);
+    }
+
+    @Test
+    public void renderedQrCodesDecode() throws IOException {
+        BarcodeScanner scanner = new BarcodeScanner();
+        for (String[] symbol : QrDecoderTest.SYMBOLS) {
+            GrayImage img = renderQr(QrDecoderTest.load(symbol[0]), 4, 0);
+            Result r = scanner.decode(img, BarcodeScanner.SUPPORTED_TYPES);
+            assertNotNull(symbol[0], r);
+            assertEquals(Result.Type.QRCODE, r.getType());
+            assertEquals(symbol[0], symbol[1], r.getValue());
+        }
+    }
+
+    @Test
+    public void qrCornersFollowTheSymbol() throws IOException {
+        byte[] modules = QrDecoderTest.load("qr-v04-M.txt");
+        int side = 4 * QrDecoderTest.dimension(modules);
+        float a = 16, b = 16 + side;
+        // Clockwise from the top left of the symbol, wherever it was turned to.
+        float[][] expected = {
+            {a, a, b, a, b, b, a, b},
+            {b, a, b, b, a, b, a, a},
+            {b, b, a, b, a, a, b, a},
+            {a, b, a, a, b, a, b, b},
+        };
+        BarcodeScanner scanner = new BarcodeScanner();
+        for (int turns = 0; turns < 4; ++turns) {
+            Result r = scanner.decode(renderQr(modules, 4, turns), Result.Type.QRCODE);
+            assertNotNull(turns + " turns", r);
+            assertEquals("http://www.whirlpool.com/wdt750sahz0", r.getValue());
+            for (int i = 0; i < 4; ++i) {
+                assertCorner(r.getCorners(), i, expected[turns][2 * i], expected[turns][2 * i + 1], 4);
+            }
+        }
+    }
+
+    @Test
+    public void smallModulesDecode() throws IOException {
+        // 3 pixels per module: the v10 symbols are 171 pixels wide.
+        BarcodeScanner scanner = new BarcodeScanner();
+        for (String name : new String[]{"qr-v01-Q.txt", "qr-v07-L.txt", "qr-v10-L.txt"}) {
+            Result r = scanner.decode(renderQr(QrDecoderTest.load(name), 3, 1), Result.Type.QRCODE);
+            assertNotNull(name, r);
+        }
+    }
+
+    @Test
+    public void ean13ReadsInBothDirections() {
+        BarcodeScanner scanner = new BarcodeScanner();
+        for (String digits : new String[]{"4006381333931", "0012345678905", "8806084571953"}) {
+            for (int i = 0; i < 4; ++i) {
+                boolean vertical = i >= 2, reversed = (i & 1) != 0;
+                Result r = scanner.decode(renderEan(digits, 3, vertical, reversed), BarcodeScanner.SUPPORTED_TYPES);
+                String what = digits + (vertical ? " vertical" : "") + (reversed ? " reversed" : "");
+                assertNotNull(what, r);
+                assertEquals(what, Result.Type.EAN13, r.getType());
+                assertEquals(what, digits, r.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void ean8ReadsInBothDirections() {
+        BarcodeScanner scanner = new BarcodeScanner();
+        for (String digits : new String[]{"96385074", "40170725"}) {
+            for (int i = 0; i < 4; ++i) {
+                boolean vertical = i >= 2, reversed = (i & 1) != 0;
+                Result r = scanner.decode(renderEan(digits, 3, vertical, reversed), BarcodeScanner.SUPPORTED_TYPES);
+                String what = digits + (vertical ? " vertical" : "") + (reversed ? " reversed" : "");
+                assertNotNull(what, r);
+                assertEquals(what, Result.Type.EAN8, r.getType());
+                assertEquals(what, digits, r.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void eanCornersSpanTheBars() {
+        // 95 modules of 3 pixels after a quiet zone of 33 pixels.
+        Result r = new BarcodeScanner().decode(renderEan("4006381333931", 3, false, false), Result.Type.EAN13);
+        assertNotNull(r);
+        float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+        for (int i = 0; i < 4; ++i) {
+            minX = Math.min(minX, r.getCorners()[2 * i]);
+            maxX = Math.max(maxX, r.getCorners()[2 * i]);
+        }
+        assertEquals(33, minX, 3);
+        assertEquals(33 + 95 * 3, maxX, 3);
+    }
+
+    @Test
+    public void wrongCheckDigitsAreNotRead() {
+        BarcodeScanner scanner = new BarcodeScanner();
+        assertNull(scanner.decode(renderEan("4006381333932", 3, false, false), Result.Type.EAN13));
+        assertNull(scanner.decode(renderEan("96385075", 3, false, true), Result.Type.EAN8));
+    }
+
+    @Test
+    public void onlyTheRequestedTypesAreRead() throws IOException {
+        BarcodeScanner scanner = new BarcodeScanner();
+        GrayImage qr = renderQr(QrDecoderTest.load("qr-v01-M.txt"), 4, 0);
+        GrayImage ean13 = renderEan("4006381333931", 3, false, false);
+        assertNull(scanner.decode(qr, Result.Type.EAN13 | Result.Type.EAN8));
+        assertNull(scanner.decode(ean13, Result.Type.QRCODE | Result.Type.EAN8));
+        // Data Matrix is not supported: the request is masked off before the prefilter.
+        assertNull(scanner.decode(qr, Result.Type.DATAMATRIX));
+        assertEquals(0, scanner.getCandidates());
+    }
+
+    @Test
+    public void blankImagesAreRejectedByThePrefilter() {
+        GrayImage blank = new GrayImage(320, 240);
+        Arrays.fill(blank.data, (byte) LIGHT);
+        BarcodeScanner scanner = new BarcodeScanner();
+        assertNull(scanner.decode(blank, BarcodeScanner.SUPPORTED_TYPES));
+        assertEquals(0, scanner.getCandidates());
+    }
+}
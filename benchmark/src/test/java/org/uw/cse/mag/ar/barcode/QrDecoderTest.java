@@ -0,0 +1,172 @@
+package org.uw.cse.mag.ar.barcode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Decoding of the module matrices of known QR codes, versions 1 to 10.
+ */
+public class QrDecoderTest {
+
+    /**
+     * The fixtures: file, then text. Together they cover every version, level and mask, and
+     * the numeric, alphanumeric, byte and ECI modes.
+     */
+    static final String[][] SYMBOLS = {
+        {"qr-v01-M.txt", "01234567"},
+        {"qr-v01-Q.txt", "HELLO WORLD"},
+        {"qr-v02-L.txt", "Model wdt750sahz0"},
+        {"qr-v03-H.txt", "GE PROFILE PB911SJSS"},
+        {"qr-v04-M.txt", "http://www.whirlpool.com/wdt750sahz0"},
+        {"qr-v05-Q.txt", "SERIAL 5TA0312345 MODEL LFX28968ST"},
+        {"qr-v06-H.txt", "012345678901234567890123456789012345678901234567890123456789"},
+        {"qr-v07-L.txt", "K\u00fchlschrank KGN39VI35, Bosch \u2013 Bedienungsanleitung"},
+        {"qr-v08-M.txt", "HTTP://WWW.SAMSUNG.COM/US/SUPPORT/OWNERS/PRODUCT/RF28HMEDBSR"},
+        {"qr-v09-Q.txt", "Whirlpool WRF555SDFZ french door refrigerator, 25 cu. ft."},
+        {"qr-v10-H.txt", "8806084571953880608457195388060845719538806084571953880608457195388060845719538806084571"},
+        {"qr-v10-L.txt", "Frigidaire FFTR1821TS top freezer refrigerator; serial BA12345678; see "
+                + "http://www.frigidaire.com/manuals for the owner's guide, installation instructions "
+                + "and the energy guide label."},
+    };
+
+    /**
+     * Reads a fixture: one line per row of modules, '#' for dark and '.' for light.
+     * @return the modules, 1 for dark, row by row.
+     */
+    static byte[] load(String name) throws IOException {
+        InputStream in = QrDecoderTest.class.getResourceAsStream(name);
+        assertTrue(name, in != null);
+        List<String> rows = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.length() > 0)
+                    rows.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        int dimension = rows.size();
+        byte[] modules = new byte[dimension * dimension];
+        for (int y = 0; y < dimension; ++y) {
+            assertEquals(name, dimension, rows.get(y).length());
+            for (int x = 0; x < dimension; ++x) {
+                modules[y * dimension + x] = (byte) (rows.get(y).charAt(x) == '#' ? 1 : 0);
+            }
+        }
+        return modules;
+    }
+
+    static int dimension(byte[] modules) {
+        return (int) Math.round(Math.sqrt(modules.length));
+    }
+
+    @Test
+    public void knownSymbolsDecode() throws IOException {
+        QrDecoder decoder = new QrDecoder();
+        for (String[] symbol : SYMBOLS) {
+            byte[] modules = load(symbol[0]);
+            assertEquals(symbol[0], symbol[1], decoder.decode(modules, dimension(modules)));
+        }
+    }
+
+    @Test
+    public void versionsOfDimensions() {
+        for (int v = 1; v <= QrDecoder.MAX_VERSION; ++v) {
+            assertEquals(v, QrDecoder.versionOf(17 + 4 * v));
+        }
+        assertEquals(-1, QrDecoder.versionOf(17));
+        assertEquals(-1, QrDecoder.versionOf(22));
+        assertEquals(-1, QrDecoder.versionOf(17 + 4 * 11));
+        assertArrayEquals(new int[]{6, 28, 50}, QrDecoder.alignmentCenters(10));
+    }
+
+    @Test
+    public void flippedModulesAreCorrected() throws IOException {
+        // Version 6-H corrects 14 codewords in each of its 4 blocks: 8 flipped modules are
+        // within capacity wherever they fall.
+        byte[] modules = load("qr-v06-H.txt");
+        int dimension = dimension(modules);
+        // Down the right edge, clear of the finders and the alignment patterns.
+        for (int i = 0; i < 8; ++i) {
+            modules[(9 + 3 * i) * dimension + dimension - 1] ^= 1;
+        }
+        assertEquals(SYMBOLS[6][1], new QrDecoder().decode(modules, dimension));
+    }
+
+    @Test
+    public void damagedFormatInformationIsCorrected() throws IOException {
+        byte[] modules = load("qr-v03-H.txt");
+        int dimension = dimension(modules);
+        // Three bits of the first copy, and the whole second copy along the bottom.
+        modules[8 * dimension] ^= 1;
+        modules[8 * dimension + 2] ^= 1;
+        modules[2 * dimension + 8] ^= 1;
+        for (int y = dimension - 7; y < dimension; ++y) {
+            modules[y * dimension + 8] ^= 1;
+        }
+        assertEquals(SYMBOLS[3][1], new QrDecoder().decode(modules, dimension));
+    }
+
+    @Test
+    public void tooManyErrorsFailCleanly() throws IOException {
+        byte[] modules = load("qr-v02-L.txt");
+        int dimension = dimension(modules);
+        Random random = new Random(4);
+        // Noise over the whole data region of the right half.
+        for (int y = 9; y < dimension - 9; ++y) {
+            for (int x = dimension / 2; x < dimension - 1; ++x) {
+                if (random.nextBoolean())
+                    modules[y * dimension + x] ^= 1;
+            }
+        }
+        assertNull(new QrDecoder().decode(modules, dimension));
+    }
+
+    @Test
+    public void mirroredSymbolsAreRejected() throws IOException {
+        // The transpose keeps the finders and the timing patterns, but not the format bits
+        // nor the codeword order: decoding fails instead of returning garbage.
+        QrDecoder decoder = new QrDecoder();
+        for (String[] symbol : SYMBOLS) {
+            byte[] modules = load(symbol[0]);
+            int dimension = dimension(modules);
+            byte[] mirrored = new byte[modules.length];
+            for (int y = 0; y < dimension; ++y) {
+                for (int x = 0; x < dimension; ++x) {
+                    mirrored[y * dimension + x] = modules[x * dimension + y];
+                }
+            }
+            assertNull(symbol[0], decoder.decode(mirrored, dimension));
+        }
+    }
+
+    @Test
+    public void unsupportedDimensionsAreRejected() {
+        assertNull(new QrDecoder().decode(new byte[22 * 22], 22));
+        assertNull(new QrDecoder().decode(new byte[61 * 61], 61));
+    }
+
+    @Test
+    public void aDecoderIsReusable() throws IOException {
+        QrDecoder decoder = new QrDecoder();
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int i = SYMBOLS.length - 1; i >= 0; --i) {
+                byte[] modules = load(SYMBOLS[i][0]);
+                assertEquals(SYMBOLS[i][1], decoder.decode(modules, dimension(modules)));
+            }
+        }
+    }
+}
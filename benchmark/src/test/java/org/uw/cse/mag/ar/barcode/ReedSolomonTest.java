@@ -0,0 +1,172 @@
+package org.uw.cse.mag.ar.barcode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Reed-Solomon correction of QR blocks with injected errors, up to and beyond capacity.
+ */
+public class ReedSolomonTest {
+
+    // Data codewords of "01234567" as a version 1-M symbol, and its error correction
+    // codewords, from the worked example of ISO/IEC 18004 annex I.
+    private static final int[] ISO_DATA = {
+        0x10, 0x20, 0x0C, 0x56, 0x61, 0x80, 0xEC, 0x11,
+        0xEC, 0x11, 0xEC, 0x11, 0xEC, 0x11, 0xEC, 0x11,
+    };
+    private static final int[] ISO_EC = {0xA5, 0x24, 0xD4, 0xC1, 0xED, 0x36, 0xC7, 0x87, 0x2C, 0x55};
+
+    private static final int[] EXP = new int[255];
+    private static final int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; ++i) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256)
+                x ^= 0x11D;
+        }
+    }
+
+    private static int mul(int a, int b) {
+        return a == 0 || b == 0 ? 0 : EXP[(LOG[a] + LOG[b]) % 255];
+    }
+
+    /**
+     * Encodes a block as the QR code does: the data, then the remainder of its division by
+     * the generator polynomial with roots a^0 to a^(ecLength - 1).
+     */
+    private static int[] encode(int[] data, int ecLength) {
+        int[] generator = {1};
+        for (int i = 0; i < ecLength; ++i) {
+            int[] next = new int[generator.length + 1];
+            for (int k = 0; k < generator.length; ++k) {
+                next[k] ^= generator[k];
+                next[k + 1] ^= mul(generator[k], EXP[i]);
+            }
+            generator = next;
+        }
+        int[] block = Arrays.copyOf(data, data.length + ecLength);
+        int[] remainder = block.clone();
+        for (int k = 0; k < data.length; ++k) {
+            int factor = remainder[k];
+            for (int j = 0; j < generator.length; ++j) {
+                remainder[k + j] ^= mul(generator[j], factor);
+            }
+        }
+        System.arraycopy(remainder, data.length, block, data.length, ecLength);
+        return block;
+    }
+
+    private static int[] randomData(Random random, int length) {
+        int[] data = new int[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = random.nextInt(256);
+        }
+        return data;
+    }
+
+    /**
+     * Changes {@code errors} distinct codewords of a block to other values.
+     */
+    private static void corrupt(int[] block, int off, int length, int errors, Random random) {
+        int[] positions = new int[length];
+        for (int i = 0; i < length; ++i) {
+            positions[i] = i;
+        }
+        for (int i = 0; i < errors; ++i) {
+            int j = i + random.nextInt(length - i);
+            int p = positions[j];
+            positions[j] = positions[i];
+            positions[i] = p;
+            block[off + p] ^= 1 + random.nextInt(255);
+        }
+    }
+
+    @Test
+    public void theTestEncoderMatchesTheStandard() {
+        int[] block = encode(ISO_DATA, ISO_EC.length);
+        assertArrayEquals(ISO_EC, Arrays.copyOfRange(block, ISO_DATA.length, block.length));
+    }
+
+    @Test
+    public void cleanBlocksAreLeftAlone() {
+        int[] block = encode(ISO_DATA, ISO_EC.length);
+        int[] expected = block.clone();
+        assertEquals(0, new ReedSolomon(30).decode(block, 0, block.length, ISO_EC.length));
+        assertArrayEquals(expected, block);
+    }
+
+    @Test
+    public void errorsUpToCapacityAreCorrected() {
+        Random random = new Random(1);
+        ReedSolomon rs = new ReedSolomon(30);
+        // Block sizes of versions 1 to 10: {data, error correction}.
+        int[][] sizes = {{16, 10}, {9, 17}, {19, 7}, {43, 26}, {68, 18}, {15, 28}, {116, 30}, {12, 24}};
+        for (int[] size : sizes) {
+            int[] clean = encode(randomData(random, size[0]), size[1]);
+            for (int errors = 1; errors <= size[1] / 2; ++errors) {
+                for (int trial = 0; trial < 10; ++trial) {
+                    int[] block = clean.clone();
+                    corrupt(block, 0, block.length, errors, random);
+                    String what = Arrays.toString(size) + ", " + errors + " errors";
+                    assertEquals(what, errors, rs.decode(block, 0, block.length, size[1]));
+                    assertArrayEquals(what, clean, block);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void errorsInTheErrorCorrectionCodewordsAreCorrected() {
+        int[] clean = encode(ISO_DATA, ISO_EC.length);
+        int[] block = clean.clone();
+        for (int i = 0; i < 5; ++i) {
+            block[ISO_DATA.length + 2 * i] ^= 0x5A;
+        }
+        assertEquals(5, new ReedSolomon(30).decode(block, 0, block.length, ISO_EC.length));
+        assertArrayEquals(clean, block);
+    }
+
+    @Test
+    public void blocksAreCorrectedAtTheirOffset() {
+        int[] clean = encode(ISO_DATA, ISO_EC.length);
+        int[] buffer = new int[clean.length + 7];
+        Arrays.fill(buffer, 0xFF);
+        System.arraycopy(clean, 0, buffer, 4, clean.length);
+        corrupt(buffer, 4, clean.length, 5, new Random(2));
+        assertEquals(5, new ReedSolomon(30).decode(buffer, 4, clean.length, ISO_EC.length));
+        assertArrayEquals(clean, Arrays.copyOfRange(buffer, 4, 4 + clean.length));
+        assertEquals(0xFF, buffer[3]);
+        assertEquals(0xFF, buffer[4 + clean.length]);
+    }
+
+    @Test
+    public void errorsBeyondCapacityAreNeverReportedAsTheOriginal() {
+        Random random = new Random(3);
+        ReedSolomon rs = new ReedSolomon(30);
+        int[] clean = encode(randomData(random, 19), 7);
+        int failures = 0;
+        for (int trial = 0; trial < 200; ++trial) {
+            int[] block = clean.clone();
+            corrupt(block, 0, block.length, 4 + random.nextInt(4), random);
+            int corrected = rs.decode(block, 0, block.length, 7);
+            if (corrected < 0)
+                failures++;
+            else
+                // A miscorrection may land on another codeword, never on the sent one.
+                assertFalse(Arrays.equals(clean, block));
+        }
+        // Most of them are detected.
+        assertTrue(failures > 150);
+    }
+}
@@ -0,0 +1,160 @@
+package org.uw.cse.mag.ar.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.uw.cse.mag.ar.util.ApplianceReaderError;
+
+/**
+ * Jobs run by the engine: merge order, errors, and closing.
+ */
+public class ScanEngineTest {
+
+    /**
+     * Concatenates the task indices, and records the threads that processed them.
+     */
+    private static class ListJob implements ScanEngine.Job<String> {
+        final int tasks;
+        final Thread[] threads;
+
+        ListJob(int tasks) {
+            this.tasks = tasks;
+            this.threads = new Thread[tasks];
+        }
+
+        @Override
+        public int getTaskCount() {
+            return tasks;
+        }
+
+        @Override
+        public String process(int task) throws ApplianceReaderError {
+            threads[task] = Thread.currentThread();
+            return Integer.toString(task);
+        }
+
+        @Override
+        public String merge(String merged, String partial) {
+            return merged == null ? partial : merged + "," + partial;
+        }
+
+        String expected() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < tasks; ++i) {
+                sb.append(i == 0 ? "" : ",").append(i);
+            }
+            return sb.toString();
+        }
+    }
+
+    @Test
+    public void resultsAreMergedInTaskOrder() throws ApplianceReaderError {
+        ScanEngine engine = new ScanEngine(4);
+        try {
+            for (int run = 0; run < 50; ++run) {
+                ListJob job = new ListJob(1 + run % 17);
+                assertEquals(job.expected(), engine.run(job));
+            }
+        } finally {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void aSingleWorkerRunsOnTheCaller() throws ApplianceReaderError {
+        ScanEngine engine = new ScanEngine(1);
+        ListJob job = new ListJob(8);
+        assertEquals(job.expected(), engine.run(job));
+        for (Thread t : job.threads) {
+            assertEquals(Thread.currentThread(), t);
+        }
+    }
+
+    @Test
+    public void emptyJobsReturnNull() throws ApplianceReaderError {
+        assertNull(new ScanEngine(1).run(new ListJob(0)));
+    }
+
+    @Test
+    public void theFirstErrorInTaskOrderIsThrown() {
+        ScanEngine engine = new ScanEngine(3);
+        try {
+            engine.run(new ListJob(12) {
+                @Override
+                public String process(int task) throws ApplianceReaderError {
+                    if (task == 5 || task == 9)
+                        throw new ApplianceReaderError("task " + task, ApplianceReaderError.Code.MISUSE);
+                    return super.process(task);
+                }
+            });
+            fail();
+        } catch (ApplianceReaderError e) {
+            assertEquals("task 5", e.getMessage());
+        } finally {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void aClosedEngineRunsJobsOnTheCaller() throws ApplianceReaderError {
+        ScanEngine engine = new ScanEngine(4);
+        engine.close();
+        ListJob job = new ListJob(8);
+        assertEquals(job.expected(), engine.run(job));
+        for (Thread t : job.threads) {
+            assertEquals(Thread.currentThread(), t);
+        }
+    }
+
+    @Test
+    public void closingDuringAJobLetsItComplete() throws Throwable {
+        final ScanEngine engine = new ScanEngine(3);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                engine.close();
+                closed.countDown();
+            }
+        };
+        closer.start();
+        // The first task waits until the engine is closed from another thread.
+        ListJob job = new ListJob(32) {
+            @Override
+            public String process(int task) throws ApplianceReaderError {
+                if (task == 0) {
+                    started.countDown();
+                    try {
+                        closed.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.process(task);
+            }
+        };
+        assertEquals(job.expected(), engine.run(job));
+        assertEquals(0, closed.getCount());
+        closer.join();
+
+        ListJob after = new ListJob(8);
+        assertEquals(after.expected(), engine.run(after));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void atLeastOneWorkerIsRequired() {
+        new ScanEngine(0);
+    }
+}
@@ -0,0 +1,195 @@
+package org.uw.cse.mag.ar.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Scan-rate policy, driven by a fake clock.
+ */
+public class ScanSchedulerTest {
+
+    private static final long MS = 1000000L;
+
+    private static final class FakeClock implements ScanScheduler.Clock {
+        long now = 1000 * MS;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        void advanceMillis(long millis) {
+            now += millis * MS;
+        }
+    }
+
+    private FakeClock clock;
+    private ScanScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        scheduler = new ScanScheduler(clock);
+        // Idle every 250 ms, candidates every frame, locked every 100 ms.
+        scheduler.setRates(4f, 0f, 10f);
+    }
+
+    /**
+     * Scans a frame now and reports its outcome.
+     */
+    private void scan(boolean candidate, boolean confirmed) {
+        assertTrue(scheduler.isDue());
+        scheduler.frameAccepted();
+        scheduler.frameScanned(candidate, confirmed);
+    }
+
+    @Test
+    public void startsIdleWithTheFirstFrameDue() {
+        assertEquals(ScanScheduler.State.IDLE, scheduler.getState());
+        assertEquals(4f, scheduler.getRate(), 0f);
+        assertTrue(scheduler.isDue());
+        assertEquals(0, scheduler.nextDelayMillis());
+    }
+
+    @Test
+    public void idleFramesAreDueAtTheIdleRate() {
+        scan(false, false);
+        assertEquals(ScanScheduler.State.IDLE, scheduler.getState());
+        assertFalse(scheduler.isDue());
+        assertEquals(250, scheduler.nextDelayMillis());
+        clock.advanceMillis(100);
+        assertFalse(scheduler.isDue());
+        assertEquals(150, scheduler.nextDelayMillis());
+        clock.advanceMillis(150);
+        assertTrue(scheduler.isDue());
+        assertEquals(0, scheduler.nextDelayMillis());
+    }
+
+    @Test
+    public void delaysAreRoundedUpToTheMillisecond() {
+        scan(false, false);
+        clock.now += 250 * MS - 1;
+        assertFalse(scheduler.isDue());
+        assertEquals(1, scheduler.nextDelayMillis());
+        clock.now += 1;
+        assertTrue(scheduler.isDue());
+    }
+
+    @Test
+    public void aCandidateSwitchesToItsRate() {
+        scan(true, false);
+        assertEquals(ScanScheduler.State.CANDIDATE, scheduler.getState());
+        assertEquals(0f, scheduler.getRate(), 0f);
+        // 0: every frame is due.
+        assertTrue(scheduler.isDue());
+        assertEquals(0, scheduler.nextDelayMillis());
+    }
+
+    @Test
+    public void aConfirmedResultSwitchesToTheLockedRate() {
+        scan(true, false);
+        scan(true, true);
+        assertEquals(ScanScheduler.State.LOCKED, scheduler.getState());
+        assertEquals(10f, scheduler.getRate(), 0f);
+        assertFalse(scheduler.isDue());
+        assertEquals(100, scheduler.nextDelayMillis());
+        clock.advanceMillis(100);
+        assertTrue(scheduler.isDue());
+    }
+
+    @Test
+    public void confirmationLocksEvenFromIdle() {
+        scan(true, true);
+        assertEquals(ScanScheduler.State.LOCKED, scheduler.getState());
+    }
+
+    @Test
+    public void aLostResultIsSearchedAtTheCandidateRate() {
+        scan(true, true);
+        clock.advanceMillis(100);
+        scan(false, false);
+        assertEquals(ScanScheduler.State.CANDIDATE, scheduler.getState());
+        assertTrue(scheduler.isDue());
+    }
+
+    @Test
+    public void candidatesExpireAfterTheHoldTime() {
+        scheduler.candidateHoldMillis = 1000;
+        scan(true, false);
+        clock.advanceMillis(600);
+        scan(false, false);
+        assertEquals(ScanScheduler.State.CANDIDATE, scheduler.getState());
+        clock.advanceMillis(399);
+        scan(false, false);
+        assertEquals(ScanScheduler.State.CANDIDATE, scheduler.getState());
+        clock.advanceMillis(1);
+        scan(false, false);
+        assertEquals(ScanScheduler.State.IDLE, scheduler.getState());
+        assertFalse(scheduler.isDue());
+        assertEquals(250, scheduler.nextDelayMillis());
+    }
+
+    @Test
+    public void aNewCandidateRestartsTheHoldTime() {
+        scheduler.candidateHoldMillis = 1000;
+        scan(true, false);
+        clock.advanceMillis(800);
+        scan(true, false);
+        clock.advanceMillis(800);
+        scan(false, false);
+        assertEquals(ScanScheduler.State.CANDIDATE, scheduler.getState());
+        clock.advanceMillis(200);
+        scan(false, false);
+        assertEquals(ScanScheduler.State.IDLE, scheduler.getState());
+    }
+
+    @Test
+    public void ratesOfZeroOrLessScanEveryFrame() {
+        scheduler.setRates(0f, 0f, -1f);
+        scan(false, false);
+        assertEquals(ScanScheduler.State.IDLE, scheduler.getState());
+        assertTrue(scheduler.isDue());
+        scan(true, true);
+        assertEquals(ScanScheduler.State.LOCKED, scheduler.getState());
+        assertTrue(scheduler.isDue());
+        assertEquals(0, scheduler.nextDelayMillis());
+    }
+
+    @Test
+    public void newRatesApplyToTheNextFrame() {
+        scan(false, false);
+        assertEquals(250, scheduler.nextDelayMillis());
+        scheduler.setRates(2f, 0f, 10f);
+        assertEquals(2f, scheduler.getRate(), 0f);
+        assertEquals(500, scheduler.nextDelayMillis());
+        scheduler.setRates(0f, 0f, 10f);
+        assertTrue(scheduler.isDue());
+    }
+
+    @Test
+    public void resetGoesBackToIdleWithAFrameDue() {
+        scan(true, true);
+        scheduler.reset();
+        assertEquals(ScanScheduler.State.IDLE, scheduler.getState());
+        assertTrue(scheduler.isDue());
+    }
+
+    @Test
+    public void defaultRates() {
+        ScanScheduler defaults = new ScanScheduler(clock);
+        assertEquals(4f, defaults.getRate(), 0f);
+        defaults.frameScanned(true, false);
+        assertEquals(0f, defaults.getRate(), 0f);
+        defaults.frameScanned(true, true);
+        assertEquals(10f, defaults.getRate(), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aClockIsRequired() {
+        new ScanScheduler(null);
+    }
+}
@@ -0,0 +1,178 @@
+package org.uw.cse.mag.ar.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * FAST-9 corners of synthetic checkerboards.
+ */
+public class FastDetectorTest {
+
+    private static final int SQUARE = 16;
+    private static final int COLUMNS = 7;
+    private static final int ROWS = 6;
+    // Top left corner of the board in the image.
+    private static final int LEFT = 24;
+    private static final int TOP = 16;
+
+    private final int[] xs = new int[1000];
+    private final int[] ys = new int[1000];
+    private final int[] scores = new int[1000];
+
+    /**
+     * @return a checkerboard of 16 pixel squares, 230 and 30, on a 128 background.
+     */
+    private static GrayImage checkerboard() {
+        GrayImage img = new GrayImage(160, 128);
+        Arrays.fill(img.data, (byte) 128);
+        for (int y = 0; y < ROWS * SQUARE; ++y) {
+            for (int x = 0; x < COLUMNS * SQUARE; ++x) {
+                img.set(LEFT + x, TOP + y, ((x / SQUARE + y / SQUARE) & 1) == 0 ? 230 : 30);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * @return the number of detections within {@code radius} pixels of (x, y).
+     */
+    private static int near(int[] xs, int[] ys, int n, int x, int y, int radius) {
+        int found = 0;
+        for (int i = 0; i < n; ++i) {
+            if (Math.abs(xs[i] - x) <= radius && Math.abs(ys[i] - y) <= radius)
+                found++;
+        }
+        return found;
+    }
+
+    @Test
+    public void findsTheCornersAlongTheBoardEdge() {
+        int n = new FastDetector(1000).detect(checkerboard(), 3, xs, ys, scores, 0, 1000);
+        int right = LEFT + COLUMNS * SQUARE - 1;
+        int bottom = TOP + ROWS * SQUARE - 1;
+
+        // The four outer corners, at their exact pixel.
+        assertEquals(1, near(xs, ys, n, LEFT, TOP, 0));
+        assertEquals(1, near(xs, ys, n, right, TOP, 0));
+        assertEquals(1, near(xs, ys, n, LEFT, bottom, 0));
+        assertEquals(1, near(xs, ys, n, right, bottom, 0));
+        // One corner at each junction of two squares with the background.
+        for (int i = 1; i < COLUMNS; ++i) {
+            assertEquals(1, near(xs, ys, n, LEFT + i * SQUARE, TOP, 3));
+            assertEquals(1, near(xs, ys, n, LEFT + i * SQUARE, bottom, 3));
+        }
+        for (int j = 1; j < ROWS; ++j) {
+            assertEquals(1, near(xs, ys, n, LEFT, TOP + j * SQUARE, 3));
+            assertEquals(1, near(xs, ys, n, right, TOP + j * SQUARE, 3));
+        }
+        assertEquals(4 + 2 * (COLUMNS - 1) + 2 * (ROWS - 1), n);
+    }
+
+    @Test
+    public void innerCrossingsAreNotFastCorners() {
+        // Four squares meeting at a point: the circle has four arcs of 4 pixels, none of 9.
+        FastDetector fast = new FastDetector(1000);
+        int n = fast.detect(checkerboard(), 3, xs, ys, scores, 0, 1000);
+        for (int j = 1; j < ROWS; ++j) {
+            for (int i = 1; i < COLUMNS; ++i) {
+                assertEquals(0, near(xs, ys, n, LEFT + i * SQUARE, TOP + j * SQUARE, 4));
+            }
+        }
+    }
+
+    @Test
+    public void flatAndLowContrastImagesHaveNoCorners() {
+        FastDetector fast = new FastDetector(1000);
+        GrayImage flat = new GrayImage(64, 64);
+        Arrays.fill(flat.data, (byte) 90);
+        assertEquals(0, fast.detect(flat, 3, xs, ys, scores, 0, 1000));
+
+        // A square 15 levels above its background, below the default threshold.
+        for (int y = 20; y < 40; ++y) {
+            for (int x = 20; x < 40; ++x) {
+                flat.set(x, y, 105);
+            }
+        }
+        assertEquals(0, fast.detect(flat, 3, xs, ys, scores, 0, 1000));
+        fast.threshold = 10;
+        assertEquals(4, fast.detect(flat, 3, xs, ys, scores, 0, 1000));
+    }
+
+    @Test
+    public void scoresGrowWithContrast() {
+        FastDetector fast = new FastDetector(1000);
+        GrayImage img = new GrayImage(64, 32);
+        Arrays.fill(img.data, (byte) 100);
+        for (int y = 10; y < 22; ++y) {
+            for (int x = 8; x < 20; ++x) {
+                img.set(x, y, 160);
+                img.set(x + 32, y, 220);
+            }
+        }
+        int n = fast.detect(img, 3, xs, ys, scores, 0, 1000);
+        assertEquals(8, n);
+        for (int i = 0; i < n; ++i) {
+            int twin = -1;
+            for (int j = 0; j < n; ++j) {
+                if (xs[j] == xs[i] + 32 && ys[j] == ys[i])
+                    twin = j;
+            }
+            if (xs[i] < 32) {
+                assertTrue(twin >= 0);
+                assertTrue(scores[twin] > scores[i]);
+            }
+        }
+    }
+
+    @Test
+    public void cornersInTheBorderAreNotReported() {
+        FastDetector fast = new FastDetector(1000);
+        GrayImage img = checkerboard();
+        int n = fast.detect(img, TOP + 1, xs, ys, scores, 0, 1000);
+        for (int i = 0; i < n; ++i) {
+            assertTrue(ys[i] > TOP);
+            assertTrue(xs[i] > TOP && xs[i] < img.width - TOP - 1);
+        }
+        assertEquals(0, near(xs, ys, n, LEFT, TOP, 0));
+    }
+
+    @Test
+    public void outputIsLimitedAndOffset() {
+        FastDetector fast = new FastDetector(1000);
+        int all = fast.detect(checkerboard(), 3, xs, ys, scores, 0, 1000);
+        int[] x2 = new int[20], y2 = new int[20], s2 = new int[20];
+        assertEquals(5, fast.detect(checkerboard(), 3, x2, y2, s2, 10, 5));
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(xs[i], x2[10 + i]);
+            assertEquals(ys[i], y2[10 + i]);
+            assertEquals(scores[i], s2[10 + i]);
+        }
+        assertEquals(0, x2[9]);
+        assertEquals(0, x2[15]);
+        assertTrue(all > 5);
+    }
+
+    @Test
+    public void stridedViewsFindTheSameCorners() {
+        GrayImage board = checkerboard();
+        // The board at (5, 7) of a wider image.
+        GrayImage canvas = new GrayImage(board.width + 12, board.height + 10);
+        for (int y = 0; y < board.height; ++y) {
+            System.arraycopy(board.data, y * board.width, canvas.data, (y + 7) * canvas.width + 5, board.width);
+        }
+        GrayImage view = new GrayImage().subImage(canvas, 5, 7, board.width, board.height);
+        FastDetector fast = new FastDetector(1000);
+        int n = fast.detect(board, 3, xs, ys, scores, 0, 1000);
+        int[] x2 = new int[1000], y2 = new int[1000], s2 = new int[1000];
+        assertEquals(n, fast.detect(view, 3, x2, y2, s2, 0, 1000));
+        for (int i = 0; i < n; ++i) {
+            assertEquals(xs[i], x2[i]);
+            assertEquals(ys[i], y2[i]);
+            assertEquals(scores[i], s2[i]);
+        }
+    }
+}
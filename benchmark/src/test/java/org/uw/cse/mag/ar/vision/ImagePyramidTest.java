@@ -0,0 +1,249 @@
+package org.uw.cse.mag.ar.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Pyramid levels built with the box filter and with bilinear resampling, in full and
+ * inside regions of interest.
+ */
+public class ImagePyramidTest {
+
+    /**
+     * @return the luma of a synthetic NV21 frame of random pixels.
+     */
+    private static GrayImage randomLuma(int width, int height, long seed) {
+        byte[] frame = new byte[LumaPreprocessor.nv21Size(width, height)];
+        new Random(seed).nextBytes(frame);
+        LumaPreprocessor luma = new LumaPreprocessor(width, height);
+        luma.process(frame);
+        return luma.getFull();
+    }
+
+    private static GrayImage copy(GrayImage src) {
+        GrayImage dst = new GrayImage(src.width, src.height);
+        for (int y = 0; y < src.height; ++y) {
+            System.arraycopy(src.data, src.offset + y * src.stride, dst.data, y * dst.width, src.width);
+        }
+        return dst;
+    }
+
+    @Test
+    public void levelSizesAndScales() {
+        ImagePyramid pyr = new ImagePyramid(640, 480, 4, 2f);
+        assertEquals(4, pyr.getLevelCount());
+        assertEquals(2f, pyr.getScale(), 0f);
+        int[][] sizes = {{640, 480}, {320, 240}, {160, 120}, {80, 60}};
+        pyr.build(randomLuma(640, 480, 1));
+        for (int i = 0; i < sizes.length; ++i) {
+            assertTrue(pyr.getLevel(i).isSize(sizes[i][0], sizes[i][1]));
+            assertEquals(1 << i, pyr.getLevelScale(i), 1e-6f);
+        }
+        assertEquals(320 * 240 + 160 * 120 + 80 * 60, pyr.getMemoryBytes());
+    }
+
+    @Test
+    public void levelsBelowTheMinimumSizeAreDropped() {
+        // 40x30, 20x15: the second level is too small.
+        assertEquals(1, new ImagePyramid(40, 30, 4, 2f).getLevelCount());
+        assertEquals(2, new ImagePyramid(64, 32, 4, 2f).getLevelCount());
+    }
+
+    @Test
+    public void findLevelPicksTheSmallestLevelWithinTheScale() {
+        ImagePyramid pyr = new ImagePyramid(640, 480, 4, 2f);
+        assertEquals(0, pyr.findLevel(1f));
+        assertEquals(0, pyr.findLevel(1.9f));
+        assertEquals(1, pyr.findLevel(2f));
+        assertEquals(2, pyr.findLevel(5f));
+        assertEquals(3, pyr.findLevel(100f));
+    }
+
+    @Test
+    public void baseLevelIsAViewOverTheLuma() {
+        GrayImage luma = randomLuma(64, 48, 2);
+        ImagePyramid pyr = new ImagePyramid(64, 48, 3, 2f);
+        pyr.build(luma);
+        assertSame(luma.data, pyr.getLevel(0).data);
+        assertEquals(luma.stride, pyr.getLevel(0).stride);
+    }
+
+    @Test
+    public void boxLevelsAreSuccessiveDownscales() {
+        GrayImage luma = randomLuma(101, 67, 3);
+        ImagePyramid pyr = new ImagePyramid(101, 67, 3, 2f);
+        pyr.build(luma);
+        // Odd sizes are truncated: 101x67, 50x33, 25x16.
+        assertTrue(pyr.getLevel(1).isSize(50, 33));
+        assertTrue(pyr.getLevel(2).isSize(25, 16));
+        for (int i = 1; i < 3; ++i) {
+            GrayImage src = pyr.getLevel(i - 1);
+            GrayImage dst = pyr.getLevel(i);
+            for (int y = 0; y < dst.height; ++y) {
+                for (int x = 0; x < dst.width; ++x) {
+                    int sum = src.get(2 * x, 2 * y) + src.get(2 * x + 1, 2 * y)
+                            + src.get(2 * x, 2 * y + 1) + src.get(2 * x + 1, 2 * y + 1);
+                    assertEquals((sum + 2) >> 2, dst.get(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boxLevelsOfAStridedBase() {
+        // The luma of a 48x32 frame, viewed inside a wider buffer.
+        GrayImage wide = randomLuma(60, 40, 4);
+        GrayImage base = new GrayImage().subImage(wide, 5, 3, 48, 32);
+        ImagePyramid pyr = new ImagePyramid(48, 32, 2, 2f);
+        pyr.build(base);
+        ImagePyramid packed = new ImagePyramid(48, 32, 2, 2f);
+        packed.build(copy(base));
+        for (int y = 0; y < 16; ++y) {
+            for (int x = 0; x < 24; ++x) {
+                assertEquals(packed.getLevel(1).get(x, y), pyr.getLevel(1).get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void bilinearLevelsOfAConstantImageAreConstant() {
+        GrayImage luma = new GrayImage(90, 60);
+        Arrays.fill(luma.data, (byte) 200);
+        ImagePyramid pyr = new ImagePyramid(90, 60, 4, 1.5f);
+        pyr.build(luma);
+        assertEquals(4, pyr.getLevelCount());
+        for (int i = 1; i < pyr.getLevelCount(); ++i) {
+            GrayImage level = pyr.getLevel(i);
+            for (int y = 0; y < level.height; ++y) {
+                for (int x = 0; x < level.width; ++x) {
+                    assertEquals(200, level.get(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bilinearLevelsSamplePixelCenters() {
+        // A ramp along both axes: bilinear interpolation is exact, up to rounding.
+        int w = 90, h = 60;
+        GrayImage luma = new GrayImage(w, h);
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                luma.set(x, y, 2 * x + y);
+            }
+        }
+        ImagePyramid pyr = new ImagePyramid(w, h, 2, 1.5f);
+        pyr.build(luma);
+        GrayImage level = pyr.getLevel(1);
+        assertTrue(level.isSize(60, 40));
+        for (int y = 0; y < level.height; ++y) {
+            float sy = Math.min(h - 1, Math.max(0, (y + 0.5f) * 1.5f - 0.5f));
+            for (int x = 0; x < level.width; ++x) {
+                float sx = Math.min(w - 1, Math.max(0, (x + 0.5f) * 1.5f - 0.5f));
+                assertEquals("(" + x + ", " + y + ")", 2 * sx + sy, level.get(x, y), 1f);
+            }
+        }
+        assertEquals(w / (float) 60, pyr.getLevelScale(1), 1e-6f);
+    }
+
+    @Test
+    public void roiBuildsMatchFullBuildsInsideTheRegions() {
+        checkRoiBuild(2f);
+        checkRoiBuild(1.5f);
+    }
+
+    private static void checkRoiBuild(float scale) {
+        int w = 160, h = 120;
+        GrayImage previous = randomLuma(w, h, 5);
+        GrayImage current = randomLuma(w, h, 6);
+        ImagePyramid full = new ImagePyramid(w, h, 4, scale);
+        full.build(current);
+
+        ImagePyramid partial = new ImagePyramid(w, h, 4, scale);
+        partial.build(previous);
+        RoiSet rois = new RoiSet(4, 4);
+        rois.reset(w, h);
+        rois.add(8, 16, 72, 80);
+        rois.add(100, 8, 150, 50);
+        partial.build(current, rois);
+
+        assertSame(current.data, partial.getLevel(0).data);
+        int stale = 0;
+        for (int i = 1; i < full.getLevelCount(); ++i) {
+            GrayImage expected = full.getLevel(i);
+            GrayImage actual = partial.getLevel(i);
+            float s = full.getLevelScale(i);
+            for (int y = 0; y < expected.height; ++y) {
+                for (int x = 0; x < expected.width; ++x) {
+                    int r = region(rois, x, y, s);
+                    if (r >= 0)
+                        assertEquals(scale + " level " + i + " (" + x + ", " + y + ")",
+                                expected.get(x, y), actual.get(x, y));
+                    else if (!near(rois, x, y, s) && expected.get(x, y) != actual.get(x, y))
+                        stale++;
+                }
+            }
+        }
+        // Far from the regions, the levels still hold the previous frame.
+        assertTrue(stale > 0);
+    }
+
+    /**
+     * @return the index of the region holding level pixel (x, y) with a two pixel margin,
+     *         or -1: the borders of the smaller levels may be stale.
+     */
+    private static int region(RoiSet rois, int x, int y, float s) {
+        for (int r = 0; r < rois.size(); ++r) {
+            if (x >= Math.ceil(rois.getX0(r) / s) + 2 && x < Math.floor(rois.getX1(r) / s) - 2
+                    && y >= Math.ceil(rois.getY0(r) / s) + 2 && y < Math.floor(rois.getY1(r) / s) - 2)
+                return r;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if level pixel (x, y) is within three pixels of a region.
+     */
+    private static boolean near(RoiSet rois, int x, int y, float s) {
+        for (int r = 0; r < rois.size(); ++r) {
+            if (x >= rois.getX0(r) / s - 3 && x < rois.getX1(r) / s + 3
+                    && y >= rois.getY0(r) / s - 3 && y < rois.getY1(r) / s + 3)
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void emptyRegionsBuildEverything() {
+        GrayImage previous = randomLuma(64, 48, 7);
+        GrayImage current = randomLuma(64, 48, 8);
+        ImagePyramid full = new ImagePyramid(64, 48, 2, 2f);
+        full.build(current);
+        ImagePyramid partial = new ImagePyramid(64, 48, 2, 2f);
+        partial.build(previous);
+        RoiSet rois = new RoiSet(1, 4);
+        rois.reset(64, 48);
+        partial.build(current, rois);
+        for (int y = 0; y < 24; ++y) {
+            for (int x = 0; x < 32; ++x) {
+                assertEquals(full.getLevel(1).get(x, y), partial.getLevel(1).get(x, y));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void baseOfTheWrongSizeIsRejected() {
+        new ImagePyramid(64, 48, 2, 2f).build(new GrayImage(48, 64));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scaleFactorsOfOneAreRejected() {
+        new ImagePyramid(64, 48, 2, 1f);
+    }
+}
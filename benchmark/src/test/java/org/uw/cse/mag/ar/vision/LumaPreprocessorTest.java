@@ -0,0 +1,164 @@
+package org.uw.cse.mag.ar.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * NV21 luma extraction and 2x downscaling, on synthetic frames.
+ */
+public class LumaPreprocessorTest {
+
+    /**
+     * @return an NV21 frame whose luma at (x, y) is {@code (7 * x + 13 * y) & 0xFF} and
+     *         whose chroma is 0xEE, so that reading it as luma shows.
+     */
+    static byte[] nv21(int width, int height) {
+        byte[] frame = new byte[LumaPreprocessor.nv21Size(width, height)];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                frame[y * width + x] = (byte) (7 * x + 13 * y);
+            }
+        }
+        for (int i = width * height; i < frame.length; ++i) {
+            frame[i] = (byte) 0xEE;
+        }
+        return frame;
+    }
+
+    @Test
+    public void nv21SizeCountsHalfResolutionChroma() {
+        assertEquals(640 * 480 * 3 / 2, LumaPreprocessor.nv21Size(640, 480));
+        assertEquals(6 * 4 * 3 / 2, LumaPreprocessor.nv21Size(6, 4));
+    }
+
+    @Test
+    public void fullImageIsTheYPlaneInPlace() {
+        byte[] frame = nv21(10, 6);
+        LumaPreprocessor luma = new LumaPreprocessor(10, 6);
+        luma.process(frame);
+        GrayImage full = luma.getFull();
+        assertSame(frame, full.data);
+        assertEquals(0, full.offset);
+        assertEquals(10, full.stride);
+        assertEquals(10, full.width);
+        assertEquals(6, full.height);
+        for (int y = 0; y < 6; ++y) {
+            for (int x = 0; x < 10; ++x) {
+                assertEquals((7 * x + 13 * y) & 0xFF, full.get(x, y));
+            }
+        }
+        // A view, not a copy.
+        frame[3 * 10 + 4] = 42;
+        assertEquals(42, full.get(4, 3));
+    }
+
+    @Test
+    public void processReusesTheSameView() {
+        LumaPreprocessor luma = new LumaPreprocessor(8, 4);
+        luma.process(nv21(8, 4));
+        GrayImage first = luma.getFull();
+        byte[] second = nv21(8, 4);
+        luma.process(second);
+        assertSame(first, luma.getFull());
+        assertSame(second, luma.getFull().data);
+    }
+
+    @Test
+    public void lumaOnlyFramesAreAccepted() {
+        LumaPreprocessor luma = new LumaPreprocessor(8, 4);
+        luma.process(new byte[8 * 4]);
+        assertEquals(8, luma.getFull().width);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortFramesAreRejected() {
+        new LumaPreprocessor(8, 4).process(new byte[8 * 4 - 1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tinyFramesAreRejected() {
+        new LumaPreprocessor(3, 4);
+    }
+
+    @Test
+    public void downscale2xAveragesBlocksRoundingHalfUp() {
+        GrayImage src = new GrayImage(4, 2);
+        int[] values = {
+                0, 1, 10, 20,
+                1, 1, 30, 40,
+        };
+        for (int i = 0; i < values.length; ++i) {
+            src.data[i] = (byte) values[i];
+        }
+        GrayImage dst = new GrayImage(2, 1);
+        LumaPreprocessor.downscale2x(src, dst);
+        // (0 + 1 + 1 + 1) / 4 = 0.75 and (10 + 20 + 30 + 40) / 4 = 25.
+        assertEquals(1, dst.get(0, 0));
+        assertEquals(25, dst.get(1, 0));
+    }
+
+    @Test
+    public void downscale2xReadsUnsignedPixels() {
+        GrayImage src = new GrayImage(2, 2);
+        src.data[0] = (byte) 255;
+        src.data[1] = (byte) 255;
+        src.data[2] = (byte) 254;
+        src.data[3] = (byte) 254;
+        GrayImage dst = new GrayImage(1, 1);
+        LumaPreprocessor.downscale2x(src, dst);
+        assertEquals(255, dst.get(0, 0));
+    }
+
+    @Test
+    public void downscale2xOfTheLumaMatchesTheBoxFilter() {
+        int w = 13, h = 9;
+        LumaPreprocessor luma = new LumaPreprocessor(w, h);
+        luma.process(nv21(w, h));
+        GrayImage src = luma.getFull();
+        // Odd sizes: the last row and column are ignored.
+        GrayImage dst = new GrayImage(w / 2, h / 2);
+        LumaPreprocessor.downscale2x(src, dst);
+        for (int y = 0; y < h / 2; ++y) {
+            for (int x = 0; x < w / 2; ++x) {
+                int sum = src.get(2 * x, 2 * y) + src.get(2 * x + 1, 2 * y)
+                        + src.get(2 * x, 2 * y + 1) + src.get(2 * x + 1, 2 * y + 1);
+                assertEquals("(" + x + ", " + y + ")", (sum + 2) >> 2, dst.get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void downscale2xHonorsOffsetsAndStrides() {
+        int w = 12, h = 10;
+        byte[] frame = nv21(w, h);
+        GrayImage full = new GrayImage().wrap(frame, 0, w, w, h);
+        // A 6x4 region at (3, 1) of the frame, into a 3x2 region at (1, 2) of a larger image.
+        GrayImage src = new GrayImage().subImage(full, 3, 1, 6, 4);
+        GrayImage canvas = new GrayImage(7, 5);
+        GrayImage dst = new GrayImage().subImage(canvas, 1, 2, 3, 2);
+        LumaPreprocessor.downscale2x(src, dst);
+
+        GrayImage expected = new GrayImage(3, 2);
+        GrayImage copy = new GrayImage(6, 4);
+        for (int y = 0; y < 4; ++y) {
+            for (int x = 0; x < 6; ++x) {
+                copy.set(x, y, full.get(3 + x, 1 + y));
+            }
+        }
+        LumaPreprocessor.downscale2x(copy, expected);
+        for (int y = 0; y < 5; ++y) {
+            for (int x = 0; x < 7; ++x) {
+                boolean inside = x >= 1 && x < 4 && y >= 2 && y < 4;
+                assertEquals("(" + x + ", " + y + ")",
+                        inside ? expected.get(x - 1, y - 2) : 0, canvas.get(x, y));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downscale2xRejectsAMismatchedDestination() {
+        LumaPreprocessor.downscale2x(new GrayImage(8, 8), new GrayImage(4, 3));
+    }
+}
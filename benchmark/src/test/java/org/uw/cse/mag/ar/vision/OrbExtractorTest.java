@@ -0,0 +1,166 @@
+package org.uw.cse.mag.ar.vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.uw.cse.mag.ar.benchmark.Frames;
+import org.uw.cse.mag.ar.recognition.HammingMatcher;
+
+/**
+ * Keypoints and descriptors of synthetic frames: determinism, and matching of rotated
+ * and scaled views of the same frame.
+ */
+public class OrbExtractorTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static Keypoints extract(OrbExtractor extractor, GrayImage img, int bits) {
+        ImagePyramid pyr = new ImagePyramid(img.width, img.height, 4, 2f);
+        pyr.build(img);
+        Keypoints kp = new Keypoints(OrbExtractor.DEFAULT_MAX_KEYPOINTS, bits);
+        int n = extractor.extract(pyr, kp);
+        assertEquals(n, kp.count);
+        return kp;
+    }
+
+    /**
+     * Rotates and scales an image about its center, with bilinear interpolation.
+     * @return the transformed image, gray where the source is out of view.
+     */
+    private static GrayImage warp(GrayImage src, double degrees, double scale) {
+        GrayImage dst = new GrayImage(src.width, src.height);
+        double cx = src.width / 2.0, cy = src.height / 2.0;
+        double cos = Math.cos(Math.toRadians(degrees)), sin = Math.sin(Math.toRadians(degrees));
+        for (int y = 0; y < dst.height; ++y) {
+            for (int x = 0; x < dst.width; ++x) {
+                double dx = x - cx, dy = y - cy;
+                double sx = (cos * dx + sin * dy) / scale + cx;
+                double sy = (-sin * dx + cos * dy) / scale + cy;
+                int x0 = (int) Math.floor(sx), y0 = (int) Math.floor(sy);
+                if (x0 < 0 || y0 < 0 || x0 >= src.width - 1 || y0 >= src.height - 1) {
+                    dst.set(x, y, 128);
+                    continue;
+                }
+                double fx = sx - x0, fy = sy - y0;
+                double top = (1 - fx) * src.get(x0, y0) + fx * src.get(x0 + 1, y0);
+                double bottom = (1 - fx) * src.get(x0, y0 + 1) + fx * src.get(x0 + 1, y0 + 1);
+                dst.set(x, y, (int) Math.round((1 - fy) * top + fy * bottom));
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Matches a warped view against its reference, and checks that most matches land
+     * where the warp moved their reference keypoint.
+     */
+    private static void checkMatches(double degrees, double scale, int minCorrect) {
+        GrayImage ref = Frames.luma(WIDTH, HEIGHT, 7);
+        OrbExtractor extractor = new OrbExtractor();
+        Keypoints train = extract(extractor, ref, 256);
+        Keypoints query = extract(extractor, warp(ref, degrees, scale), 256);
+
+        HammingMatcher matcher = new HammingMatcher();
+        matcher.crossCheck = true;
+        int[] q = new int[query.count], t = new int[query.count], d = new int[query.count];
+        int n = matcher.match(query.descriptors, 0, query.count, train.descriptors, 0, train.count,
+                train.words, q, t, d);
+        double cos = Math.cos(Math.toRadians(degrees)), sin = Math.sin(Math.toRadians(degrees));
+        int correct = 0;
+        for (int i = 0; i < n; ++i) {
+            double dx = train.x[t[i]] - WIDTH / 2.0, dy = train.y[t[i]] - HEIGHT / 2.0;
+            double x = scale * (cos * dx - sin * dy) + WIDTH / 2.0;
+            double y = scale * (sin * dx + cos * dy) + HEIGHT / 2.0;
+            if (Math.hypot(x - query.x[q[i]], y - query.y[q[i]]) < 4)
+                correct++;
+        }
+        String view = degrees + " degrees, x" + scale + ": " + correct + " of " + n;
+        assertTrue(view, correct >= minCorrect);
+        assertTrue(view, correct >= 0.8 * n);
+    }
+
+    @Test
+    public void descriptorsAreDeterministic() {
+        GrayImage img = Frames.luma(WIDTH, HEIGHT, 3);
+        OrbExtractor extractor = new OrbExtractor();
+        Keypoints a = extract(extractor, img, 256);
+        Keypoints b = extract(extractor, img, 256);
+        Keypoints c = extract(new OrbExtractor(), img, 256);
+        assertTrue(a.count > 100);
+        for (Keypoints other : new Keypoints[]{b, c}) {
+            assertEquals(a.count, other.count);
+            assertArrayEquals(a.x, other.x, 0f);
+            assertArrayEquals(a.y, other.y, 0f);
+            assertArrayEquals(a.level, other.level);
+            assertArrayEquals(a.descriptors, other.descriptors);
+        }
+    }
+
+    @Test
+    public void keypointsStayAwayFromTheEdges() {
+        Keypoints kp = extract(new OrbExtractor(), Frames.luma(WIDTH, HEIGHT, 5), 256);
+        for (int i = 0; i < kp.count; ++i) {
+            assertTrue(kp.x[i] >= 15 && kp.x[i] < WIDTH - 15);
+            assertTrue(kp.y[i] >= 15 && kp.y[i] < HEIGHT - 15);
+            assertTrue(kp.level[i] >= 0 && kp.level[i] < 2);
+        }
+    }
+
+    @Test
+    public void theGridSpreadsTheKeypoints() {
+        OrbExtractor extractor = new OrbExtractor();
+        extractor.gridColumns = 4;
+        extractor.gridRows = 3;
+        extractor.maxPerCell = 5;
+        Keypoints kp = extract(extractor, Frames.luma(WIDTH, HEIGHT, 5), 256);
+        int[] cells = new int[12];
+        for (int i = 0; i < kp.count; ++i) {
+            cells[(int) (kp.y[i] * 3 / HEIGHT) * 4 + (int) (kp.x[i] * 4 / WIDTH)]++;
+        }
+        for (int c : cells) {
+            assertTrue(c <= 5);
+        }
+        // The frame has corners all over: most cells are full.
+        assertTrue(kp.count > 40 && kp.count <= 60);
+    }
+
+    @Test
+    public void theStrongestKeypointsComeFirst() {
+        OrbExtractor extractor = new OrbExtractor();
+        extractor.maxPerCell = 0;
+        Keypoints kp = extract(extractor, Frames.luma(WIDTH, HEIGHT, 5), 256);
+        for (int i = 1; i < kp.count; ++i) {
+            assertTrue(kp.response[i] <= kp.response[i - 1]);
+        }
+    }
+
+    @Test
+    public void rotatedViewsMatchTheirReference() {
+        checkMatches(30, 1, 30);
+        checkMatches(90, 1, 30);
+    }
+
+    @Test
+    public void scaledViewsMatchTheirReference() {
+        checkMatches(0, 1.3, 20);
+        checkMatches(45, 0.8, 20);
+    }
+
+    @Test
+    public void rotatedAndScaledViewsMatchTheirReference() {
+        checkMatches(20, 1.2, 20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keypointsOfAnotherLengthAreRejected() {
+        extract(new OrbExtractor(), Frames.luma(WIDTH, HEIGHT, 5), 512);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void descriptorLengthsAreMultiplesOf64() {
+        new OrbExtractor(100, 100);
+    }
+}
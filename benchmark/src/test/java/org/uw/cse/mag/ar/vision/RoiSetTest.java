@@ -0,0 +1,123 @@
+package org.uw.cse.mag.ar.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Regions of interest: clipping, projection and merging.
+ */
+public class RoiSetTest {
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+    private static void assertRect(RoiSet rois, int i, int x0, int y0, int x1, int y1) {
+        assertEquals(x0, rois.getX0(i));
+        assertEquals(y0, rois.getY0(i));
+        assertEquals(x1, rois.getX1(i));
+        assertEquals(y1, rois.getY1(i));
+    }
+
+    @Test
+    public void rectanglesAreClippedToTheFrame() {
+        RoiSet rois = new RoiSet(4, 4);
+        rois.reset(100, 80);
+        assertTrue(rois.add(-10, -5, 20, 30));
+        assertTrue(rois.add(90, 70, 120, 100));
+        assertEquals(2, rois.size());
+        assertRect(rois, 0, 0, 0, 20, 30);
+        assertRect(rois, 1, 90, 70, 100, 80);
+    }
+
+    @Test
+    public void emptyRectanglesAreIgnored() {
+        RoiSet rois = new RoiSet(4, 4);
+        rois.reset(100, 80);
+        assertTrue(rois.add(10, 10, 10, 20));
+        assertTrue(rois.add(200, 10, 300, 20));
+        assertTrue(rois.isEmpty());
+        assertEquals(0f, rois.getCoverage(), 0f);
+    }
+
+    @Test
+    public void aFullSetRefusesMoreRegions() {
+        RoiSet rois = new RoiSet(2, 4);
+        rois.reset(100, 80);
+        assertTrue(rois.add(0, 0, 10, 10));
+        assertTrue(rois.add(20, 0, 30, 10));
+        assertFalse(rois.add(40, 0, 50, 10));
+        assertEquals(2, rois.size());
+    }
+
+    @Test
+    public void resetEmptiesTheSet() {
+        RoiSet rois = new RoiSet(2, 4);
+        rois.reset(100, 80);
+        rois.add(0, 0, 10, 10);
+        rois.reset(50, 50);
+        assertTrue(rois.isEmpty());
+        rois.add(0, 0, 100, 100);
+        assertRect(rois, 0, 0, 0, 50, 50);
+    }
+
+    @Test
+    public void projectedPolygonsAddTheirBoundsWithAMargin() {
+        RoiSet rois = new RoiSet(4, 4);
+        rois.reset(200, 200);
+        float[] polygon = {10.5f, 20f, 30f, 20f, 30f, 40.2f, 10.5f, 40.2f};
+        assertTrue(rois.addProjected(IDENTITY, polygon, 4));
+        assertRect(rois, 0, 6, 16, 35, 46);
+
+        // Scaled by 2 and translated by (50, 60).
+        float[] h = {2, 0, 50, 0, 2, 60, 0, 0, 1};
+        rois.reset(200, 200);
+        assertTrue(rois.addProjected(h, new float[]{0, 0, 10, 0, 10, 5, 0, 5}, 0));
+        assertRect(rois, 0, 50, 60, 71, 71);
+    }
+
+    @Test
+    public void polygonsWithTooManyVerticesAreRefused() {
+        RoiSet rois = new RoiSet(4, 2);
+        rois.reset(200, 200);
+        assertFalse(rois.addProjected(IDENTITY, new float[]{0, 0, 10, 0, 10, 10}, 0));
+        assertTrue(rois.isEmpty());
+    }
+
+    @Test
+    public void overlappingRegionsMergeTransitively() {
+        RoiSet rois = new RoiSet(8, 4);
+        rois.reset(200, 200);
+        rois.add(0, 0, 20, 20);
+        rois.add(100, 100, 120, 120);
+        rois.add(30, 0, 50, 20);
+        // Bridges the first and the third.
+        rois.add(15, 5, 35, 10);
+        rois.mergeOverlapping();
+        assertEquals(2, rois.size());
+        int merged = rois.getX0(0) == 0 ? 0 : 1;
+        assertRect(rois, merged, 0, 0, 50, 20);
+        assertRect(rois, 1 - merged, 100, 100, 120, 120);
+    }
+
+    @Test
+    public void touchingRegionsDoNotMerge() {
+        RoiSet rois = new RoiSet(4, 4);
+        rois.reset(200, 200);
+        rois.add(0, 0, 20, 20);
+        rois.add(20, 0, 40, 20);
+        rois.mergeOverlapping();
+        assertEquals(2, rois.size());
+    }
+
+    @Test
+    public void areaAndCoverage() {
+        RoiSet rois = new RoiSet(4, 4);
+        rois.reset(100, 50);
+        rois.add(0, 0, 10, 10);
+        rois.add(50, 0, 100, 50);
+        assertEquals(100 + 2500, rois.getArea());
+        assertEquals(2600 / 5000f, rois.getCoverage(), 1e-6f);
+    }
+}